@@ -0,0 +1,281 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rahas;
+
+import edu.emory.mathcs.backport.java.util.PriorityQueue;
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.axiom.om.OMElement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory implementation of the token storage suited for a large number of
+ * tokens.
+ *
+ * Tokens are held in a concurrent map, therefore lookups do not block each
+ * other. The ids of the attached and unattached references of the tokens are
+ * indexed when a token is added or updated, so that looking up a token by a
+ * reference id does not require a scan of all the tokens. Token expiry is
+ * driven by a queue ordered by expiry time, only the tokens that actually
+ * expired are visited. Updating a token only queues a new entry if its
+ * expiry time changed, the entry it replaces is skipped.
+ */
+public class IndexedTokenStore implements TokenStorage {
+
+    /**
+     * Token id -> Token
+     */
+    private Map tokens = new ConcurrentHashMap();
+
+    /**
+     * Attached/unattached reference id -> Token id
+     */
+    private Map references = new ConcurrentHashMap();
+
+    /**
+     * Token id -> indexed reference ids of the token
+     */
+    private Map tokenReferences = new ConcurrentHashMap();
+
+    /**
+     * Expiry entries ordered by expiry time, guarded by itself
+     */
+    private PriorityQueue expiryQueue = new PriorityQueue();
+
+    /**
+     * Token id -> the current ExpiryEntry of the token, guarded by the
+     * expiry queue. Entries of the queue that are not current are stale and
+     * skipped when they reach the head of the queue.
+     */
+    private Map expiryEntries = new HashMap();
+
+    /**
+     * Expiry time of the head of the expiry queue, allows readers to skip
+     * locking the queue when nothing has expired yet
+     */
+    private volatile long nextExpiry = Long.MAX_VALUE;
+
+    public void add(Token token) throws TrustException {
+        if (token != null && !"".equals(token.getId()) &&
+            token.getId() != null) {
+            synchronized (this) {
+                if (this.tokens.containsKey(token.getId())) {
+                    throw new TrustException("tokenAlreadyExists",
+                                             new String[]{token.getId()});
+                }
+                this.index(token);
+            }
+        }
+    }
+
+    public void update(Token token) throws TrustException {
+        if (token != null && token.getId() != null && token.getId().trim().length() != 0) {
+            synchronized (this) {
+                if (!this.tokens.containsKey(token.getId())) {
+                    throw new TrustException("noTokenToUpdate", new String[]{token.getId()});
+                }
+                this.index(token);
+            }
+        }
+    }
+
+    public String[] getTokenIdentifiers() throws TrustException {
+        List identifiers = new ArrayList(tokens.keySet());
+        return (String[]) identifiers.toArray(new String[identifiers.size()]);
+    }
+
+    public Token[] getValidTokens() throws TrustException {
+        return getTokens(new int[]{Token.ISSUED, Token.RENEWED});
+    }
+
+    public Token[] getRenewedTokens() throws TrustException {
+        return getTokens(new int[]{Token.RENEWED});
+    }
+
+    public Token[] getCancelledTokens() throws TrustException {
+        return getTokens(new int[]{Token.CANCELLED});
+    }
+
+    public Token[] getExpiredTokens() throws TrustException {
+        return getTokens(new int[]{Token.EXPIRED});
+    }
+
+    public Token getToken(String id) throws TrustException {
+        processTokenExpiry();
+        Token token = (Token) this.tokens.get(id);
+
+        if (token == null) {
+            //Try the attached/unattached refs
+            String tokenId = (String) this.references.get(id);
+            if (tokenId != null) {
+                token = (Token) this.tokens.get(tokenId);
+            }
+        }
+
+        return token;
+    }
+
+    private Token[] getTokens(int[] states) throws TrustException {
+        processTokenExpiry();
+        List tokens = new ArrayList();
+        for (Iterator iterator = this.tokens.values().iterator(); iterator.hasNext();) {
+            Token token = (Token) iterator.next();
+            for (int i = 0; i < states.length; i++) {
+                if (token.getState() == states[i]) {
+                    tokens.add(token);
+                    break;
+                }
+            }
+        }
+        return (Token[]) tokens.toArray(new Token[tokens.size()]);
+    }
+
+    /**
+     * Store the given token and (re)index its references and expiry time.
+     * Must be called holding the lock of this store.
+     */
+    private void index(Token token) {
+        String id = token.getId();
+        this.tokens.put(id, token);
+
+        String[] oldRefs = (String[]) this.tokenReferences.remove(id);
+        if (oldRefs != null) {
+            for (int i = 0; i < oldRefs.length; i++) {
+                //Only drop the reference if another token did not take it over
+                if (id.equals(this.references.get(oldRefs[i]))) {
+                    this.references.remove(oldRefs[i]);
+                }
+            }
+        }
+
+        String[] refs = getReferenceIds(token);
+        for (int i = 0; i < refs.length; i++) {
+            this.references.put(refs[i], id);
+        }
+        this.tokenReferences.put(id, refs);
+
+        synchronized (this.expiryQueue) {
+            if (token.getExpires() == null || token.getState() == Token.EXPIRED) {
+                this.expiryEntries.remove(id);
+                return;
+            }
+
+            long expires = token.getExpires().getTime();
+            ExpiryEntry current = (ExpiryEntry) this.expiryEntries.get(id);
+            if (current != null && current.expires == expires) {
+                //Updated without a change of the expiry time
+                return;
+            }
+
+            ExpiryEntry entry = new ExpiryEntry(id, expires);
+            this.expiryEntries.put(id, entry);
+            this.expiryQueue.add(entry);
+            if (expires < this.nextExpiry) {
+                this.nextExpiry = expires;
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the attached and unattached references of the
+     * given token.
+     * @param token
+     * @return The reference ids, an empty array if there are none
+     */
+    protected String[] getReferenceIds(Token token) {
+        List refs = new ArrayList(2);
+        addReference(refs, token.getAttachedReference());
+        addReference(refs, token.getUnattachedReference());
+        return (String[]) refs.toArray(new String[refs.size()]);
+    }
+
+    private static void addReference(List refs, OMElement str) {
+        if (str != null) {
+            String refId = SimpleTokenStore.getIdFromSTR(str);
+            if (refId != null) {
+                refs.add(refId);
+            }
+        }
+    }
+
+    /**
+     * Mark the tokens whose expiry time has passed as <code>EXPIRED</code>.
+     * Only the entries at the head of the expiry queue are visited.
+     */
+    protected void processTokenExpiry() throws TrustException {
+        long now = System.currentTimeMillis();
+        if (now < this.nextExpiry) {
+            return;
+        }
+
+        synchronized (this.expiryQueue) {
+            while (!this.expiryQueue.isEmpty()) {
+                ExpiryEntry entry = (ExpiryEntry) this.expiryQueue.peek();
+                if (entry.expires >= now) {
+                    break;
+                }
+                this.expiryQueue.poll();
+
+                //Skip the entries replaced by an update of the token
+                if (this.expiryEntries.get(entry.id) != entry) {
+                    continue;
+                }
+                this.expiryEntries.remove(entry.id);
+
+                Token token = (Token) this.tokens.get(entry.id);
+                if (token != null && token.getExpires() != null &&
+                    token.getExpires().getTime() < now) {
+                    token.setState(Token.EXPIRED);
+                }
+            }
+            this.nextExpiry = this.expiryQueue.isEmpty() ? Long.MAX_VALUE :
+                ((ExpiryEntry) this.expiryQueue.peek()).expires;
+        }
+    }
+
+    /**
+     * @return The number of entries in the expiry queue, including the
+     * stale ones
+     */
+    int getExpiryQueueSize() {
+        synchronized (this.expiryQueue) {
+            return this.expiryQueue.size();
+        }
+    }
+
+    private static class ExpiryEntry implements Comparable {
+
+        private String id;
+
+        private long expires;
+
+        private ExpiryEntry(String id, long expires) {
+            this.id = id;
+            this.expires = expires;
+        }
+
+        public int compareTo(Object o) {
+            long other = ((ExpiryEntry) o).expires;
+            return (expires < other) ? -1 : ((expires == other) ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,657 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rahas;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.impl.builder.StAXOMBuilder;
+import org.apache.axiom.om.impl.dom.DOOMAbstractFactory;
+import org.apache.axiom.om.util.StAXUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Token storage that keeps the tokens in a file, so that issued tokens
+ * survive a restart.
+ *
+ * Every added or updated token is appended to a memory mapped log file as a
+ * snapshot of its state, secret, lifetime, properties and serialized
+ * elements. The log is compacted into a snapshot of the live tokens once it
+ * holds more than twice as many records as there are tokens. Tokens that
+ * have expired are dropped when compacting.
+ *
+ * When the store is created the log is read back. The ids of the references
+ * are part of the records, therefore the token elements are not parsed at
+ * startup but only when they are first accessed.
+ *
+ * The log holds the token secrets, therefore its location has to be given
+ * explicitly. When the store is created through the default constructor,
+ * such as when it is configured as the <code>tokenStoreClass</code>, it is
+ * read from the <code>org.apache.rahas.tokenStoreFile</code> system
+ * property. New log files are made readable and writable by their owner
+ * only, where the JVM supports changing the file permissions.
+ *
+ * By default every record is synced to the disk before <code>add</code>
+ * or <code>update</code> returns. With <code>setSyncOnWrite(false)</code>,
+ * or the <code>org.apache.rahas.tokenStoreSync</code> system property set
+ * to <code>false</code>, writing back the mapped pages is left to the
+ * operating system. Records then still survive a crash of the JVM, but not
+ * one of the operating system.
+ */
+public class PersistentTokenStore extends IndexedTokenStore {
+
+    private static Log log = LogFactory.getLog(PersistentTokenStore.class);
+
+    public final static String FILE_PROPERTY = "org.apache.rahas.tokenStoreFile";
+
+    public final static String SYNC_PROPERTY = "org.apache.rahas.tokenStoreSync";
+
+    /**
+     * Minimum number of records in the log before it is compacted
+     */
+    public final static int COMPACTION_THRESHOLD = 1000;
+
+    /**
+     * Minimum interval between two compactions in milliseconds
+     */
+    public final static long COMPACTION_INTERVAL = 60000;
+
+    private final static int MAGIC = 0x52545331;
+
+    private final static int INITIAL_SIZE = 1024 * 1024;
+
+    /**
+     * Record header : payload length and checksum
+     */
+    private final static int HEADER_SIZE = 8;
+
+    private File file;
+
+    private RandomAccessFile raf;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    private int writePosition;
+
+    private int recordCount;
+
+    private long lastCompaction = System.currentTimeMillis();
+
+    private boolean syncOnWrite = true;
+
+    public PersistentTokenStore() throws TrustException {
+        this(getConfiguredFile());
+        this.syncOnWrite = !"false".equalsIgnoreCase(System
+                .getProperty(SYNC_PROPERTY));
+    }
+
+    public PersistentTokenStore(File file) throws TrustException {
+        if (file == null) {
+            throw new TrustException("tokenStoreFileMissing",
+                    new String[] { FILE_PROPERTY });
+        }
+        this.file = file;
+        try {
+            this.open();
+            this.recover();
+        } catch (IOException e) {
+            throw new TrustException("tokenStoreError",
+                    new String[] { file.getPath() }, e);
+        }
+    }
+
+    public void add(Token token) throws TrustException {
+        synchronized (this) {
+            super.add(token);
+            this.append(token);
+        }
+    }
+
+    public void update(Token token) throws TrustException {
+        synchronized (this) {
+            super.update(token);
+            this.append(token);
+        }
+    }
+
+    /**
+     * @return Whether every record is synced to the disk when it is written
+     */
+    public boolean isSyncOnWrite() {
+        return syncOnWrite;
+    }
+
+    /**
+     * @param syncOnWrite Whether every record should be synced to the disk
+     *            when it is written
+     */
+    public void setSyncOnWrite(boolean syncOnWrite) {
+        this.syncOnWrite = syncOnWrite;
+    }
+
+    protected String[] getReferenceIds(Token token) {
+        if (token instanceof StoredToken) {
+            String[] refIds = ((StoredToken) token).getStoredReferenceIds();
+            if (refIds != null) {
+                return refIds;
+            }
+        }
+        return super.getReferenceIds(token);
+    }
+
+    /**
+     * Rewrite the log with a single record per live token.
+     * @throws TrustException
+     */
+    public synchronized void compact() throws TrustException {
+        File tmpFile = new File(this.file.getPath() + ".compact");
+        long now = System.currentTimeMillis();
+
+        try {
+            this.close();
+            tmpFile.delete();
+
+            File logFile = this.file;
+            this.file = tmpFile;
+            this.open();
+
+            int count = 0;
+            String[] ids = this.getTokenIdentifiers();
+            for (int i = 0; i < ids.length; i++) {
+                Token token = this.getToken(ids[i]);
+                if (token != null && (token.getExpires() == null ||
+                        token.getExpires().getTime() >= now)) {
+                    this.write(token);
+                    count++;
+                }
+            }
+            int end = this.writePosition;
+            this.close();
+
+            this.file = logFile;
+            if (!tmpFile.renameTo(logFile)) {
+                logFile.delete();
+                if (!tmpFile.renameTo(logFile)) {
+                    throw new IOException("Cannot rename " + tmpFile + " to " + logFile);
+                }
+            }
+
+            this.open();
+            this.writePosition = end;
+            this.recordCount = count;
+            this.lastCompaction = now;
+        } catch (IOException e) {
+            throw new TrustException("tokenStoreError",
+                    new String[] { this.file.getPath() }, e);
+        }
+    }
+
+    /**
+     * Release the log file.
+     * @throws TrustException
+     */
+    public synchronized void close() throws TrustException {
+        try {
+            if (this.channel != null) {
+                this.buffer.force();
+                //The file cannot be renamed or deleted on Windows while mapped
+                unmap(this.buffer);
+                this.buffer = null;
+                this.channel.close();
+                this.raf.close();
+            }
+        } catch (IOException e) {
+            throw new TrustException("tokenStoreError",
+                    new String[] { this.file.getPath() }, e);
+        } finally {
+            this.channel = null;
+            this.raf = null;
+            this.buffer = null;
+        }
+    }
+
+    private void append(Token token) throws TrustException {
+        try {
+            this.write(token);
+            if (this.syncOnWrite) {
+                this.buffer.force();
+            }
+        } catch (IOException e) {
+            throw new TrustException("tokenStoreError",
+                    new String[] { this.file.getPath() }, e);
+        }
+
+        this.recordCount++;
+        if (this.recordCount > COMPACTION_THRESHOLD &&
+                this.recordCount > 2 * this.getTokenIdentifiers().length &&
+                System.currentTimeMillis() - this.lastCompaction > COMPACTION_INTERVAL) {
+            log.debug("Compacting token store : " + this.file);
+            this.compact();
+        }
+    }
+
+    /**
+     * Map the log file, writing the file header if the file is new.
+     */
+    private void open() throws IOException {
+        boolean newFile = !this.file.exists() || this.file.length() == 0;
+        if (!this.file.exists() && this.file.createNewFile()) {
+            restrictToOwner(this.file);
+        }
+        this.raf = new RandomAccessFile(this.file, "rw");
+        this.channel = this.raf.getChannel();
+        int size = (int) Math.max(INITIAL_SIZE, this.channel.size());
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (newFile) {
+            this.buffer.putInt(0, MAGIC);
+        } else if (this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a token store file : " + this.file);
+        }
+        this.writePosition = 4;
+    }
+
+    /**
+     * Read back the records of the log. The last record of a token wins.
+     * Reading stops at the first empty, incomplete or corrupt record.
+     */
+    private void recover() throws IOException, TrustException {
+        Map tokens = new LinkedHashMap();
+        CRC32 crc = new CRC32();
+
+        int position = 4;
+        while (position + HEADER_SIZE <= this.buffer.capacity()) {
+            int length = this.buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > this.buffer.capacity()) {
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            this.buffer.position(position + HEADER_SIZE);
+            this.buffer.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != this.buffer.getInt(position + 4)) {
+                log.warn("Ignoring incomplete token store record at " + position);
+                break;
+            }
+
+            StoredToken token = read(payload);
+            tokens.remove(token.getId());
+            tokens.put(token.getId(), token);
+
+            position += HEADER_SIZE + length;
+            this.recordCount++;
+        }
+
+        //Clear the remains of an incomplete record
+        for (int i = position; i < this.buffer.capacity() &&
+                i < position + HEADER_SIZE; i++) {
+            this.buffer.put(i, (byte) 0);
+        }
+        this.writePosition = position;
+
+        for (Iterator iter = tokens.values().iterator(); iter.hasNext();) {
+            super.add((Token) iter.next());
+        }
+
+        log.debug("Recovered " + tokens.size() + " tokens from " + this.file);
+    }
+
+    private void write(Token token) throws IOException {
+        byte[] payload = toBytes(token);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        int required = this.writePosition + HEADER_SIZE + payload.length + HEADER_SIZE;
+        if (required > this.buffer.capacity()) {
+            this.buffer.force();
+            int size = Math.max(this.buffer.capacity() * 2, required);
+            MappedByteBuffer oldBuffer = this.buffer;
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            unmap(oldBuffer);
+        }
+
+        //Write the header last, a partial record is then never taken as valid
+        this.buffer.position(this.writePosition + HEADER_SIZE);
+        this.buffer.put(payload);
+        this.buffer.putInt(this.writePosition + 4, (int) crc.getValue());
+        this.buffer.putInt(this.writePosition, payload.length);
+        this.writePosition += HEADER_SIZE + payload.length;
+    }
+
+    private static File getConfiguredFile() {
+        String path = System.getProperty(FILE_PROPERTY);
+        return (path != null && path.trim().length() > 0) ? new File(path
+                .trim()) : null;
+    }
+
+    /**
+     * Make the given file readable and writable by its owner only. The
+     * methods to do so are only available from Java 6 on, they are looked up
+     * reflectively.
+     */
+    private static void restrictToOwner(File file) {
+        try {
+            Class[] types = new Class[] { boolean.class, boolean.class };
+            Method setReadable = File.class.getMethod("setReadable", types);
+            Method setWritable = File.class.getMethod("setWritable", types);
+            Method setExecutable = File.class.getMethod("setExecutable", types);
+
+            boolean restricted = Boolean.TRUE.equals(setReadable.invoke(file,
+                    new Object[] { Boolean.FALSE, Boolean.FALSE }))
+                    && Boolean.TRUE.equals(setReadable.invoke(file,
+                            new Object[] { Boolean.TRUE, Boolean.TRUE }))
+                    && Boolean.TRUE.equals(setWritable.invoke(file,
+                            new Object[] { Boolean.FALSE, Boolean.FALSE }))
+                    && Boolean.TRUE.equals(setWritable.invoke(file,
+                            new Object[] { Boolean.TRUE, Boolean.TRUE }))
+                    && Boolean.TRUE.equals(setExecutable.invoke(file,
+                            new Object[] { Boolean.FALSE, Boolean.FALSE }));
+            if (!restricted) {
+                log.warn("Cannot restrict the access to the token store file : "
+                        + file);
+            }
+        } catch (NoSuchMethodException e) {
+            log.warn("Cannot restrict the access to the token store file "
+                    + file + ", protect its directory instead");
+        } catch (Exception e) {
+            log.warn("Cannot restrict the access to the token store file : "
+                    + file, e);
+        }
+    }
+
+    /**
+     * Release the mapping of the given buffer right away instead of waiting
+     * for it to be garbage collected. There's no public API for this, the
+     * cleaner of the Sun JVMs is used if it is available.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner",
+                    new Class[0]);
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer, new Object[0]);
+            if (cleaner != null) {
+                Method cleanMethod = cleaner.getClass().getMethod("clean",
+                        new Class[0]);
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner, new Object[0]);
+            }
+        } catch (Exception e) {
+            log.debug("Cannot unmap the token store buffer", e);
+        }
+    }
+
+    private byte[] toBytes(Token token) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+
+        out.writeUTF(token.getId());
+        out.writeInt(token.getState());
+        out.writeLong(token.getCreated() != null ? token.getCreated().getTime() : -1);
+        out.writeLong(token.getExpires() != null ? token.getExpires().getTime() : -1);
+        writeBytes(out, token.getSecret());
+
+        String[] refIds = getReferenceIds(token);
+        out.writeInt(refIds.length);
+        for (int i = 0; i < refIds.length; i++) {
+            out.writeUTF(refIds[i]);
+        }
+
+        if (token instanceof StoredToken) {
+            //Avoid parsing elements that were never accessed
+            String[] xml = ((StoredToken) token).getXml();
+            for (int i = 0; i < xml.length; i++) {
+                writeString(out, xml[i]);
+            }
+        } else {
+            writeString(out, toXml(token.getToken()));
+            writeString(out, toXml(token.getPreviousToken()));
+            writeString(out, toXml(token.getAttachedReference()));
+            writeString(out, toXml(token.getUnattachedReference()));
+        }
+
+        Properties properties = token.getProperties();
+        if (properties == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(properties.size());
+            for (Enumeration keys = properties.propertyNames(); keys.hasMoreElements();) {
+                String key = (String) keys.nextElement();
+                writeString(out, key);
+                writeString(out, properties.getProperty(key));
+            }
+        }
+
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    private static StoredToken read(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        String id = in.readUTF();
+        int state = in.readInt();
+        long created = in.readLong();
+        long expires = in.readLong();
+        byte[] secret = readBytes(in);
+
+        String[] refIds = new String[in.readInt()];
+        for (int i = 0; i < refIds.length; i++) {
+            refIds[i] = in.readUTF();
+        }
+
+        String[] xml = new String[4];
+        for (int i = 0; i < xml.length; i++) {
+            xml[i] = readString(in);
+        }
+
+        Properties properties = null;
+        int count = in.readInt();
+        if (count >= 0) {
+            properties = new Properties();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                String value = readString(in);
+                if (key != null && value != null) {
+                    properties.setProperty(key, value);
+                }
+            }
+        }
+
+        StoredToken token = new StoredToken(id, (created != -1) ? new Date(created) : null,
+                (expires != -1) ? new Date(expires) : null, xml, refIds);
+        token.setState(state);
+        token.setSecret(secret);
+        token.setProperties(properties);
+        return token;
+    }
+
+    private static String toXml(OMElement elem) {
+        return (elem != null) ? elem.toString() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, (value != null) ? value.getBytes("UTF-8") : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return (bytes != null) ? new String(bytes, "UTF-8") : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    /**
+     * A token read back from the log. The elements of the token are parsed
+     * when they are first accessed.
+     */
+    private static class StoredToken extends Token {
+
+        private static final int TOKEN = 0;
+        private static final int PREVIOUS_TOKEN = 1;
+        private static final int ATTACHED_REF = 2;
+        private static final int UNATTACHED_REF = 3;
+
+        /**
+         * Serialized elements, an entry is cleared once it is parsed or set
+         */
+        private String[] xml;
+
+        private String[] refIds;
+
+        private boolean referencesReplaced;
+
+        private StoredToken(String id, Date created, Date expires,
+                String[] xml, String[] refIds) {
+            super(id, created, expires);
+            this.xml = xml;
+            this.refIds = refIds;
+        }
+
+        private synchronized String[] getStoredReferenceIds() {
+            //Only valid as long as the references were not replaced
+            return referencesReplaced ? null : refIds;
+        }
+
+        /**
+         * @return The serialized elements, parsed or not
+         */
+        private synchronized String[] getXml() {
+            String[] result = (String[]) xml.clone();
+            if (result[TOKEN] == null) {
+                result[TOKEN] = toXml(super.getToken());
+            }
+            if (result[PREVIOUS_TOKEN] == null) {
+                result[PREVIOUS_TOKEN] = toXml(super.getPreviousToken());
+            }
+            if (result[ATTACHED_REF] == null) {
+                result[ATTACHED_REF] = toXml(super.getAttachedReference());
+            }
+            if (result[UNATTACHED_REF] == null) {
+                result[UNATTACHED_REF] = toXml(super.getUnattachedReference());
+            }
+            return result;
+        }
+
+        public synchronized OMElement getToken() {
+            if (xml[TOKEN] != null) {
+                super.setToken(parse(xml[TOKEN]));
+                xml[TOKEN] = null;
+            }
+            return super.getToken();
+        }
+
+        public synchronized void setToken(OMElement token) {
+            xml[TOKEN] = null;
+            super.setToken(token);
+        }
+
+        public synchronized OMElement getPreviousToken() {
+            if (xml[PREVIOUS_TOKEN] != null) {
+                super.setPreviousToken(parse(xml[PREVIOUS_TOKEN]));
+                xml[PREVIOUS_TOKEN] = null;
+            }
+            return super.getPreviousToken();
+        }
+
+        public synchronized void setPreviousToken(OMElement previousToken) {
+            xml[PREVIOUS_TOKEN] = null;
+            super.setPreviousToken(previousToken);
+        }
+
+        public synchronized OMElement getAttachedReference() {
+            if (xml[ATTACHED_REF] != null) {
+                super.setAttachedReference(parse(xml[ATTACHED_REF]));
+                xml[ATTACHED_REF] = null;
+            }
+            return super.getAttachedReference();
+        }
+
+        public synchronized void setAttachedReference(OMElement attachedReference) {
+            if (attachedReference != null) {
+                xml[ATTACHED_REF] = null;
+                referencesReplaced = true;
+            }
+            super.setAttachedReference(attachedReference);
+        }
+
+        public synchronized OMElement getUnattachedReference() {
+            if (xml[UNATTACHED_REF] != null) {
+                super.setUnattachedReference(parse(xml[UNATTACHED_REF]));
+                xml[UNATTACHED_REF] = null;
+            }
+            return super.getUnattachedReference();
+        }
+
+        public synchronized void setUnattachedReference(OMElement unattachedReference) {
+            if (unattachedReference != null) {
+                xml[UNATTACHED_REF] = null;
+                referencesReplaced = true;
+            }
+            super.setUnattachedReference(unattachedReference);
+        }
+
+        private static OMElement parse(String xml) {
+            try {
+                return new StAXOMBuilder(DOOMAbstractFactory.getOMFactory(),
+                        StAXUtils.createXMLStreamReader(new ByteArrayInputStream(
+                                xml.getBytes("UTF-8")))).getDocumentElement();
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot parse stored token element : "
+                        + e.getMessage());
+            }
+        }
+    }
+}
@@ -22,36 +22,33 @@ import org.apache.axiom.om.OMElement;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.AxisService;
 import org.apache.axis2.description.Parameter;
 import org.apache.axis2.receivers.AbstractInOutSyncMessageReceiver;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 public class STSMessageReceiver extends AbstractInOutSyncMessageReceiver {
     
 	private static final Log log = LogFactory.getLog(STSMessageReceiver.class);
     
+    /**
+     * AxisService -> CachedDispatcher
+     * 
+     * Weak keys, so that the dispatchers of undeployed services go away with
+     * their services.
+     */
+    private static Map dispatchers = Collections.synchronizedMap(new WeakHashMap());
+    
     public void invokeBusinessLogic(MessageContext inMessage,
             MessageContext outMessage) throws AxisFault {
 
         try {
-            Parameter param = inMessage
-                    .getParameter(TokenRequestDispatcherConfig.CONFIG_PARAM_KEY);
-            Parameter paramFile = inMessage
-                    .getParameter(TokenRequestDispatcherConfig.CONFIG_FILE_KEY);
-            TokenRequestDispatcher dispatcher = null;
-            if (param != null) {
-                dispatcher = new TokenRequestDispatcher(param
-                        .getParameterElement().getFirstChildWithName(
-                                new QName("token-dispatcher-configuration")));
-            } else if (paramFile != null) {
-                dispatcher = new TokenRequestDispatcher((String) paramFile
-                        .getValue());
-            } else {
-                dispatcher = new TokenRequestDispatcher(
-                        (OMElement) inMessage
-                                .getProperty(TokenRequestDispatcherConfig.CONFIG_PARAM_KEY));
-            }
+            TokenRequestDispatcher dispatcher = getDispatcher(inMessage);
             
             if(dispatcher != null) {
                 SOAPEnvelope responseEnv = dispatcher.handle(inMessage, outMessage);
@@ -66,5 +63,79 @@ public class STSMessageReceiver extends AbstractInOutSyncMessageReceiver {
             throw new AxisFault(e.getFaultString(), e.getFaultCode());
         }
     }
+    
+    /**
+     * Drop the cached dispatcher of the given service, the dispatcher
+     * configuration is loaded again with the next request.
+     * @param service The service to reload, <code>null</code> to reload all
+     * services
+     */
+    public static void reload(AxisService service) {
+        if(service != null) {
+            dispatchers.remove(service);
+        } else {
+            dispatchers.clear();
+        }
+    }
+    
+    /**
+     * Returns the dispatcher of the service of the given message. The 
+     * dispatcher is created once per service and dispatcher configuration.
+     */
+    private TokenRequestDispatcher getDispatcher(MessageContext inMessage) 
+            throws TrustException {
+        
+        Parameter param = inMessage
+                .getParameter(TokenRequestDispatcherConfig.CONFIG_PARAM_KEY);
+        Parameter paramFile = inMessage
+                .getParameter(TokenRequestDispatcherConfig.CONFIG_FILE_KEY);
+        
+        //The configuration the dispatcher is created from 
+        Object source;
+        if (param != null) {
+            source = param;
+        } else if (paramFile != null) {
+            source = paramFile;
+        } else {
+            source = inMessage.getProperty(
+                    TokenRequestDispatcherConfig.CONFIG_PARAM_KEY);
+        }
+        
+        AxisService service = inMessage.getAxisService();
+        CachedDispatcher cached = (service != null) ? 
+                (CachedDispatcher) dispatchers.get(service) : null;
+        if(cached != null && cached.source == source) {
+            return cached.dispatcher;
+        }
+        
+        TokenRequestDispatcher dispatcher;
+        if (param != null) {
+            dispatcher = new TokenRequestDispatcher(param
+                    .getParameterElement().getFirstChildWithName(
+                            new QName("token-dispatcher-configuration")));
+        } else if (paramFile != null) {
+            dispatcher = new TokenRequestDispatcher((String) paramFile
+                    .getValue());
+        } else {
+            dispatcher = new TokenRequestDispatcher((OMElement) source);
+        }
+        
+        if(service != null) {
+            dispatchers.put(service, new CachedDispatcher(source, dispatcher));
+        }
+        return dispatcher;
+    }
+    
+    private static class CachedDispatcher {
+        
+        private Object source;
+        
+        private TokenRequestDispatcher dispatcher;
+        
+        private CachedDispatcher(Object source, TokenRequestDispatcher dispatcher) {
+            this.source = source;
+            this.dispatcher = dispatcher;
+        }
+    }
 
 }
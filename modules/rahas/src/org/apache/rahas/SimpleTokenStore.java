@@ -121,11 +121,11 @@ public class SimpleTokenStore implements TokenStorage {
             for (Iterator iterator = this.tokens.values().iterator(); iterator.hasNext();) {
                 Token tempToken = (Token) iterator.next();
                 OMElement elem = tempToken.getAttachedReference();
-                if(elem != null && id.equals(this.getIdFromSTR(elem))) {
+                if(elem != null && id.equals(getIdFromSTR(elem))) {
                     token = tempToken;
                 }
                 elem = tempToken.getUnattachedReference();
-                if(elem != null && id.equals(this.getIdFromSTR(elem))) {
+                if(elem != null && id.equals(getIdFromSTR(elem))) {
                     token = tempToken;
                 }
                 
@@ -147,7 +147,7 @@ public class SimpleTokenStore implements TokenStorage {
         }
     }
     
-    private String getIdFromSTR(OMElement str) {
+    static String getIdFromSTR(OMElement str) {
 //      ASSUMPTION:SecurityTokenReference/KeyIdentifier
         OMElement child = str.getFirstElement();
         if(child == null) {
@@ -158,6 +158,9 @@ public class SimpleTokenStore implements TokenStorage {
             return child.getText();
         } else if(child.getQName().equals(Reference.TOKEN)) {
             return child.getAttributeValue(new QName("URI")).substring(1);
+        } else if(child.getQName().equals(
+                new QName(WSConstants.WSSE_NS, "KeyIdentifier"))) {
+            return child.getText();
         } else {
             return null;
         }
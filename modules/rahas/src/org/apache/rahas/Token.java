@@ -128,6 +128,15 @@ public class Token {
         this.expires = expires;
     }
 
+    /**
+     * For subclasses that provide the token element themselves.
+     */
+    protected Token(String id, Date created, Date expires) {
+        this.id = id;
+        this.created = created;
+        this.expires = expires;
+    }
+
     public Token(String id,
                  OMElement tokenElem,
                  OMElement lifetimeElem) throws TrustException {
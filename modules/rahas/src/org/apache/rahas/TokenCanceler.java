@@ -19,6 +19,10 @@ package org.apache.rahas;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axiom.om.OMElement;
 
+/**
+ * A single instance of a configured canceler handles all the cancel requests
+ * of a service, therefore implementations must be thread safe.
+ */
 public interface TokenCanceler {
 
     /**
@@ -21,6 +21,9 @@ import org.apache.axiom.soap.SOAPEnvelope;
 
 /**
  * The <code>TokenIssuer</code>
+ * <p/>
+ * A single instance of a configured issuer handles all the issue requests of
+ * a service, therefore implementations must be thread safe.
  */
 public interface TokenIssuer {
 
@@ -44,6 +44,12 @@ public class TokenRequestDispatcherConfig {
     private Map configElements = new Hashtable();
     private Map configParamNames = new Hashtable();
 
+    /**
+     * Issuer/canceler class name -> configured instance, instances are
+     * created once and shared by all requests
+     */
+    private Map instances = new Hashtable();
+
     private String defaultIssuerClassName;
     private String defaultCancelerClassName;
 
@@ -219,18 +225,28 @@ public class TokenRequestDispatcherConfig {
      * @return TokenIssuer
      */
     private TokenIssuer createIssuer(String issuerClassName) throws Exception {
-        TokenIssuer issuer = (TokenIssuer) Loader.loadClass(issuerClassName).newInstance();
+        TokenIssuer issuer = (TokenIssuer) this.instances.get(issuerClassName);
+        if (issuer != null) {
+            return issuer;
+        }
+        issuer = (TokenIssuer) Loader.loadClass(issuerClassName).newInstance();
         issuer.setConfigurationElement((OMElement) this.configElements.get(issuerClassName));
         issuer.setConfigurationFile((String) this.configFiles.get(issuerClassName));
         issuer.setConfigurationParamName((String) this.configParamNames.get(issuerClassName));
+        this.instances.put(issuerClassName, issuer);
         return issuer;
     }
 
     private TokenCanceler createCanceler(String cancelerClassName) throws Exception {
-        TokenCanceler canceler = (TokenCanceler) Loader.loadClass(cancelerClassName).newInstance();
+        TokenCanceler canceler = (TokenCanceler) this.instances.get(cancelerClassName);
+        if (canceler != null) {
+            return canceler;
+        }
+        canceler = (TokenCanceler) Loader.loadClass(cancelerClassName).newInstance();
         canceler.setConfigurationElement((OMElement) this.configElements.get(cancelerClassName));
         canceler.setConfigurationFile((String) this.configFiles.get(cancelerClassName));
         canceler.setConfigurationParamName((String) this.configParamNames.get(cancelerClassName));
+        this.instances.put(cancelerClassName, canceler);
         return canceler;
     }
 }
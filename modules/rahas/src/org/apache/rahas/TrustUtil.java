@@ -389,7 +389,7 @@ public class TrustUtil {
         TokenStorage storage =
                 (TokenStorage) configCtx.getProperty(TokenStorage.TOKEN_STORAGE_KEY);
         if (storage == null) {
-            storage = new SimpleTokenStore();
+            storage = new IndexedTokenStore();
             configCtx.setProperty(TokenStorage.TOKEN_STORAGE_KEY, storage);
         }
         return storage;
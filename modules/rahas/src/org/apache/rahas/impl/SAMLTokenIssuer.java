@@ -51,6 +51,12 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.Key;
 import java.security.Principal;
 import java.security.SecureRandom;
 import java.security.cert.CertificateEncodingException;
@@ -58,48 +64,37 @@ import java.security.cert.X509Certificate;
 import java.text.DateFormat;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Properties;
 
 /**
  * Issuer to issue SAMl tokens
  */
 public class SAMLTokenIssuer implements TokenIssuer {
 
+    /**
+     * Minimum interval in milliseconds between two checks of the
+     * modification times of the configuration and keystore files.
+     */
+    public static final long CHECK_INTERVAL = 10000;
+
+    private final static String KEYSTORE_FILE = "org.apache.ws.security.crypto.merlin.file";
+
     private String configParamName;
     private OMElement configElement;
     private String configFile;
 
+    /**
+     * The configuration, crypto and signing key loaded for the last request
+     */
+    private IssuerState state;
+
     public SOAPEnvelope issue(RahasData data) throws TrustException {
 
         MessageContext inMsgCtx = data.getInMessageContext();
 
-        SAMLTokenIssuerConfig config = null;
-        if (this.configElement != null) {
-            config = SAMLTokenIssuerConfig
-                    .load(configElement
-                            .getFirstChildWithName(SAMLTokenIssuerConfig.SAML_ISSUER_CONFIG));
-        }
-
-        //Look for the file
-        if (config == null && this.configFile != null) {
-            config = SAMLTokenIssuerConfig.load(this.configFile);
-        }
-
-        //Look for the param
-        if (config == null && this.configParamName != null) {
-            Parameter param = inMsgCtx.getParameter(this.configParamName);
-            if (param != null && param.getParameterElement() != null) {
-                config = SAMLTokenIssuerConfig.load(param.getParameterElement()
-                        .getFirstChildWithName(
-                        SAMLTokenIssuerConfig.SAML_ISSUER_CONFIG));
-            } else {
-                throw new TrustException("expectedParameterMissing",
-                                         new String[]{this.configParamName});
-            }
-        }
-
-        if (config == null) {
-            throw new TrustException("configurationIsNull");
-        }
+        IssuerState state = this.getIssuerState(inMsgCtx);
+        SAMLTokenIssuerConfig config = state.config;
 
         //Set the DOM impl to DOOM
         DocumentBuilderFactoryImpl.setDOOMRequired(true);
@@ -108,15 +103,6 @@ public class SAMLTokenIssuer implements TokenIssuer {
                 TrustUtil.
                         createSOAPEnvelope(inMsgCtx.getEnvelope().getNamespace().getNamespaceURI());
 
-        Crypto crypto;
-        if (config.cryptoPropertiesElement != null) { // crypto props defined as elements
-            crypto = CryptoFactory.getInstance(TrustUtil.toProperties(config.cryptoPropertiesElement),
-                                               inMsgCtx.getAxisService().getClassLoader());
-        } else { // crypto props defined in a properties file
-            crypto = CryptoFactory.getInstance(config.cryptoPropertiesFile,
-                                               inMsgCtx.getAxisService().getClassLoader());
-        }
-
         //Creation and expiration times
         Date creationTime = new Date();
         Date expirationTime = new Date();
@@ -151,9 +137,9 @@ public class SAMLTokenIssuer implements TokenIssuer {
 
         if (keyType.endsWith(RahasConstants.KEY_TYPE_SYMM_KEY) ||
             keyType.endsWith(RahasConstants.KEY_TYPE_PUBLIC_KEY)) {
-            assertion = createHoKAssertion(config, doc, crypto, creationTime, expirationTime, data);
+            assertion = createHoKAssertion(config, doc, state, creationTime, expirationTime, data);
         } else if (keyType.endsWith(RahasConstants.KEY_TYPE_BEARER)) {
-            assertion = createBearerAssertion(config, doc, crypto, creationTime, expirationTime, data);
+            assertion = createBearerAssertion(config, doc, state, creationTime, expirationTime, data);
         } else {
             throw new TrustException("unsupportedKeyType");
         }
@@ -247,7 +233,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
 
     private SAMLAssertion createBearerAssertion(SAMLTokenIssuerConfig config,
                                                 Document doc,
-                                                Crypto crypto,
+                                                IssuerState state,
                                                 Date creationTime,
                                                 Date expirationTime,
                                                 RahasData data) throws TrustException {
@@ -260,7 +246,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
                 SAMLNameIdentifier nameId = new SAMLNameIdentifier(
                         subjectNameId, null, SAMLNameIdentifier.FORMAT_EMAIL);
                 return createAuthAssertion(doc, SAMLSubject.CONF_BEARER,
-                                           nameId, null, config, crypto, creationTime,
+                                           nameId, null, config, state, creationTime,
                                            expirationTime);
             } else {
                 throw new TrustException("samlUnsupportedPrincipal",
@@ -273,7 +259,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
 
     private SAMLAssertion createHoKAssertion(SAMLTokenIssuerConfig config,
                                              Document doc,
-                                             Crypto crypto,
+                                             IssuerState state,
                                              Date creationTime,
                                              Date expirationTime,
                                              RahasData data) throws TrustException {
@@ -286,7 +272,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
 
                 //Get ApliesTo to figureout which service to issue the token for
                 serviceCert = getServiceCert(config,
-                                             crypto,
+                                             state.crypto,
                                              data.getAppliesToAddress());
 
                 //Ceate the encrypted key
@@ -312,7 +298,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
                 encrKeyBuilder.setKeyEncAlgo(EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSA15);
 
                 //Build
-                encrKeyBuilder.prepare(doc, crypto);
+                encrKeyBuilder.prepare(doc, state.crypto);
 
                 //Extract the base64 encoded secret value
                 byte[] tempKey = new byte[keysize / 8];
@@ -327,7 +313,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
                                          new String[]{serviceCert.getSubjectDN().getName()}, e);
             }
             return this.createAttributeAssertion(doc, encryptedKeyElem,
-                                                 config, crypto, creationTime, expirationTime);
+                                                 config, state, creationTime, expirationTime);
         } else {
             try {
                 String subjectNameId = data.getPrincipal().getName();
@@ -352,7 +338,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
                                                 nameId,
                                                 keyValueElem,
                                                 config,
-                                                crypto,
+                                                state,
                                                 creationTime,
                                                 expirationTime);
             } catch (SAMLException e) {
@@ -399,7 +385,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
      * @param doc
      * @param keyInfoContent
      * @param config
-     * @param crypto
+     * @param state
      * @param notBefore
      * @param notAfter
      * @return
@@ -408,7 +394,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
     private SAMLAssertion createAttributeAssertion(Document doc,
                                                    Element keyInfoContent,
                                                    SAMLTokenIssuerConfig config,
-                                                   Crypto crypto,
+                                                   IssuerState state,
                                                    Date notBefore,
                                                    Date notAfter) throws TrustException {
         try {
@@ -443,19 +429,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
                                                         Arrays.asList(statements));
 
             //sign the assertion
-            X509Certificate[] issuerCerts =
-                    crypto.getCertificates(config.issuerKeyAlias);
-
-            String sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_RSA;
-            String pubKeyAlgo =
-                    issuerCerts[0].getPublicKey().getAlgorithm();
-            if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
-                sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_DSA;
-            }
-            java.security.Key issuerPK =
-                    crypto.getPrivateKey(config.issuerKeyAlias,
-                                         config.issuerKeyPassword);
-            assertion.sign(sigAlgo, issuerPK, Arrays.asList(issuerCerts));
+            assertion.sign(state.sigAlgo, state.issuerPK, state.issuerCerts);
 
 
             return assertion;
@@ -470,7 +444,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
      * @param subjectNameId
      * @param keyInfoContent
      * @param config
-     * @param crypto
+     * @param state
      * @param notBefore
      * @param notAfter
      * @return
@@ -481,7 +455,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
                                               SAMLNameIdentifier subjectNameId,
                                               Element keyInfoContent,
                                               SAMLTokenIssuerConfig config,
-                                              Crypto crypto,
+                                              IssuerState state,
                                               Date notBefore,
                                               Date notAfter) throws TrustException {
         try {
@@ -517,19 +491,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
                                                         Arrays.asList(statements));
 
             //sign the assertion
-            X509Certificate[] issuerCerts =
-                    crypto.getCertificates(config.issuerKeyAlias);
-
-            String sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_RSA;
-            String pubKeyAlgo =
-                    issuerCerts[0].getPublicKey().getAlgorithm();
-            if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
-                sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_DSA;
-            }
-            java.security.Key issuerPK =
-                    crypto.getPrivateKey(config.issuerKeyAlias,
-                                         config.issuerKeyPassword);
-            assertion.sign(sigAlgo, issuerPK, Arrays.asList(issuerCerts));
+            assertion.sign(state.sigAlgo, state.issuerPK, state.issuerCerts);
 
 
             return assertion;
@@ -568,14 +530,160 @@ public class SAMLTokenIssuer implements TokenIssuer {
         }
     }
 
+    /**
+     * Returns the configuration, crypto and signing key of the issuer. These
+     * are loaded once and reloaded only when the configuration source changes
+     * or when the configuration or keystore file is modified.
+     *
+     * @param inMsgCtx
+     * @return The issuer state to use with the given request
+     * @throws TrustException
+     */
+    private synchronized IssuerState getIssuerState(MessageContext inMsgCtx)
+            throws TrustException {
+
+        //The configuration source, the parameter may differ per service
+        Object source;
+        if (this.configElement != null) {
+            source = this.configElement;
+        } else if (this.configFile != null) {
+            source = this.configFile;
+        } else if (this.configParamName != null) {
+            Parameter param = inMsgCtx.getParameter(this.configParamName);
+            if (param != null && param.getParameterElement() != null) {
+                source = param;
+            } else {
+                throw new TrustException("expectedParameterMissing",
+                                         new String[]{this.configParamName});
+            }
+        } else {
+            throw new TrustException("configurationIsNull");
+        }
+
+        ClassLoader loader = inMsgCtx.getAxisService().getClassLoader();
+        long now = System.currentTimeMillis();
+
+        if (this.state != null && this.state.source == source &&
+            this.state.loader == loader) {
+            if (now < this.state.nextCheck) {
+                return this.state;
+            }
+            this.state.nextCheck = now + CHECK_INTERVAL;
+            if (!this.state.isModified()) {
+                return this.state;
+            }
+        }
+
+        IssuerState newState = new IssuerState();
+        newState.source = source;
+        newState.loader = loader;
+
+        File configFile = null;
+        if (source == this.configElement) {
+            newState.config = SAMLTokenIssuerConfig.load(this.configElement
+                    .getFirstChildWithName(SAMLTokenIssuerConfig.SAML_ISSUER_CONFIG));
+        } else if (source == this.configFile) {
+            newState.config = SAMLTokenIssuerConfig.load(this.configFile);
+            configFile = new File(this.configFile);
+        } else {
+            newState.config = SAMLTokenIssuerConfig.load(((Parameter) source)
+                    .getParameterElement().getFirstChildWithName(
+                    SAMLTokenIssuerConfig.SAML_ISSUER_CONFIG));
+        }
+
+        SAMLTokenIssuerConfig config = newState.config;
+        Properties cryptoProps;
+        if (config.cryptoPropertiesElement != null) { // crypto props defined as elements
+            cryptoProps = TrustUtil.toProperties(config.cryptoPropertiesElement);
+            newState.crypto = CryptoFactory.getInstance(cryptoProps, loader);
+        } else { // crypto props defined in a properties file
+            cryptoProps = loadProperties(config.cryptoPropertiesFile, loader);
+            newState.crypto = CryptoFactory.getInstance(config.cryptoPropertiesFile,
+                                                        loader);
+        }
+
+        try {
+            newState.issuerCerts = Arrays.asList(newState.crypto
+                    .getCertificates(config.issuerKeyAlias));
+            newState.issuerPK = newState.crypto.getPrivateKey(config.issuerKeyAlias,
+                                                              config.issuerKeyPassword);
+        } catch (Exception e) {
+            throw new TrustException("samlAssertionCreationError", e);
+        }
+
+        newState.sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_RSA;
+        String pubKeyAlgo = ((X509Certificate) newState.issuerCerts.get(0))
+                .getPublicKey().getAlgorithm();
+        if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
+            newState.sigAlgo = XMLSignature.ALGO_ID_SIGNATURE_DSA;
+        }
+
+        String keystore = (cryptoProps != null) ?
+                cryptoProps.getProperty(KEYSTORE_FILE) : null;
+        newState.files = new File[]{configFile,
+                                    (config.cryptoPropertiesFile != null) ?
+                                    getFile(config.cryptoPropertiesFile, loader) : null,
+                                    (keystore != null) ? getFile(keystore, loader) : null};
+        newState.lastModified = new long[newState.files.length];
+        for (int i = 0; i < newState.files.length; i++) {
+            if (newState.files[i] != null) {
+                newState.lastModified[i] = newState.files[i].lastModified();
+            }
+        }
+        newState.nextCheck = now + CHECK_INTERVAL;
+
+        this.state = newState;
+        return newState;
+    }
+
+    /**
+     * Load the properties file the same way the <code>CryptoFactory</code>
+     * does : first as a resource of the class loader, then as a file path.
+     *
+     * @return The properties or <code>null</code> if they cannot be loaded
+     */
+    private static Properties loadProperties(String propFile, ClassLoader loader) {
+        try {
+            InputStream is = (loader != null) ? loader.getResourceAsStream(propFile) :
+                             ClassLoader.getSystemResourceAsStream(propFile);
+            if (is == null) {
+                is = new FileInputStream(propFile);
+            }
+            try {
+                Properties properties = new Properties();
+                properties.load(is);
+                return properties;
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Locate the given resource on the file system, as a resource of the
+     * class loader or as a file path.
+     *
+     * @return The file or <code>null</code> if it is not on the file system
+     */
+    private static File getFile(String location, ClassLoader loader) {
+        URL url = (loader != null) ? loader.getResource(location) :
+                  ClassLoader.getSystemResource(location);
+        if (url != null) {
+            return "file".equals(url.getProtocol()) ? new File(url.getFile()) : null;
+        }
+        File file = new File(location);
+        return file.exists() ? file : null;
+    }
+
     /*
      * (non-Javadoc)
      * 
      * @see org.apache.rahas.TokenIssuer#setConfigurationFile(java.lang.String)
      */
     public void setConfigurationFile(String configFile) {
-        // TODO TODO SAMLTokenIssuer setConfigurationFile
-
+        this.configFile = configFile;
     }
 
     /*
@@ -584,7 +692,7 @@ public class SAMLTokenIssuer implements TokenIssuer {
      * @see org.apache.rahas.TokenIssuer#setConfigurationElement(org.apache.axiom.om.OMElement)
      */
     public void setConfigurationElement(OMElement configElement) {
-        // TODO TODO SAMLTokenIssuer setConfigurationElement
+        this.configElement = configElement;
     }
 
     /*
@@ -596,4 +704,35 @@ public class SAMLTokenIssuer implements TokenIssuer {
         this.configParamName = configParamName;
     }
 
+    /**
+     * The loaded configuration of the issuer
+     */
+    private static class IssuerState {
+
+        private Object source;
+        private ClassLoader loader;
+        private SAMLTokenIssuerConfig config;
+        private Crypto crypto;
+        private List issuerCerts;
+        private Key issuerPK;
+        private String sigAlgo;
+
+        /**
+         * Configuration, crypto properties and keystore files, if on the
+         * file system
+         */
+        private File[] files;
+        private long[] lastModified;
+        private long nextCheck;
+
+        private boolean isModified() {
+            for (int i = 0; i < files.length; i++) {
+                if (files[i] != null && files[i].lastModified() != lastModified[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
 }
@@ -240,6 +240,9 @@ public class SCTIssuer implements TokenIssuer {
             //Set the map globally
             msgContext.getConfigurationContext().setProperty(
                     ConversationConstants.KEY_CONTEXT_MAP, map);
+        } else if(!(map instanceof Hashtable)) {
+            //Someone else owns the property, do not replace it
+            return new Hashtable();
         }
         
         return (Hashtable)map;
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rahas;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.om.impl.dom.DOOMAbstractFactory;
+import org.apache.ws.security.WSConstants;
+
+import java.util.Date;
+
+public class IndexedTokenStoreTest extends TestCase {
+
+    public void testAdd() {
+        IndexedTokenStore store = new IndexedTokenStore();
+        try {
+            store.add(getTestToken("id-1"));
+        } catch (TrustException e) {
+            fail("Adding a new token to an empty store should not fail, " +
+                 "message : " + e.getMessage());
+        }
+        Token token = null;
+        try {
+            token = getTestToken("id-1");
+            store.add(token);
+            fail("Adding an existing token must throw an exception");
+        } catch (TrustException e) {
+            assertEquals("Incorrect exception message",
+                         TrustException.getMessage("tokenAlreadyExists",
+                                                   new String[]{token.getId()}), e.getMessage());
+        }
+    }
+
+    public void testGetTokenByReference() {
+        IndexedTokenStore store = new IndexedTokenStore();
+        try {
+            Token token = getTestToken("id-1", new Date(System.currentTimeMillis() + 10000));
+            token.setAttachedReference(getReference("ref-1"));
+            store.add(token);
+
+            assertSame("Token not found by id", token, store.getToken("id-1"));
+            assertSame("Token not found by attached reference", token,
+                       store.getToken("ref-1"));
+
+            token.setAttachedReference(getReference("ref-2"));
+            store.update(token);
+            assertSame("Token not found by updated reference", token,
+                       store.getToken("ref-2"));
+            assertNull("Stale reference not removed", store.getToken("ref-1"));
+        } catch (TrustException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    public void testGetTokenByKeyIdentifier() {
+        IndexedTokenStore store = new IndexedTokenStore();
+        try {
+            Token token = getTestToken("id-1", new Date(System.currentTimeMillis() + 10000));
+            OMFactory factory = DOOMAbstractFactory.getOMFactory();
+            OMNamespace ns = factory.createOMNamespace(WSConstants.WSSE_NS,
+                    WSConstants.WSSE_PREFIX);
+            OMElement str = factory.createOMElement("SecurityTokenReference", ns);
+            OMElement keyIdentifier = factory.createOMElement("KeyIdentifier", ns, str);
+            keyIdentifier.setText("c2hhMQ==");
+            token.setAttachedReference(str);
+            store.add(token);
+
+            assertSame("Token not found by key identifier", token,
+                       store.getToken("c2hhMQ=="));
+        } catch (TrustException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    public void testExpiry() {
+        IndexedTokenStore store = new IndexedTokenStore();
+        try {
+            Token token1 = getTestToken("id-1", new Date(System.currentTimeMillis() - 1000));
+            Token token2 = getTestToken("id-2", new Date(System.currentTimeMillis() + 10000));
+            store.add(token1);
+            store.add(token2);
+
+            assertEquals("Incorrect number of valid tokens", 1,
+                         store.getValidTokens().length);
+            assertEquals("Incorrect number of expired tokens", 1,
+                         store.getExpiredTokens().length);
+            assertEquals("Token not expired", Token.EXPIRED,
+                         store.getToken("id-1").getState());
+        } catch (TrustException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    public void testUpdateExpiry() {
+        IndexedTokenStore store = new IndexedTokenStore();
+        try {
+            Token token = getTestToken("id-1", new Date(System.currentTimeMillis() + 10000));
+            store.add(token);
+            for (int i = 0; i < 100; i++) {
+                store.update(token);
+            }
+            assertEquals("Update queued another expiry entry", 1,
+                         store.getExpiryQueueSize());
+
+            //Renewed, the previous expiry time must not expire the token
+            token.setExpires(new Date(System.currentTimeMillis() - 1000));
+            store.update(token);
+            token.setExpires(new Date(System.currentTimeMillis() + 10000));
+            store.update(token);
+            assertEquals("Incorrect number of valid tokens", 1,
+                         store.getValidTokens().length);
+            //The first entry is only dropped once it reaches the head
+            assertEquals("Stale expiry entry kept", 2,
+                         store.getExpiryQueueSize());
+        } catch (TrustException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    private Token getTestToken(String tokenId) throws TrustException {
+        return getTestToken(tokenId, new Date());
+    }
+
+    private Token getTestToken(String tokenId, Date expiry) throws TrustException {
+        OMFactory factory = DOOMAbstractFactory.getOMFactory();
+        OMElement tokenEle = factory.createOMElement("testToken", "", "");
+        Token token = new Token(tokenId, tokenEle, new Date(), expiry);
+        token.setPreviousToken(tokenEle);
+        token.setState(Token.ISSUED);
+        token.setSecret("Top secret!".getBytes());
+        return token;
+    }
+
+    private OMElement getReference(String refId) {
+        OMFactory factory = DOOMAbstractFactory.getOMFactory();
+        OMNamespace ns = factory.createOMNamespace(WSConstants.WSSE_NS,
+                WSConstants.WSSE_PREFIX);
+        OMElement str = factory.createOMElement("SecurityTokenReference", ns);
+        OMElement ref = factory.createOMElement("Reference", ns, str);
+        ref.addAttribute("URI", "#" + refId, null);
+        return str;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rahas;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.om.impl.dom.DOOMAbstractFactory;
+import org.apache.ws.security.WSConstants;
+
+import java.io.File;
+import java.util.Date;
+
+public class PersistentTokenStoreTest extends TestCase {
+
+    private File file = new File("target/test-tokens.log");
+
+    protected void setUp() throws Exception {
+        file.getParentFile().mkdirs();
+        file.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRecovery() {
+        try {
+            PersistentTokenStore store = new PersistentTokenStore(file);
+            Token token1 = getTestToken("id-1", "ref-1");
+            Token token2 = getTestToken("id-2", "ref-2");
+            store.add(token1);
+            store.add(token2);
+            token2.setState(Token.CANCELLED);
+            store.update(token2);
+            store.close();
+
+            store = new PersistentTokenStore(file);
+            assertEquals("Incorrect number of tokens", 2,
+                         store.getTokenIdentifiers().length);
+
+            Token recovered = store.getToken("ref-1");
+            assertNotNull("Token not found by reference", recovered);
+            assertEquals("Incorrect token id", "id-1", recovered.getId());
+            assertEquals("Incorrect secret", "Top secret!",
+                         new String(recovered.getSecret()));
+            assertEquals("Incorrect token element", "testToken",
+                         recovered.getToken().getLocalName());
+            assertEquals("Incorrect state", Token.CANCELLED,
+                         store.getToken("id-2").getState());
+            store.close();
+        } catch (TrustException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    public void testCompaction() {
+        try {
+            PersistentTokenStore store = new PersistentTokenStore(file);
+            Token token = getTestToken("id-1", "ref-1");
+            store.add(token);
+            for (int i = 0; i < 10; i++) {
+                store.update(token);
+            }
+            long length = file.length();
+            store.compact();
+            store.add(getTestToken("id-2", "ref-2"));
+            store.close();
+
+            assertTrue("Log not compacted", file.length() <= length);
+
+            store = new PersistentTokenStore(file);
+            assertNotNull("Token lost in compaction", store.getToken("id-1"));
+            assertNotNull("Token added after compaction lost", store.getToken("id-2"));
+            store.close();
+        } catch (TrustException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    public void testWithoutSync() {
+        try {
+            PersistentTokenStore store = new PersistentTokenStore(file);
+            store.setSyncOnWrite(false);
+            store.add(getTestToken("id-1", "ref-1"));
+            store.close();
+
+            store = new PersistentTokenStore(file);
+            assertNotNull("Token lost without sync", store.getToken("id-1"));
+            store.close();
+        } catch (TrustException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    public void testFileRequired() {
+        String path = System.getProperty(PersistentTokenStore.FILE_PROPERTY);
+        System.getProperties().remove(PersistentTokenStore.FILE_PROPERTY);
+        try {
+            new PersistentTokenStore();
+            fail("Token store created without a configured file");
+        } catch (TrustException e) {
+            //expected
+        } finally {
+            if (path != null) {
+                System.setProperty(PersistentTokenStore.FILE_PROPERTY, path);
+            }
+        }
+    }
+
+    private Token getTestToken(String tokenId, String refId) throws TrustException {
+        OMFactory factory = DOOMAbstractFactory.getOMFactory();
+        OMElement tokenEle = factory.createOMElement("testToken", "", "");
+        Token token = new Token(tokenId, tokenEle, new Date(),
+                new Date(System.currentTimeMillis() + 60000));
+
+        OMNamespace ns = factory.createOMNamespace(WSConstants.WSSE_NS,
+                WSConstants.WSSE_PREFIX);
+        OMElement str = factory.createOMElement("SecurityTokenReference", ns);
+        OMElement ref = factory.createOMElement("Reference", ns, str);
+        ref.addAttribute("URI", "#" + refId, null);
+        token.setAttachedReference(str);
+
+        token.setState(Token.ISSUED);
+        token.setSecret("Top secret!".getBytes());
+        return token;
+    }
+}
@@ -53,6 +53,25 @@ public class TokenRequestDispatcherConfigTest extends TestCase {
         }
     }
 
+    /**
+     * Testing that the issuer instances are reused
+     */
+    public void testIssuerReuse() {
+        try {
+            TokenRequestDispatcherConfig config = TokenRequestDispatcherConfig
+                    .load("test-resources/trust/dispatcher.config.xml");
+
+            TokenIssuer issuer = config
+                    .getIssuer("http://example.org/mySpecialToken1");
+
+            assertSame("Issuer instance not reused", issuer, config
+                    .getIssuer("http://example.org/mySpecialToken1"));
+        } catch (TrustException e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Testing expected faliure when the default issuer is not specified
      */
@@ -41,6 +41,11 @@ public interface SavanConstants {
 	
 	String DEFAULT_SUBSCRIBER_STORE_KEY = "default";
 	
+	String PUBLICATION_ENGINE = "SavanPublicationEngine"; //Property name to store the PublicationEngine in the ConfigCtx.
+	String PUBLICATION_REPORT = "SavanPublicationReport"; //Property name to store the PublicationReport in the publication MsgCtx.
+	String SERVICE_CLIENT_CACHE = "SavanServiceClientCache"; //Property name to store the ServiceClientCache in the ConfigCtx.
+	String EXPIRATION_SWEEPER = "SavanExpirationSweeper"; //Property name to store the ExpirationSweeper in the ConfigCtx.
+	
 	interface MessageTypes {
 		int UNKNOWN = -1;
 		int SUBSCRIPTION_MESSAGE = 1;
@@ -57,6 +62,15 @@ public interface SavanConstants {
 		String SUBSCRIBER_STORE = "SubscriberStore";
 	}
 	
+	interface Parameters {
+		String PUBLICATION_THREADS = "PublicationThreads";
+		String PUBLICATION_QUEUE_SIZE = "PublicationQueueSize";
+		String PUBLICATION_MAX_RETRIES = "PublicationMaxRetries";
+		String PUBLICATION_RETRY_DELAY = "PublicationRetryDelay";
+		String PUBLICATION_UNREACHABLE_PERIOD = "PublicationUnreachablePeriod";
+		String EXPIRATION_SWEEP_INTERVAL = "ExpirationSweepInterval";
+	}
+	
 
 	
 }
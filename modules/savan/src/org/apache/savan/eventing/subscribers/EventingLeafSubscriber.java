@@ -17,8 +17,6 @@
 
 package org.apache.savan.eventing.subscribers;
 
-import javax.xml.namespace.QName;
-
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.addressing.EndpointReference;
 import org.apache.axis2.client.OperationClient;
@@ -29,6 +27,7 @@ import org.apache.savan.SavanException;
 import org.apache.savan.SavanMessageContext;
 import org.apache.savan.eventing.Delivery;
 import org.apache.savan.subscribers.LeafSubscriber;
+import org.apache.savan.util.ServiceClientCache;
 
 public class EventingLeafSubscriber extends LeafSubscriber implements EventingSubscriber {
 
@@ -56,27 +55,30 @@ public class EventingLeafSubscriber extends LeafSubscriber implements EventingSu
 		
 		EndpointReference deliveryEPR  = delivery.getDeliveryEPR();
 		
+		//the client is shared with other deliveries to the same address, so the options
+		//are set on the OperationClient
+		ServiceClientCache cache = ServiceClientCache.getCache(publication.getConfigurationContext());
+		ServiceClient sc = cache.getServiceClient(deliveryEPR,getId());
+		if (sc==null) {
+			//the subscription ended while the publication was queued
+			return;
+		}
+		
 		try {
-			ServiceClient sc = new ServiceClient (publication.getConfigurationContext(),null);
-			
-			Options options = publication.getMessageContext().getOptions();
-			if (options==null) {
-				options = new Options ();
-			}
-			
-			sc.engageModule(new QName ("addressing"));
-			
+			Options options = new Options (publication.getMessageContext().getOptions());
 			options.setProperty("xmppasync", "true");
-			sc.setOptions(options);
-			
 			options.setTo(deliveryEPR);
+			
 			MessageContext mc = new MessageContext ();
 			mc.setEnvelope(publication.getEnvelope());
 			OperationClient client = sc.createClient(ServiceClient.ANON_OUT_ONLY_OP);
+			client.setOptions(options);
 			client.addMessageContext(mc);
 			client.execute(true);
 		} catch (AxisFault e) {
 			throw new SavanException (e);
+		} finally {
+			cache.returnServiceClient(sc);
 		}
 		
 		
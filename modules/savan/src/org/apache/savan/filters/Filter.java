@@ -49,4 +49,14 @@ public abstract class Filter {
 	 * @return
 	 */
 	public abstract Object getFilterValue ();
+	
+	/**
+	 * Returns a key identifying the filter. Filters having equal keys accept the
+	 * same messages, so only one of them has to be checked for a publication.
+	 * 
+	 * @return
+	 */
+	public Object getFilterKey () {
+		return getClass().getName() + ":" + getFilterValue();
+	}
 }
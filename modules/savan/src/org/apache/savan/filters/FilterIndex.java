@@ -0,0 +1,208 @@
+/*
+ * Copyright  1999-2004 The Apache Software Foundation.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.savan.filters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.savan.SavanException;
+import org.apache.savan.publication.PublicationReport;
+import org.apache.savan.subscribers.Subscriber;
+
+/**
+ * Groups subscribers by their filters, so that a publication is checked once
+ * against each distinct filter instead of once per subscriber.
+ *
+ * Filters are grouped by their keys. The first filter added for a key is the one
+ * checked for the whole group. Subscribers without a filter accept every
+ * publication. The filter of a subscriber must not be changed while the subscriber
+ * is in the index.
+ *
+ * add() and remove() copy the subscribers of the group, which keeps publications
+ * lock free. An index that is filled at once should therefore be created with
+ * FilterIndex(Iterator), which builds each group in a single step.
+ */
+public class FilterIndex {
+
+	private static final Log log = LogFactory.getLog(FilterIndex.class);
+
+	private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+	/**
+	 * Filter key -> FilterGroup, the key of the subscribers without a filter is null.
+	 */
+	private LinkedHashMap groups = new LinkedHashMap ();
+
+	private int size = 0;
+
+	public FilterIndex () {
+	}
+
+	/**
+	 * Creates an index of the given subscribers.
+	 *
+	 * @param subscribers Subscriber instances.
+	 */
+	public FilterIndex (Iterator subscribers) {
+		//FilterGroup -> List of its subscribers
+		Map members = new HashMap ();
+		while (subscribers.hasNext()) {
+			Subscriber subscriber = (Subscriber) subscribers.next();
+			FilterGroup group = getGroup(subscriber.getFilter());
+			List list = (List) members.get(group);
+			if (list==null) {
+				list = new ArrayList ();
+				members.put(group,list);
+			}
+			list.add(subscriber);
+			size++;
+		}
+
+		for (Iterator it=members.entrySet().iterator();it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			List list = (List) entry.getValue();
+			((FilterGroup) entry.getKey()).subscribers = (Subscriber[]) list.toArray(new Subscriber[list.size()]);
+		}
+	}
+
+	public synchronized void add (Subscriber subscriber) {
+		getGroup(subscriber.getFilter()).add(subscriber);
+		size++;
+	}
+
+	/**
+	 * @return the group of the given filter, created if required.
+	 */
+	private FilterGroup getGroup (Filter filter) {
+		Object key = (filter!=null) ? filter.getFilterKey() : null;
+
+		FilterGroup group = (FilterGroup) groups.get(key);
+		if (group==null) {
+			group = new FilterGroup (filter);
+			groups.put(key,group);
+		}
+		return group;
+	}
+
+	/**
+	 * @param subscriber
+	 * @return true if the subscriber was in the index.
+	 */
+	public synchronized boolean remove (Subscriber subscriber) {
+		Filter filter = subscriber.getFilter();
+		Object key = (filter!=null) ? filter.getFilterKey() : null;
+
+		FilterGroup group = (FilterGroup) groups.get(key);
+		if (group==null || !group.remove(subscriber))
+			return false;
+
+		if (group.subscribers.length==0)
+			groups.remove(key);
+		size--;
+		return true;
+	}
+
+	/**
+	 * @return the number of subscribers in the index.
+	 */
+	public synchronized int size () {
+		return size;
+	}
+
+	/**
+	 * @return the number of distinct filters in the index.
+	 */
+	public synchronized int getFilterCount () {
+		return groups.size();
+	}
+
+	/**
+	 * Returns the subscribers whose filter accepts the given envelope, checking each
+	 * distinct filter once. The index is not locked while the filters are checked.
+	 *
+	 * @param envelope
+	 * @param report the failures of the filters are recorded in it for each
+	 * subscriber of the failed group.
+	 * @return a List of Subscribers.
+	 */
+	public List getMatchingSubscribers (SOAPEnvelope envelope, PublicationReport report) {
+		FilterGroup[] snapshot;
+		synchronized (this) {
+			snapshot = (FilterGroup[]) groups.values().toArray(new FilterGroup[groups.size()]);
+		}
+
+		List matchingSubscribers = new ArrayList ();
+		for (int i=0;i<snapshot.length;i++) {
+			//the array is replaced rather than changed when the group changes
+			Subscriber[] subscribers = snapshot[i].subscribers;
+			try {
+				if (snapshot[i].filter==null || snapshot[i].filter.checkEnvelopeCompliance(envelope)) {
+					for (int j=0;j<subscribers.length;j++)
+						matchingSubscribers.add(subscribers[j]);
+				}
+			} catch (SavanException e) {
+				log.error("Could not check a publication against the filter " + snapshot[i].filter.getFilterValue(),e);
+				for (int j=0;j<subscribers.length;j++) {
+					if (subscribers[j].getId()!=null)
+						report.addErrorReportEntry(subscribers[j].getId(),e);
+				}
+			}
+		}
+
+		return matchingSubscribers;
+	}
+
+	private static class FilterGroup {
+
+		private Filter filter;
+
+		//replaced rather than changed, read by publications without locking
+		private volatile Subscriber[] subscribers = NO_SUBSCRIBERS;
+
+		private FilterGroup (Filter filter) {
+			this.filter = filter;
+		}
+
+		private void add (Subscriber subscriber) {
+			Subscriber[] newSubscribers = new Subscriber[subscribers.length + 1];
+			System.arraycopy(subscribers,0,newSubscribers,0,subscribers.length);
+			newSubscribers[subscribers.length] = subscriber;
+			subscribers = newSubscribers;
+		}
+
+		private boolean remove (Subscriber subscriber) {
+			for (int i=0;i<subscribers.length;i++) {
+				if (subscribers[i]==subscriber) {
+					Subscriber[] newSubscribers = new Subscriber[subscribers.length - 1];
+					System.arraycopy(subscribers,0,newSubscribers,0,i);
+					System.arraycopy(subscribers,i + 1,newSubscribers,i,subscribers.length - i - 1);
+					subscribers = newSubscribers;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
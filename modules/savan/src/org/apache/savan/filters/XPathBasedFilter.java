@@ -17,7 +17,16 @@
 
 package org.apache.savan.filters;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.OMNode;
@@ -47,17 +56,40 @@ import org.jaxen.JaxenException;
 /**
  * A filter that does filtering of messages based on a XPath string.
  * 
+ * The XPath is evaluated with the first element of the body as the context node.
+ * Compiled expressions are shared by all the filters having the same XPath string.
+ * 
+ * Simple expressions that select an element by name, optionally requiring an
+ * attribute value (e.g. //elem1 or elem1[@type='value']), are checked by reading
+ * the message with a StAX reader instead of evaluating the XPath.
  */
 public class XPathBasedFilter extends Filter {
 
+	private static final int MAX_COMPILED_EXPRESSIONS = 1000;
+	
+	private static final Pattern SIMPLE_EXPRESSION = Pattern.compile(
+			"(//)?([A-Za-z_][\\w.\\-]*)(?:\\[@([A-Za-z_][\\w.\\-]*)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")\\])?");
+	
+	/**
+	 * XPath string -> AXIOMXPath, the least recently used expressions are discarded.
+	 */
+	private static Map compiledExpressions = Collections.synchronizedMap(new LinkedHashMap (16,0.75f,true) {
+		protected boolean removeEldestEntry (Map.Entry eldest) {
+			return size()>MAX_COMPILED_EXPRESSIONS;
+		}
+	});
+	
 	private String XPathString = null;
 	
+	private SimpleExpression simpleExpression = null;
+	
 	public String getXPathString() {
 		return XPathString;
 	}
 
 	public void setXPathString(String XPathString) {
 		this.XPathString = XPathString;
+		this.simpleExpression = SimpleExpression.parse(XPathString);
 	}
 
 	/**
@@ -71,9 +103,16 @@ public class XPathBasedFilter extends Filter {
 		if (XPathString==null)
 			return true;
 		
+		if (simpleExpression!=null) {
+			try {
+				return simpleExpression.matches(envelope,firstChild);
+			} catch (XMLStreamException e) {
+				throw new SavanException (e);
+			}
+		}
+		
 		try {
-			AXIOMXPath xpath = new AXIOMXPath (XPathString);
-			List resultList = xpath.selectNodes(firstChild);
+			List resultList = getCompiledExpression(XPathString).selectNodes(firstChild);
 
             return resultList.size() > 0;
 		} catch (JaxenException e) {
@@ -86,12 +125,96 @@ public class XPathBasedFilter extends Filter {
 			throw new IllegalArgumentException ("Cannot determine a valid XPath string");
 		
 		OMText text = (OMText) element;
-		XPathString = text.getText();
+		setXPathString(text.getText());
 	}
 
 	public Object getFilterValue() {
 		return XPathString;
 	}
 
+	private static AXIOMXPath getCompiledExpression (String XPathString) throws JaxenException {
+		AXIOMXPath xpath = (AXIOMXPath) compiledExpressions.get(XPathString);
+		if (xpath==null) {
+			xpath = new AXIOMXPath (XPathString);
+			compiledExpressions.put(XPathString,xpath);
+		}
+		return xpath;
+	}
 	
+	/**
+	 * An expression of the form name, //name, name[@attribute='value'] or 
+	 * //name[@attribute='value']. As in XPath, names without a prefix only match
+	 * elements and attributes that do not have a namespace.
+	 */
+	private static class SimpleExpression {
+		
+		/**
+		 * Whether any element of the document may match (//name), or only the 
+		 * children of the context node (name)
+		 */
+		private boolean descendant;
+		private String elementName;
+		private String attributeName;
+		private String attributeValue;
+		
+		private static SimpleExpression parse (String XPathString) {
+			if (XPathString==null)
+				return null;
+			
+			Matcher matcher = SIMPLE_EXPRESSION.matcher(XPathString.trim());
+			if (!matcher.matches())
+				return null;
+			
+			SimpleExpression expression = new SimpleExpression ();
+			expression.descendant = matcher.group(1)!=null;
+			expression.elementName = matcher.group(2);
+			expression.attributeName = matcher.group(3);
+			expression.attributeValue = (matcher.group(4)!=null) ? matcher.group(4) : matcher.group(5);
+			return expression;
+		}
+		
+		private boolean matches (SOAPEnvelope envelope, OMElement contextElement) throws XMLStreamException {
+			//the readers cache the parts of the message they read, if those had not been built
+			//yet, so that the message can still be sent afterwards.
+			XMLStreamReader reader = descendant ? envelope.getXMLStreamReader() 
+					: contextElement.getXMLStreamReader();
+			
+			int depth = 0;
+			int event = reader.getEventType();
+			while (true) {
+				if (event==XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					if ((descendant || depth==2) && matchesElement(reader))
+						return true;
+				} else if (event==XMLStreamConstants.END_ELEMENT) {
+					depth--;
+					if (depth==0)
+						return false;
+				}
+				
+				if (!reader.hasNext())
+					return false;
+				event = reader.next();
+			}
+		}
+		
+		private boolean matchesElement (XMLStreamReader reader) {
+			if (!elementName.equals(reader.getLocalName()) || !isEmpty(reader.getNamespaceURI()))
+				return false;
+			
+			if (attributeName==null)
+				return true;
+			
+			for (int i=0;i<reader.getAttributeCount();i++) {
+				if (attributeName.equals(reader.getAttributeLocalName(i)) 
+						&& isEmpty(reader.getAttributeNamespace(i)))
+					return attributeValue.equals(reader.getAttributeValue(i));
+			}
+			return false;
+		}
+		
+		private static boolean isEmpty (String value) {
+			return value==null || value.length()==0;
+		}
+	}
 }
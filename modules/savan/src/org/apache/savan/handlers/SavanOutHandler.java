@@ -27,7 +27,9 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.savan.SavanConstants;
 import org.apache.savan.SavanException;
 import org.apache.savan.SavanMessageContext;
+import org.apache.savan.publication.PublicationEngine;
 import org.apache.savan.publication.PublicationReport;
+import org.apache.savan.storage.IndexedSubscriberStore;
 import org.apache.savan.storage.SubscriberStore;
 import org.apache.savan.subscribers.AbstractSubscriber;
 import org.apache.savan.util.CommonUtil;
@@ -37,6 +39,10 @@ import org.apache.savan.util.CommonUtil;
  * Notification messages should go through this handler and this will sent them to
  * each subscriber based on their filter.
  * 
+ * If the module has been initialized, publications are handed to the PublicationEngine
+ * and delivered asynchronously. The PublicationReport is set as a property of the
+ * publication message context and is filled in as the deliveries complete.
+ * 
  */
 public class SavanOutHandler extends AbstractHandler {
 
@@ -61,17 +67,25 @@ public class SavanOutHandler extends AbstractHandler {
 				msgContext.setProperty(AddressingConstants.REPLACE_ADDRESSING_HEADERS, Boolean.TRUE);
 				
 				PublicationReport report = new PublicationReport();
-				Iterator iterator = store.retrieveAll();
-				while (iterator.hasNext()) {
-					AbstractSubscriber subscriber = (AbstractSubscriber) iterator.next();
-					try {
-						subscriber.processPublication (publication, report);
-					} catch (SavanException e) {
-						report.addErrorReportEntry(subscriber.getId(),e);
-						e.printStackTrace();
+				msgContext.setProperty(SavanConstants.PUBLICATION_REPORT, report);
+				
+				PublicationEngine engine = (PublicationEngine) msgContext.getConfigurationContext()
+						.getProperty(SavanConstants.PUBLICATION_ENGINE);
+				if (engine != null && store instanceof IndexedSubscriberStore) {
+					engine.publish(publication, ((IndexedSubscriberStore) store).getFilterIndex(), report);
+				} else if (engine != null) {
+					engine.publish(publication, store.retrieveAll(), report);
+				} else {
+					Iterator iterator = store.retrieveAll();
+					while (iterator.hasNext()) {
+						AbstractSubscriber subscriber = (AbstractSubscriber) iterator.next();
+						try {
+							subscriber.processPublication (publication, report);
+						} catch (SavanException e) {
+							report.addErrorReportEntry(subscriber.getId(),e);
+							e.printStackTrace();
+						}
 					}
-					
-					//TODO do something with the report.
 				}
 			} else {
 				String message = "Couldnt send the message since the subscriber storage was not found";
@@ -31,7 +31,10 @@ import org.apache.neethi.Policy;
 import org.apache.savan.SavanConstants;
 import org.apache.savan.SavanException;
 import org.apache.savan.configuration.ConfigurationManager;
+import org.apache.savan.publication.PublicationEngine;
 import org.apache.savan.storage.SubscriberStore;
+import org.apache.savan.subscription.ExpirationSweeper;
+import org.apache.savan.util.ServiceClientCache;
 
 /**
  * Savan Module class. 
@@ -62,9 +65,46 @@ public class SavanModule implements Module  {
 		}
 		
 		configContext.setProperty(SavanConstants.CONFIGURATION_MANAGER,configurationManager);
+		
+		//publications are delivered asynchronously by a PublicationEngine shared by all services
+		int threads = (int) getNumericParameter(module,SavanConstants.Parameters.PUBLICATION_THREADS,PublicationEngine.DEFAULT_THREADS);
+		int queueSize = (int) getNumericParameter(module,SavanConstants.Parameters.PUBLICATION_QUEUE_SIZE,PublicationEngine.DEFAULT_QUEUE_SIZE);
+		int maxRetries = (int) getNumericParameter(module,SavanConstants.Parameters.PUBLICATION_MAX_RETRIES,PublicationEngine.DEFAULT_MAX_RETRIES);
+		long retryDelay = getNumericParameter(module,SavanConstants.Parameters.PUBLICATION_RETRY_DELAY,PublicationEngine.DEFAULT_RETRY_DELAY);
+		long unreachablePeriod = getNumericParameter(module,SavanConstants.Parameters.PUBLICATION_UNREACHABLE_PERIOD,PublicationEngine.DEFAULT_UNREACHABLE_PERIOD);
+		
+		PublicationEngine publicationEngine = new PublicationEngine (threads,queueSize,maxRetries,retryDelay,unreachablePeriod);
+		configContext.setProperty(SavanConstants.PUBLICATION_ENGINE,publicationEngine);
+		
+		//expired subscriptions are ended by a sweeper shared by all services
+		long sweepInterval = getNumericParameter(module,SavanConstants.Parameters.EXPIRATION_SWEEP_INTERVAL,ExpirationSweeper.DEFAULT_TICK_DURATION);
+		ExpirationSweeper expirationSweeper = new ExpirationSweeper (sweepInterval,ExpirationSweeper.DEFAULT_WHEEL_SIZE);
+		configContext.setProperty(SavanConstants.EXPIRATION_SWEEPER,expirationSweeper);
 	}
 
 	public void shutdown(ConfigurationContext configurationContext) throws AxisFault {
+		PublicationEngine publicationEngine = (PublicationEngine) configurationContext.getProperty(SavanConstants.PUBLICATION_ENGINE);
+		if (publicationEngine!=null)
+			publicationEngine.shutdown();
+		
+		ExpirationSweeper expirationSweeper = ExpirationSweeper.getSweeper(configurationContext);
+		if (expirationSweeper!=null)
+			expirationSweeper.shutdown();
+		
+		ServiceClientCache.getCache(configurationContext).clear();
+	}
+	
+	private long getNumericParameter (AxisModule module, String name, long defaultValue) {
+		Parameter parameter = module.getParameter(name);
+		if (parameter==null || parameter.getValue()==null)
+			return defaultValue;
+		
+		try {
+			return Long.parseLong(parameter.getValue().toString().trim());
+		} catch (NumberFormatException e) {
+			log.error ("Invalid value for the module parameter '" + name + "', using the default",e);
+			return defaultValue;
+		}
 	}
 
     public void applyPolicy(Policy policy, AxisDescription axisDescription) throws AxisFault {
@@ -0,0 +1,342 @@
+/*
+ * Copyright  1999-2004 The Apache Software Foundation.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.savan.publication;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.savan.SavanException;
+import org.apache.savan.SavanMessageContext;
+import org.apache.savan.filters.FilterIndex;
+import org.apache.savan.subscribers.AbstractSubscriber;
+import org.apache.savan.subscribers.CompositeSubscriber;
+
+import edu.emory.mathcs.backport.java.util.concurrent.RejectedExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.ScheduledThreadPoolExecutor;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers publications to the subscribers asynchronously, using a pool of worker
+ * threads shared by all subscribers.
+ *
+ * Every leaf subscriber has a bounded queue of pending deliveries. The deliveries
+ * of a subscriber are made one at a time and in order, while different subscribers
+ * are served in parallel, so a slow subscriber does not hold up the others. A
+ * publication that does not fit in the queue of a subscriber is not delivered to it.
+ *
+ * A failed delivery is retried with an exponentially growing delay. When all retries
+ * fail the subscriber is considered unreachable for a while, and its deliveries fail
+ * immediately. After that period a single delivery is attempted again, without
+ * retries.
+ *
+ * Filters are checked on the publishing thread against the original publication,
+ * once for each distinct filter, so the workers only deliver.
+ *
+ * The outcome of each delivery is recorded in the PublicationReport of the
+ * publication.
+ */
+public class PublicationEngine {
+
+	private static final Log log = LogFactory.getLog(PublicationEngine.class);
+
+	public static final int DEFAULT_THREADS = 10;
+	public static final int DEFAULT_QUEUE_SIZE = 100;
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	public static final long DEFAULT_RETRY_DELAY = 1000;
+	public static final long DEFAULT_UNREACHABLE_PERIOD = 60000;
+
+	/**
+	 * Maximum number of deliveries a worker makes to one subscriber before
+	 * giving the other subscribers a chance.
+	 */
+	private static final int DELIVERIES_PER_RUN = 10;
+
+	private int queueSize;
+	private int maxRetries;
+	private long retryDelay;
+	private long unreachablePeriod;
+
+	private ScheduledThreadPoolExecutor executor;
+
+	/**
+	 * AbstractSubscriber -> SubscriberQueue
+	 */
+	private Map queues = Collections.synchronizedMap(new WeakHashMap ());
+
+	public PublicationEngine () {
+		this (DEFAULT_THREADS,DEFAULT_QUEUE_SIZE,DEFAULT_MAX_RETRIES,DEFAULT_RETRY_DELAY,DEFAULT_UNREACHABLE_PERIOD);
+	}
+
+	/**
+	 * @param threads number of worker threads.
+	 * @param queueSize maximum number of pending deliveries per subscriber.
+	 * @param maxRetries number of times a failed delivery is retried.
+	 * @param retryDelay delay before the first retry in milliseconds, doubled for
+	 * each following retry.
+	 * @param unreachablePeriod time in milliseconds for which the deliveries to a
+	 * subscriber fail immediately, once all retries of a delivery failed.
+	 */
+	public PublicationEngine (int threads, int queueSize, int maxRetries, long retryDelay, long unreachablePeriod) {
+		this.queueSize = queueSize;
+		this.maxRetries = maxRetries;
+		this.retryDelay = retryDelay;
+		this.unreachablePeriod = unreachablePeriod;
+
+		executor = new ScheduledThreadPoolExecutor (threads,new WorkerThreadFactory ());
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Queues the publication for all the given subscribers whose filters accept it,
+	 * and returns without waiting for the deliveries.
+	 *
+	 * @param publication
+	 * @param subscribers AbstractSubscriber instances.
+	 * @param report filled in as the deliveries complete.
+	 * @throws SavanException if the publication could not be serialized.
+	 */
+	public void publish (SavanMessageContext publication, Iterator subscribers, PublicationReport report) throws SavanException {
+		publish(publication,new FilterIndex (subscribers),report);
+	}
+
+	/**
+	 * Queues the publication for the subscribers of the given index whose filters
+	 * accept it, and returns without waiting for the deliveries.
+	 *
+	 * @param publication
+	 * @param index a FilterIndex of AbstractSubscriber instances.
+	 * @param report filled in as the deliveries complete.
+	 * @throws SavanException if the publication could not be serialized.
+	 */
+	public void publish (SavanMessageContext publication, FilterIndex index, PublicationReport report) throws SavanException {
+		SerializedPublication serializedPublication = new SerializedPublication (publication);
+
+		//keeps the report pending until all deliveries have been queued
+		report.addPendingDelivery();
+		try {
+			dispatch(index,publication,serializedPublication,report);
+		} finally {
+			report.deliveryCompleted();
+		}
+	}
+
+	/**
+	 * Stops the worker threads. Pending deliveries are dropped.
+	 */
+	public void shutdown () {
+		executor.shutdown();
+	}
+
+	/**
+	 * Queues the publication for the subscribers of the index whose filters accept it.
+	 */
+	private void dispatch (FilterIndex index, SavanMessageContext publication,
+			SerializedPublication serializedPublication, PublicationReport report) {
+
+		List subscribers = index.getMatchingSubscribers(publication.getEnvelope(),report);
+		for (Iterator it=subscribers.iterator();it.hasNext();) {
+			AbstractSubscriber subscriber = (AbstractSubscriber) it.next();
+			if (subscriber instanceof CompositeSubscriber) {
+				dispatch(((CompositeSubscriber) subscriber).getFilterIndex(),publication,serializedPublication,report);
+
+				if (subscriber.getId()!=null)
+					report.addNotifiedSubscriber(subscriber.getId());
+			} else {
+				enqueue(subscriber,serializedPublication,report);
+			}
+		}
+	}
+
+	private void enqueue (AbstractSubscriber subscriber, SerializedPublication serializedPublication,
+			PublicationReport report) {
+
+		SubscriberQueue queue;
+		synchronized (queues) {
+			queue = (SubscriberQueue) queues.get(subscriber);
+			if (queue==null) {
+				queue = new SubscriberQueue ();
+				queues.put(subscriber,queue);
+			}
+		}
+
+		report.addPendingDelivery();
+		queue.offer(new Delivery (subscriber,serializedPublication,report));
+	}
+
+	private static void addError (PublicationReport report, AbstractSubscriber subscriber, SavanException e) {
+		if (subscriber.getId()!=null)
+			report.addErrorReportEntry(subscriber.getId(),e);
+	}
+
+	/**
+	 * A pending delivery of a publication to a leaf subscriber.
+	 */
+	private static class Delivery {
+
+		private AbstractSubscriber subscriber;
+		private SerializedPublication publication;
+		private PublicationReport report;
+		private int attempts = 0;
+
+		private Delivery (AbstractSubscriber subscriber, SerializedPublication publication, PublicationReport report) {
+			this.subscriber = subscriber;
+			this.publication = publication;
+			this.report = report;
+		}
+
+		private void complete (SavanException error) {
+			if (error!=null)
+				addError(report,subscriber,error);
+			report.deliveryCompleted();
+		}
+	}
+
+	/**
+	 * The deliveries of a single subscriber. At most one worker runs a queue at any
+	 * time. Only the pending deliveries refer to the subscriber, so that a subscriber
+	 * that is no longer stored can be garbage collected.
+	 */
+	private class SubscriberQueue implements Runnable {
+
+		private LinkedList deliveries = new LinkedList ();
+
+		/**
+		 * Whether a worker is running this queue or a retry has been scheduled.
+		 */
+		private boolean scheduled = false;
+
+		/**
+		 * Non zero since all retries of a delivery failed and until a delivery
+		 * succeeds. Deliveries fail immediately until this time.
+		 */
+		private long unreachableUntil = 0;
+
+		private void offer (Delivery delivery) {
+			boolean schedule;
+			synchronized (this) {
+				if (deliveries.size()>=queueSize) {
+					delivery.complete(new SavanException ("The publication queue of the subscriber is full"));
+					return;
+				}
+
+				deliveries.addLast(delivery);
+				schedule = !scheduled;
+				scheduled = true;
+			}
+
+			if (schedule)
+				execute(0);
+		}
+
+		public void run () {
+			for (int i=0;i<DELIVERIES_PER_RUN;i++) {
+				Delivery delivery;
+				synchronized (this) {
+					if (deliveries.isEmpty()) {
+						scheduled = false;
+						return;
+					}
+					delivery = (Delivery) deliveries.getFirst();
+				}
+
+				long delay = deliver(delivery);
+				if (delay>0) {
+					execute(delay);
+					return;
+				}
+
+				synchronized (this) {
+					deliveries.removeFirst();
+				}
+			}
+
+			execute(0);
+		}
+
+		/**
+		 * @param delivery
+		 * @return the delay before the delivery should be retried, 0 if the delivery
+		 * has completed.
+		 */
+		private long deliver (Delivery delivery) {
+			if (unreachableUntil>System.currentTimeMillis()) {
+				delivery.complete(new SavanException ("The subscriber is unreachable, the publication was not delivered"));
+				return 0;
+			}
+
+			try {
+				delivery.attempts++;
+				delivery.subscriber.deliverPublication(delivery.publication.createMessageContext(),delivery.report);
+				unreachableUntil = 0;
+				delivery.complete(null);
+				return 0;
+			} catch (SavanException e) {
+				if (unreachableUntil==0 && delivery.attempts<=maxRetries) {
+					log.debug("Delivery of a publication failed, retrying",e);
+					return retryDelay << (delivery.attempts - 1);
+				}
+
+				log.error("Could not deliver the publication, considering the subscriber unreachable",e);
+				unreachableUntil = System.currentTimeMillis() + unreachablePeriod;
+				delivery.complete(e);
+				return 0;
+			} catch (RuntimeException e) {
+				log.error("Could not deliver the publication",e);
+				delivery.complete(new SavanException (e));
+				return 0;
+			}
+		}
+
+		private void execute (long delay) {
+			try {
+				if (delay>0)
+					executor.schedule(this,delay,TimeUnit.MILLISECONDS);
+				else
+					executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				log.debug("The publication engine has been shut down, dropping the pending deliveries");
+				synchronized (this) {
+					while (!deliveries.isEmpty()) {
+						Delivery delivery = (Delivery) deliveries.removeFirst();
+						delivery.complete(new SavanException ("The publication engine has been shut down"));
+					}
+					scheduled = false;
+				}
+			}
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private AtomicInteger count = new AtomicInteger ();
+
+		public Thread newThread (Runnable runnable) {
+			Thread thread = new Thread (runnable,"SavanPublicationWorker-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
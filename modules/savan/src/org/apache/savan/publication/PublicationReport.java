@@ -26,6 +26,9 @@ import org.apache.savan.SavanException;
  * This will encapsulate error information of a specific publication.
  * Probably will contain details of each subscriber to which the message could not
  * be delivered successfully. 
+ * 
+ * When the publication is delivered by the PublicationEngine the report is filled
+ * in asynchronously, use waitForCompletion to wait for all the deliveries.
  */
 public class PublicationReport {
 
@@ -40,6 +43,11 @@ public class PublicationReport {
 	 */
 	private ArrayList notifiedSubscribers;
 	
+	/**
+	 * Number of deliveries that have not completed yet.
+	 */
+	private int pendingDeliveries = 0;
+	
 	public PublicationReport () {
 		errors = new Hashtable ();
 		notifiedSubscribers = new ArrayList ();
@@ -50,7 +58,9 @@ public class PublicationReport {
 	}
 	
 	public void addNotifiedSubscriber (String subscriberID) {
-		notifiedSubscribers.add(subscriberID);
+		synchronized (notifiedSubscribers) {
+			notifiedSubscribers.add(subscriberID);
+		}
 	}
 
 	public Hashtable getErrors() {
@@ -61,5 +71,44 @@ public class PublicationReport {
 		return notifiedSubscribers;
 	}
 	
+	/**
+	 * @return true if no delivery of the publication is pending.
+	 */
+	public synchronized boolean isComplete () {
+		return pendingDeliveries==0;
+	}
+	
+	/**
+	 * Waits until all deliveries of the publication have completed, successfully
+	 * or not.
+	 * 
+	 * @param timeout maximum time to wait in milliseconds, 0 to wait for ever.
+	 * @return true if the report is complete.
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean waitForCompletion (long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (pendingDeliveries>0) {
+			if (timeout==0) {
+				wait ();
+			} else {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining<=0)
+					return false;
+				wait (remaining);
+			}
+		}
+		return true;
+	}
+	
+	synchronized void addPendingDelivery () {
+		pendingDeliveries++;
+	}
+	
+	synchronized void deliveryCompleted () {
+		pendingDeliveries--;
+		if (pendingDeliveries==0)
+			notifyAll();
+	}
 	
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright  1999-2004 The Apache Software Foundation.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.savan.publication;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.axiom.om.OMDataSource;
+import org.apache.axiom.om.OMOutputFormat;
+import org.apache.axiom.om.util.StAXUtils;
+
+/**
+ * An element of the publication body, serialized once into an immutable UTF-8
+ * buffer which is shared by the envelopes of all deliveries.
+ *
+ * The buffer declares every namespace it uses, including the namespaces declared
+ * on the envelope and body which its content may refer to in QName values such as
+ * xsi:type, so it can be written as it is into any envelope. Where Axiom hands over an XMLStreamWriter the buffer is streamed to
+ * it event by event, without building an object model.
+ */
+class SerializedElementDataSource implements OMDataSource {
+
+	private static final String UTF_8 = "UTF-8";
+
+	private String localName;
+	private String namespaceURI;
+	private String prefix;
+	private byte[] bytes;
+
+	SerializedElementDataSource (String localName, String namespaceURI, String prefix, byte[] bytes) {
+		this.localName = localName;
+		this.namespaceURI = namespaceURI;
+		this.prefix = prefix;
+		this.bytes = bytes;
+	}
+
+	String getLocalName () {
+		return localName;
+	}
+
+	String getNamespaceURI () {
+		return namespaceURI;
+	}
+
+	String getPrefix () {
+		return prefix;
+	}
+
+	public void serialize (OutputStream output, OMOutputFormat format) throws XMLStreamException {
+		String encoding = (format!=null) ? format.getCharSetEncoding() : null;
+		try {
+			if (encoding==null || UTF_8.equalsIgnoreCase(encoding))
+				output.write(bytes);
+			else
+				output.write(new String (bytes,UTF_8).getBytes(encoding));
+		} catch (IOException e) {
+			throw new XMLStreamException (e);
+		}
+	}
+
+	public void serialize (Writer writer, OMOutputFormat format) throws XMLStreamException {
+		try {
+			writer.write(new String (bytes,UTF_8));
+		} catch (IOException e) {
+			throw new XMLStreamException (e);
+		}
+	}
+
+	public void serialize (XMLStreamWriter xmlWriter) throws XMLStreamException {
+		XMLStreamReader reader = getReader();
+		try {
+			copy(reader,xmlWriter);
+		} finally {
+			reader.close();
+		}
+	}
+
+	public XMLStreamReader getReader () throws XMLStreamException {
+		return StAXUtils.createXMLStreamReader(new ByteArrayInputStream (bytes));
+	}
+
+	/**
+	 * Writes the element the reader is positioned on, or the first element after
+	 * the position of the reader, to the writer. The namespace declarations reported
+	 * by the reader are written as they are.
+	 *
+	 * @param reader
+	 * @param writer
+	 * @throws XMLStreamException
+	 */
+	static void copy (XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+		copy(reader,writer,null);
+	}
+
+	/**
+	 * Writes the element the reader is positioned on, or the first element after
+	 * the position of the reader, to the writer. The namespace declarations reported
+	 * by the reader are written as they are, and the given namespaces of the ancestors
+	 * of the element are declared on it unless the element binds their prefixes itself.
+	 *
+	 * @param reader
+	 * @param writer
+	 * @param inScopeNamespaces prefix -> namespace URI, may be null
+	 * @throws XMLStreamException
+	 */
+	static void copy (XMLStreamReader reader, XMLStreamWriter writer, Map inScopeNamespaces) throws XMLStreamException {
+		while (reader.getEventType()!=XMLStreamConstants.START_ELEMENT)
+			reader.next();
+
+		int depth = 0;
+		while (true) {
+			switch (reader.getEventType()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				writer.writeStartElement(nonNull(reader.getPrefix()),reader.getLocalName(),
+						nonNull(reader.getNamespaceURI()));
+				for (int i=0;i<reader.getNamespaceCount();i++) {
+					String prefix = reader.getNamespacePrefix(i);
+					if (prefix==null || prefix.length()==0)
+						writer.writeDefaultNamespace(nonNull(reader.getNamespaceURI(i)));
+					else
+						writer.writeNamespace(prefix,reader.getNamespaceURI(i));
+				}
+				if (depth==1 && inScopeNamespaces!=null)
+					writeInScopeNamespaces(reader,writer,inScopeNamespaces);
+				for (int i=0;i<reader.getAttributeCount();i++) {
+					String namespace = reader.getAttributeNamespace(i);
+					if (namespace==null || namespace.length()==0)
+						writer.writeAttribute(reader.getAttributeLocalName(i),reader.getAttributeValue(i));
+					else
+						writer.writeAttribute(nonNull(reader.getAttributePrefix(i)),namespace,
+								reader.getAttributeLocalName(i),reader.getAttributeValue(i));
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				writer.writeEndElement();
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+				writer.writeCharacters(reader.getText());
+				break;
+			case XMLStreamConstants.CDATA:
+				writer.writeCData(reader.getText());
+				break;
+			case XMLStreamConstants.COMMENT:
+				writer.writeComment(reader.getText());
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				writer.writeProcessingInstruction(reader.getPITarget(),reader.getPIData());
+				break;
+			}
+
+			if (depth==0)
+				return;
+			reader.next();
+		}
+	}
+
+	/**
+	 * Declares the in scope namespaces whose prefixes are not bound by the start
+	 * element the reader is positioned on.
+	 */
+	private static void writeInScopeNamespaces (XMLStreamReader reader, XMLStreamWriter writer, Map inScopeNamespaces) throws XMLStreamException {
+		Set boundPrefixes = new HashSet ();
+		boundPrefixes.add(nonNull(reader.getPrefix()));
+		for (int i=0;i<reader.getNamespaceCount();i++)
+			boundPrefixes.add(nonNull(reader.getNamespacePrefix(i)));
+		for (int i=0;i<reader.getAttributeCount();i++)
+			boundPrefixes.add(nonNull(reader.getAttributePrefix(i)));
+
+		for (Iterator it=inScopeNamespaces.entrySet().iterator();it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			String prefix = (String) entry.getKey();
+			if (boundPrefixes.contains(prefix))
+				continue;
+
+			if (prefix.length()==0)
+				writer.writeDefaultNamespace((String) entry.getValue());
+			else
+				writer.writeNamespace(prefix,(String) entry.getValue());
+		}
+	}
+
+	private static String nonNull (String value) {
+		return (value!=null) ? value : "";
+	}
+}
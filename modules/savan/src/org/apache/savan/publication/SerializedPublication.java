@@ -0,0 +1,213 @@
+/*
+ * Copyright  1999-2004 The Apache Software Foundation.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.savan.publication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.om.util.StAXUtils;
+import org.apache.axiom.soap.SOAP12Constants;
+import org.apache.axiom.soap.SOAPBody;
+import org.apache.axiom.soap.SOAPConstants;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axiom.soap.SOAPHeader;
+import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.MessageContext;
+import org.apache.savan.SavanException;
+import org.apache.savan.SavanMessageContext;
+
+/**
+ * An immutable copy of a publication, taken before it is handed to the
+ * subscribers asynchronously.
+ *
+ * Each element of the body is serialized once when the copy is taken, and the
+ * resulting buffers are shared by the envelopes of all deliveries. The buffers
+ * declare the namespaces of the envelope and body, since the content of an element
+ * may use their prefixes in QName values. Every delivery
+ * gets its own message context and envelope, since sending a message changes the
+ * addressing headers of the envelope and the options of the message context. Only
+ * the envelope skeleton, which holds the headers of the publication and an empty
+ * body, is parsed for each delivery.
+ */
+public class SerializedPublication {
+
+	private static XMLOutputFactory outputFactory;
+
+	static {
+		outputFactory = XMLOutputFactory.newInstance();
+		outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES,Boolean.TRUE);
+	}
+
+	/**
+	 * The envelope without the body content
+	 */
+	private byte[] skeleton;
+
+	/**
+	 * SerializedElementDataSource of each body element
+	 */
+	private SerializedElementDataSource[] payload;
+
+	private boolean soap12;
+
+	private ConfigurationContext configurationContext;
+
+	private Options options;
+
+	public SerializedPublication (SavanMessageContext publication) throws SavanException {
+		SOAPEnvelope envelope = publication.getEnvelope();
+		if (envelope==null)
+			throw new SavanException ("The publication does not have an envelope");
+
+		try {
+			OMNamespace soapNamespace = envelope.getNamespace();
+			String soapPrefix = soapNamespace.getPrefix()!=null ? soapNamespace.getPrefix() : "";
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream ();
+			XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out,"UTF-8");
+			writer.writeStartElement(soapPrefix,SOAPConstants.SOAPENVELOPE_LOCAL_NAME,soapNamespace.getNamespaceURI());
+			writeNamespaces(writer,envelope,soapPrefix);
+			SOAPHeader header = envelope.getHeader();
+			if (header!=null)
+				SerializedElementDataSource.copy(header.getXMLStreamReader(),writer);
+			SOAPBody body = envelope.getBody();
+			writer.writeStartElement(soapPrefix,SOAPConstants.BODY_LOCAL_NAME,soapNamespace.getNamespaceURI());
+			writeNamespaces(writer,body,soapPrefix);
+			writer.writeEndElement();
+			writer.writeEndElement();
+			writer.flush();
+			skeleton = out.toByteArray();
+
+			//prefix -> namespace URI of the declarations of the envelope and body
+			Map inScopeNamespaces = new LinkedHashMap ();
+			addNamespaces(inScopeNamespaces,envelope);
+			addNamespaces(inScopeNamespaces,body);
+
+			ArrayList elements = new ArrayList ();
+			for (Iterator it=body.getChildElements();it.hasNext();) {
+				OMElement element = (OMElement) it.next();
+				out = new ByteArrayOutputStream ();
+				writer = outputFactory.createXMLStreamWriter(out,"UTF-8");
+				SerializedElementDataSource.copy(element.getXMLStreamReader(),writer,inScopeNamespaces);
+				writer.flush();
+
+				OMNamespace namespace = element.getNamespace();
+				elements.add(new SerializedElementDataSource (element.getLocalName(),
+						(namespace!=null) ? namespace.getNamespaceURI() : null,
+						(namespace!=null) ? namespace.getPrefix() : null,
+						out.toByteArray()));
+			}
+			payload = (SerializedElementDataSource[]) elements.toArray(new SerializedElementDataSource[elements.size()]);
+		} catch (XMLStreamException e) {
+			String message = "Could not serialize the publication";
+			throw new SavanException (message,e);
+		}
+
+		this.soap12 = SOAP12Constants.SOAP_ENVELOPE_NAMESPACE_URI.equals(envelope
+				.getNamespace().getNamespaceURI());
+		this.configurationContext = publication.getConfigurationContext();
+		this.options = publication.getMessageContext().getOptions();
+	}
+
+	/**
+	 * Writes the namespace declarations of the given element, other than the
+	 * declaration of the SOAP prefix which is written with the element.
+	 */
+	private static void writeNamespaces (XMLStreamWriter writer, OMElement element, String soapPrefix) throws XMLStreamException {
+		for (Iterator it=element.getAllDeclaredNamespaces();it.hasNext();) {
+			OMNamespace namespace = (OMNamespace) it.next();
+			String prefix = namespace.getPrefix()!=null ? namespace.getPrefix() : "";
+			if (prefix.equals(soapPrefix))
+				continue;
+
+			if (prefix.length()==0)
+				writer.writeDefaultNamespace(namespace.getNamespaceURI());
+			else
+				writer.writeNamespace(prefix,namespace.getNamespaceURI());
+		}
+	}
+
+	private static void addNamespaces (Map namespaces, OMElement element) {
+		for (Iterator it=element.getAllDeclaredNamespaces();it.hasNext();) {
+			OMNamespace namespace = (OMNamespace) it.next();
+			String prefix = namespace.getPrefix()!=null ? namespace.getPrefix() : "";
+			namespaces.put(prefix,namespace.getNamespaceURI());
+		}
+	}
+
+	public ConfigurationContext getConfigurationContext () {
+		return configurationContext;
+	}
+
+	/**
+	 * Creates a new publication message context to be used for a single delivery.
+	 * The options of the new message context have the options of the original
+	 * publication as their parent.
+	 *
+	 * @return
+	 * @throws SavanException
+	 */
+	public SavanMessageContext createMessageContext () throws SavanException {
+		try {
+			SOAPFactory factory = soap12 ? OMAbstractFactory.getSOAP12Factory()
+					: OMAbstractFactory.getSOAP11Factory();
+			StAXSOAPModelBuilder builder = new StAXSOAPModelBuilder (StAXUtils
+					.createXMLStreamReader(new ByteArrayInputStream (skeleton)),factory,null);
+			SOAPEnvelope envelope = builder.getSOAPEnvelope();
+			envelope.build();
+
+			SOAPBody body = envelope.getBody();
+			for (int i=0;i<payload.length;i++) {
+				SerializedElementDataSource source = payload[i];
+				OMNamespace namespace = null;
+				if (source.getNamespaceURI()!=null && source.getNamespaceURI().length()>0)
+					namespace = factory.createOMNamespace(source.getNamespaceURI(),source.getPrefix());
+				body.addChild(factory.createOMElement(source,source.getLocalName(),namespace));
+			}
+
+			MessageContext messageContext = new MessageContext ();
+			messageContext.setConfigurationContext(configurationContext);
+			//subscribers change the options, such as the To address of the delivery
+			messageContext.setOptions(new Options (options));
+			messageContext.setEnvelope(envelope);
+
+			return new SavanMessageContext (messageContext);
+		} catch (XMLStreamException e) {
+			String message = "Could not read the serialized publication";
+			throw new SavanException (message,e);
+		} catch (AxisFault e) {
+			String message = "Could not create the publication message context";
+			throw new SavanException (message,e);
+		}
+	}
+}
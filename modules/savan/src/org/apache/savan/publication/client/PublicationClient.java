@@ -30,6 +30,7 @@ import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.description.Parameter;
 import org.apache.savan.SavanConstants;
 import org.apache.savan.SavanException;
+import org.apache.savan.publication.PublicationReport;
 import org.apache.savan.storage.SubscriberStore;
 
 /**
@@ -41,11 +42,17 @@ public class PublicationClient {
 	
 	public static final String TEMP_PUBLICATION_ACTION = "UUID:TempPublicationAction";
 	
-	public static void sendPublication (SOAPEnvelope publication,ConfigurationContext configurationContext, SubscriberStore store) throws SavanException {
+	/**
+	 * Sends the publication to the subscribers in the store.
+	 * 
+	 * @return the report of the publication, which may still be filled in
+	 * asynchronously. See PublicationReport.waitForCompletion.
+	 */
+	public static PublicationReport sendPublication (SOAPEnvelope publication,ConfigurationContext configurationContext, SubscriberStore store) throws SavanException {
 		
 		try {
 			Options options = new Options ();
-			sendPublication(publication,configurationContext,options,store);
+			return sendPublication(publication,configurationContext,options,store);
 			
 		} catch (AxisFault e) {
 			String message = "Could not send the publication";
@@ -53,7 +60,7 @@ public class PublicationClient {
 		}
 	}
 	
-	public static void sendPublication (SOAPEnvelope publication,ConfigurationContext configurationContext, Options options, SubscriberStore store) throws SavanException {
+	public static PublicationReport sendPublication (SOAPEnvelope publication,ConfigurationContext configurationContext, Options options, SubscriberStore store) throws SavanException {
 		
 		try {
 			ServiceClient sc = new ServiceClient (configurationContext,null);
@@ -79,6 +86,8 @@ public class PublicationClient {
 			OperationClient client = sc.createClient(ServiceClient.ANON_OUT_ONLY_OP);
 			client.addMessageContext(mc);
 			client.execute(true);
+			
+			return (PublicationReport) mc.getProperty(SavanConstants.PUBLICATION_REPORT);
 		} catch (AxisFault e) {
 			String message = "Could not send the publication";
 			throw new SavanException (message,e);
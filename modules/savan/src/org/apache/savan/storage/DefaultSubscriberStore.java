@@ -17,21 +17,32 @@
 
 package org.apache.savan.storage;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.savan.SavanException;
-import org.apache.savan.subscribers.AbstractSubscriber;
+import org.apache.savan.filters.FilterIndex;
 import org.apache.savan.subscribers.Subscriber;
 
-public class DefaultSubscriberStore implements SubscriberStore {
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
 
-	private HashMap subscriberMap = null;
+/**
+ * Keeps the subscribers in memory.
+ * 
+ * Subscribers are kept in a concurrent map by ID, and partitioned by their filters
+ * in a FilterIndex. Publications read both without locking, while changes to the
+ * store are serialized.
+ */
+public class DefaultSubscriberStore implements IndexedSubscriberStore {
+
+	private ConcurrentHashMap subscriberMap = null;
+	
+	private FilterIndex filterIndex = null;
 	
 	public DefaultSubscriberStore () {
-		subscriberMap = new HashMap ();
+		subscriberMap = new ConcurrentHashMap ();
+		filterIndex = new FilterIndex ();
 	}
 	
 	public void init(ConfigurationContext configurationContext) throws SavanException {
@@ -39,25 +50,32 @@ public class DefaultSubscriberStore implements SubscriberStore {
 	}
 
 	public Subscriber retrieve(String id) {
-		return (AbstractSubscriber) subscriberMap.get(id);
+		return (Subscriber) subscriberMap.get(id);
 	}
 
-	public void store(Subscriber s) {
-		subscriberMap.put(s.getId(),s);
+	public synchronized void store(Subscriber s) {
+		Subscriber previous = (Subscriber) subscriberMap.put(s.getId(),s);
+		if (previous!=null)
+			filterIndex.remove(previous);
+		filterIndex.add(s);
 	}
 
-	public void delete(String subscriberID) {
-		subscriberMap.remove(subscriberID);
+	public synchronized void delete(String subscriberID) {
+		Subscriber previous = (Subscriber) subscriberMap.remove(subscriberID);
+		if (previous!=null)
+			filterIndex.remove(previous);
 	}
 
+	/**
+	 * The returned iterator walks the stored subscribers without copying them. It
+	 * does not fail when the store is changed while iterating, and may or may not
+	 * reflect such changes.
+	 */
 	public Iterator retrieveAll() {
-		ArrayList allSubscribers = new ArrayList ();
-		for (Iterator iter=subscriberMap.keySet().iterator();iter.hasNext();) {
-			Object key = iter.next();
-			allSubscribers.add(subscriberMap.get(key));
-		}
-		return allSubscribers.iterator();
+		return Collections.unmodifiableCollection(subscriberMap.values()).iterator();
 	}
 
-	
+	public FilterIndex getFilterIndex() {
+		return filterIndex;
+	}
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright  1999-2004 The Apache Software Foundation.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.savan.storage;
+
+import org.apache.savan.filters.FilterIndex;
+
+/**
+ * A SubscriberStore that keeps its subscribers in a FilterIndex, so that a 
+ * publication can be matched against each distinct filter once.
+ */
+public interface IndexedSubscriberStore extends SubscriberStore {
+
+	/**
+	 * To get the index of the stored subscribers. The index is kept up to date by
+	 * the store and must not be changed by the callers.
+	 * 
+	 * @return
+	 */
+	FilterIndex getFilterIndex ();
+}
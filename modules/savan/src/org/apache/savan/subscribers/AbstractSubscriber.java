@@ -84,11 +84,22 @@ public abstract class AbstractSubscriber implements Subscriber {
 	 * @throws SavanException
 	 */
 	public void processPublication (SavanMessageContext publication,PublicationReport report) throws SavanException {
-		if (doesMessageBelongToTheFilter(publication)) {
-			sendPublication(publication,report);
-			if (getId()!=null)
-				report.addNotifiedSubscriber(getId());
-		}
+		if (doesMessageBelongToTheFilter(publication))
+			deliverPublication(publication,report);
+	}
+	
+	/**
+	 * Sends the message without checking the filter, and adds the subscriberID to the
+	 * PublicationReport. To be used when the filter has already been checked.
+	 * 
+	 * @param publication
+	 * @param report
+	 * @throws SavanException
+	 */
+	public void deliverPublication (SavanMessageContext publication,PublicationReport report) throws SavanException {
+		sendPublication(publication,report);
+		if (getId()!=null)
+			report.addNotifiedSubscriber(getId());
 	}
 	
 	public abstract void setSubscriptionEndingTime (Date subscriptionEndingTime);
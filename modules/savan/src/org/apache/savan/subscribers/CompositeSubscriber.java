@@ -22,6 +22,7 @@ import java.util.Date;
 import java.util.Iterator;
 import org.apache.savan.SavanException;
 import org.apache.savan.SavanMessageContext;
+import org.apache.savan.filters.FilterIndex;
 import org.apache.savan.publication.PublicationReport;
 import org.apache.savan.subscription.ExpirationBean;
 
@@ -33,12 +34,36 @@ public class CompositeSubscriber extends AbstractSubscriber {
 
 	ArrayList subscribers = null;
 	
+	/**
+	 * Index of the subscribers, built on first use and dropped when a subscriber
+	 * is added.
+	 */
+	private volatile FilterIndex filterIndex = null;
+	
 	public CompositeSubscriber (){
 		subscribers = new ArrayList ();
 	}
 	
 	public void addSubscriber (AbstractSubscriber subscriber) {
 		subscribers.add(subscriber);
+		filterIndex = null;
+	}
+	
+	public Iterator getSubscribers () {
+		return subscribers.iterator();
+	}
+	
+	/**
+	 * @return a FilterIndex of the subscribers of this composite, shared by all
+	 * publications until a subscriber is added.
+	 */
+	public FilterIndex getFilterIndex () {
+		FilterIndex index = filterIndex;
+		if (index==null) {
+			index = new FilterIndex (subscribers.iterator());
+			filterIndex = index;
+		}
+		return index;
 	}
 	
 	public void sendPublication(SavanMessageContext publication, PublicationReport report)  throws SavanException {
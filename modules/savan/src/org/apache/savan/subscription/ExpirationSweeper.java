@@ -0,0 +1,268 @@
+/*
+ * Copyright  1999-2004 The Apache Software Foundation.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.savan.subscription;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ServiceContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.savan.SavanConstants;
+import org.apache.savan.SavanException;
+
+import edu.emory.mathcs.backport.java.util.concurrent.RejectedExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.ScheduledThreadPoolExecutor;
+import edu.emory.mathcs.backport.java.util.concurrent.ThreadFactory;
+import edu.emory.mathcs.backport.java.util.concurrent.TimeUnit;
+
+/**
+ * Ends the subscriptions that have expired, so that expired subscribers are removed
+ * from the store instead of being considered for every publication.
+ * 
+ * Expiration times are kept in a timer wheel: a ring of slots, each holding the
+ * subscriptions that expire at a tick falling on that slot. Every tick a single
+ * slot is swept, so scheduling, cancelling and sweeping cost the same however many
+ * subscriptions there are. Subscriptions end at most one tick after their
+ * expiration time, through SubscriptionProcessor.endSubscription, which is called
+ * from the other threads of the sweeper so that slow subscribers do not delay the
+ * sweeps. A subscription that has been renewed or cancelled after it was swept is
+ * not ended.
+ */
+public class ExpirationSweeper {
+
+	private static final Log log = LogFactory.getLog(ExpirationSweeper.class);
+	
+	public static final long DEFAULT_TICK_DURATION = 1000;
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+	public static final int DEFAULT_THREADS = 4;
+	
+	public static final String EXPIRATION_REASON = "The subscription has expired";
+	
+	private long tickDuration;
+	
+	private long startTime;
+	
+	/**
+	 * Number of ticks swept so far
+	 */
+	private long currentTick = 0;
+	
+	/**
+	 * Set of Expirations per slot
+	 */
+	private Set[] wheel;
+	
+	/**
+	 * Subscriber ID -> Expiration, including the swept Expirations whose subscriptions
+	 * are yet to be ended
+	 */
+	private Map expirations = new HashMap ();
+	
+	private ScheduledThreadPoolExecutor executor;
+	
+	public ExpirationSweeper () {
+		this (DEFAULT_TICK_DURATION,DEFAULT_WHEEL_SIZE);
+	}
+	
+	/**
+	 * @param tickDuration time between two sweeps in milliseconds.
+	 * @param wheelSize number of slots of the wheel.
+	 */
+	public ExpirationSweeper (long tickDuration, int wheelSize) {
+		this (tickDuration,wheelSize,DEFAULT_THREADS);
+	}
+	
+	/**
+	 * @param tickDuration time between two sweeps in milliseconds.
+	 * @param wheelSize number of slots of the wheel.
+	 * @param threads number of threads sweeping and ending the expired subscriptions.
+	 */
+	public ExpirationSweeper (long tickDuration, int wheelSize, int threads) {
+		this.tickDuration = tickDuration;
+		
+		wheel = new Set[wheelSize];
+		for (int i=0;i<wheelSize;i++)
+			wheel[i] = new HashSet ();
+		
+		startTime = System.currentTimeMillis();
+		executor = new ScheduledThreadPoolExecutor (threads,new SweeperThreadFactory ());
+		executor.scheduleAtFixedRate(new Runnable () {
+			public void run () {
+				sweep ();
+			}
+		},tickDuration,tickDuration,TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Returns the sweeper kept in the given ConfigurationContext, or null if the
+	 * Savan module has not been initialized.
+	 * 
+	 * @param configurationContext
+	 * @return
+	 */
+	public static ExpirationSweeper getSweeper (ConfigurationContext configurationContext) {
+		if (configurationContext==null)
+			return null;
+		return (ExpirationSweeper) configurationContext.getProperty(SavanConstants.EXPIRATION_SWEEPER);
+	}
+	
+	/**
+	 * Schedules the end of a subscription, replacing any previously scheduled end
+	 * of the same subscription.
+	 * 
+	 * @param subscriberID
+	 * @param expirationTime
+	 * @param processor the processor used to end the subscription.
+	 * @param serviceContext the context of the service the subscription belongs to.
+	 */
+	public synchronized void schedule (String subscriberID, Date expirationTime, 
+			SubscriptionProcessor processor, ServiceContext serviceContext) {
+		cancel (subscriberID);
+		
+		long deadline = (expirationTime.getTime() - startTime + tickDuration - 1) / tickDuration;
+		if (deadline<=currentTick)
+			deadline = currentTick + 1;
+		
+		Expiration expiration = new Expiration (subscriberID,deadline,processor,serviceContext);
+		wheel[(int) (deadline % wheel.length)].add(expiration);
+		expirations.put(subscriberID,expiration);
+	}
+	
+	/**
+	 * Cancels the scheduled end of a subscription, if any.
+	 * 
+	 * @param subscriberID
+	 */
+	public synchronized void cancel (String subscriberID) {
+		Expiration expiration = (Expiration) expirations.remove(subscriberID);
+		if (expiration!=null)
+			wheel[(int) (expiration.deadline % wheel.length)].remove(expiration);
+	}
+	
+	/**
+	 * @return the number of subscriptions whose end is scheduled.
+	 */
+	public synchronized int size () {
+		return expirations.size();
+	}
+	
+	/**
+	 * Stops the sweeper. Scheduled subscription ends are dropped.
+	 */
+	public void shutdown () {
+		executor.shutdown();
+		synchronized (this) {
+			for (int i=0;i<wheel.length;i++)
+				wheel[i].clear();
+			expirations.clear();
+		}
+	}
+	
+	/**
+	 * Advances the wheel by one tick and hands the subscriptions expiring at that tick
+	 * over to be ended. The subscriptions are ended outside the lock and off the
+	 * sweeping thread, since that may involve sending messages.
+	 */
+	void sweep () {
+		List expired = new ArrayList ();
+		synchronized (this) {
+			currentTick++;
+			Set slot = wheel[(int) (currentTick % wheel.length)];
+			for (Iterator it=slot.iterator();it.hasNext();) {
+				Expiration expiration = (Expiration) it.next();
+				if (expiration.deadline<=currentTick) {
+					it.remove();
+					expired.add(expiration);
+				}
+			}
+		}
+		
+		for (Iterator it=expired.iterator();it.hasNext();) {
+			final Expiration expiration = (Expiration) it.next();
+			try {
+				executor.execute(new Runnable () {
+					public void run () {
+						end (expiration);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				//the sweeper has been shut down
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Ends the subscription of a swept Expiration, unless the subscription has been
+	 * renewed or cancelled since, which replaces or removes its Expiration.
+	 * 
+	 * @param expiration
+	 */
+	private void end (Expiration expiration) {
+		synchronized (this) {
+			if (expirations.get(expiration.subscriberID)!=expiration)
+				return;
+			expirations.remove(expiration.subscriberID);
+		}
+		
+		try {
+			expiration.processor.endSubscription(expiration.subscriberID,EXPIRATION_REASON,expiration.serviceContext);
+		} catch (SavanException e) {
+			log.error("Could not end the expired subscription " + expiration.subscriberID,e);
+		} catch (RuntimeException e) {
+			log.error("Could not end the expired subscription " + expiration.subscriberID,e);
+		}
+	}
+	
+	private static class Expiration {
+		
+		private String subscriberID;
+		
+		/**
+		 * The tick at which the subscription ends
+		 */
+		private long deadline;
+		
+		private SubscriptionProcessor processor;
+		private ServiceContext serviceContext;
+		
+		private Expiration (String subscriberID, long deadline, SubscriptionProcessor processor, ServiceContext serviceContext) {
+			this.subscriberID = subscriberID;
+			this.deadline = deadline;
+			this.processor = processor;
+			this.serviceContext = serviceContext;
+		}
+	}
+	
+	private static class SweeperThreadFactory implements ThreadFactory {
+		
+		public Thread newThread (Runnable runnable) {
+			Thread thread = new Thread (runnable,"SavanExpirationSweeper");
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -17,14 +17,18 @@
 
 package org.apache.savan.subscription;
 
+import java.util.Date;
+
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.ServiceContext;
 import org.apache.savan.SavanException;
 import org.apache.savan.SavanMessageContext;
 import org.apache.savan.storage.SubscriberStore;
 import org.apache.savan.subscribers.AbstractSubscriber;
+import org.apache.savan.subscribers.LeafSubscriber;
 import org.apache.savan.subscribers.Subscriber;
 import org.apache.savan.util.CommonUtil;
+import org.apache.savan.util.ServiceClientCache;
 
 /**
  * Abstractly defines subscription methods.
@@ -46,6 +50,11 @@ public abstract class SubscriptionProcessor {
 			throw new SavanException ("AbstractSubscriber store not found");
 		
 		store.delete (subscriberID);
+		ServiceClientCache.getCache(endSubscriptionMessage.getConfigurationContext()).release(subscriberID);
+		
+		ExpirationSweeper sweeper = ExpirationSweeper.getSweeper(endSubscriptionMessage.getConfigurationContext());
+		if (sweeper!=null)
+			sweeper.cancel(subscriberID);
 	}
 
 	public void renewSubscription(SavanMessageContext renewMessage)  throws SavanException {
@@ -59,7 +68,17 @@ public abstract class SubscriptionProcessor {
 			throw new SavanException ("Given subscriber is not present");
 		}
 		
-		subscriber.renewSubscription(bean);
+		//keeps the sweeper from ending the subscription while its expiration time
+		//is being changed, it is scheduled again once renewed
+		ExpirationSweeper sweeper = ExpirationSweeper.getSweeper(renewMessage.getConfigurationContext());
+		if (sweeper!=null)
+			sweeper.cancel(subscriber.getId());
+		
+		try {
+			subscriber.renewSubscription(bean);
+		} finally {
+			scheduleExpiration(subscriber,renewMessage);
+		}
 	}
 
 	public void subscribe(SavanMessageContext subscriptionMessage) throws SavanException {
@@ -72,6 +91,7 @@ public abstract class SubscriptionProcessor {
 		
 		Subscriber subscriber = getSubscriberFromMessage (subscriptionMessage);
 		store.store (subscriber);
+		scheduleExpiration(subscriber,subscriptionMessage);
 	}
 	
 	public void endSubscription(String subscriberID,String reason,ServiceContext serviceContext)  throws SavanException {
@@ -82,9 +102,39 @@ public abstract class SubscriptionProcessor {
 		}
 		
 		Subscriber subscriber = store.retrieve(subscriberID);
-		doProtocolSpecificEndSubscription(subscriber,reason,serviceContext.getConfigurationContext());
+		if (subscriber==null)
+			return;
+		
+		try {
+			doProtocolSpecificEndSubscription(subscriber,reason,serviceContext.getConfigurationContext());
+		} finally {
+			store.delete(subscriberID);
+			ServiceClientCache.getCache(serviceContext.getConfigurationContext()).release(subscriberID);
+			
+			ExpirationSweeper sweeper = ExpirationSweeper.getSweeper(serviceContext.getConfigurationContext());
+			if (sweeper!=null)
+				sweeper.cancel(subscriberID);
+		}
+	}
+	
+	/**
+	 * Schedules the end of the subscription at its expiration time, so that expired
+	 * subscribers are removed from the store.
+	 * 
+	 * @param subscriber
+	 * @param smc the subscription or renew message.
+	 */
+	private void scheduleExpiration (Subscriber subscriber, SavanMessageContext smc) {
+		ExpirationSweeper sweeper = ExpirationSweeper.getSweeper(smc.getConfigurationContext());
+		ServiceContext serviceContext = smc.getMessageContext().getServiceContext();
+		if (sweeper==null || serviceContext==null || !(subscriber instanceof LeafSubscriber))
+			return;
 		
-		store.delete(subscriberID);
+		Date endingTime = ((LeafSubscriber) subscriber).getSubscriptionEndingTime();
+		if (endingTime!=null)
+			sweeper.schedule(subscriber.getId(),endingTime,this,serviceContext);
+		else
+			sweeper.cancel(subscriber.getId());
 	}
 	
 	public abstract void pauseSubscription (SavanMessageContext pauseSubscriptionMessage) throws SavanException;
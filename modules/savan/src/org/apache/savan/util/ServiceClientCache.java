@@ -0,0 +1,256 @@
+/*
+ * Copyright  1999-2004 The Apache Software Foundation.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.savan.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.addressing.EndpointReference;
+import org.apache.axis2.client.ServiceClient;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.savan.SavanConstants;
+import org.apache.savan.SavanException;
+
+/**
+ * Keeps the ServiceClients used to deliver publications, one per delivery address.
+ *
+ * Creating a ServiceClient adds an anonymous service to the AxisConfiguration and
+ * engages the addressing module to it, which is too costly to do for every
+ * publication. A cached client has no options of its own, so it can be used by
+ * concurrent deliveries as long as each of them sets its options on the
+ * OperationClient it creates.
+ *
+ * A client is cleaned up when all subscriptions delivered through it have ended,
+ * once the sends in progress through it have completed. Publications that are
+ * still queued for a subscriber whose subscription has ended do not get a client,
+ * so that they cannot register the subscriber again.
+ */
+public class ServiceClientCache {
+
+	private static final Log log = LogFactory.getLog(ServiceClientCache.class);
+
+	/**
+	 * Number of ended subscriptions that are remembered
+	 */
+	private static final int MAX_RELEASED_IDS = 10000;
+
+	private ConfigurationContext configurationContext;
+
+	/**
+	 * Delivery address -> CacheEntry
+	 */
+	private Map clients = new HashMap ();
+
+	/**
+	 * ServiceClient -> CacheEntry, including the clients waiting for their sends
+	 * to complete before they are cleaned up
+	 */
+	private Map clientEntries = new HashMap ();
+
+	/**
+	 * Subscriber ID -> Delivery address
+	 */
+	private Map subscriberAddresses = new HashMap ();
+
+	/**
+	 * IDs of the subscribers released most recently
+	 */
+	private Map releasedIDs = new LinkedHashMap () {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size()>MAX_RELEASED_IDS;
+		}
+	};
+
+	public ServiceClientCache (ConfigurationContext configurationContext) {
+		this.configurationContext = configurationContext;
+	}
+
+	/**
+	 * Returns the cache kept in the given ConfigurationContext, creating it if
+	 * required.
+	 *
+	 * @param configurationContext
+	 * @return
+	 */
+	public static ServiceClientCache getCache (ConfigurationContext configurationContext) {
+		synchronized (configurationContext) {
+			ServiceClientCache cache = (ServiceClientCache) configurationContext
+					.getProperty(SavanConstants.SERVICE_CLIENT_CACHE);
+			if (cache==null) {
+				cache = new ServiceClientCache (configurationContext);
+				configurationContext.setProperty(SavanConstants.SERVICE_CLIENT_CACHE,cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Returns the client for the address of the given EPR, creating it and engaging
+	 * the addressing module to it if required. The client has to be handed back with
+	 * returnServiceClient once the send has completed.
+	 *
+	 * @param deliveryEPR
+	 * @param subscriberID the subscriber the client is used for, the client is
+	 * kept until all such subscribers are released.
+	 * @return the client, null if the subscriber has been released.
+	 * @throws SavanException
+	 */
+	public synchronized ServiceClient getServiceClient (EndpointReference deliveryEPR, String subscriberID) throws SavanException {
+		if (subscriberID!=null && releasedIDs.containsKey(subscriberID))
+			return null;
+
+		String address = deliveryEPR.getAddress();
+		CacheEntry entry = (CacheEntry) clients.get(address);
+		if (entry==null) {
+			entry = new CacheEntry (createServiceClient(address));
+			clients.put(address,entry);
+			clientEntries.put(entry.serviceClient,entry);
+		}
+
+		if (subscriberID!=null && entry.subscriberIDs.add(subscriberID))
+			subscriberAddresses.put(subscriberID,address);
+
+		entry.sends++;
+		return entry.serviceClient;
+	}
+
+	/**
+	 * To be called when a send through a client returned by getServiceClient has
+	 * completed. A client that is no longer used by any subscriber is cleaned up
+	 * with its last send.
+	 *
+	 * @param serviceClient
+	 */
+	public synchronized void returnServiceClient (ServiceClient serviceClient) {
+		CacheEntry entry = (CacheEntry) clientEntries.get(serviceClient);
+		if (entry==null)
+			return;
+
+		entry.sends--;
+		if (entry.removed && entry.sends==0) {
+			clientEntries.remove(serviceClient);
+			cleanup(serviceClient);
+		}
+	}
+
+	/**
+	 * To be called when a subscription ends. The client of the subscriber is cleaned
+	 * up if no other subscriber uses it.
+	 *
+	 * @param subscriberID
+	 */
+	public synchronized void release (String subscriberID) {
+		releasedIDs.put(subscriberID,Boolean.TRUE);
+
+		String address = (String) subscriberAddresses.remove(subscriberID);
+		if (address==null)
+			return;
+
+		CacheEntry entry = (CacheEntry) clients.get(address);
+		entry.subscriberIDs.remove(subscriberID);
+		if (entry.subscriberIDs.isEmpty()) {
+			clients.remove(address);
+			entry.removed = true;
+			if (entry.sends==0) {
+				clientEntries.remove(entry.serviceClient);
+				cleanup(entry.serviceClient);
+			}
+		}
+	}
+
+	/**
+	 * Cleans up all the clients.
+	 */
+	public synchronized void clear () {
+		for (Iterator it=clientEntries.values().iterator();it.hasNext();) {
+			CacheEntry entry = (CacheEntry) it.next();
+			cleanup(entry.serviceClient);
+		}
+
+		clients.clear();
+		clientEntries.clear();
+		subscriberAddresses.clear();
+	}
+
+	/**
+	 * @return the number of cached clients.
+	 */
+	public synchronized int size () {
+		return clients.size();
+	}
+
+	/**
+	 * Creates the client for the given delivery address.
+	 *
+	 * @param address
+	 * @return
+	 * @throws SavanException
+	 */
+	protected ServiceClient createServiceClient (String address) throws SavanException {
+		try {
+			ServiceClient serviceClient = new ServiceClient (configurationContext,null);
+			serviceClient.engageModule(new QName ("addressing"));
+			return serviceClient;
+		} catch (AxisFault e) {
+			String message = "Could not create a client for the address " + address;
+			throw new SavanException (message,e);
+		}
+	}
+
+	protected void cleanup (ServiceClient serviceClient) {
+		try {
+			serviceClient.cleanup();
+		} catch (AxisFault e) {
+			log.debug("Could not clean up a publication client",e);
+		}
+	}
+
+	private static class CacheEntry {
+
+		private ServiceClient serviceClient;
+
+		/**
+		 * IDs of the subscribers using the client
+		 */
+		private Set subscriberIDs = new HashSet ();
+
+		/**
+		 * Number of sends in progress through the client
+		 */
+		private int sends = 0;
+
+		/**
+		 * Whether the client has been removed from the cache, it is cleaned up once
+		 * no send is in progress
+		 */
+		private boolean removed = false;
+
+		private CacheEntry (ServiceClient serviceClient) {
+			this.serviceClient = serviceClient;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.axis2.savan;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ServiceContext;
+import org.apache.savan.SavanException;
+import org.apache.savan.SavanMessageContext;
+import org.apache.savan.subscribers.Subscriber;
+import org.apache.savan.subscription.ExpirationBean;
+import org.apache.savan.subscription.ExpirationSweeper;
+import org.apache.savan.subscription.SubscriptionProcessor;
+
+public class ExpirationSweeperTest extends TestCase {
+
+	ExpirationSweeper sweeper = null;
+
+	protected void tearDown() throws Exception {
+		if (sweeper!=null)
+			sweeper.shutdown();
+	}
+
+	public void testExpiredSubscriptionsEnded () throws Exception {
+		sweeper = new ExpirationSweeper (10,8);
+		SubscriptionProcessorImpl processor = new SubscriptionProcessorImpl ();
+
+		long now = System.currentTimeMillis();
+		sweeper.schedule("expired",new Date (now - 1000),processor,null);
+		sweeper.schedule("soon",new Date (now + 200),processor,null);
+		sweeper.schedule("later",new Date (now + 60000),processor,null);
+		assertEquals(3,sweeper.size());
+
+		processor.waitForEndedSubscriptions(2);
+		assertTrue(processor.endedSubscriptions.contains("expired"));
+		assertTrue(processor.endedSubscriptions.contains("soon"));
+		assertEquals(1,sweeper.size());
+	}
+
+	public void testCancelAndRenew () throws Exception {
+		sweeper = new ExpirationSweeper (10,8);
+		SubscriptionProcessorImpl processor = new SubscriptionProcessorImpl ();
+
+		long now = System.currentTimeMillis();
+		sweeper.schedule("cancelled",new Date (now + 100),processor,null);
+		sweeper.cancel("cancelled");
+
+		sweeper.schedule("renewed",new Date (now + 100),processor,null);
+		sweeper.schedule("renewed",new Date (now + 60000),processor,null);
+
+		sweeper.schedule("expiring",new Date (now + 300),processor,null);
+		processor.waitForEndedSubscriptions(1);
+		assertEquals(1,processor.endedSubscriptions.size());
+		assertTrue(processor.endedSubscriptions.contains("expiring"));
+		assertEquals(1,sweeper.size());
+	}
+
+	public void testRenewalAfterSweep () throws Exception {
+		sweeper = new ExpirationSweeper (10,8,1);
+		//the first subscription ended renews the other one, which has been swept with it
+		SubscriptionProcessorImpl processor = new SubscriptionProcessorImpl () {
+			public void endSubscription(String subscriberID, String reason, ServiceContext serviceContext) {
+				String other = "subscriber1".equals(subscriberID) ? "subscriber2" : "subscriber1";
+				sweeper.schedule(other,new Date (System.currentTimeMillis() + 60000),this,null);
+				super.endSubscription(subscriberID,reason,serviceContext);
+			}
+		};
+
+		Date expirationTime = new Date (System.currentTimeMillis() + 100);
+		sweeper.schedule("subscriber1",expirationTime,processor,null);
+		sweeper.schedule("subscriber2",expirationTime,processor,null);
+
+		processor.waitForEndedSubscriptions(1);
+		Thread.sleep(200);
+		assertEquals(1,processor.endedSubscriptions.size());
+		assertEquals(1,sweeper.size());
+	}
+
+	public void testSlowEnd () throws Exception {
+		sweeper = new ExpirationSweeper (10,8,2);
+		final Object lock = new Object ();
+		final boolean[] released = new boolean[1];
+		SubscriptionProcessorImpl processor = new SubscriptionProcessorImpl () {
+			public void endSubscription(String subscriberID, String reason, ServiceContext serviceContext) {
+				if ("slow".equals(subscriberID)) {
+					synchronized (lock) {
+						while (!released[0]) {
+							try {
+								lock.wait();
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+					}
+				}
+				super.endSubscription(subscriberID,reason,serviceContext);
+			}
+		};
+
+		try {
+			long now = System.currentTimeMillis();
+			sweeper.schedule("slow",new Date (now),processor,null);
+			sweeper.schedule("fast",new Date (now + 200),processor,null);
+
+			//ended while the slow subscription is still being ended
+			processor.waitForEndedSubscriptions(1);
+			assertEquals("fast",processor.endedSubscriptions.get(0));
+		} finally {
+			synchronized (lock) {
+				released[0] = true;
+				lock.notifyAll();
+			}
+		}
+
+		processor.waitForEndedSubscriptions(2);
+		assertEquals(0,sweeper.size());
+	}
+
+	class SubscriptionProcessorImpl extends SubscriptionProcessor {
+
+		List endedSubscriptions = new ArrayList ();
+
+		public synchronized void endSubscription(String subscriberID, String reason, ServiceContext serviceContext) {
+			endedSubscriptions.add(subscriberID);
+			notifyAll();
+		}
+
+		synchronized void waitForEndedSubscriptions (int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (endedSubscriptions.size()<count && System.currentTimeMillis()<deadline)
+				wait (100);
+			assertTrue(endedSubscriptions.size()>=count);
+		}
+
+		public void init(SavanMessageContext smc) {
+		}
+
+		public void pauseSubscription(SavanMessageContext pauseSubscriptionMessage) {
+		}
+
+		public void resumeSubscription(SavanMessageContext resumeSubscriptionMessage) {
+		}
+
+		public Subscriber getSubscriberFromMessage(SavanMessageContext smc) {
+			return null;
+		}
+
+		public ExpirationBean getExpirationBean(SavanMessageContext renewMessage) {
+			return null;
+		}
+
+		public String getSubscriberID(SavanMessageContext smc) {
+			return null;
+		}
+
+		public void doProtocolSpecificEndSubscription(Subscriber subscriber, String reason, ConfigurationContext configurationContext) throws SavanException {
+		}
+	}
+}
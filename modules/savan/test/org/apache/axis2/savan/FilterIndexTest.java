@@ -0,0 +1,150 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.axis2.savan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.savan.SavanException;
+import org.apache.savan.SavanMessageContext;
+import org.apache.savan.filters.Filter;
+import org.apache.savan.filters.FilterIndex;
+import org.apache.savan.publication.PublicationReport;
+import org.apache.savan.subscribers.AbstractSubscriber;
+import org.apache.savan.subscribers.CompositeSubscriber;
+import org.apache.savan.subscribers.LeafSubscriber;
+
+public class FilterIndexTest extends TestCase {
+
+	public void testEachFilterCheckedOnce () {
+		FilterIndex index = new FilterIndex ();
+		CountingFilter acceptingFilter = null;
+		CountingFilter rejectingFilter = null;
+		for (int i=0;i<10;i++) {
+			CountingFilter filter = new CountingFilter ((i%2==0) ? "accept" : "reject");
+			if (i==0)
+				acceptingFilter = filter;
+			else if (i==1)
+				rejectingFilter = filter;
+			index.add(createSubscriber("subscriber" + i,filter));
+		}
+		index.add(createSubscriber("unfiltered",null));
+
+		assertEquals(11,index.size());
+		assertEquals(3,index.getFilterCount());
+
+		List matching = index.getMatchingSubscribers(createTestEnvelope(),new PublicationReport ());
+		assertEquals(6,matching.size());
+		assertEquals(1,acceptingFilter.checks);
+		assertEquals(1,rejectingFilter.checks);
+	}
+
+	public void testRemove () {
+		FilterIndex index = new FilterIndex ();
+		AbstractSubscriber subscriber1 = createSubscriber("subscriber1",new CountingFilter ("accept"));
+		AbstractSubscriber subscriber2 = createSubscriber("subscriber2",new CountingFilter ("accept"));
+		index.add(subscriber1);
+		index.add(subscriber2);
+
+		assertTrue(index.remove(subscriber1));
+		assertFalse(index.remove(subscriber1));
+		assertEquals(1,index.getFilterCount());
+
+		assertTrue(index.remove(subscriber2));
+		assertEquals(0,index.size());
+		assertEquals(0,index.getFilterCount());
+	}
+
+	public void testCreatedAtOnce () {
+		List subscribers = new ArrayList ();
+		CountingFilter acceptingFilter = new CountingFilter ("accept");
+		for (int i=0;i<1000;i++)
+			subscribers.add(createSubscriber("subscriber" + i,(i%2==0) ? acceptingFilter : new CountingFilter ("reject")));
+		subscribers.add(createSubscriber("unfiltered",null));
+
+		FilterIndex index = new FilterIndex (subscribers.iterator());
+		assertEquals(1001,index.size());
+		assertEquals(3,index.getFilterCount());
+
+		List matching = index.getMatchingSubscribers(createTestEnvelope(),new PublicationReport ());
+		assertEquals(501,matching.size());
+		assertEquals(1,acceptingFilter.checks);
+		assertEquals("subscriber0",((AbstractSubscriber) matching.get(0)).getId());
+
+		//an index created at once can still be changed
+		assertTrue(index.remove((AbstractSubscriber) subscribers.get(0)));
+		index.add(createSubscriber("added",acceptingFilter));
+		assertEquals(501,index.getMatchingSubscribers(createTestEnvelope(),new PublicationReport ()).size());
+	}
+
+	public void testCompositeIndexReused () {
+		CompositeSubscriber composite = new CompositeSubscriber ();
+		composite.addSubscriber(createSubscriber("subscriber1",new CountingFilter ("accept")));
+
+		FilterIndex index = composite.getFilterIndex();
+		assertSame(index,composite.getFilterIndex());
+
+		composite.addSubscriber(createSubscriber("subscriber2",new CountingFilter ("accept")));
+		assertNotSame(index,composite.getFilterIndex());
+		assertEquals(2,composite.getFilterIndex().size());
+	}
+
+	private AbstractSubscriber createSubscriber (String id, Filter filter) {
+		AbstractSubscriber subscriber = new LeafSubscriber () {
+			public void doProtocolSpecificPublication(SavanMessageContext publication) {
+			}
+		};
+		subscriber.setId(id);
+		subscriber.setFilter(filter);
+		return subscriber;
+	}
+
+	private SOAPEnvelope createTestEnvelope () {
+		SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+		SOAPEnvelope envelope = factory.getDefaultEnvelope();
+		envelope.getBody().addChild(factory.createOMElement("event",null));
+		return envelope;
+	}
+
+	class CountingFilter extends Filter {
+
+		String value;
+		int checks = 0;
+
+		CountingFilter (String value) {
+			this.value = value;
+		}
+
+		public boolean checkEnvelopeCompliance(SOAPEnvelope envelope) throws SavanException {
+			checks++;
+			return "accept".equals(value);
+		}
+
+		public void setUp(OMNode element) {
+		}
+
+		public Object getFilterValue() {
+			return value;
+		}
+	}
+}
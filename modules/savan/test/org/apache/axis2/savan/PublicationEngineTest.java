@@ -0,0 +1,271 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.axis2.savan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.addressing.EndpointReference;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.context.MessageContext;
+import org.apache.savan.SavanException;
+import org.apache.savan.SavanMessageContext;
+import org.apache.savan.publication.PublicationEngine;
+import org.apache.savan.publication.PublicationReport;
+import org.apache.savan.subscribers.CompositeSubscriber;
+import org.apache.savan.subscribers.LeafSubscriber;
+
+public class PublicationEngineTest extends TestCase {
+
+	PublicationEngine engine = null;
+
+	protected void tearDown() throws Exception {
+		if (engine!=null)
+			engine.shutdown();
+	}
+
+	public void testParallelDelivery () throws Exception {
+		engine = new PublicationEngine (2,10,0,10,1000);
+
+		LeafSubscriberImpl slowSubscriber = new LeafSubscriberImpl ("slow",0);
+		slowSubscriber.blocked = true;
+		LeafSubscriberImpl subscriber1 = new LeafSubscriberImpl ("subscriber1",0);
+		LeafSubscriberImpl subscriber2 = new LeafSubscriberImpl ("subscriber2",0);
+		CompositeSubscriber compositeSubscriber = new CompositeSubscriber ();
+		compositeSubscriber.addSubscriber(subscriber1);
+		compositeSubscriber.addSubscriber(subscriber2);
+
+		List subscribers = new ArrayList ();
+		subscribers.add(slowSubscriber);
+		subscribers.add(compositeSubscriber);
+
+		PublicationReport report = new PublicationReport ();
+		engine.publish(createPublication(),subscribers.iterator(),report);
+
+		//the other subscribers are notified while the slow one is blocked
+		subscriber1.waitForDeliveries(1);
+		subscriber2.waitForDeliveries(1);
+		assertFalse(report.isComplete());
+
+		slowSubscriber.unblock();
+		assertTrue(report.waitForCompletion(5000));
+		assertEquals(3,report.getNotifiedSubscribers().size());
+		assertTrue(report.getErrors().isEmpty());
+	}
+
+	public void testRetry () throws Exception {
+		engine = new PublicationEngine (2,10,3,10,1000);
+
+		LeafSubscriberImpl subscriber = new LeafSubscriberImpl ("subscriber",2);
+		List subscribers = new ArrayList ();
+		subscribers.add(subscriber);
+
+		PublicationReport report = new PublicationReport ();
+		engine.publish(createPublication(),subscribers.iterator(),report);
+
+		assertTrue(report.waitForCompletion(5000));
+		assertEquals(3,subscriber.attempts);
+		assertEquals(1,subscriber.deliveries);
+		assertTrue(report.getNotifiedSubscribers().contains("subscriber"));
+		assertTrue(report.getErrors().isEmpty());
+	}
+
+	public void testUnreachableSubscriber () throws Exception {
+		engine = new PublicationEngine (2,10,2,10,60000);
+
+		LeafSubscriberImpl subscriber = new LeafSubscriberImpl ("subscriber",Integer.MAX_VALUE);
+		List subscribers = new ArrayList ();
+		subscribers.add(subscriber);
+
+		PublicationReport report = new PublicationReport ();
+		engine.publish(createPublication(),subscribers.iterator(),report);
+		assertTrue(report.waitForCompletion(5000));
+		assertEquals(3,subscriber.attempts);
+		assertTrue(report.getErrors().containsKey("subscriber"));
+
+		//following publications fail without trying to deliver them
+		report = new PublicationReport ();
+		engine.publish(createPublication(),subscribers.iterator(),report);
+		assertTrue(report.waitForCompletion(5000));
+		assertEquals(3,subscriber.attempts);
+		assertTrue(report.getErrors().containsKey("subscriber"));
+	}
+
+	public void testQueueFull () throws Exception {
+		engine = new PublicationEngine (1,2,0,10,1000);
+
+		LeafSubscriberImpl subscriber = new LeafSubscriberImpl ("subscriber",0);
+		subscriber.blocked = true;
+		List subscribers = new ArrayList ();
+		subscribers.add(subscriber);
+
+		PublicationReport report1 = new PublicationReport ();
+		engine.publish(createPublication(),subscribers.iterator(),report1);
+		subscriber.waitForAttempts(1);
+
+		//the publication being delivered and a second one fill the queue
+		PublicationReport report2 = new PublicationReport ();
+		engine.publish(createPublication(),subscribers.iterator(),report2);
+		PublicationReport report3 = new PublicationReport ();
+		engine.publish(createPublication(),subscribers.iterator(),report3);
+		assertTrue(report3.isComplete());
+		assertTrue(report3.getErrors().containsKey("subscriber"));
+
+		subscriber.unblock();
+		assertTrue(report1.waitForCompletion(5000));
+		assertTrue(report2.waitForCompletion(5000));
+		assertEquals(2,subscriber.deliveries);
+	}
+
+	public void testDeliveryOptions () throws Exception {
+		engine = new PublicationEngine (2,10,0,10,1000);
+
+		Rendezvous rendezvous = new Rendezvous (2);
+		AddressingSubscriber subscriber1 = new AddressingSubscriber ("subscriber1","http://localhost/subscriber1",rendezvous);
+		AddressingSubscriber subscriber2 = new AddressingSubscriber ("subscriber2","http://localhost/subscriber2",rendezvous);
+		List subscribers = new ArrayList ();
+		subscribers.add(subscriber1);
+		subscribers.add(subscriber2);
+
+		SavanMessageContext publication = createPublication();
+		publication.getMessageContext().getOptions().setAction("urn:event");
+		PublicationReport report = new PublicationReport ();
+		engine.publish(publication,subscribers.iterator(),report);
+
+		assertTrue(report.waitForCompletion(5000));
+		assertTrue(report.getErrors().isEmpty());
+		assertEquals("http://localhost/subscriber1",subscriber1.to.getAddress());
+		assertEquals("http://localhost/subscriber2",subscriber2.to.getAddress());
+		assertEquals("urn:event",subscriber1.action);
+		assertEquals("urn:event",subscriber2.action);
+	}
+
+	private SavanMessageContext createPublication () throws AxisFault {
+		SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+		SOAPEnvelope envelope = factory.getDefaultEnvelope();
+		envelope.getBody().addChild(factory.createOMElement("event",null));
+
+		MessageContext mc = new MessageContext ();
+		mc.setEnvelope(envelope);
+		return new SavanMessageContext (mc);
+	}
+
+	class LeafSubscriberImpl extends LeafSubscriber {
+
+		int failures;
+		int attempts = 0;
+		int deliveries = 0;
+		boolean blocked = false;
+
+		LeafSubscriberImpl (String id, int failures) {
+			setId(id);
+			this.failures = failures;
+		}
+
+		public synchronized void doProtocolSpecificPublication(SavanMessageContext publication) throws SavanException {
+			if (publication.getEnvelope().getBody().getFirstElement()==null)
+				throw new SavanException ("The publication was not copied");
+
+			attempts++;
+			notifyAll();
+			while (blocked) {
+				try {
+					wait ();
+				} catch (InterruptedException e) {
+					throw new SavanException (e);
+				}
+			}
+
+			if (attempts<=failures)
+				throw new SavanException ("Delivery failed");
+			deliveries++;
+			notifyAll();
+		}
+
+		synchronized void unblock () {
+			blocked = false;
+			notifyAll();
+		}
+
+		synchronized void waitForAttempts (int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (attempts<count && System.currentTimeMillis()<deadline)
+				wait (100);
+			assertTrue(attempts>=count);
+		}
+
+		synchronized void waitForDeliveries (int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (deliveries<count && System.currentTimeMillis()<deadline)
+				wait (100);
+			assertTrue(deliveries>=count);
+		}
+	}
+
+	/**
+	 * Sets the To address of its delivery the way EventingLeafSubscriber does, and
+	 * reads it back once the other deliveries have set theirs.
+	 */
+	class AddressingSubscriber extends LeafSubscriber {
+
+		String address;
+		Rendezvous rendezvous;
+		EndpointReference to;
+		String action;
+
+		AddressingSubscriber (String id, String address, Rendezvous rendezvous) {
+			setId(id);
+			this.address = address;
+			this.rendezvous = rendezvous;
+		}
+
+		public void doProtocolSpecificPublication(SavanMessageContext publication) throws SavanException {
+			Options options = publication.getMessageContext().getOptions();
+			options.setTo(new EndpointReference (address));
+			try {
+				rendezvous.arrive();
+			} catch (InterruptedException e) {
+				throw new SavanException (e);
+			}
+			to = options.getTo();
+			action = options.getAction();
+		}
+	}
+
+	class Rendezvous {
+
+		int parties;
+
+		Rendezvous (int parties) {
+			this.parties = parties;
+		}
+
+		synchronized void arrive () throws InterruptedException {
+			parties--;
+			notifyAll();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (parties>0 && System.currentTimeMillis()<deadline)
+				wait (100);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.axis2.savan;
+
+import java.io.StringReader;
+import java.util.Iterator;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+
+import junit.framework.TestCase;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.soap.SOAP11Constants;
+import org.apache.axiom.soap.SOAP12Constants;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPHeaderBlock;
+import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
+import org.apache.axis2.context.MessageContext;
+import org.apache.savan.SavanMessageContext;
+import org.apache.savan.publication.SerializedPublication;
+
+public class SerializedPublicationTest extends TestCase {
+
+	private static final String XSI_NS = "http://www.w3.org/2001/XMLSchema-instance";
+	private static final String TNS_NS = "urn:tns";
+	private static final String BODY_NS = "urn:body";
+	private static final String HEADER_NS = "urn:header";
+	private static final String EVENT_NS = "urn:event";
+
+	public void testSOAP11 () throws Exception {
+		roundTrip(SOAP11Constants.SOAP_ENVELOPE_NAMESPACE_URI);
+	}
+
+	public void testSOAP12 () throws Exception {
+		roundTrip(SOAP12Constants.SOAP_ENVELOPE_NAMESPACE_URI);
+	}
+
+	private void roundTrip (String soapNamespace) throws Exception {
+		String xml = "<soapenv:Envelope xmlns:soapenv=\"" + soapNamespace + "\" xmlns:xsi=\"" + XSI_NS
+				+ "\" xmlns:tns=\"" + TNS_NS + "\"><soapenv:Header>"
+				+ "<hdr:Topic xmlns:hdr=\"" + HEADER_NS + "\" hdr:dialect=\"urn:dialect\" soapenv:mustUnderstand=\"1\">"
+				+ "tns:weather</hdr:Topic></soapenv:Header><soapenv:Body xmlns:body=\"" + BODY_NS + "\">"
+				+ "<event xmlns=\"" + EVENT_NS + "\" xsi:type=\"tns:Event\" body:priority=\"high\">"
+				+ "<level xsi:type=\"body:Level\">3</level></event>"
+				+ "<tns:note>text</tns:note></soapenv:Body></soapenv:Envelope>";
+
+		MessageContext mc = new MessageContext ();
+		mc.setEnvelope(parse(xml));
+		SerializedPublication publication = new SerializedPublication (new SavanMessageContext (mc));
+
+		//written from the serialized buffers
+		SOAPEnvelope envelope = publication.createMessageContext().getEnvelope();
+		assertEnvelope(soapNamespace,parse(envelope.toString()));
+
+		//the body elements read from their own buffers
+		envelope = publication.createMessageContext().getEnvelope();
+		OMElement event = envelope.getBody().getFirstElement();
+		assertDeclared(event,"xsi",XSI_NS);
+		assertDeclared(event,"tns",TNS_NS);
+		assertDeclared(event,"body",BODY_NS);
+		assertEnvelope(soapNamespace,envelope);
+		assertEnvelope(soapNamespace,parse(envelope.toString()));
+	}
+
+	private void assertEnvelope (String soapNamespace, SOAPEnvelope envelope) throws Exception {
+		assertEquals(soapNamespace,envelope.getNamespace().getNamespaceURI());
+
+		SOAPHeaderBlock topic = (SOAPHeaderBlock) envelope.getHeader().getFirstChildWithName(new QName (HEADER_NS,"Topic"));
+		assertNotNull(topic);
+		assertTrue(topic.getMustUnderstand());
+		assertEquals("urn:dialect",topic.getAttributeValue(new QName (HEADER_NS,"dialect")));
+		assertEquals(TNS_NS,topic.findNamespaceURI("tns").getNamespaceURI());
+
+		OMElement event = envelope.getBody().getFirstChildWithName(new QName (EVENT_NS,"event"));
+		assertNotNull(event);
+		assertEquals("tns:Event",event.getAttributeValue(new QName (XSI_NS,"type")));
+		assertEquals(TNS_NS,event.findNamespaceURI("tns").getNamespaceURI());
+		assertEquals("high",event.getAttributeValue(new QName (BODY_NS,"priority")));
+
+		OMElement level = event.getFirstChildWithName(new QName (EVENT_NS,"level"));
+		assertNotNull(level);
+		assertEquals("3",level.getText());
+		assertEquals("body:Level",level.getAttributeValue(new QName (XSI_NS,"type")));
+		assertEquals(BODY_NS,level.findNamespaceURI("body").getNamespaceURI());
+
+		OMElement note = envelope.getBody().getFirstChildWithName(new QName (TNS_NS,"note"));
+		assertNotNull(note);
+		assertEquals("text",note.getText());
+	}
+
+	private void assertDeclared (OMElement element, String prefix, String namespaceURI) {
+		for (Iterator it=element.getAllDeclaredNamespaces();it.hasNext();) {
+			OMNamespace namespace = (OMNamespace) it.next();
+			if (prefix.equals(namespace.getPrefix())) {
+				assertEquals(namespaceURI,namespace.getNamespaceURI());
+				return;
+			}
+		}
+		fail(prefix + " is not declared on " + element.getLocalName());
+	}
+
+	private SOAPEnvelope parse (String xml) throws Exception {
+		StAXSOAPModelBuilder builder = new StAXSOAPModelBuilder (XMLInputFactory.newInstance()
+				.createXMLStreamReader(new StringReader (xml)),null);
+		SOAPEnvelope envelope = builder.getSOAPEnvelope();
+		envelope.build();
+		return envelope;
+	}
+}
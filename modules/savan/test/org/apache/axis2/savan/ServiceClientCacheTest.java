@@ -0,0 +1,106 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.axis2.savan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.addressing.EndpointReference;
+import org.apache.axis2.client.ServiceClient;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.savan.SavanException;
+import org.apache.savan.util.ServiceClientCache;
+
+public class ServiceClientCacheTest extends TestCase {
+
+	private static final EndpointReference DELIVERY_EPR = new EndpointReference ("http://localhost:8080/sink");
+
+	public void testReleasedSubscriber () throws Exception {
+		ServiceClientCacheImpl cache = new ServiceClientCacheImpl (new ConfigurationContext (new AxisConfiguration ()));
+
+		ServiceClient serviceClient = cache.getServiceClient(DELIVERY_EPR,"subscriber1");
+		assertNotNull(serviceClient);
+		cache.returnServiceClient(serviceClient);
+		cache.release("subscriber1");
+		assertEquals(0,cache.size());
+		assertEquals(1,cache.cleanedUp.size());
+
+		//a publication that was still queued for the subscriber
+		assertNull(cache.getServiceClient(DELIVERY_EPR,"subscriber1"));
+		assertEquals(0,cache.size());
+
+		//other subscribers still get a client
+		serviceClient = cache.getServiceClient(DELIVERY_EPR,"subscriber2");
+		assertNotNull(serviceClient);
+		cache.returnServiceClient(serviceClient);
+		assertEquals(1,cache.size());
+	}
+
+	public void testReleaseDuringSend () throws Exception {
+		ServiceClientCacheImpl cache = new ServiceClientCacheImpl (new ConfigurationContext (new AxisConfiguration ()));
+
+		ServiceClient serviceClient = cache.getServiceClient(DELIVERY_EPR,"subscriber1");
+		cache.release("subscriber1");
+		assertEquals(0,cache.size());
+		assertTrue(cache.cleanedUp.isEmpty());
+
+		//a new client is created for later subscribers to the address
+		ServiceClient newServiceClient = cache.getServiceClient(DELIVERY_EPR,"subscriber2");
+		assertNotSame(serviceClient,newServiceClient);
+		cache.returnServiceClient(newServiceClient);
+
+		cache.returnServiceClient(serviceClient);
+		assertEquals(1,cache.cleanedUp.size());
+		assertSame(serviceClient,cache.cleanedUp.get(0));
+
+		cache.clear();
+		assertEquals(2,cache.cleanedUp.size());
+		assertSame(newServiceClient,cache.cleanedUp.get(1));
+	}
+
+	/**
+	 * Creates clients without engaging the addressing module and records
+	 * the clients that are cleaned up.
+	 */
+	class ServiceClientCacheImpl extends ServiceClientCache {
+
+		List cleanedUp = new ArrayList ();
+
+		ConfigurationContext configurationContext = null;
+
+		public ServiceClientCacheImpl (ConfigurationContext configurationContext) {
+			super (configurationContext);
+			this.configurationContext = configurationContext;
+		}
+
+		protected ServiceClient createServiceClient(String address) throws SavanException {
+			try {
+				return new ServiceClient (configurationContext,null);
+			} catch (AxisFault e) {
+				throw new SavanException (e);
+			}
+		}
+
+		protected void cleanup(ServiceClient serviceClient) {
+			cleanedUp.add(serviceClient);
+		}
+	}
+}
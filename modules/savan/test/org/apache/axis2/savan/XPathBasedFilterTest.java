@@ -43,6 +43,24 @@ public class XPathBasedFilterTest extends TestCase {
 		assertTrue (filter.checkEnvelopeCompliance(envelope));
 	}
 	
+	public void testSimpleExpressions () throws AxisFault {
+		SOAPEnvelope envelope = createTestEnvelope ();
+		
+		assertTrue (check("elem2",envelope));
+		assertFalse (check("elem3",envelope));
+		assertTrue (check("//elem3",envelope));
+		assertFalse (check("//elem4",envelope));
+		assertTrue (check("//elem3[@type='value']",envelope));
+		assertFalse (check("//elem3[@type='other']",envelope));
+		assertTrue (check("elem2/elem3[@type='value']",envelope));
+	}
+	
+	private boolean check (String XPathString, SOAPEnvelope envelope) throws AxisFault {
+		XPathBasedFilter filter = new XPathBasedFilter ();
+		filter.setXPathString(XPathString);
+		return filter.checkEnvelopeCompliance(envelope);
+	}
+	
 	private SOAPEnvelope createTestEnvelope () {
 		SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
 		SOAPEnvelope envelope = factory.getDefaultEnvelope();
@@ -50,6 +68,7 @@ public class XPathBasedFilterTest extends TestCase {
 		OMElement elem1 = factory.createOMElement("elem1",null);
 		OMElement elem2 = factory.createOMElement("elem2",null);
 		OMElement elem3 = factory.createOMElement("elem3",null);
+		elem3.addAttribute("type","value",null);
 
 		elem2.addChild(elem3);
 		elem1.addChild(elem2);
@@ -20,7 +20,9 @@ import java.util.Iterator;
 import javax.xml.namespace.QName;
 
 import org.apache.axiom.om.OMAttribute;
+import org.apache.axiom.om.OMContainer;
 import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
 import org.apache.neethi.Assertion;
 import org.apache.neethi.AssertionBuilderFactory;
 import org.apache.neethi.builders.AssertionBuilder;
@@ -57,7 +59,24 @@ public class EncryptedElementsBuilder implements AssertionBuilder {
 
     private void processElement(OMElement element, SignedEncryptedElements parent) {
         if (XPATH.equals(element.getQName())) {
-            parent.setXPathVersion(element.getText());                        
+            parent.addXPathExpression(element.getText().trim());
+            addNamespaces(element, parent);
+        }
+    }
+
+    /**
+     * Register the namespace bindings in scope of the given XPath element,
+     * the closest declaration of a prefix wins.
+     */
+    private void addNamespaces(OMElement element, SignedEncryptedElements parent) {
+        for (OMContainer node = element; node instanceof OMElement; node = ((OMElement) node)
+                .getParent()) {
+            for (Iterator iterator = ((OMElement) node).getAllDeclaredNamespaces(); iterator
+                    .hasNext();) {
+                OMNamespace namespace = (OMNamespace) iterator.next();
+                parent.addDeclaredNamespaces(namespace.getNamespaceURI(),
+                        namespace.getPrefix());
+            }
         }
     }
     
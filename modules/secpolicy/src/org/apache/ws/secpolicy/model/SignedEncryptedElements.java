@@ -17,6 +17,7 @@
 package org.apache.ws.secpolicy.model;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 
 import javax.xml.namespace.QName;
@@ -32,6 +33,11 @@ public class SignedEncryptedElements extends AbstractSecurityAssertion {
 
     private String xPathVersion;
 
+    /**
+     * Namespace bindings in scope of the XPath expressions, prefix -> URI
+     */
+    private HashMap declaredNamespaces = new HashMap();
+
     /**
      * Just a flag to identify whether this holds sign element info or encr
      * elements info
@@ -53,6 +59,26 @@ public class SignedEncryptedElements extends AbstractSecurityAssertion {
         this.xPathExpressions.add(expr);
     }
 
+    /**
+     * @return Returns the namespace bindings of the XPath expressions, the
+     *         namespace URIs keyed by their prefixes.
+     */
+    public HashMap getDeclaredNamespaces() {
+        return declaredNamespaces;
+    }
+
+    /**
+     * Add a namespace binding used by the XPath expressions. The first
+     * binding of a prefix wins.
+     * @param uri
+     * @param prefix
+     */
+    public void addDeclaredNamespaces(String uri, String prefix) {
+        if (!declaredNamespaces.containsKey(prefix)) {
+            declaredNamespaces.put(prefix, uri);
+        }
+    }
+
     /**
      * @return Returns the xPathVersion.
      */
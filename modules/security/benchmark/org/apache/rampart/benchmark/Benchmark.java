@@ -0,0 +1,74 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.benchmark;
+
+/**
+ * A micro benchmark run by the <code>BenchmarkRunner</code>.
+ *
+ * A benchmark declares one or more parameter axes, the runner sets the
+ * benchmark up once for every combination of the parameter values, then
+ * calls <code>run()</code> repeatedly while measuring.
+ */
+public abstract class Benchmark {
+
+    /**
+     * @return Returns the name of the benchmark as shown in the report.
+     */
+    public String getName() {
+        String name = this.getClass().getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * @return Returns the names of the parameter axes.
+     */
+    public String[] getParameterNames() {
+        return new String[0];
+    }
+
+    /**
+     * @return Returns the values of each parameter axis, in the order of
+     * <code>getParameterNames()</code>.
+     */
+    public String[][] getParameterValues() {
+        return new String[0][];
+    }
+
+    /**
+     * Prepare the state for one combination of parameter values. Not
+     * measured.
+     * @param params One value per parameter axis
+     * @throws Exception
+     */
+    public void setUp(String[] params) throws Exception {
+    }
+
+    /**
+     * The measured operation.
+     * @return A value derived from the result of the operation, which is
+     * consumed by the runner so that the operation cannot be optimized away
+     * @throws Exception
+     */
+    public abstract Object run() throws Exception;
+
+    /**
+     * Release the state created by <code>setUp</code>. Not measured.
+     * @throws Exception
+     */
+    public void tearDown() throws Exception {
+    }
+}
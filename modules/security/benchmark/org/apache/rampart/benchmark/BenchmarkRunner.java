@@ -0,0 +1,172 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.benchmark;
+
+import edu.emory.mathcs.backport.java.util.concurrent.helpers.Utils;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the Rampart and Rahas micro benchmarks.
+ *
+ * <pre>
+ * java org.apache.rampart.benchmark.BenchmarkRunner [-wi warmupIterations]
+ *     [-i iterations] [-t iterationMillis] [benchmarkName ...]
+ * </pre>
+ *
+ * Every benchmark is run for each combination of its parameter values.
+ * Each combination gets the given number of warmup iterations followed by
+ * the measured iterations, an iteration calls the benchmark repeatedly for
+ * the given time. The report gives the mean time per operation with its
+ * standard deviation across the measured iterations.
+ *
+ * The benchmarks expect to be run from the <code>modules/security</code>
+ * directory, which is where the <code>benchmark</code> goal runs them.
+ */
+public class BenchmarkRunner {
+
+    private int warmupIterations = 5;
+
+    private int iterations = 10;
+
+    private long iterationMillis = 1000;
+
+    private PrintStream out = System.out;
+
+    /**
+     * Keeps the results of the benchmarked operations reachable
+     */
+    private int sink;
+
+    public static Benchmark[] getBenchmarks() {
+        return new Benchmark[] { new MessageBuilderBenchmark(),
+                new RampartEngineBenchmark(), new SAMLTokenIssuerBenchmark(),
+                new SCTIssuerBenchmark(), new TokenStoreBenchmark() };
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        List names = new ArrayList();
+        for (int i = 0; i < args.length; i++) {
+            if ("-wi".equals(args[i])) {
+                runner.warmupIterations = Integer.parseInt(args[++i]);
+            } else if ("-i".equals(args[i])) {
+                runner.iterations = Integer.parseInt(args[++i]);
+            } else if ("-t".equals(args[i])) {
+                runner.iterationMillis = Long.parseLong(args[++i]);
+            } else {
+                names.add(args[i]);
+            }
+        }
+
+        Benchmark[] benchmarks = getBenchmarks();
+        for (int i = 0; i < benchmarks.length; i++) {
+            if (names.size() == 0 || names.contains(benchmarks[i].getName())) {
+                runner.run(benchmarks[i]);
+            }
+        }
+    }
+
+    public void run(Benchmark benchmark) throws Exception {
+        String[][] values = benchmark.getParameterValues();
+        int[] index = new int[values.length];
+        while (true) {
+            String[] params = new String[values.length];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = values[i][index[i]];
+            }
+            run(benchmark, params);
+
+            //Next combination of the parameter values
+            int axis = index.length - 1;
+            while (axis >= 0 && ++index[axis] == values[axis].length) {
+                index[axis] = 0;
+                axis--;
+            }
+            if (axis < 0) {
+                break;
+            }
+        }
+    }
+
+    private void run(Benchmark benchmark, String[] params) throws Exception {
+        String label = getLabel(benchmark, params);
+        benchmark.setUp(params);
+        try {
+            for (int i = 0; i < this.warmupIterations; i++) {
+                iterate(benchmark);
+            }
+
+            double[] nanosPerOp = new double[this.iterations];
+            double sum = 0;
+            for (int i = 0; i < nanosPerOp.length; i++) {
+                nanosPerOp[i] = iterate(benchmark);
+                sum += nanosPerOp[i];
+            }
+
+            double mean = sum / nanosPerOp.length;
+            double variance = 0;
+            for (int i = 0; i < nanosPerOp.length; i++) {
+                variance += (nanosPerOp[i] - mean) * (nanosPerOp[i] - mean);
+            }
+            double stdDev = (nanosPerOp.length > 1) ? Math.sqrt(variance
+                    / (nanosPerOp.length - 1)) : 0;
+
+            this.out.println(label + "  " + format(mean / 1000) + " +- "
+                    + format(stdDev / 1000) + " us/op  "
+                    + format(1000000000 / mean) + " ops/s");
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Call the benchmark repeatedly for one iteration.
+     * @return The mean time of an operation in nanoseconds
+     */
+    private double iterate(Benchmark benchmark) throws Exception {
+        long deadline = Utils.nanoTime() + this.iterationMillis * 1000000;
+        long start = Utils.nanoTime();
+        long ops = 0;
+        long now;
+        do {
+            Object result = benchmark.run();
+            this.sink += (result != null) ? result.hashCode() : 0;
+            ops++;
+        } while ((now = Utils.nanoTime()) < deadline);
+        return (double) (now - start) / ops;
+    }
+
+    private static String getLabel(Benchmark benchmark, String[] params) {
+        StringBuffer label = new StringBuffer(benchmark.getName());
+        String[] names = benchmark.getParameterNames();
+        for (int i = 0; i < params.length; i++) {
+            label.append(i == 0 ? " (" : ", ");
+            label.append(names[i]).append('=').append(params[i]);
+        }
+        if (params.length > 0) {
+            label.append(')');
+        }
+        return label.toString();
+    }
+
+    private static String format(double value) {
+        return Double.toString(Math.round(value * 100) / 100.0);
+    }
+}
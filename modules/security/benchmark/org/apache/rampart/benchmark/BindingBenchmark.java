@@ -0,0 +1,165 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.benchmark;
+
+import org.apache.axiom.om.impl.builder.StAXOMBuilder;
+import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
+import org.apache.axiom.soap.impl.llom.soap11.SOAP11Factory;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.context.ServiceContext;
+import org.apache.axis2.context.ServiceGroupContext;
+import org.apache.axis2.description.AxisOperation;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.OutInAxisOperation;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.neethi.Policy;
+import org.apache.neethi.PolicyEngine;
+import org.apache.rampart.RampartMessageData;
+import org.apache.rampart.util.Axis2Util;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Common state of the benchmarks of securing and processing messages under
+ * the symmetric, asymmetric and transport bindings.
+ *
+ * The policies are in <code>benchmark-resources</code>, they sign and
+ * encrypt the body with the keys of <code>interop/interop2.jks</code>. The
+ * transport binding adds a Timestamp and a UsernameToken.
+ */
+public abstract class BindingBenchmark extends Benchmark {
+
+    public static final String[] BINDINGS = { "symmetric", "asymmetric",
+            "transport" };
+
+    /**
+     * Approximate size of the body content in bytes
+     */
+    public static final String[] PAYLOAD_SIZES = { "1024", "16384", "262144" };
+
+    protected Policy policy;
+
+    private ConfigurationContext configCtx;
+
+    private AxisService axisService;
+
+    private ServiceContext serviceContext;
+
+    private AxisOperation axisOperation;
+
+    public String[] getParameterNames() {
+        return new String[] { "binding", "payloadSize" };
+    }
+
+    public String[][] getParameterValues() {
+        return new String[][] { BINDINGS, PAYLOAD_SIZES };
+    }
+
+    public void setUp(String[] params) throws Exception {
+        StAXOMBuilder builder = new StAXOMBuilder("benchmark-resources/rampart-"
+                + params[0] + "-binding.xml");
+        this.policy = PolicyEngine.getPolicy(builder.getDocumentElement());
+
+        this.configCtx = new ConfigurationContext(new AxisConfiguration());
+        this.axisService = new AxisService("BenchmarkService");
+        this.serviceContext = new ServiceContext(this.axisService,
+                new ServiceGroupContext(null, null));
+        this.axisOperation = new OutInAxisOperation(new QName(
+                "http://rampart.org", "echo"));
+    }
+
+    /**
+     * Create a message context holding the given envelope.
+     * @param envelope The serialized SOAP 1.1 envelope
+     * @param serverSide
+     * @return A message context with the policy of the benchmark
+     * @throws Exception
+     */
+    protected MessageContext createMsgCtx(byte[] envelope, boolean serverSide)
+            throws Exception {
+        MessageContext ctx = new MessageContext();
+        ctx.setConfigurationContext(this.configCtx);
+        ctx.setServiceContext(this.serviceContext);
+        ctx.setAxisService(this.axisService);
+        ctx.setAxisOperation(this.axisOperation);
+        ctx.setServerSide(serverSide);
+        Options options = new Options();
+        options.setAction("urn:echo");
+        ctx.setOptions(options);
+        ctx.setProperty(RampartMessageData.KEY_RAMPART_POLICY, this.policy);
+
+        //The envelope is always parsed into LLOM, as it arrives off the wire
+        Axis2Util.useDOOM(false);
+        XMLStreamReader reader = XMLInputFactory.newInstance()
+                .createXMLStreamReader(new ByteArrayInputStream(envelope));
+        ctx.setEnvelope(new StAXSOAPModelBuilder(reader, new SOAP11Factory(),
+                null).getSOAPEnvelope());
+        return ctx;
+    }
+
+    /**
+     * Serialize the envelope of the given message context.
+     * @param ctx
+     * @return The envelope
+     * @throws Exception
+     */
+    protected static byte[] serialize(MessageContext ctx) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ctx.getEnvelope().serialize(out);
+        Axis2Util.useDOOM(false);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param payloadSize Approximate size of the body content in bytes
+     * @return An unsecured envelope
+     */
+    protected static byte[] createEnvelope(int payloadSize) {
+        StringBuffer envelope = new StringBuffer(payloadSize + 512);
+        envelope.append("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"")
+                .append(" xmlns:wsa=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\">")
+                .append("<soapenv:Header>")
+                .append("<wsa:To>http://localhost:8080/axis2/services/BenchmarkService</wsa:To>")
+                .append("<wsa:Action>urn:echo</wsa:Action>")
+                .append("</soapenv:Header>")
+                .append("<soapenv:Body>")
+                .append("<ns1:echo xmlns:ns1=\"http://rampart.org/benchmark\">");
+
+        //Elements of 64 bytes each
+        for (int i = 0; i < payloadSize / 64; i++) {
+            envelope.append("<ns1:item>");
+            for (int j = 0; j < 64 - 21; j++) {
+                envelope.append((char) ('a' + (i + j) % 26));
+            }
+            envelope.append("</ns1:item>");
+        }
+
+        envelope.append("</ns1:echo></soapenv:Body></soapenv:Envelope>");
+        return envelope.toString().getBytes();
+    }
+
+    public void tearDown() throws Exception {
+        Axis2Util.useDOOM(false);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.benchmark;
+
+import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
+import org.apache.axiom.soap.impl.llom.soap11.SOAP11Factory;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.rahas.RahasConstants;
+import org.apache.rahas.RahasData;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSUsernameTokenPrincipal;
+import org.apache.ws.security.handler.WSHandlerConstants;
+import org.apache.ws.security.handler.WSHandlerResult;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.util.Vector;
+
+/**
+ * Common state of the token issuer benchmarks.
+ *
+ * The requests are WS-Trust 2005/02 issue requests of a requester
+ * authenticated with a UsernameToken. The issuers are configured by the
+ * files in <code>benchmark-resources</code> and use the keys of the sample
+ * STS, <code>../rahas/sts-aar-resources/rahas-sts.jks</code>. The issued
+ * tokens are added to the token store of the configuration context, which
+ * is created afresh for every parameter combination.
+ */
+public abstract class IssuerBenchmark extends Benchmark {
+
+    private ConfigurationContext configCtx;
+
+    private AxisService axisService;
+
+    public void setUp(String[] params) throws Exception {
+        this.configCtx = new ConfigurationContext(new AxisConfiguration());
+        this.axisService = new AxisService("BenchmarkSTS");
+    }
+
+    /**
+     * Parse the given issue request.
+     * @param tokenType The requested token type, or null
+     * @param keyType The requested key type, or null
+     * @return The request as seen by the issuers
+     * @throws Exception
+     */
+    protected RahasData createRahasData(String tokenType, String keyType)
+            throws Exception {
+        String wstNs = RahasConstants.WST_NS_05_02;
+        StringBuffer rst = new StringBuffer();
+        rst.append("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">")
+                .append("<soapenv:Body>")
+                .append("<wst:RequestSecurityToken xmlns:wst=\"").append(wstNs).append("\">")
+                .append("<wst:RequestType>").append(wstNs)
+                .append(RahasConstants.REQ_TYPE_ISSUE).append("</wst:RequestType>");
+        if (tokenType != null) {
+            rst.append("<wst:TokenType>").append(tokenType).append("</wst:TokenType>");
+        }
+        if (keyType != null) {
+            rst.append("<wst:KeyType>").append(wstNs).append(keyType)
+                    .append("</wst:KeyType>");
+        }
+        rst.append("</wst:RequestSecurityToken></soapenv:Body></soapenv:Envelope>");
+
+        MessageContext ctx = new MessageContext();
+        ctx.setConfigurationContext(this.configCtx);
+        ctx.setAxisService(this.axisService);
+
+        XMLStreamReader reader = XMLInputFactory.newInstance()
+                .createXMLStreamReader(new ByteArrayInputStream(rst.toString()
+                        .getBytes()));
+        ctx.setEnvelope(new StAXSOAPModelBuilder(reader, new SOAP11Factory(),
+                null).getSOAPEnvelope());
+
+        //The requester authenticated by a UsernameToken
+        Vector engineResults = new Vector();
+        engineResults.add(new WSSecurityEngineResult(WSConstants.UT,
+                new WSUsernameTokenPrincipal("alice", false), null, null, null));
+        Vector results = new Vector();
+        results.add(new WSHandlerResult("", engineResults));
+        ctx.setProperty(WSHandlerConstants.RECV_RESULTS, results);
+
+        return new RahasData(ctx);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.benchmark;
+
+import org.apache.axis2.context.MessageContext;
+import org.apache.rampart.MessageBuilder;
+import org.apache.rampart.RampartEngine;
+
+/**
+ * Processing an incoming message with <code>RampartEngine.process</code>:
+ * security header processing, policy validation and the conversion of the
+ * envelope back to LLOM.
+ *
+ * The secured message is built once by the client side
+ * <code>MessageBuilder</code>, every operation parses a copy of it on the
+ * service side. The replay detection is not enabled by the benchmark
+ * policies, so the same message can be processed over and over again.
+ */
+public class RampartEngineBenchmark extends BindingBenchmark {
+
+    private byte[] envelope;
+
+    private RampartEngine engine = new RampartEngine();
+
+    public void setUp(String[] params) throws Exception {
+        super.setUp(params);
+        MessageContext ctx = createMsgCtx(createEnvelope(Integer
+                .parseInt(params[1])), false);
+        new MessageBuilder().build(ctx);
+        this.envelope = serialize(ctx);
+    }
+
+    public Object run() throws Exception {
+        MessageContext ctx = createMsgCtx(this.envelope, true);
+        return this.engine.process(ctx);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.benchmark;
+
+import org.apache.rahas.RahasConstants;
+import org.apache.rahas.RahasData;
+import org.apache.rahas.impl.SAMLTokenIssuer;
+
+/**
+ * Issuing SAML 1.0 assertions with <code>SAMLTokenIssuer.issue</code>.
+ *
+ * Bearer assertions are only signed, symmetric key assertions also carry a
+ * secret encrypted for the service.
+ */
+public class SAMLTokenIssuerBenchmark extends IssuerBenchmark {
+
+    private SAMLTokenIssuer issuer;
+
+    private RahasData data;
+
+    public String[] getParameterNames() {
+        return new String[] { "keyType" };
+    }
+
+    public String[][] getParameterValues() {
+        return new String[][] { { RahasConstants.KEY_TYPE_BEARER,
+                RahasConstants.KEY_TYPE_SYMM_KEY } };
+    }
+
+    public void setUp(String[] params) throws Exception {
+        super.setUp(params);
+        this.issuer = new SAMLTokenIssuer();
+        this.issuer.setConfigurationFile("benchmark-resources/saml-issuer-config.xml");
+        this.data = createRahasData(RahasConstants.TOK_TYPE_SAML_10, params[0]);
+    }
+
+    public Object run() throws Exception {
+        return this.issuer.issue(this.data);
+    }
+}
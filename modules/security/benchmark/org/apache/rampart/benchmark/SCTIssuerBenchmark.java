@@ -0,0 +1,42 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.benchmark;
+
+import org.apache.rahas.RahasData;
+import org.apache.rahas.impl.SCTIssuer;
+
+/**
+ * Issuing SecurityContextTokens with <code>SCTIssuer.issue</code>, the
+ * secret is returned as a BinarySecret.
+ */
+public class SCTIssuerBenchmark extends IssuerBenchmark {
+
+    private SCTIssuer issuer;
+
+    private RahasData data;
+
+    public void setUp(String[] params) throws Exception {
+        super.setUp(params);
+        this.issuer = new SCTIssuer();
+        this.issuer.setConfigurationFile("benchmark-resources/sct-issuer-config.xml");
+        this.data = createRahasData(null, null);
+    }
+
+    public Object run() throws Exception {
+        return this.issuer.issue(this.data);
+    }
+}
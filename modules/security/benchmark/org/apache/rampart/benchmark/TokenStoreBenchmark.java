@@ -0,0 +1,103 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.benchmark;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.rahas.IndexedTokenStore;
+import org.apache.rahas.SimpleTokenStore;
+import org.apache.rahas.Token;
+import org.apache.rahas.TokenStorage;
+import org.apache.ws.security.WSConstants;
+
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Token lookups in the in-memory token stores holding 10^3 to 10^6 valid
+ * tokens, by token id and by the id of the attached reference of a token.
+ *
+ * The looked up tokens are spread over the whole store. With 10^6 tokens
+ * the store needs a heap of about 1GB.
+ */
+public class TokenStoreBenchmark extends Benchmark {
+
+    private static final int LOOKUP_IDS = 1024;
+
+    private TokenStorage store;
+
+    private String[] ids;
+
+    private int next;
+
+    public String[] getParameterNames() {
+        return new String[] { "store", "tokens", "lookup" };
+    }
+
+    public String[][] getParameterValues() {
+        return new String[][] {
+                { "SimpleTokenStore", "IndexedTokenStore" },
+                { "1000", "10000", "100000", "1000000" },
+                { "id", "reference" } };
+    }
+
+    public void setUp(String[] params) throws Exception {
+        this.store = "SimpleTokenStore".equals(params[0]) ? (TokenStorage) new SimpleTokenStore()
+                : new IndexedTokenStore();
+        int tokens = Integer.parseInt(params[1]);
+        boolean byReference = "reference".equals(params[2]);
+
+        OMFactory factory = OMAbstractFactory.getOMFactory();
+        OMNamespace ns = factory.createOMNamespace(WSConstants.WSSE_NS,
+                WSConstants.WSSE_PREFIX);
+        OMElement tokenElem = factory.createOMElement("testToken", null);
+        Date created = new Date();
+        Date expires = new Date(created.getTime() + 24 * 60 * 60 * 1000L);
+
+        for (int i = 0; i < tokens; i++) {
+            Token token = new Token("token-" + i, tokenElem, created, expires);
+            token.setState(Token.ISSUED);
+            if (byReference) {
+                OMElement str = factory.createOMElement(
+                        "SecurityTokenReference", ns);
+                OMElement ref = factory.createOMElement("Reference", ns, str);
+                ref.addAttribute("URI", "#ref-" + i, null);
+                token.setAttachedReference(str);
+            }
+            this.store.add(token);
+        }
+
+        Random random = new Random(tokens);
+        this.ids = new String[LOOKUP_IDS];
+        for (int i = 0; i < this.ids.length; i++) {
+            this.ids[i] = (byReference ? "ref-" : "token-")
+                    + random.nextInt(tokens);
+        }
+        this.next = 0;
+    }
+
+    public Object run() throws Exception {
+        String id = this.ids[this.next++ & (LOOKUP_IDS - 1)];
+        return this.store.getToken(id);
+    }
+
+    public void tearDown() throws Exception {
+        this.store = null;
+    }
+}
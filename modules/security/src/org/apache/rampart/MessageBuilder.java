@@ -31,10 +31,13 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.rahas.RahasConstants;
 import org.apache.rahas.TrustUtil;
 import org.apache.rampart.builder.AsymmetricBindingBuilder;
+import org.apache.rampart.builder.AxiomTransportBindingBuilder;
 import org.apache.rampart.builder.SymmetricBindingBuilder;
 import org.apache.rampart.builder.TransportBindingBuilder;
+import org.apache.rampart.metrics.RampartMetrics;
 import org.apache.rampart.policy.RampartPolicyData;
 import org.apache.rampart.util.Axis2Util;
+import org.apache.rampart.util.EncryptedKeyCache;
 import org.apache.rampart.util.RampartUtil;
 import org.apache.ws.secpolicy.WSSPolicyException;
 import org.apache.ws.security.WSSecurityException;
@@ -69,6 +72,12 @@ public class MessageBuilder {
                     (inMsgCtx = opCtx.getMessageContext(WSDLConstants.MESSAGE_LABEL_IN_VALUE)) != null) {
                 msgCtx.setProperty(WSHandlerConstants.RECV_RESULTS, 
                         inMsgCtx.getProperty(WSHandlerConstants.RECV_RESULTS));
+                Object keyIds = inMsgCtx
+                        .getProperty(EncryptedKeyCache.RECEIVED_KEY_IDS);
+                if(keyIds != null) {
+                    msgCtx.setProperty(EncryptedKeyCache.RECEIVED_KEY_IDS,
+                            keyIds);
+                }
             }
         }
         
@@ -97,7 +106,7 @@ public class MessageBuilder {
                 
                 //set payload to a cancel request
                 String ctxIdKey = RampartUtil.getContextIdentifierKey(msgCtx);
-                String tokenId = (String)RampartUtil.getContextMap(msgCtx).get(ctxIdKey);
+                String tokenId = (String)RampartUtil.getConversationContextMap(msgCtx).get(ctxIdKey);
                 
                 if(tokenId != null && RampartUtil.isTokenValid(rmd, tokenId)) {
                     OMElement bodyElem = msgCtx.getEnvelope().getBody();
@@ -116,7 +125,15 @@ public class MessageBuilder {
             }
         }
         
-        if(rpd.isTransportBinding()) {
+        long start = RampartMetrics.start();
+        if(rmd.isHeaderOnly()) {
+            log.debug("Building transport binding without DOM");
+            AxiomTransportBindingBuilder building = new AxiomTransportBindingBuilder();
+            building.build(rmd);
+            
+            //The envelope is still LLOM
+            Axis2Util.useDOOM(false);
+        } else if(rpd.isTransportBinding()) {
             log.debug("Building transport binding");
             TransportBindingBuilder building = new TransportBindingBuilder();
             building.build(rmd);
@@ -128,6 +145,8 @@ public class MessageBuilder {
             AsymmetricBindingBuilder builder = new AsymmetricBindingBuilder();
             builder.build(rmd);
         }
+        RampartMetrics.getInstance().record(msgCtx, 
+                RampartMetrics.SECURITY_HEADER_BUILD, start);
     }
 
 }
@@ -20,6 +20,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.rampart.policy.RampartPolicyData;
 import org.apache.rampart.util.RampartUtil;
+import org.apache.rampart.util.TrustedCertificateCache;
 import org.apache.ws.secpolicy.Constants;
 import org.apache.ws.secpolicy.model.SupportingToken;
 import org.apache.ws.secpolicy.model.Token;
@@ -28,6 +29,7 @@ import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSEncryptionPart;
 import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.components.crypto.Crypto;
 import org.apache.ws.security.message.token.Timestamp;
 import org.apache.ws.security.util.WSSecurityUtil;
 
@@ -72,7 +74,7 @@ public class PolicyBasedResultsValidator {
         
         validateProtectionOrder(data, results);
         
-        validateEncryptedParts(data, results);
+        validateEncryptedParts(data, encryptedParts, results);
 
         //Supporting tokens
         if(!rmd.isClientSide()) {
@@ -282,8 +284,8 @@ public class PolicyBasedResultsValidator {
         return sigEncrActions;
     }
 
-    private void validateEncryptedParts(ValidatorData data, Vector results) 
-    throws RampartException {
+    private void validateEncryptedParts(ValidatorData data, 
+            Vector encryptedParts, Vector results) throws RampartException {
         
         RampartMessageData rmd = data.getRampartMessageData();
         
@@ -302,7 +304,7 @@ public class PolicyBasedResultsValidator {
         
         int refCount = 0;
         
-        refCount += rpd.getEncryptedParts().size();
+        refCount += encryptedParts.size();
         
         if(encrRefs.size() != refCount) {
             throw new RampartException("invalidNumberOfEncryptedParts", 
@@ -359,6 +361,41 @@ public class PolicyBasedResultsValidator {
             return false;
         }
 
+        Crypto crypto = RampartUtil.getSignatureCrypto(
+                rmd.getPolicyData().getRampartConfig(),
+                rmd.getCustomClassLoader());
+        if (crypto == null) {
+            log.debug("No signature crypto to verify the trust of the certificate");
+            return false;
+        }
+
+        // Skip the keystore lookups if the certificate was trusted before
+        TrustedCertificateCache trustedCerts = TrustedCertificateCache.getCache(crypto);
+        if (trustedCerts.isTrusted(cert)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cached trust for certificate with " + 
+                        cert.getSubjectDN().getName());
+            }
+            return true;
+        }
+
+        if (verifyTrust(cert, crypto)) {
+            trustedCerts.add(cert);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Verify the trust of the given certificate against the keystore of the
+     * given crypto.
+     * @param cert the certificate that should be validated against the keystore
+     * @param crypto the signature crypto
+     * @return true if the certificate is trusted, false if not
+     * @throws RampartException
+     */
+    private boolean verifyTrust(X509Certificate cert, Crypto crypto) throws RampartException {
+
         String[] aliases = null;
         String alias = null;
         X509Certificate[] certs;
@@ -381,10 +418,7 @@ public class PolicyBasedResultsValidator {
 
         // Search the keystore for the alias of the transmitted certificate
         try {
-            alias = RampartUtil.getSignatureCrypto(
-                    rmd.getPolicyData().getRampartConfig(),
-                    rmd.getCustomClassLoader()).getAliasForX509Cert(
-                    issuerString, issuerSerial);
+            alias = crypto.getAliasForX509Cert(issuerString, issuerSerial);
         } catch (WSSecurityException ex) {
             throw new RampartException("cannotFindAliasForCert", new String[]{subjectString}, ex);
         }
@@ -392,9 +426,7 @@ public class PolicyBasedResultsValidator {
         if (alias != null) {
             // Retrieve the certificate for the alias from the keystore
             try {
-                certs = RampartUtil.getSignatureCrypto(
-                        rmd.getPolicyData().getRampartConfig(),
-                        rmd.getCustomClassLoader()).getCertificates(alias);
+                certs = crypto.getCertificates(alias);
             } catch (WSSecurityException ex) {
                 throw new RampartException("noCertForAlias", new String[] {alias}, ex);
             }
@@ -418,9 +450,7 @@ public class PolicyBasedResultsValidator {
 
         // Search the keystore for the alias of the transmitted certificates issuer
         try {
-            aliases = RampartUtil.getSignatureCrypto(
-                    rmd.getPolicyData().getRampartConfig(),
-                    rmd.getCustomClassLoader()).getAliasesForDN(issuerString);
+            aliases = crypto.getAliasesForDN(issuerString);
         } catch (WSSecurityException ex) {
             throw new RampartException("cannotFindAliasForCert", new String[]{issuerString}, ex);
         }
@@ -445,9 +475,7 @@ public class PolicyBasedResultsValidator {
 
             // Retrieve the certificate(s) for the alias from the keystore
             try {
-                certs = RampartUtil.getSignatureCrypto(
-                        rmd.getPolicyData().getRampartConfig(),
-                        rmd.getCustomClassLoader()).getCertificates(alias);
+                certs = crypto.getCertificates(alias);
             } catch (WSSecurityException ex) {
                 throw new RampartException("noCertForAlias", new String[] {alias}, ex);
             }
@@ -466,16 +494,13 @@ public class PolicyBasedResultsValidator {
             x509certs[0] = cert;
             // ... and the other certificates
             for (int j = 0; j < certs.length; j++) {
-                cert = certs[i];
-                x509certs[certs.length + j] = cert;
+                x509certs[j + 1] = certs[j];
             }
             certs = x509certs;
 
             // Use the validation method from the crypto to check whether the subjects certificate was really signed by the issuer stated in the certificate
             try {
-                if (RampartUtil.getSignatureCrypto(
-                        rmd.getPolicyData().getRampartConfig(),
-                        rmd.getCustomClassLoader()).validateCertPath(certs)) {
+                if (crypto.validateCertPath(certs)) {
                     if (doDebug) {
                         log.debug("WSHandler: Certificate path has been verified for certificate with subject " + subjectString);
                     }
@@ -20,25 +20,68 @@ import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.description.AxisDescription;
 import org.apache.axis2.description.AxisModule;
+import org.apache.axis2.description.Parameter;
 import org.apache.axis2.modules.Module;
 import org.apache.axis2.modules.ModulePolicyExtension;
 import org.apache.axis2.modules.PolicyExtension;
 import org.apache.neethi.Assertion;
 import org.apache.neethi.Policy;
+import org.apache.rampart.metrics.MetricsService;
+import org.apache.rampart.metrics.RampartMetrics;
+import org.apache.rampart.policy.RampartPolicyCache;
+import org.apache.rampart.util.ServiceSecurityContext;
 
 public class Rampart implements Module, ModulePolicyExtension  {
 
+    /**
+     * Module parameter to switch off the timing metrics, on by default
+     */
+    public static final String METRICS_ENABLED = "metricsEnabled";
+    
+    /**
+     * Module parameter to switch off the JMX registration of the timing 
+     * metrics, on by default
+     */
+    public static final String METRICS_MBEAN = "metricsMBean";
+    
+    /**
+     * Module parameter to deploy the <code>MetricsService</code>, off by 
+     * default
+     */
+    public static final String METRICS_SERVICE = "metricsService";
+    
     public void init(ConfigurationContext configContext, AxisModule module)
             throws AxisFault {
+        RampartMetrics metrics = RampartMetrics.getInstance();
+        metrics.setEnabled(!"false".equals(getParameter(module, METRICS_ENABLED)));
+        if(metrics.isEnabled()) {
+            if(!"false".equals(getParameter(module, METRICS_MBEAN))) {
+                RampartMetrics.registerMBean();
+            }
+            if("true".equals(getParameter(module, METRICS_SERVICE))) {
+                MetricsService.deploy(configContext.getAxisConfiguration());
+            }
+        }
+    }
+    
+    private static String getParameter(AxisModule module, String name) {
+        Parameter param = module.getParameter(name);
+        return (param != null && param.getValue() != null) ? 
+                param.getValue().toString().trim() : null;
     }
 
     public void engageNotify(AxisDescription axisDescription) throws AxisFault {
-        //Nothing to do here, since RampartMessageData will pick up the 
-        //effective policy from the message context 
+        //RampartMessageData will pick up the effective policy from the 
+        //message context, simply drop any policy data compiled earlier
+        RampartPolicyCache.invalidate(axisDescription);
+        
+        //Set up the security engine and config shared by the messages of 
+        //the service
+        ServiceSecurityContext.engage(axisDescription);
     }
 
     public void shutdown(ConfigurationContext configurationContext) throws AxisFault {
-        // at the moment, nothing needs to be done ..
+        RampartMetrics.unregisterMBean();
     }
 
     public PolicyExtension getPolicyExtension() {
@@ -19,14 +19,28 @@ package org.apache.rampart;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
+import org.apache.rampart.metrics.RampartMetrics;
 import org.apache.rampart.policy.RampartPolicyData;
+import org.apache.rampart.policy.model.RampartConfig;
 import org.apache.rampart.util.Axis2Util;
+import org.apache.rampart.util.EncryptedKeyCache;
 import org.apache.rampart.util.RampartUtil;
+import org.apache.rampart.util.ServiceSecurityContext;
 import org.apache.ws.secpolicy.WSSPolicyException;
+import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityEngine;
+import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.WSUsernameTokenPrincipal;
+import org.apache.ws.security.message.token.Timestamp;
 import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.xml.security.utils.Base64;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
 
 public class RampartEngine {
@@ -38,56 +52,294 @@ public class RampartEngine {
         RampartMessageData rmd = new RampartMessageData(msgCtx, false);
         
 
-        //If there is no policy information or if the message is a fault
+        //If there is no policy information the envelope is left untouched
         RampartPolicyData rpd = rmd.getPolicyData();
-        if(rpd == null || 
-                WSSecurityUtil.findElement(rmd.getDocument().getDocumentElement(), 
+        if(rpd == null) {
+            return null;
+        }
+        
+        //Timestamp and UsernameTokens of a transport binding
+        if(rmd.isHeaderOnly()) {
+            long start = RampartMetrics.start();
+            Vector results = new TransportSecurityProcessor().process(rmd);
+            RampartMetrics.getInstance().record(msgCtx, 
+                    RampartMetrics.SECURITY_HEADER_PROCESSING, start);
+            
+            Axis2Util.useDOOM(false);
+            
+            validate(rmd, new ValidatorData(rmd), results);
+            
+            detectReplay(rmd, results);
+            
+            return results;
+        }
+        
+        //If the message is a fault
+        if(WSSecurityUtil.findElement(rmd.getDocument().getDocumentElement(), 
                         "Fault", 
                         rmd.getSoapConstants().getEnvelopeURI()) != null) {
-            SOAPEnvelope env = Axis2Util.getSOAPEnvelopeFromDOOMDocument(rmd.getDocument());
-
-            //Convert back to llom since the inflow cannot use llom
-            msgCtx.setEnvelope(env);
-            Axis2Util.useDOOM(false);
+            
+            //The service may have lost the key the request used
+            if(rmd.isClientSide()) {
+                EncryptedKeyCache.Entry entry = EncryptedKeyCache.getSentKey(msgCtx);
+                if(entry != null) {
+                    entry.evict();
+                }
+            }
+            
+            toInflowEnvelope(rmd);
             return null;
         }
         
         Vector results = null;
         
-        WSSecurityEngine engine = new WSSecurityEngine();
+        WSSecurityEngine engine = ServiceSecurityContext.getContext(
+                msgCtx.getAxisService()).getSecurityEngine();
         
         ValidatorData data = new ValidatorData(rmd);
         
+        //Here we have to create the CB handler to get the tokens from the 
+        //token storage
+        TokenCallbackHandler tokenCallbackHandler = new TokenCallbackHandler(
+                rmd.getTokenStorage(), RampartUtil.getPasswordCB(rmd), 
+                msgCtx.getConfigurationContext());
+        
+        long start = RampartMetrics.start();
         if(rpd.isSymmetricBinding()) {
-            //Here we have to create the CB handler to get the tokens from the 
-            //token storage
-            
             results = engine.processSecurityHeader(rmd.getDocument(), 
                                 null, 
-                                new TokenCallbackHandler(rmd.getTokenStorage(), RampartUtil.getPasswordCB(rmd)),
+                                tokenCallbackHandler,
                                 RampartUtil.getSignatureCrypto(rpd.getRampartConfig(), 
                                         msgCtx.getAxisService().getClassLoader()));
         } else {
             results = engine.processSecurityHeader(rmd.getDocument(),
                       null, 
-                      new TokenCallbackHandler(rmd.getTokenStorage(), RampartUtil.getPasswordCB(rmd)),
+                      tokenCallbackHandler,
                       RampartUtil.getSignatureCrypto(rpd.getRampartConfig(), 
                               msgCtx.getAxisService().getClassLoader()), 
                       RampartUtil.getEncryptionCrypto(rpd.getRampartConfig(), 
                               msgCtx.getAxisService().getClassLoader()));
         }
-        
+        RampartMetrics.getInstance().record(msgCtx, 
+                RampartMetrics.SECURITY_HEADER_PROCESSING, start);
 
-        SOAPEnvelope env = Axis2Util.getSOAPEnvelopeFromDOOMDocument(rmd.getDocument());
+        toInflowEnvelope(rmd);
 
-        //Convert back to llom since the inflow cannot use DOOM
-        msgCtx.setEnvelope(env);
-        Axis2Util.useDOOM(false);
+        validate(rmd, data, results);
+        
+        detectReplay(rmd, results);
+        
+        storeEncryptedKeys(rmd, results);
+        
+        confirmEncryptedKey(rmd, tokenCallbackHandler);
+        
+        return results;
+    }
 
+    /**
+     * Validate the processing results against the policy.
+     * @param rmd
+     * @param data
+     * @param results
+     * @throws RampartException
+     */
+    private void validate(RampartMessageData rmd, ValidatorData data, 
+            Vector results) throws RampartException {
+        long start = RampartMetrics.start();
         PolicyBasedResultsValidator validator = new PolicyBasedResultsValidator();
         validator.validate(data, results);
+        RampartMetrics.getInstance().record(rmd.getMsgContext(), 
+                RampartMetrics.POLICY_VALIDATION, start);
+    }
+
+    /**
+     * Keep the EncryptedKeys of a request if the reuse of EncryptedKeys is
+     * enabled, so that the following messages of the client can refer to 
+     * them by their EncryptedKeySHA1 identifier. The keys are kept for the 
+     * configured reuse time, or the timestamp TTL if there is none.
+     * The identifiers of the kept keys are recorded in the message context, 
+     * the response then refers to the key by its identifier to let the 
+     * client know that the key may be reused.
+     * @param rmd
+     * @param results
+     * @throws RampartException
+     */
+    private void storeEncryptedKeys(RampartMessageData rmd, Vector results) 
+            throws RampartException {
         
-        return results;
+        RampartConfig config = rmd.getPolicyData().getRampartConfig();
+        if(rmd.isClientSide() || config == null 
+                || config.getEncryptedKeyReuseCount() < 2 || results == null) {
+            return;
+        }
+        
+        long lifetime = (config.getEncryptedKeyReuseTime() > 0) ? 
+                config.getEncryptedKeyReuseTime() * 1000L : 
+                    rmd.getTimeToLive() * 1000L;
+        
+        Map keyIds = new HashMap();
+        for (Iterator iter = results.iterator(); iter.hasNext();) {
+            WSSecurityEngineResult result = (WSSecurityEngineResult) iter.next();
+            String id = result.getEncryptedKeyId();
+            if(result.getAction() != WSConstants.ENCR || id == null 
+                    || result.getDecryptedKey() == null) {
+                continue;
+            }
+            
+            Element encrKeyElem = findEncryptedKey(rmd, id);
+            if(encrKeyElem == null) {
+                continue;
+            }
+            
+            String sha1 = EncryptedKeyCache.getEncryptedKeySHA1(encrKeyElem);
+            EncryptedKeyCache.putReceivedKey(rmd.getMsgContext()
+                    .getConfigurationContext(), sha1, result.getDecryptedKey(),
+                    lifetime);
+            keyIds.put(id, sha1);
+        }
+        
+        if(keyIds.size() > 0) {
+            rmd.getMsgContext().setProperty(
+                    EncryptedKeyCache.RECEIVED_KEY_IDS, keyIds);
+        }
+    }
+    
+    /**
+     * A response that refers to the EncryptedKey of the request by its 
+     * EncryptedKeySHA1 identifier proves that the service holds the key, 
+     * the client may reuse the key from then on.
+     * @param rmd
+     * @param tokenCallbackHandler The handler used to process the response
+     */
+    private void confirmEncryptedKey(RampartMessageData rmd, 
+            TokenCallbackHandler tokenCallbackHandler) {
+        if(!rmd.isClientSide()) {
+            return;
+        }
+        
+        EncryptedKeyCache.Entry entry = EncryptedKeyCache.getSentKey(rmd
+                .getMsgContext());
+        if(entry != null && tokenCallbackHandler.isResolved(entry.getSHA1())) {
+            entry.confirm();
+        }
+    }
+    
+    private Element findEncryptedKey(RampartMessageData rmd, String id) {
+        Element secHeader = WSSecurityUtil.findElement(rmd.getDocument()
+                .getDocumentElement(), WSConstants.WSSE_LN, WSConstants.WSSE_NS);
+        if(secHeader == null) {
+            return null;
+        }
+        
+        for (Node node = secHeader.getFirstChild(); node != null; 
+                node = node.getNextSibling()) {
+            if(node.getNodeType() == Node.ELEMENT_NODE 
+                    && WSConstants.ENC_KEY_LN.equals(node.getLocalName())
+                    && WSConstants.ENC_NS.equals(node.getNamespaceURI())
+                    && id.equals(((Element) node).getAttribute("Id"))) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Record the UsernameToken nonces, Timestamps and SignatureValues of the
+     * message in the replay cache, if replay detection is enabled.
+     * The identifiers are kept until the timestamp expires or for the 
+     * timestamp TTL, whichever is earlier, plus the allowed clock skew.
+     * Messages whose timestamp expires later or was created later than 
+     * that are rejected, the cache would forget them while they are still
+     * accepted.
+     * @param rmd
+     * @param results
+     * @throws RampartException If any of the identifiers was seen before,
+     * the timestamp is out of range or the cache is full
+     */
+    private void detectReplay(RampartMessageData rmd, Vector results) 
+            throws RampartException {
+        
+        if(!rmd.isReplayDetection() || results == null) {
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        long skew = RampartMessageData.REPLAY_CLOCK_SKEW * 1000L;
+        long maxExpires = now + rmd.getTimeToLive() * 1000L;
+        long expires = maxExpires;
+        for (Iterator iter = results.iterator(); iter.hasNext();) {
+            WSSecurityEngineResult result = (WSSecurityEngineResult) iter.next();
+            if(result.getAction() != WSConstants.TS) {
+                continue;
+            }
+            Timestamp ts = result.getTimestamp();
+            if(ts.getCreated() != null 
+                    && ts.getCreated().getTime().getTime() > now + skew) {
+                throw new RampartException("timestampOutOfRange");
+            }
+            if(ts.getExpires() != null) {
+                long tsExpires = ts.getExpires().getTime().getTime();
+                if(tsExpires > maxExpires + skew) {
+                    throw new RampartException("timestampOutOfRange");
+                }
+                expires = Math.min(expires, tsExpires);
+            }
+        }
+        expires += skew;
+        
+        ReplayCache cache = rmd.getReplayCache();
+        for (Iterator iter = results.iterator(); iter.hasNext();) {
+            WSSecurityEngineResult result = (WSSecurityEngineResult) iter.next();
+            String identifier = null;
+            
+            switch (result.getAction()) {
+            case WSConstants.UT:
+                if(result.getPrincipal() instanceof WSUsernameTokenPrincipal) {
+                    String nonce = ((WSUsernameTokenPrincipal) result
+                            .getPrincipal()).getNonce();
+                    if(nonce != null) {
+                        identifier = "nonce:" + nonce;
+                    }
+                }
+                break;
+            case WSConstants.TS:
+                Timestamp ts = result.getTimestamp();
+                if(ts.getCreated() != null) {
+                    identifier = "ts:" + ts.getElement().getAttributeNS(
+                            WSConstants.WSU_NS, "Id") + ":" 
+                            + ts.getCreated().getTime().getTime();
+                }
+                break;
+            case WSConstants.SIGN:
+                if(result.getSignatureValue() != null) {
+                    identifier = "sig:" + Base64.encode(result.getSignatureValue());
+                }
+                break;
+            }
+            
+            if(identifier != null && cache.isReplayed(identifier, expires)) {
+                throw new RampartException("messageReplayed");
+            }
+        }
+    }
+
+    /**
+     * Hand the processed envelope back to the inflow as an LLOM envelope
+     * rebuilt from the DOOM document.
+     * @param rmd
+     * @throws WSSecurityException
+     */
+    private void toInflowEnvelope(RampartMessageData rmd) throws WSSecurityException {
+        
+        long start = RampartMetrics.start();
+        SOAPEnvelope env = Axis2Util.getSOAPEnvelopeFromDOOMDocument(rmd.getDocument());
+        
+        //Convert back to llom since the inflow cannot use DOOM
+        rmd.getMsgContext().setEnvelope(env);
+        RampartMetrics.getInstance().record(rmd.getMsgContext(), 
+                RampartMetrics.DOM_CONVERSION, start);
+        
+        Axis2Util.useDOOM(false);
     }
 
 
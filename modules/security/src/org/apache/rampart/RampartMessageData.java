@@ -19,23 +19,29 @@ package org.apache.rampart;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.context.OperationContext;
+import org.apache.axis2.description.AxisDescription;
 import org.apache.axis2.description.Parameter;
 import org.apache.axis2.wsdl.WSDLConstants;
 import org.apache.neethi.Policy;
 import org.apache.neethi.PolicyEngine;
+import org.apache.rahas.IndexedTokenStore;
 import org.apache.rahas.RahasConstants;
-import org.apache.rahas.SimpleTokenStore;
+import org.apache.rahas.Token;
 import org.apache.rahas.TokenStorage;
 import org.apache.rahas.TrustException;
 import org.apache.rahas.TrustUtil;
 import org.apache.rampart.handler.WSSHandlerConstants;
-import org.apache.rampart.policy.RampartPolicyBuilder;
+import org.apache.rampart.metrics.RampartMetrics;
+import org.apache.rampart.policy.RampartPolicyCache;
 import org.apache.rampart.policy.RampartPolicyData;
 import org.apache.rampart.policy.model.RampartConfig;
 import org.apache.rampart.util.Axis2Util;
 import org.apache.rampart.util.RampartUtil;
+import org.apache.rampart.util.ServiceSecurityContext;
 import org.apache.ws.secpolicy.WSSPolicyException;
 import org.apache.ws.security.SOAPConstants;
 import org.apache.ws.security.WSConstants;
@@ -52,7 +58,8 @@ import org.w3c.dom.Document;
 
 import javax.xml.namespace.QName;
 
-import java.util.List;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.Vector;
 
 public class RampartMessageData {
@@ -83,6 +90,12 @@ public class RampartMessageData {
     
     public final static String SCT_ID = "sctID";
     
+    /**
+     * Clock skew in seconds allowed between the sender and the receiver 
+     * when replay detection is enabled
+     */
+    public final static int REPLAY_CLOCK_SKEW = 60;
+    
     private MessageContext msgContext = null;
 
     private RampartPolicyData policyData = null;
@@ -99,6 +112,8 @@ public class RampartMessageData {
 
     private TokenStorage tokenStorage;
     
+    private ReplayCache replayCache;
+    
     /**
      * WS-Trust version to use.
      * 
@@ -129,6 +144,14 @@ public class RampartMessageData {
     
     private boolean sender;
     
+    /**
+     * Whether the security header of a transport binding is written or 
+     * validated straight on the AXIOM tree
+     * @see org.apache.rampart.builder.AxiomTransportBindingBuilder
+     * @see TransportSecurityProcessor
+     */
+    private boolean headerOnly;
+    
     private ClassLoader customClassLoader;
     
     private SOAPConstants soapConstants;
@@ -139,15 +162,6 @@ public class RampartMessageData {
         
         try {
             
-            /*
-             * First get the SOAP envelope as document, then create a security
-             * header and insert into the document (Envelope)
-             */
-            this.document = Axis2Util.getDocumentFromSOAPEnvelope(msgCtx.getEnvelope(), false);
-            msgCtx.setEnvelope((SOAPEnvelope)this.document.getDocumentElement());
-            
-            this.soapConstants = WSSecurityUtil.getSOAPConstants(this.document.getDocumentElement());
-            
             //Extract known properties from the msgCtx
             
             if(msgCtx.getProperty(KEY_WST_VERSION) != null) {
@@ -182,7 +196,9 @@ public class RampartMessageData {
              */
             if(this.servicePolicy == null) {
                 if(msgCtx.isServerSide()) {
-                    this.servicePolicy = msgCtx.getEffectivePolicy();
+                    //Merged only when the attached policies change
+                    this.servicePolicy = RampartPolicyCache
+                            .getEffectivePolicy(getPolicyDescription(msgCtx));
                 } else {
                     Parameter param = msgCtx.getParameter(RampartMessageData.KEY_RAMPART_POLICY);
                     if(param != null) {
@@ -202,10 +218,11 @@ public class RampartMessageData {
             }
             
             if(this.servicePolicy != null){
-                List it = (List)this.servicePolicy.getAlternatives().next();
-
-                //Process policy and build policy data
-                this.policyData = RampartPolicyBuilder.build(it);
+                //Pick up the compiled policy data, this is built only once
+                //per service/operation/message and policy
+                this.policyData = RampartPolicyCache.getPolicyData(
+                        msgCtx.getAxisService(), msgCtx.getAxisOperation(),
+                        msgCtx.getAxisMessage(), this.servicePolicy);
             }
             
             
@@ -224,23 +241,38 @@ public class RampartMessageData {
                     this.servicePolicy = this.policyData.getIssuerPolicy();
                     
                     RampartConfig rampartConfig = policyData.getRampartConfig();
+                    
                     /*
-                     * Copy crypto info from the into the new issuer policy 
+                     * The issuer policy instance is shared with the cached 
+                     * policy data, therefore add the RampartConfig only once
                      */
-                    RampartConfig rc = new RampartConfig();
-                    rc.setEncrCryptoConfig(rampartConfig.getEncrCryptoConfig());
-                    rc.setSigCryptoConfig(rampartConfig.getSigCryptoConfig());
-                    rc.setDecCryptoConfig(rampartConfig.getDecCryptoConfig());
-                    rc.setUser(rampartConfig.getUser());
-                    rc.setEncryptionUser(rampartConfig.getEncryptionUser());
-                    rc.setPwCbClass(rampartConfig.getPwCbClass());
-                    
-                    this.servicePolicy.addAssertion(rc);
+                    synchronized (this.servicePolicy) {
+                        if(!hasRampartConfig(this.servicePolicy)) {
+                            /*
+                             * Copy crypto info from the into the new issuer policy 
+                             */
+                            RampartConfig rc = new RampartConfig();
+                            rc.setEncrCryptoConfig(rampartConfig.getEncrCryptoConfig());
+                            rc.setSigCryptoConfig(rampartConfig.getSigCryptoConfig());
+                            rc.setDecCryptoConfig(rampartConfig.getDecCryptoConfig());
+                            rc.setUser(rampartConfig.getUser());
+                            rc.setEncryptionUser(rampartConfig.getEncryptionUser());
+                            rc.setPwCbClass(rampartConfig.getPwCbClass());
+                            rc.setReplayDetection(rampartConfig.isReplayDetection());
+                            rc.setReplayCacheClass(rampartConfig.getReplayCacheClass());
+                            rc.setReplayCacheRate(rampartConfig.getReplayCacheRate());
+                            rc.setEncryptedKeyReuseCount(rampartConfig.getEncryptedKeyReuseCount());
+                            rc.setEncryptedKeyReuseTime(rampartConfig.getEncryptedKeyReuseTime());
+                            rc.setParallelEncryptionThreshold(rampartConfig.getParallelEncryptionThreshold());
+                            
+                            this.servicePolicy.addAssertion(rc);
+                        }
+                    }
                     
-                    List it = (List)this.servicePolicy.getAlternatives().next();
-    
-                    //Process policy and build policy data
-                    this.policyData = RampartPolicyBuilder.build(it);
+                    //Pick up the compiled policy data of the issuer policy
+                    this.policyData = RampartPolicyCache.getIssuerPolicyData(
+                            msgCtx.getAxisService(), msgCtx.getAxisOperation(),
+                            msgCtx.getAxisMessage(), this.servicePolicy);
                 }
             }
             
@@ -275,11 +307,33 @@ public class RampartMessageData {
                 }
             }
             
-            this.config = WSSConfig.getDefaultWSConfig();
+            this.config = ServiceSecurityContext.getContext(
+                    msgCtx.getAxisService()).getConfig();
 
             this.customClassLoader = msgCtx.getAxisService().getClassLoader();
             
-            if(this.policyData != null) {
+            if(this.policyData != null && canHandleHeaderOnly(msgCtx)) {
+                /*
+                 * Only a Timestamp and UsernameTokens, which are neither 
+                 * signed nor encrypted, therefore the envelope is left 
+                 * untouched.
+                 */
+                this.headerOnly = true;
+            } else if(this.policyData != null) {
+                /*
+                 * Get the SOAP envelope as document, then create a security
+                 * header and insert into the document (Envelope).
+                 * Without policy there's nothing to be done, therefore the
+                 * envelope is left untouched.
+                 */
+                long start = RampartMetrics.start();
+                this.document = Axis2Util.getDocumentFromSOAPEnvelope(msgCtx.getEnvelope(), false);
+                msgCtx.setEnvelope((SOAPEnvelope)this.document.getDocumentElement());
+                RampartMetrics.getInstance().record(msgCtx, 
+                        RampartMetrics.DOM_CONVERSION, start);
+                
+                this.soapConstants = WSSecurityUtil.getSOAPConstants(this.document.getDocumentElement());
+                
                 this.secHeader = new WSSecHeader();
                 secHeader.insertSecurityHeader(this.document);
             }
@@ -297,7 +351,47 @@ public class RampartMessageData {
     }
 
     /**
-     * @return Returns the document.
+     * Whether the security header of the message can be handled without a 
+     * DOM, the cancel request payload is built with DOM though.
+     */
+    private boolean canHandleHeaderOnly(MessageContext msgCtx) {
+        if(this.sender) {
+            return RampartUtil.isHeaderOnlyTransportBinding(this.policyData)
+                    && !Constants.VALUE_TRUE.equals(msgCtx.getProperty(CANCEL_REQUEST));
+        } else {
+            return TransportSecurityProcessor.canProcess(this.policyData, 
+                    msgCtx.getEnvelope());
+        }
+    }
+
+    /**
+     * Checks whether the given policy already carries a RampartConfig 
+     * assertion.
+     * @param policy
+     * @return true if a RampartConfig assertion is available in the policy
+     */
+    private static boolean hasRampartConfig(Policy policy) {
+        for (Iterator iter = policy.getAssertions().iterator(); iter.hasNext();) {
+            if(iter.next() instanceof RampartConfig) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the Timestamp/UsernameToken only security header of a 
+     * transport binding is handled without a DOM.
+     * @return true if the envelope was not converted into a DOM
+     */
+    public boolean isHeaderOnly() {
+        return headerOnly;
+    }
+
+    /**
+     * @return Returns the document. This is <code>null</code> if there's no
+     * policy to apply to the message or if the message is processed
+     * without a DOM.
      */
     public Document getDocument() {
         return document;
@@ -434,7 +528,7 @@ public class RampartMessageData {
         
         if(this.isClientSide) {
             String contextIdentifierKey = RampartUtil.getContextIdentifierKey(this.msgContext);
-            id = (String) RampartUtil.getContextMap(this.msgContext).get(contextIdentifierKey);
+            id = (String) RampartUtil.getConversationContextMap(this.msgContext).get(contextIdentifierKey);
         } else {
             //get the sec context id from the req msg ctx
             Vector results = (Vector)this.msgContext.getProperty(WSHandlerConstants.RECV_RESULTS);
@@ -463,17 +557,113 @@ public class RampartMessageData {
     }
 
     /**
+     * The token is kept in the context map until it expires.
      * @param secConvTokenId The secConvTokenId to set.
+     * @throws RampartException 
      */
-    public void setSecConvTokenId(String secConvTokenId) {
+    public void setSecConvTokenId(String secConvTokenId) throws RampartException {
         String contextIdentifierKey = RampartUtil.getContextIdentifierKey(this.msgContext);
-        RampartUtil.getContextMap(this.msgContext).put(
+        
+        Date expires = null;
+        try {
+            Token token = this.getTokenStorage().getToken(secConvTokenId);
+            if(token != null) {
+                expires = token.getExpires();
+            }
+        } catch (TrustException e) {
+            throw new RampartException("errorExtractingToken", 
+                    new String[]{secConvTokenId}, e);
+        }
+        
+        RampartUtil.getConversationContextMap(this.msgContext).put(
                                                     contextIdentifierKey,
-                                                    secConvTokenId);
+                                                    secConvTokenId,
+                                                    expires);
     }
 
 
     
+    /**
+     * Whether incoming messages should be checked for replays.
+     * @return true if replay detection is enabled in the RampartConfig
+     */
+    public boolean isReplayDetection() {
+        return this.policyData != null
+                && this.policyData.getRampartConfig() != null
+                && this.policyData.getRampartConfig().isReplayDetection();
+    }
+
+    /**
+     * Returns the replay cache shared through the configuration context,
+     * creating it if required. Services that configure different
+     * <code>replayCacheClass</code>es get different caches. The default
+     * cache is sized for the largest TTL and <code>replayCacheRate</code>
+     * of the services sharing it.
+     * @return The replay cache
+     * @throws RampartException
+     */
+    public ReplayCache getReplayCache() throws RampartException {
+
+        if(this.replayCache != null) {
+            return this.replayCache;
+        }
+
+        String cacheClass = this.policyData.getRampartConfig()
+                .getReplayCacheClass();
+        String cacheKey = (cacheClass != null) ? ReplayCache.REPLAY_CACHE_KEY
+                + ":" + cacheClass : ReplayCache.REPLAY_CACHE_KEY;
+
+        ConfigurationContext configCtx = this.msgContext.getConfigurationContext();
+        synchronized (configCtx) {
+            ReplayCache cache = (ReplayCache) configCtx.getProperty(cacheKey);
+
+            if (cache == null) {
+                if (cacheClass != null) {
+                    Class rcClass = null;
+                    try {
+                        rcClass = Loader.loadClass(msgContext.getAxisService()
+                                .getClassLoader(), cacheClass);
+                    } catch (ClassNotFoundException e) {
+                        throw new RampartException(
+                                "cannotLoadReplayCache", new String[] { cacheClass }, e);
+                    }
+                    try {
+                        cache = (ReplayCache) rcClass.newInstance();
+                    } catch (java.lang.Exception e) {
+                        throw new RampartException(
+                                "cannotLoadReplayCache", new String[] { cacheClass }, e);
+                    }
+                } else {
+                    cache = new SimpleReplayCache(getReplayCacheCapacity());
+                }
+
+                configCtx.setProperty(cacheKey, cache);
+            }
+            if(cache instanceof SimpleReplayCache) {
+                ((SimpleReplayCache) cache).ensureCapacity(
+                        getReplayCacheCapacity());
+            }
+            this.replayCache = cache;
+        }
+
+        return this.replayCache;
+    }
+
+    /**
+     * Time in seconds identifiers are kept in the replay cache: the 
+     * timestamp TTL plus the allowed clock skew.
+     * @return The retention time
+     */
+    public int getReplayRetention() {
+        return this.timeToLive + REPLAY_CLOCK_SKEW;
+    }
+
+    private int getReplayCacheCapacity() {
+        int rate = this.policyData.getRampartConfig().getReplayCacheRate();
+        return SimpleReplayCache.getCapacity(getReplayRetention(),
+                (rate > 0) ? rate : SimpleReplayCache.DEFAULT_RATE);
+    }
+
     /**
      * @return Returns the tokenStorage.
      */
@@ -511,7 +701,7 @@ public class RampartMessageData {
                                     + storageClass, e);
                 }
             } else {
-                this.tokenStorage = new SimpleTokenStore();
+                this.tokenStorage = new IndexedTokenStore();
                 
             }
             
@@ -566,6 +756,24 @@ public class RampartMessageData {
         this.servicePolicy = servicePolicy;
     }
     
+    /**
+     * @param msgCtx
+     * @return The description whose effective policy applies to the message,
+     * picked the same way as <code>MessageContext.getEffectivePolicy()</code>
+     */
+    private static AxisDescription getPolicyDescription(MessageContext msgCtx) {
+        if(msgCtx.getAxisMessage() != null) {
+            return msgCtx.getAxisMessage();
+        }
+        if(msgCtx.getAxisOperation() != null) {
+            return msgCtx.getAxisOperation();
+        }
+        if(msgCtx.getAxisService() != null) {
+            return msgCtx.getAxisService();
+        }
+        return msgCtx.getConfigurationContext().getAxisConfiguration();
+    }
+    
     /**
      * @param msgCtx
      * @return The key to store/pickup policy of an operation
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart;
+
+/**
+ * Store of the UsernameToken nonces, Timestamps and SignatureValues seen in
+ * incoming messages, used to detect replayed messages.
+ *
+ * Implementations must be thread safe. A shared or persistent implementation
+ * can be configured with the <code>replayCacheClass</code> element of the
+ * RampartConfig, <code>SimpleReplayCache</code> is used otherwise. One
+ * instance of each configured class is shared by all services of a
+ * configuration context.
+ */
+public interface ReplayCache {
+
+    public final static String REPLAY_CACHE_KEY = "rampartReplayCache";
+
+    /**
+     * Records the given identifier until the given expiry time.
+     *
+     * @param identifier The identifier of the nonce, timestamp or signature
+     * @param expires Time in milliseconds after which the identifier can be
+     *            forgotten
+     * @return true if the identifier was already recorded and has not expired
+     *         yet, i.e. the message is a replay
+     * @throws RampartException If the identifier cannot be recorded, e.g.
+     *             because the cache is full. Implementations must not forget
+     *             identifiers before their expiry to make room.
+     */
+    public boolean isReplayed(String identifier, long expires)
+            throws RampartException;
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * In memory <code>ReplayCache</code>.
+ *
+ * Identifiers are spread over a number of segments, each with its own lock,
+ * so that concurrent requests seldom contend. Each segment keeps its entries
+ * in insertion order and drops expired entries from the oldest end whenever
+ * an identifier is added, the segment is only scanned for entries that
+ * expired out of order when it is full.
+ *
+ * The number of entries is bounded. An identifier is never dropped before
+ * its expiry, if a segment holds only unexpired identifiers the message is
+ * rejected instead. The capacity must therefore hold all identifiers
+ * received within the retention time, which is the timestamp TTL plus the
+ * allowed clock skew: <code>rate * (ttl + skew) * IDENTIFIERS_PER_MESSAGE
+ * </code>, see {@link #getCapacity(int, int)}. With the defaults of 100
+ * messages per second and a TTL of 300 seconds plus 60 seconds of skew
+ * this is 108000 identifiers. Messages arriving faster than the configured
+ * <code>replayCacheRate</code> for a whole TTL are rejected.
+ */
+public class SimpleReplayCache implements ReplayCache {
+
+    private static Log log = LogFactory.getLog(SimpleReplayCache.class);
+
+    /**
+     * Default number of messages per second the cache is sized for
+     */
+    public static final int DEFAULT_RATE = 100;
+
+    /**
+     * Default time in seconds identifiers are retained for, the default
+     * timestamp TTL plus <code>RampartMessageData.REPLAY_CLOCK_SKEW</code>
+     */
+    public static final int DEFAULT_RETENTION = 360;
+
+    /**
+     * Identifiers recorded per message: a nonce, a timestamp and a signature
+     */
+    public static final int IDENTIFIERS_PER_MESSAGE = 3;
+
+    public static final int DEFAULT_CAPACITY = getCapacity(DEFAULT_RETENTION,
+            DEFAULT_RATE);
+
+    private static final int SEGMENTS = 16;
+
+    private Segment[] segments = new Segment[SEGMENTS];
+
+    private volatile int segmentCapacity;
+
+    public SimpleReplayCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Maximum number of identifiers held
+     */
+    public SimpleReplayCache(int capacity) {
+        this.segmentCapacity = getSegmentCapacity(capacity);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Returns the capacity required to retain the identifiers of the given
+     * number of messages per second for the given time.
+     * @param retention Time in seconds identifiers are retained for
+     * @param rate Messages per second
+     * @return The number of identifiers
+     */
+    public static int getCapacity(int retention, int rate) {
+        long capacity = (long) retention * rate * IDENTIFIERS_PER_MESSAGE;
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(SEGMENTS, capacity));
+    }
+
+    /**
+     * Raises the capacity to the given number of identifiers, used when
+     * services with different TTLs or rates share the cache.
+     * @param capacity Minimum number of identifiers held
+     */
+    public void ensureCapacity(int capacity) {
+        int required = getSegmentCapacity(capacity);
+        if(required <= this.segmentCapacity) {
+            return;
+        }
+        synchronized (this) {
+            if(required > this.segmentCapacity) {
+                this.segmentCapacity = required;
+            }
+        }
+    }
+
+    /**
+     * Identifiers are not spread evenly, each segment gets a quarter more
+     * than its share.
+     */
+    private static int getSegmentCapacity(int capacity) {
+        int share = capacity / SEGMENTS;
+        return share + share / 4 + 1;
+    }
+
+    public boolean isReplayed(String identifier, long expires)
+            throws RampartException {
+        int hash = identifier.hashCode();
+        hash ^= (hash >>> 16);
+        Segment segment = segments[(hash & 0x7fffffff) % SEGMENTS];
+
+        long now = System.currentTimeMillis();
+
+        synchronized (segment) {
+            Entry entry = (Entry) segment.entries.get(identifier);
+            if(entry != null && entry.expires > now) {
+                return true;
+            }
+
+            if(!segment.purge(now, this.segmentCapacity)) {
+                log.warn("Replay cache full, rejecting message");
+                throw new RampartException("replayCacheFull");
+            }
+
+            entry = new Entry(identifier, expires);
+            segment.entries.put(identifier, entry);
+            segment.order.addLast(entry);
+            return false;
+        }
+    }
+
+    /**
+     * @return The number of identifiers held, including the expired ones
+     * that were not purged yet
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                size += segments[i].entries.size();
+            }
+        }
+        return size;
+    }
+
+    private static class Segment {
+
+        private HashMap entries = new HashMap();
+
+        /**
+         * Entries in insertion order, may contain entries that were replaced
+         * in the map
+         */
+        private LinkedList order = new LinkedList();
+
+        /**
+         * Drop the expired entries at the old end. If the segment is still
+         * full drop the entries that expired out of order.
+         * @return true if there is room for another entry
+         */
+        private boolean purge(long now, int maxEntries) {
+            while (!order.isEmpty()) {
+                Entry oldest = (Entry) order.getFirst();
+                boolean replaced = entries.get(oldest.identifier) != oldest;
+                if(!replaced && oldest.expires > now) {
+                    break;
+                }
+
+                order.removeFirst();
+                if(!replaced) {
+                    entries.remove(oldest.identifier);
+                }
+            }
+
+            if(entries.size() < maxEntries) {
+                return true;
+            }
+
+            for (Iterator iter = order.iterator(); iter.hasNext();) {
+                Entry entry = (Entry) iter.next();
+                if(entries.get(entry.identifier) != entry) {
+                    iter.remove();
+                } else if(entry.expires <= now) {
+                    iter.remove();
+                    entries.remove(entry.identifier);
+                }
+            }
+            return entries.size() < maxEntries;
+        }
+    }
+
+    private static class Entry {
+
+        private String identifier;
+
+        private long expires;
+
+        private Entry(String identifier, long expires) {
+            this.identifier = identifier;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart;
+
+import javax.security.auth.callback.CallbackHandler;
+
+/**
+ * Marker interface of password callback handlers that do not keep any per
+ * message state and can be invoked by many threads at the same time.
+ *
+ * Rampart creates a single instance of such a password callback class per
+ * service class loader and shares it across messages, instead of creating a
+ * new instance for each message.
+ */
+public interface StatelessCallbackHandler extends CallbackHandler {
+
+}
@@ -16,8 +16,10 @@
 
 package org.apache.rampart;
 
+import org.apache.axis2.context.ConfigurationContext;
 import org.apache.rahas.Token;
 import org.apache.rahas.TokenStorage;
+import org.apache.rampart.util.EncryptedKeyCache;
 import org.apache.ws.security.WSPasswordCallback;
 
 import javax.security.auth.callback.Callback;
@@ -25,18 +27,44 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.UnsupportedCallbackException;
 
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 
 public class TokenCallbackHandler implements CallbackHandler {
 
     private TokenStorage store;
     private CallbackHandler handler;
+    private ConfigurationContext configCtx;
+    private Set resolved = new HashSet();
     
     public TokenCallbackHandler(TokenStorage store, CallbackHandler handler) {
         this.store = store;
         this.handler = handler;
     }
     
+    /**
+     * @param store
+     * @param handler
+     * @param configCtx Configuration context holding the EncryptedKeys 
+     * received by the service, looked up when the store does not know a 
+     * token
+     */
+    public TokenCallbackHandler(TokenStorage store, CallbackHandler handler,
+            ConfigurationContext configCtx) {
+        this(store, handler);
+        this.configCtx = configCtx;
+    }
+    
+    /**
+     * @param id
+     * @return Whether the key of the token with the given id or reference
+     * was handed out
+     */
+    public boolean isResolved(String id) {
+        return this.resolved.contains(id);
+    }
+    
     public void handle(Callback[] callbacks) 
     throws IOException, UnsupportedCallbackException {
         
@@ -54,6 +82,14 @@ public class TokenCallbackHandler implements CallbackHandler {
                         if(tok != null) {
                             //Get the secret and set it in the callback object
                             pc.setKey(tok.getSecret());
+                            this.resolved.add(id);
+                        } else if(this.configCtx != null) {
+                            byte[] key = EncryptedKeyCache.getReceivedKey(
+                                    this.configCtx, id);
+                            if(key != null) {
+                                pc.setKey(key);
+                                this.resolved.add(id);
+                            }
                         }
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.impl.dom.DOOMAbstractFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPHeader;
+import org.apache.axiom.soap.SOAPHeaderBlock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rampart.policy.RampartPolicyData;
+import org.apache.rampart.util.Axis2Util;
+import org.apache.rampart.util.RampartUtil;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSSecurityException;
+import org.apache.ws.security.WSUsernameTokenPrincipal;
+import org.apache.ws.security.message.token.Timestamp;
+import org.apache.xml.security.utils.Base64;
+import org.w3c.dom.Element;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.xml.namespace.QName;
+
+import java.security.MessageDigest;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * Processes the security header of an incoming message of a transport
+ * binding that only carries a Timestamp and UsernameTokens, without
+ * converting the envelope into a DOM.
+ *
+ * The UsernameTokens are authenticated with the password callback the same
+ * way the <code>WSSecurityEngine</code> does: plain text passwords are
+ * handed to the callback for verification, digests are computed with the
+ * password the callback supplies. Only the Timestamp element itself is
+ * converted into a DOM element, the Body is not touched.
+ *
+ * Use <code>canProcess</code> to check whether a message can be processed,
+ * all others have to go through the <code>WSSecurityEngine</code>.
+ */
+public class TransportSecurityProcessor {
+
+    private static Log log = LogFactory.getLog(TransportSecurityProcessor.class);
+
+    private static final QName USERNAME = new QName(WSConstants.WSSE_NS,
+            WSConstants.USERNAME_LN);
+    private static final QName PASSWORD = new QName(WSConstants.WSSE_NS,
+            WSConstants.PASSWORD_LN);
+    private static final QName NONCE = new QName(WSConstants.WSSE_NS,
+            WSConstants.NONCE_LN);
+    private static final QName CREATED = new QName(WSConstants.WSU_NS,
+            WSConstants.CREATED_LN);
+    private static final QName PASSWORD_TYPE = new QName(
+            WSConstants.PASSWORD_TYPE_ATTR);
+
+    /**
+     * Checks whether the policy and the security header of the given
+     * envelope can be handled by this processor.
+     * @param rpd
+     * @param envelope
+     * @return true if the message can be processed without a DOM
+     */
+    public static boolean canProcess(RampartPolicyData rpd, SOAPEnvelope envelope) {
+
+        if(!RampartUtil.isHeaderOnlyTransportBinding(rpd)
+                || envelope.getBody().hasFault()) {
+            return false;
+        }
+
+        OMElement secHeader = getSecurityHeader(envelope);
+        if(secHeader == null) {
+            return false;
+        }
+
+        int timestamps = 0;
+        for (Iterator iter = secHeader.getChildElements(); iter.hasNext();) {
+            OMElement child = (OMElement) iter.next();
+            if(isTimestamp(child)) {
+                if(++timestamps > 1) {
+                    return false;
+                }
+            } else if(!isUsernameToken(child)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Process the security header of the message.
+     * @param rmd
+     * @return The processing results in the same form the
+     * <code>WSSecurityEngine</code> returns them
+     * @throws RampartException
+     */
+    public Vector process(RampartMessageData rmd) throws RampartException {
+
+        OMElement secHeader = getSecurityHeader(
+                rmd.getMsgContext().getEnvelope());
+
+        Vector results = new Vector();
+        for (Iterator iter = secHeader.getChildElements(); iter.hasNext();) {
+            OMElement child = (OMElement) iter.next();
+            if(isTimestamp(child)) {
+                results.add(0, processTimestamp(child));
+            } else {
+                results.add(0, processUsernameToken(rmd, child));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Check the expiry of the given Timestamp, only the Timestamp element is
+     * converted into a DOM element.
+     * @param tsElem
+     * @return The Timestamp result
+     * @throws RampartException If the Timestamp is invalid or expired
+     */
+    private static WSSecurityEngineResult processTimestamp(OMElement tsElem)
+            throws RampartException {
+        try {
+            OMElement domTsElem = Axis2Util.toDOOM(DOOMAbstractFactory
+                    .getOMFactory(), tsElem);
+            Timestamp timestamp = new Timestamp((Element) domTsElem);
+
+            Calendar expires = timestamp.getExpires();
+            if(expires != null && expires.before(Calendar.getInstance())) {
+                throw new RampartException("timestampExpired");
+            }
+
+            return new WSSecurityEngineResult(WSConstants.TS, timestamp);
+        } catch (WSSecurityException e) {
+            throw new RampartException("cannotValidateTimestamp", e);
+        }
+    }
+
+    private WSSecurityEngineResult processUsernameToken(RampartMessageData rmd,
+            OMElement utElem) throws RampartException {
+
+        OMElement userElem = utElem.getFirstChildWithName(USERNAME);
+        OMElement pwdElem = utElem.getFirstChildWithName(PASSWORD);
+        if(userElem == null || pwdElem == null) {
+            throw new RampartException("errorProcessingUT");
+        }
+
+        String user = userElem.getText().trim();
+        String password = pwdElem.getText().trim();
+        String pwType = pwdElem.getAttributeValue(PASSWORD_TYPE);
+        String nonce = getText(utElem.getFirstChildWithName(NONCE));
+        String created = getText(utElem.getFirstChildWithName(CREATED));
+        boolean digest = WSConstants.PASSWORD_DIGEST.equals(pwType);
+
+        CallbackHandler handler = new TokenCallbackHandler(rmd
+                .getTokenStorage(), RampartUtil.getPasswordCB(rmd));
+
+        try {
+            if(digest) {
+                WSPasswordCallback cb = new WSPasswordCallback(user,
+                        WSPasswordCallback.USERNAME_TOKEN);
+                handler.handle(new Callback[] { cb });
+                //Constant time comparison of the digests
+                if(cb.getPassword() == null || !MessageDigest.isEqual(
+                        Base64.decode(password),
+                        computeDigest(nonce, created, cb.getPassword()))) {
+                    throw new RampartException("utAuthenticationFailed");
+                }
+            } else {
+                //The callback verifies plain text passwords
+                handler.handle(new Callback[] { new WSPasswordCallback(user,
+                        password, pwType,
+                        WSPasswordCallback.USERNAME_TOKEN_UNKNOWN) });
+            }
+        } catch (RampartException e) {
+            throw e;
+        } catch (Exception e) {
+            log.debug("UsernameToken authentication failed", e);
+            throw new RampartException("utAuthenticationFailed", e);
+        }
+
+        WSUsernameTokenPrincipal principal = new WSUsernameTokenPrincipal(
+                user, digest);
+        principal.setNonce(nonce);
+        principal.setCreatedTime(created);
+        principal.setPassword(password);
+        principal.setPasswordType(pwType);
+
+        return new WSSecurityEngineResult(WSConstants.UT, principal, null,
+                null, null);
+    }
+
+    /**
+     * SHA-1(nonce + created + password) as defined by the UsernameToken
+     * profile.
+     */
+    private static byte[] computeDigest(String nonce, String created,
+            String password) throws Exception {
+        MessageDigest sha = MessageDigest.getInstance("SHA-1");
+        if(nonce != null) {
+            sha.update(Base64.decode(nonce));
+        }
+        if(created != null) {
+            sha.update(created.getBytes("UTF-8"));
+        }
+        sha.update(password.getBytes("UTF-8"));
+        return sha.digest();
+    }
+
+    private static String getText(OMElement elem) {
+        return (elem != null) ? elem.getText().trim() : null;
+    }
+
+    /**
+     * @return The security header without an actor, <code>null</code> if
+     * there's none or there's more than one security header
+     */
+    private static OMElement getSecurityHeader(SOAPEnvelope envelope) {
+        SOAPHeader header = envelope.getHeader();
+        if(header == null) {
+            return null;
+        }
+
+        OMElement secHeader = null;
+        for (Iterator iter = header.getChildElements(); iter.hasNext();) {
+            OMElement headerBlock = (OMElement) iter.next();
+            if(isSecurityHeader(headerBlock)) {
+                if(secHeader != null || (headerBlock instanceof SOAPHeaderBlock &&
+                        ((SOAPHeaderBlock) headerBlock).getRole() != null)) {
+                    return null;
+                }
+                secHeader = headerBlock;
+            }
+        }
+        return secHeader;
+    }
+
+    private static boolean isSecurityHeader(OMElement elem) {
+        return WSConstants.WSSE_LN.equals(elem.getLocalName()) &&
+            elem.getNamespace() != null &&
+            WSConstants.WSSE_NS.equals(elem.getNamespace().getNamespaceURI());
+    }
+
+    private static boolean isTimestamp(OMElement elem) {
+        return WSConstants.TIMESTAMP_TOKEN_LN.equals(elem.getLocalName()) &&
+            elem.getNamespace() != null &&
+            WSConstants.WSU_NS.equals(elem.getNamespace().getNamespaceURI());
+    }
+
+    private static boolean isUsernameToken(OMElement elem) {
+        return WSConstants.USERNAME_TOKEN_LN.equals(elem.getLocalName()) &&
+            elem.getNamespace() != null &&
+            WSConstants.WSSE_NS.equals(elem.getNamespace().getNamespaceURI());
+    }
+}
@@ -37,6 +37,10 @@ public class ValidatorData {
     }
     
     private void extractEncryptedPartInformation() {
+        if(rmd.getDocument() == null) {
+            //Processed without a DOM, there's no encrypted data
+            return;
+        }
         Node start = rmd.getDocument().getDocumentElement();
         while(start != null) {
             Element elem = (Element) WSSecurityUtil.findElement(start, 
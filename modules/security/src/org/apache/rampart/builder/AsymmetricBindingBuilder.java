@@ -24,6 +24,8 @@ import org.apache.rampart.RampartException;
 import org.apache.rampart.RampartMessageData;
 import org.apache.rampart.policy.RampartPolicyData;
 import org.apache.rampart.policy.model.RampartConfig;
+import org.apache.rampart.util.EncryptedKeyCache;
+import org.apache.rampart.util.ParallelEncryptor;
 import org.apache.rampart.util.RampartUtil;
 import org.apache.ws.secpolicy.Constants;
 import org.apache.ws.secpolicy.model.SupportingToken;
@@ -35,6 +37,7 @@ import org.apache.ws.security.conversation.ConversationException;
 import org.apache.ws.security.handler.WSHandlerConstants;
 import org.apache.ws.security.message.WSSecDKEncrypt;
 import org.apache.ws.security.message.WSSecDKSign;
+import org.apache.ws.security.message.WSSecDerivedKeyBase;
 import org.apache.ws.security.message.WSSecEncrypt;
 import org.apache.ws.security.message.WSSecEncryptedKey;
 import org.apache.ws.security.message.WSSecSignature;
@@ -43,6 +46,7 @@ import org.w3c.dom.Element;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
 
 public class AsymmetricBindingBuilder extends BindingBuilder {
@@ -58,6 +62,12 @@ public class AsymmetricBindingBuilder extends BindingBuilder {
     private String encryptedKeyId;
     
     private byte[] encryptedKeyValue;
+    
+    /**
+     * EncryptedKeySHA1 identifier of a reused EncryptedKey that is not 
+     * included in this message
+     */
+    private String encryptedKeySHA1;
 
     private Vector signatureValues = new Vector();
 
@@ -121,8 +131,7 @@ public class AsymmetricBindingBuilder extends BindingBuilder {
                     // Create the DK encryption builder
                     dkEncr = new WSSecDKEncrypt();
                     dkEncr.setParts(encrParts);
-                    dkEncr.setExternalKey(this.encryptedKeyValue, 
-                            this.encryptedKeyId);
+                    this.setExternalKey(dkEncr, doc);
                     dkEncr.prepare(doc);
 
                     // Get and add the DKT element
@@ -156,7 +165,12 @@ public class AsymmetricBindingBuilder extends BindingBuilder {
                     this.encrTokenElement = RampartUtil.appendChildToSecHeader(rmd,
                             encrTokenElement);
 
-                    refList = encr.encryptForExternalRef(null, encrParts);
+                    //Large parts may be encrypted in parallel
+                    refList = ParallelEncryptor.encrypt(rmd, encrParts,
+                            encr.getEphemeralKey(), encr.getId());
+                    if (refList == null) {
+                        refList = encr.encryptForExternalRef(null, encrParts);
+                    }
 
                 } catch (WSSecurityException e) {
                     throw new RampartException("errorInEncryption", e);
@@ -339,11 +353,11 @@ public class AsymmetricBindingBuilder extends BindingBuilder {
                 try {
                     WSSecDKEncrypt dkEncr = new WSSecDKEncrypt();
                     
-                    if(this.encrKey == null) {
+                    if(this.encryptedKeyId == null) {
                         this.setupEncryptedKey(rmd, encrToken);
                     }
                     
-                    dkEncr.setExternalKey(this.encryptedKeyValue, this.encryptedKeyId);
+                    this.setExternalKey(dkEncr, doc);
                     dkEncr.setSymmetricEncAlgorithm(rpd.getAlgorithmSuite().getEncryption());
                     dkEncr.prepare(doc);
                     
@@ -407,7 +421,11 @@ public class AsymmetricBindingBuilder extends BindingBuilder {
                                     encryptedKeyElement));
                     
                     //Encrypt, get hold of the ref list and add it
-                    refList = encr.encryptForInternalRef(null, encrParts);
+                    refList = ParallelEncryptor.encrypt(rmd, encrParts,
+                            encr.getEphemeralKey(), null);
+                    if(refList == null) {
+                        refList = encr.encryptForInternalRef(null, encrParts);
+                    }
     
                     //Add internal refs
                     encryptedKeyElement.appendChild(refList);
@@ -431,12 +449,12 @@ public class AsymmetricBindingBuilder extends BindingBuilder {
 
         if (sigToken.isDerivedKeys()) {
             // Set up the encrypted key to use
-            if(this.encrKey == null) {
+            if(this.encryptedKeyId == null) {
                 setupEncryptedKey(rmd, sigToken);
             }
             
             WSSecDKSign dkSign = new WSSecDKSign();
-            dkSign.setExternalKey(this.encryptedKeyValue, this.encryptedKeyId);
+            this.setExternalKey(dkSign, doc);
 
             // Set the algo info
             dkSign.setSignatureAlgorithm(rpd.getAlgorithmSuite()
@@ -532,6 +550,14 @@ public class AsymmetricBindingBuilder extends BindingBuilder {
                     encryptedKeyId = RampartUtil.getRequestEncryptedKeyId((Vector)resultsObj);
                     encryptedKeyValue = RampartUtil.getRequestEncryptedKeyValue((Vector)resultsObj);
                     
+                    //Refer to a key kept for reuse by its identifier, to let 
+                    //the client know that it may reuse the key
+                    Map keyIds = (Map) rmd.getMsgContext().getProperty(
+                            EncryptedKeyCache.RECEIVED_KEY_IDS);
+                    if(keyIds != null && encryptedKeyId != null) {
+                        encryptedKeySHA1 = (String) keyIds.get(encryptedKeyId);
+                    }
+                    
                     //In the case where we don't have the EncryptedKey in the 
                     //request, for the control to have reached this state,
                     //the scenario MUST be a case where this is the response
@@ -543,10 +569,62 @@ public class AsymmetricBindingBuilder extends BindingBuilder {
                 } else {
                     throw new RampartException("noSecurityResults");
                 }
-        } else {
+        } else if(!reuseEncryptedKey(rmd)) {
             createEncryptedKey(rmd, token);
         }
     }
+    
+    /**
+     * Use the key of an EncryptedKey sent in an earlier message, if the
+     * reuse of EncryptedKeys is enabled in the RampartConfig and the
+     * recipient confirmed that it holds the key.
+     * @param rmd
+     * @return true if a cached EncryptedKey is used
+     */
+    private boolean reuseEncryptedKey(RampartMessageData rmd) {
+        EncryptedKeyCache.Entry entry = null;
+        if(isEncryptedKeyReuse(rmd)) {
+            RampartPolicyData rpd = rmd.getPolicyData();
+            entry = EncryptedKeyCache.getEncryptedKey(rpd, rpd
+                    .getRampartConfig().getEncryptionUser());
+        }
+        if(entry == null) {
+            return false;
+        }
+        
+        log.debug("Reusing EncryptedKey : " + entry.getId());
+        rmd.getMsgContext().setProperty(EncryptedKeyCache.SENT_KEY, entry);
+        this.encryptedKeyId = entry.getId();
+        this.encryptedKeyValue = entry.getKey();
+        this.encryptedKeySHA1 = entry.getSHA1();
+        return true;
+    }
+    
+    /**
+     * EncryptedKeys are reused by the client only, and not when the 
+     * EncryptedKey has to be signed by every message.
+     */
+    private boolean isEncryptedKeyReuse(RampartMessageData rmd) {
+        RampartPolicyData rpd = rmd.getPolicyData();
+        RampartConfig config = rpd.getRampartConfig();
+        return rmd.isClientSide() && config != null
+                && config.getEncryptedKeyReuseCount() > 1
+                && config.getEncryptionUser() != null
+                && !rpd.isTokenProtection();
+    }
+    
+    /**
+     * Set the key to derive from, referring to a reused EncryptedKey by its
+     * EncryptedKeySHA1 identifier.
+     */
+    private void setExternalKey(WSSecDerivedKeyBase dkBuilder, Document doc) {
+        if(this.encryptedKeySHA1 != null) {
+            dkBuilder.setExternalKey(this.encryptedKeyValue, 
+                    EncryptedKeyCache.createReference(doc, this.encryptedKeySHA1));
+        } else {
+            dkBuilder.setExternalKey(this.encryptedKeyValue, this.encryptedKeyId);
+        }
+    }
 
     /**
      * Create an encrypted key element
@@ -577,9 +655,27 @@ public class AsymmetricBindingBuilder extends BindingBuilder {
             org.apache.rahas.Token tok = new org.apache.rahas.Token(
                     encryptedKeyId, (OMElement)encrTokenElement , null, null);
             tok.setSecret(encryptedKeyValue);
+            if(isEncryptedKeyReuse(rmd)) {
+                //The response refers to the key by its identifier
+                tok.setAttachedReference((OMElement) EncryptedKeyCache
+                        .createReference(rmd.getDocument(), EncryptedKeyCache
+                                .getEncryptedKeySHA1(encrTokenElement)));
+            }
             rmd.getTokenStorage().add(tok);
         } catch (TrustException e) {
             throw new RampartException("errorInAddingTokenIntoStore", e);
         }
+        
+        if(isEncryptedKeyReuse(rmd)) {
+            RampartPolicyData rpd = rmd.getPolicyData();
+            RampartConfig config = rpd.getRampartConfig();
+            EncryptedKeyCache.Entry entry = EncryptedKeyCache.putEncryptedKey(
+                    rpd, config.getEncryptionUser(), encryptedKeyId,
+                    encryptedKeyValue, EncryptedKeyCache
+                            .getEncryptedKeySHA1(encrTokenElement), config
+                            .getEncryptedKeyReuseCount(), config
+                            .getEncryptedKeyReuseTime() * 1000L);
+            rmd.getMsgContext().setProperty(EncryptedKeyCache.SENT_KEY, entry);
+        }
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.builder;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axiom.soap.SOAPHeader;
+import org.apache.axiom.soap.SOAPHeaderBlock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rampart.RampartException;
+import org.apache.rampart.RampartMessageData;
+import org.apache.rampart.policy.RampartPolicyData;
+import org.apache.rampart.util.RampartUtil;
+import org.apache.ws.secpolicy.model.SupportingToken;
+import org.apache.ws.secpolicy.model.UsernameToken;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.handler.WSHandlerConstants;
+
+import javax.xml.namespace.QName;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.TimeZone;
+import java.util.Vector;
+
+/**
+ * Builds the security header of a transport binding that only carries a
+ * Timestamp and UsernameTokens straight into the AXIOM envelope.
+ *
+ * These elements are neither signed nor encrypted, therefore the envelope
+ * is not converted into a DOOM document and the Body is left as it is. The
+ * header is the same as the one the <code>TransportBindingBuilder</code>
+ * builds with WSS4J: a Timestamp followed by a UsernameToken with a
+ * plain text password for each UsernameToken in the signed supporting
+ * tokens of the client.
+ *
+ * Use <code>RampartUtil.isHeaderOnlyTransportBinding</code> to check
+ * whether a policy can be handled by this builder.
+ */
+public class AxiomTransportBindingBuilder extends BindingBuilder {
+
+    private static Log log = LogFactory.getLog(AxiomTransportBindingBuilder.class);
+
+    public void build(RampartMessageData rmd) throws RampartException {
+
+        log.debug("AxiomTransportBindingBuilder build invoked");
+
+        RampartPolicyData rpd = rmd.getPolicyData();
+        SOAPEnvelope envelope = rmd.getMsgContext().getEnvelope();
+        SOAPFactory factory = (SOAPFactory) envelope.getOMFactory();
+
+        OMNamespace wsse = factory.createOMNamespace(WSConstants.WSSE_NS,
+                WSConstants.WSSE_PREFIX);
+        OMNamespace wsu = factory.createOMNamespace(WSConstants.WSU_NS,
+                WSConstants.WSU_PREFIX);
+
+        OMElement secHeader = getSecurityHeader(envelope, factory, wsse);
+
+        addTimestamp(rmd, secHeader, wsu);
+
+        if(rmd.isClientSide()) {
+            SupportingToken sgndSuppTokens = rpd.getSignedSupportingTokens();
+            if(sgndSuppTokens != null && sgndSuppTokens.getTokens() != null) {
+                for (Iterator iter = sgndSuppTokens.getTokens().iterator();
+                        iter.hasNext();) {
+                    if(iter.next() instanceof UsernameToken) {
+                        addUsernameToken(rmd, secHeader, wsse, wsu);
+                    }
+                }
+            }
+
+            //There are no signatures to confirm
+            rmd.getMsgContext().setProperty(WSHandlerConstants.SEND_SIGV,
+                    new Vector());
+        }
+    }
+
+    /**
+     * Returns the wsse:Security header of the envelope, adding it as the
+     * first header block if there is none.
+     */
+    private OMElement getSecurityHeader(SOAPEnvelope envelope,
+            SOAPFactory factory, OMNamespace wsse) {
+        SOAPHeader header = envelope.getHeader();
+        if(header == null) {
+            header = factory.createSOAPHeader(envelope);
+        }
+
+        OMElement secHeader = header.getFirstChildWithName(new QName(
+                WSConstants.WSSE_NS, WSConstants.WSSE_LN));
+        if(secHeader != null) {
+            return secHeader;
+        }
+
+        OMElement first = header.getFirstElement();
+        SOAPHeaderBlock block = header.addHeaderBlock(WSConstants.WSSE_LN, wsse);
+        block.setMustUnderstand(true);
+        if(first != null) {
+            block.detach();
+            first.insertSiblingBefore(block);
+        }
+        return block;
+    }
+
+    private void addTimestamp(RampartMessageData rmd, OMElement secHeader,
+            OMNamespace wsu) {
+        log.debug("Adding timestamp");
+
+        OMElement ts = secHeader.getOMFactory().createOMElement(
+                WSConstants.TIMESTAMP_TOKEN_LN, wsu, secHeader);
+        String id = "Timestamp-" + ts.hashCode();
+        ts.addAttribute("Id", id, wsu);
+
+        DateFormat format = getDateFormat();
+        long now = System.currentTimeMillis();
+        secHeader.getOMFactory().createOMElement(WSConstants.CREATED_LN, wsu,
+                ts).setText(format.format(new Date(now)));
+        int ttl = RampartUtil.getTimeToLive(rmd);
+        if(ttl > 0) {
+            secHeader.getOMFactory().createOMElement(WSConstants.EXPIRES_LN,
+                    wsu, ts).setText(format.format(new Date(now + ttl * 1000L)));
+        }
+
+        log.debug("Timestamp id: " + id);
+        rmd.setTimestampId(id);
+    }
+
+    private void addUsernameToken(RampartMessageData rmd, OMElement secHeader,
+            OMNamespace wsse, OMNamespace wsu) throws RampartException {
+        log.debug("Adding a UsernameToken");
+
+        String user = getUsernameTokenUser(rmd);
+        String password = getUsernameTokenPassword(rmd, user);
+
+        OMElement ut = secHeader.getOMFactory().createOMElement(
+                WSConstants.USERNAME_TOKEN_LN, wsse, secHeader);
+        ut.addAttribute("Id", "UsernameToken-"
+                + ut.hashCode(), wsu);
+        secHeader.getOMFactory().createOMElement(WSConstants.USERNAME_LN, wsse,
+                ut).setText(user);
+        OMElement pwd = secHeader.getOMFactory().createOMElement(
+                WSConstants.PASSWORD_LN, wsse, ut);
+        pwd.addAttribute(WSConstants.PASSWORD_TYPE_ATTR,
+                WSConstants.PASSWORD_TEXT, null);
+        pwd.setText(password);
+    }
+
+    /**
+     * The xsd:dateTime format WSS4J uses for Timestamps, a new instance is
+     * needed per message since date formats are not thread safe.
+     */
+    private static DateFormat getDateFormat() {
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+}
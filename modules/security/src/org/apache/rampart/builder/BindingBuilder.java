@@ -103,59 +103,78 @@ public abstract class BindingBuilder {
        
         log.debug("Adding a UsernameToken");
         
-        RampartPolicyData rpd = rmd.getPolicyData();
+        String user = getUsernameTokenUser(rmd);
+        String password = getUsernameTokenPassword(rmd, user);
         
-        //Get the user
-        String user = rpd.getRampartConfig().getUser();
+        WSSecUsernameToken utBuilder = new WSSecUsernameToken();
+        
+        //TODO Get the UT type, only WS-SX spec supports this
+        utBuilder.setUserInfo(user, password);
+        
+        return utBuilder;
+    }
+    
+    /**
+     * Returns the user of the UsernameToken from the RampartConfig
+     * @param rmd
+     * @return The user name
+     * @throws RampartException If no user is configured
+     */
+    protected String getUsernameTokenUser(RampartMessageData rmd) throws RampartException {
+        
+        String user = rmd.getPolicyData().getRampartConfig().getUser();
         if(user != null && !"".equals(user)) {
             log.debug("User : " + user);
-            
-            //Get the password
-            CallbackHandler handler = RampartUtil.getPasswordCB(rmd);
-            
-            if(handler == null) {
-                //If the callback handler is missing
-                throw new RampartException("cbHandlerMissing");
-            }
-            
-            WSPasswordCallback[] cb = { new WSPasswordCallback(user,
-                    WSPasswordCallback.USERNAME_TOKEN) };
-            
-            try {
-                handler.handle(cb);
-                
-                //get the password
-                String password = cb[0].getPassword();
-                
-                log.debug("Password : " + password);
-                
-                if(password != null && !"".equals(password)) {
-                    //If the password is available then build the token
-                    
-                    WSSecUsernameToken utBuilder = new WSSecUsernameToken();
-                    
-                    //TODO Get the UT type, only WS-SX spec supports this
-                    utBuilder.setUserInfo(user, password);
-                    
-                    return utBuilder;
-                } else {
-                    //If there's no password then throw an exception
-                    throw new RampartException("noPasswordForUser", 
-                            new String[]{user});
-                }
-            } catch (IOException e) {
-                throw new RampartException("errorInGettingPasswordForUser", 
-                        new String[]{user}, e);
-            } catch (UnsupportedCallbackException e) {
-                throw new RampartException("errorInGettingPasswordForUser", 
-                        new String[]{user}, e);
-            }
-            
+            return user;
         } else {
             log.debug("No user value specified in the configuration");
             throw new RampartException("userMissing");
         }
+    }
+    
+    /**
+     * Obtain the password of the given user from the password callback
+     * @param rmd
+     * @param user
+     * @return The password
+     * @throws RampartException If the password is not available
+     */
+    protected String getUsernameTokenPassword(RampartMessageData rmd, String user) 
+            throws RampartException {
+        
+        //Get the password
+        CallbackHandler handler = RampartUtil.getPasswordCB(rmd);
+        
+        if(handler == null) {
+            //If the callback handler is missing
+            throw new RampartException("cbHandlerMissing");
+        }
+        
+        WSPasswordCallback[] cb = { new WSPasswordCallback(user,
+                WSPasswordCallback.USERNAME_TOKEN) };
         
+        try {
+            handler.handle(cb);
+            
+            //get the password
+            String password = cb[0].getPassword();
+            
+            log.debug("Password : " + password);
+            
+            if(password != null && !"".equals(password)) {
+                return password;
+            } else {
+                //If there's no password then throw an exception
+                throw new RampartException("noPasswordForUser", 
+                        new String[]{user});
+            }
+        } catch (IOException e) {
+            throw new RampartException("errorInGettingPasswordForUser", 
+                    new String[]{user}, e);
+        } catch (UnsupportedCallbackException e) {
+            throw new RampartException("errorInGettingPasswordForUser", 
+                    new String[]{user}, e);
+        }
     }
     
     
@@ -361,7 +361,7 @@ public class SymmetricBindingBuilder extends BindingBuilder {
             sgndEndSuppTokMap = this.handleSupportingTokens(rmd, sgndEndSuppTokens);
     
             //Setup signature parts
-            sigParts = addSignatureParts(sigSuppTokMap, rpd.getSignedParts());
+            sigParts = addSignatureParts(sigSuppTokMap, sigParts);
             sigParts = addSignatureParts(sgndEndSuppTokMap, sigParts);
         } else {
             addSignatureConfirmation(rmd, sigParts);
@@ -581,18 +581,21 @@ public class SymmetricBindingBuilder extends BindingBuilder {
                         
                         //remove from the local map of contexts
                         String contextIdentifierKey = RampartUtil.getContextIdentifierKey(msgContext);
-                        RampartUtil.getContextMap(msgContext).remove(contextIdentifierKey);
+                        RampartUtil.getConversationContextMap(msgContext).remove(contextIdentifierKey);
                     } catch (TrustException e) {
                         throw new RampartException("errorExtractingToken");
                     }
                 }
                 
+                //A token close to its expiry is also passed on to the token
+                //acquirer which returns the renewed token once available
                 if (secConvTokenId == null
-                        || (secConvTokenId != null && 
-                                (!RampartUtil.isTokenValid(rmd, secConvTokenId) && !cancelReqResp))) {
+                        || (secConvTokenId != null && !cancelReqResp &&
+                                (!RampartUtil.isTokenValid(rmd, secConvTokenId) ||
+                                 RampartUtil.isTokenRenewalDue(rmd, secConvTokenId)))) {
                 
-                    log.debug("No SecureConversationToken found, " +
-                            "requesting a new token");
+                    log.debug("No valid SecureConversationToken found, " +
+                            "obtaining a token");
                     
                     SecureConversationToken secConvTok = 
                                         (SecureConversationToken) sigTok;
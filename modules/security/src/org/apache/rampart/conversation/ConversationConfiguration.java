@@ -22,8 +22,8 @@ import org.apache.axiom.om.OMFactory;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.context.OperationContext;
 import org.apache.axis2.description.Parameter;
+import org.apache.rahas.IndexedTokenStore;
 import org.apache.rahas.RahasConstants;
-import org.apache.rahas.SimpleTokenStore;
 import org.apache.rahas.TokenStorage;
 import org.apache.rampart.RampartException;
 import org.apache.rampart.handler.WSSHandlerConstants;
@@ -481,7 +481,7 @@ public class ConversationConfiguration {
                      this.tokenStore = (TokenStorage) Class
                             .forName(this.tokenStoreClass).newInstance();
                 } else {
-                    this.tokenStore = new SimpleTokenStore();
+                    this.tokenStore = new IndexedTokenStore();
                 }
             }
             
@@ -35,6 +35,7 @@ import org.apache.rampart.conversation.ConversationConfiguration;
 import org.apache.rampart.conversation.Util;
 import org.apache.rampart.util.Axis2Util;
 import org.apache.rampart.util.HandlerParameterDecoder;
+import org.apache.rampart.util.TrustedCertificateCache;
 import org.apache.ws.security.SOAPConstants;
 import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSSecurityEngineResult;
@@ -404,6 +405,29 @@ public class WSDoAllReceiver extends WSDoAllHandler {
         results.add(0, rResult);
     }
 
+    /**
+     * Verify the trust of the certificate of a signature, reusing the trust
+     * established by earlier messages signed with the same certificate.
+     */
+    protected boolean verifyTrust(X509Certificate cert, RequestData reqData)
+            throws WSSecurityException {
+        if (cert == null || reqData.getSigCrypto() == null) {
+            return super.verifyTrust(cert, reqData);
+        }
+
+        TrustedCertificateCache trustedCerts = TrustedCertificateCache
+                .getCache(reqData.getSigCrypto());
+        if (trustedCerts.isTrusted(cert)) {
+            return true;
+        }
+
+        if (super.verifyTrust(cert, reqData)) {
+            trustedCerts.add(cert);
+            return true;
+        }
+        return false;
+    }
+
     private void setAddressingInformationOnFault(MessageContext msgContext) {
         SOAPEnvelope env = msgContext.getEnvelope();
         SOAPHeader header = env.getHeader();
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.metrics;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.description.AxisOperation;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.InOutAxisOperation;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.axis2.receivers.RawXMLINOutMessageReceiver;
+
+import javax.xml.namespace.QName;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Axis2 service returning the Rampart timing metrics.
+ *
+ * The <code>getMetrics</code> operation returns the statistics of all
+ * phases, or only those of one service if the request element carries a
+ * <code>service</code> attribute:
+ * <pre>
+ * &lt;rampart:Metrics xmlns:rampart="http://ws.apache.org/rampart/metrics"&gt;
+ *   &lt;rampart:Phase service="..." operation="..." name="..." count="..."
+ *       meanMillis="..." maxMillis="..."&gt;
+ *     &lt;rampart:Bucket upperBoundMicros="100"&gt;12&lt;/rampart:Bucket&gt;
+ *     ...
+ *   &lt;/rampart:Phase&gt;
+ * &lt;/rampart:Metrics&gt;
+ * </pre>
+ * The <code>reset</code> operation drops the recorded statistics.
+ */
+public class MetricsService {
+
+    public static final String SERVICE_NAME = "RampartMetricsService";
+
+    public static final String NS = "http://ws.apache.org/rampart/metrics";
+
+    /**
+     * Deploy the service into the given configuration, unless it is there
+     * already.
+     * @param axisConfig
+     * @throws AxisFault
+     */
+    public static void deploy(AxisConfiguration axisConfig) throws AxisFault {
+        if (axisConfig.getService(SERVICE_NAME) != null) {
+            return;
+        }
+
+        AxisService service = new AxisService(SERVICE_NAME);
+        service.setClassLoader(MetricsService.class.getClassLoader());
+        service.addParameter(new Parameter(Constants.SERVICE_CLASS,
+                MetricsService.class.getName()));
+
+        String[] operations = { "getMetrics", "reset" };
+        for (int i = 0; i < operations.length; i++) {
+            AxisOperation operation = new InOutAxisOperation(new QName(NS,
+                    operations[i]));
+            operation.setMessageReceiver(new RawXMLINOutMessageReceiver());
+            service.addOperation(operation);
+            service.mapActionToOperation("urn:" + operations[i], operation);
+        }
+
+        axisConfig.addService(service);
+    }
+
+    public OMElement getMetrics(OMElement request) {
+        String service = (request != null) ? request
+                .getAttributeValue(new QName("service")) : null;
+
+        OMFactory factory = OMAbstractFactory.getOMFactory();
+        OMNamespace ns = factory.createOMNamespace(NS, "rampart");
+        OMElement metrics = factory.createOMElement("Metrics", ns);
+
+        long[] bounds = PhaseStatistics.BUCKET_BOUNDS;
+        Map statistics = RampartMetrics.getInstance().getAllStatistics();
+        for (Iterator iter = statistics.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            String[] key = ((String) entry.getKey()).split("/");
+            if (service != null && !service.equals(key[0])) {
+                continue;
+            }
+
+            PhaseStatistics stats = (PhaseStatistics) entry.getValue();
+            OMElement phase = factory.createOMElement("Phase", ns, metrics);
+            phase.addAttribute("service", key[0], null);
+            phase.addAttribute("operation", key[1], null);
+            phase.addAttribute("name", key[2], null);
+            phase.addAttribute("count", Long.toString(stats.getCount()), null);
+            phase.addAttribute("meanMillis", Double.toString(stats
+                    .getMeanMillis()), null);
+            phase.addAttribute("maxMillis", Double.toString(stats
+                    .getMaxMicros() / 1000.0), null);
+
+            long[] histogram = stats.getHistogram();
+            for (int i = 0; i < histogram.length; i++) {
+                OMElement bucket = factory.createOMElement("Bucket", ns, phase);
+                if (i < bounds.length) {
+                    bucket.addAttribute("upperBoundMicros", Long
+                            .toString(bounds[i]), null);
+                }
+                bucket.setText(Long.toString(histogram[i]));
+            }
+        }
+
+        return metrics;
+    }
+
+    public OMElement reset(OMElement request) {
+        RampartMetrics.getInstance().reset();
+        return getMetrics(null);
+    }
+}
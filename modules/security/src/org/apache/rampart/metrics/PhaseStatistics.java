@@ -0,0 +1,106 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.metrics;
+
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLong;
+import edu.emory.mathcs.backport.java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Invocation count and latency histogram of one processing phase of one
+ * service operation.
+ *
+ * Updates are lock free. The histogram has fixed buckets, the upper bounds
+ * of which are given by <code>BUCKET_BOUNDS</code>, plus one bucket for
+ * everything above the last bound.
+ */
+public class PhaseStatistics {
+
+    /**
+     * Upper bounds of the histogram buckets in microseconds
+     */
+    public static final long[] BUCKET_BOUNDS = { 100, 250, 500, 1000, 2500,
+            5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000 };
+
+    private AtomicLong count = new AtomicLong();
+
+    private AtomicLong totalMicros = new AtomicLong();
+
+    private AtomicLong maxMicros = new AtomicLong();
+
+    private AtomicLongArray buckets = new AtomicLongArray(
+            BUCKET_BOUNDS.length + 1);
+
+    /**
+     * Record one invocation of the phase.
+     * @param micros The time the phase took in microseconds
+     */
+    public void record(long micros) {
+        this.count.incrementAndGet();
+        this.totalMicros.addAndGet(micros);
+
+        long max = this.maxMicros.get();
+        while (micros > max && !this.maxMicros.compareAndSet(max, micros)) {
+            max = this.maxMicros.get();
+        }
+
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && micros > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        this.buckets.incrementAndGet(bucket);
+    }
+
+    /**
+     * @return Returns the number of invocations.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return Returns the total time spent in the phase in microseconds.
+     */
+    public long getTotalMicros() {
+        return totalMicros.get();
+    }
+
+    /**
+     * @return Returns the longest invocation in microseconds.
+     */
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * @return Returns the mean time per invocation in milliseconds.
+     */
+    public double getMeanMillis() {
+        long count = this.count.get();
+        return (count > 0) ? this.totalMicros.get() / 1000.0 / count : 0;
+    }
+
+    /**
+     * @return Returns a copy of the histogram, one count per bucket.
+     */
+    public long[] getHistogram() {
+        long[] histogram = new long[this.buckets.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = this.buckets.get(i);
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.metrics;
+
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+import edu.emory.mathcs.backport.java.util.concurrent.helpers.Utils;
+
+import org.apache.axis2.context.MessageContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per service operation timing of the expensive steps of securing and
+ * processing messages.
+ *
+ * The phases are timed with
+ * <pre>
+ * long start = RampartMetrics.start();
+ * ...
+ * RampartMetrics.getInstance().record(msgCtx, RampartMetrics.POLICY_VALIDATION, start);
+ * </pre>
+ * The statistics are keyed by <code>service/operation/phase</code> and
+ * exposed through JMX (<code>RampartMetricsMBean</code>) and the optional
+ * <code>MetricsService</code>.
+ */
+public class RampartMetrics implements RampartMetricsMBean {
+
+    private static Log log = LogFactory.getLog(RampartMetrics.class);
+
+    /**
+     * The JMX name of the metrics
+     */
+    public static final String OBJECT_NAME = "org.apache.rampart:type=Metrics";
+
+    /**
+     * Conversion of the envelope into a DOOM document and back
+     */
+    public static final String DOM_CONVERSION = "domConversion";
+
+    /**
+     * Building the security header of an outgoing message, signing and
+     * encrypting included
+     */
+    public static final String SECURITY_HEADER_BUILD = "securityHeaderBuild";
+
+    /**
+     * Processing the security header of an incoming message, signature
+     * verification and decryption included
+     */
+    public static final String SECURITY_HEADER_PROCESSING = "securityHeaderProcessing";
+
+    /**
+     * Validation of the processing results against the policy
+     */
+    public static final String POLICY_VALIDATION = "policyValidation";
+
+    /**
+     * Requesting a token from an STS
+     */
+    public static final String TOKEN_ACQUISITION = "tokenAcquisition";
+
+    private static RampartMetrics instance = new RampartMetrics();
+
+    /**
+     * service/operation/phase -> PhaseStatistics
+     */
+    private ConcurrentHashMap statistics = new ConcurrentHashMap();
+
+    private volatile boolean enabled = true;
+
+    /**
+     * @return Returns the metrics of this runtime.
+     */
+    public static RampartMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return The start time of a phase
+     */
+    public static long start() {
+        return Utils.nanoTime();
+    }
+
+    /**
+     * Record the completion of a phase.
+     * @param msgCtx The message the phase belongs to
+     * @param phase The name of the phase
+     * @param start The time returned by <code>start()</code> when the phase
+     * started
+     */
+    public void record(MessageContext msgCtx, String phase, long start) {
+        if (!this.enabled) {
+            return;
+        }
+        long micros = (Utils.nanoTime() - start) / 1000;
+        getStatistics(getKey(msgCtx, phase)).record(micros);
+    }
+
+    /**
+     * Record the completion of a phase that runs outside of the message it
+     * belongs to.
+     * @param key The key returned by <code>getKey</code>
+     * @param start The time returned by <code>start()</code> when the phase
+     * started
+     */
+    public void record(String key, long start) {
+        if (!this.enabled) {
+            return;
+        }
+        long micros = (Utils.nanoTime() - start) / 1000;
+        getStatistics(key).record(micros);
+    }
+
+    /**
+     * Returns the statistics of the given key, creating them if required.
+     * @param key <code>service/operation/phase</code>
+     * @return The statistics
+     */
+    public PhaseStatistics getStatistics(String key) {
+        PhaseStatistics stats = (PhaseStatistics) this.statistics.get(key);
+        if (stats == null) {
+            PhaseStatistics newStats = new PhaseStatistics();
+            stats = (PhaseStatistics) this.statistics.putIfAbsent(key,
+                    newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return The statistics sorted by their keys
+     */
+    public Map getAllStatistics() {
+        return new TreeMap(this.statistics);
+    }
+
+    public String[] getKeys() {
+        return (String[]) getAllStatistics().keySet().toArray(new String[0]);
+    }
+
+    public long getCount(String key) {
+        PhaseStatistics stats = (PhaseStatistics) this.statistics.get(key);
+        return (stats != null) ? stats.getCount() : 0;
+    }
+
+    public double getMeanMillis(String key) {
+        PhaseStatistics stats = (PhaseStatistics) this.statistics.get(key);
+        return (stats != null) ? stats.getMeanMillis() : 0;
+    }
+
+    public double getMaxMillis(String key) {
+        PhaseStatistics stats = (PhaseStatistics) this.statistics.get(key);
+        return (stats != null) ? stats.getMaxMicros() / 1000.0 : 0;
+    }
+
+    public long[] getHistogram(String key) {
+        PhaseStatistics stats = (PhaseStatistics) this.statistics.get(key);
+        return (stats != null) ? stats.getHistogram()
+                : new long[PhaseStatistics.BUCKET_BOUNDS.length + 1];
+    }
+
+    public long[] getHistogramBounds() {
+        return (long[]) PhaseStatistics.BUCKET_BOUNDS.clone();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void reset() {
+        this.statistics.clear();
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, or the first MBean
+     * server found if there is no platform MBean server (before Java 5).
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer server = getMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(instance, name);
+            }
+        } catch (Exception e) {
+            log.warn("Cannot register the Rampart metrics MBean", e);
+        }
+    }
+
+    /**
+     * Remove the metrics from the MBean server.
+     */
+    public static void unregisterMBean() {
+        try {
+            MBeanServer server = getMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            log.warn("Cannot unregister the Rampart metrics MBean", e);
+        }
+    }
+
+    private static MBeanServer getMBeanServer() throws Exception {
+        try {
+            //java.lang.management is only available from Java 5 on
+            Class factory = Class.forName("java.lang.management.ManagementFactory");
+            return (MBeanServer) factory.getMethod("getPlatformMBeanServer",
+                    new Class[0]).invoke(null, new Object[0]);
+        } catch (ClassNotFoundException e) {
+            List servers = MBeanServerFactory.findMBeanServer(null);
+            return (servers.size() > 0) ? (MBeanServer) servers.get(0)
+                    : MBeanServerFactory.createMBeanServer();
+        }
+    }
+
+    /**
+     * @param msgCtx The message the phase belongs to
+     * @param phase The name of the phase
+     * @return <code>service/operation/phase</code>
+     */
+    public static String getKey(MessageContext msgCtx, String phase) {
+        String service = (msgCtx.getAxisService() != null) ? msgCtx
+                .getAxisService().getName() : "*";
+        String operation = (msgCtx.getAxisOperation() != null && msgCtx
+                .getAxisOperation().getName() != null) ? msgCtx
+                .getAxisOperation().getName().getLocalPart() : "*";
+        return service + "/" + operation + "/" + phase;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.metrics;
+
+/**
+ * Management interface of the Rampart timing metrics. The statistics are
+ * addressed by keys of the form <code>service/operation/phase</code>.
+ */
+public interface RampartMetricsMBean {
+
+    /**
+     * @return The keys of all recorded statistics
+     */
+    public String[] getKeys();
+
+    /**
+     * @param key
+     * @return The number of invocations of the phase
+     */
+    public long getCount(String key);
+
+    /**
+     * @param key
+     * @return The mean time of the phase in milliseconds
+     */
+    public double getMeanMillis(String key);
+
+    /**
+     * @param key
+     * @return The longest time of the phase in milliseconds
+     */
+    public double getMaxMillis(String key);
+
+    /**
+     * @param key
+     * @return The number of invocations per latency bucket
+     */
+    public long[] getHistogram(String key);
+
+    /**
+     * @return The upper bounds of the latency buckets in microseconds, the
+     * last bucket has no bound
+     */
+    public long[] getHistogramBounds();
+
+    public boolean isEnabled();
+
+    public void setEnabled(boolean enabled);
+
+    /**
+     * Drop all recorded statistics
+     */
+    public void reset();
+}
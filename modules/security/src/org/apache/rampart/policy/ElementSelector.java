@@ -0,0 +1,207 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.policy;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.xpath.AXIOMXPath;
+import org.apache.rampart.RampartException;
+import org.apache.ws.secpolicy.WSSPolicyException;
+import org.jaxen.JaxenException;
+import org.jaxen.SimpleNamespaceContext;
+import org.jaxen.XPath;
+
+import javax.xml.namespace.QName;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * A compiled XPath expression of a SignedElements or EncryptedElements
+ * assertion, selecting the elements to protect in the envelope.
+ *
+ * The expression and its namespace bindings are compiled once when the
+ * policy is built. Absolute paths made of plain child steps (e.g.
+ * <code>/soapenv:Envelope/soapenv:Header/ns:Foo</code>) are matched by
+ * walking the child elements along the path, which only builds the part of
+ * the AXIOM tree that lies on the path. All other expressions are evaluated
+ * with Jaxen.
+ *
+ * Instances do not hold per message state and are shared by all messages
+ * using the policy.
+ */
+public class ElementSelector {
+
+    private String expression;
+
+    /**
+     * The steps of a simple path, null if the expression is evaluated with
+     * Jaxen
+     */
+    private QName[] steps;
+
+    private XPath xpath;
+
+    private ElementSelector(String expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * Compile the given XPath expression.
+     * @param expression
+     * @param namespaces The namespace URIs keyed by their prefixes
+     * @return The compiled selector
+     * @throws WSSPolicyException If the expression is invalid or uses an
+     * unbound prefix
+     */
+    public static ElementSelector compile(String expression, Map namespaces)
+            throws WSSPolicyException {
+        ElementSelector selector = new ElementSelector(expression);
+        selector.steps = parseSimplePath(expression, namespaces);
+        if (selector.steps == null) {
+            try {
+                SimpleNamespaceContext nsCtx = new SimpleNamespaceContext();
+                for (Iterator iter = namespaces.entrySet().iterator(); iter
+                        .hasNext();) {
+                    Map.Entry entry = (Map.Entry) iter.next();
+                    nsCtx.addNamespace((String) entry.getKey(),
+                            (String) entry.getValue());
+                }
+                selector.xpath = new AXIOMXPath(expression);
+                selector.xpath.setNamespaceContext(nsCtx);
+            } catch (JaxenException e) {
+                throw new WSSPolicyException("Invalid XPath expression: "
+                        + expression, e);
+            }
+        }
+        return selector;
+    }
+
+    /**
+     * Select the elements matched by the expression.
+     * @param envelope The document element of the message
+     * @return The matched <code>OMElement</code>s in document order
+     * @throws RampartException
+     */
+    public List select(OMElement envelope) throws RampartException {
+        if (this.steps != null) {
+            List matches = new ArrayList();
+            if (this.steps[0].equals(envelope.getQName())) {
+                select(envelope, 1, matches);
+            }
+            return matches;
+        }
+
+        try {
+            List nodes = this.xpath.selectNodes(envelope);
+            List matches = new ArrayList(nodes.size());
+            for (Iterator iter = nodes.iterator(); iter.hasNext();) {
+                Object node = iter.next();
+                if (node instanceof OMElement) {
+                    matches.add(node);
+                }
+            }
+            return matches;
+        } catch (JaxenException e) {
+            throw new RampartException("errorInXPathEvaluation",
+                    new String[] { this.expression }, e);
+        }
+    }
+
+    /**
+     * @return Returns the XPath expression.
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return true if the expression is matched without Jaxen
+     */
+    public boolean isSimplePath() {
+        return steps != null;
+    }
+
+    private void select(OMElement element, int step, List matches) {
+        if (step == this.steps.length) {
+            matches.add(element);
+            return;
+        }
+        for (Iterator iter = element.getChildElements(); iter.hasNext();) {
+            OMElement child = (OMElement) iter.next();
+            if (this.steps[step].equals(child.getQName())) {
+                select(child, step + 1, matches);
+            }
+        }
+    }
+
+    /**
+     * Parse an absolute location path made of child steps with element
+     * names only.
+     * @return The names of the steps, null if the expression is not such a
+     * path
+     */
+    private static QName[] parseSimplePath(String expression, Map namespaces)
+            throws WSSPolicyException {
+        if (!expression.startsWith("/") || expression.startsWith("//")
+                || expression.endsWith("/") || expression.indexOf("//") != -1) {
+            return null;
+        }
+
+        StringTokenizer tokenizer = new StringTokenizer(expression, "/");
+        QName[] steps = new QName[tokenizer.countTokens()];
+        for (int i = 0; i < steps.length; i++) {
+            String step = tokenizer.nextToken().trim();
+            int colon = step.indexOf(':');
+            String prefix = (colon == -1) ? "" : step.substring(0, colon);
+            String localName = step.substring(colon + 1);
+            if (!isNCName(prefix, true) || !isNCName(localName, false)) {
+                return null;
+            }
+
+            String namespace = "";
+            if (prefix.length() > 0) {
+                namespace = (String) namespaces.get(prefix);
+                if (namespace == null) {
+                    throw new WSSPolicyException("Unbound prefix " + prefix
+                            + " in XPath expression: " + expression);
+                }
+            }
+            steps[i] = new QName(namespace, localName);
+        }
+        return steps;
+    }
+
+    private static boolean isNCName(String name, boolean allowEmpty) {
+        if (name.length() == 0) {
+            return allowEmpty;
+        }
+        if (!Character.isLetter(name.charAt(0)) && name.charAt(0) != '_') {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-'
+                    && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
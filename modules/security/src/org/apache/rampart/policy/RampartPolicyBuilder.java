@@ -184,17 +184,26 @@ public class RampartPolicyBuilder {
      *            The data describing the elements (XPath)
      * @param rpd
      *            The WSS4J data to initialize
+     * @throws WSSPolicyException
+     *            If an XPath expression cannot be compiled
      */
     private static void processSignedEncryptedElements(
-            SignedEncryptedElements see, RampartPolicyData rpd) {
+            SignedEncryptedElements see, RampartPolicyData rpd)
+            throws WSSPolicyException {
         Iterator it = see.getXPathExpressions().iterator();
         if (see.isSignedElemets()) {
             while (it.hasNext()) {
-                rpd.setSignedElements((String) it.next());
+                String xpath = (String) it.next();
+                rpd.setSignedElements(xpath);
+                rpd.addSignedElementSelector(ElementSelector.compile(xpath,
+                        see.getDeclaredNamespaces()));
             }
         } else {
             while (it.hasNext()) {
-                rpd.setEncryptedElements((String) it.next());
+                String xpath = (String) it.next();
+                rpd.setEncryptedElements(xpath);
+                rpd.addEncryptedElementSelector(ElementSelector.compile(xpath,
+                        see.getDeclaredNamespaces()));
             }
         }
     }
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.policy;
+
+import org.apache.axis2.description.AxisDescription;
+import org.apache.axis2.description.AxisMessage;
+import org.apache.axis2.description.AxisOperation;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.PolicyInclude;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.neethi.Policy;
+import org.apache.neethi.PolicyReference;
+import org.apache.neethi.PolicyRegistry;
+import org.apache.ws.secpolicy.WSSPolicyException;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Holds the compiled <code>RampartPolicyData</code> of each
+ * service/operation so that the policy alternative is walked only once
+ * instead of once per message.
+ *
+ * Entries are keyed by the <code>AxisService</code> (weakly, so that a
+ * redeployed service drops its entries), the operation and the direction
+ * of the message, as the request and the response may have different
+ * effective policies. Each entry
+ * remembers the <code>Policy</code> instance it was compiled from and is
+ * rebuilt whenever a different policy instance shows up for the same
+ * service/operation. <code>invalidate(AxisDescription)</code> is called when
+ * the module is engaged to drop stale entries explicitly.
+ *
+ * On the server the effective policy is merged from the policies attached
+ * at each level of the description hierarchy, and Axis2 returns a freshly
+ * merged instance on every call. <code>getEffectivePolicy(AxisDescription)</code>
+ * therefore keeps the merged policy of each description, together with the
+ * policies it was merged from, and hands out the same instance as long as
+ * none of those policies has been replaced. The descriptions of the
+ * hierarchy are only referenced weakly, so that the entries do not keep
+ * their own keys alive.
+ *
+ * The cached <code>RampartPolicyData</code> instances are shared between
+ * threads and MUST be treated as read only.
+ */
+public class RampartPolicyCache {
+
+    private static Log log = LogFactory.getLog(RampartPolicyCache.class);
+
+    private static final String SERVICE_LEVEL_KEY = "";
+
+    private static final String ISSUER_POLICY_SUFFIX = "#issuer";
+
+    /**
+     * AxisService -> (operation key -> Entry)
+     */
+    private static Map cache = Collections.synchronizedMap(new WeakHashMap());
+
+    /**
+     * AxisDescription -> EffectivePolicyEntry
+     */
+    private static Map effectivePolicies = Collections.synchronizedMap(new WeakHashMap());
+
+    /**
+     * Returns the effective policy of the given description. The same
+     * instance is returned until the policy attached at any level of the
+     * description hierarchy changes, so that the compiled policy data of the
+     * effective policy can be reused.
+     *
+     * @param axisDescription
+     * @return The effective policy, <code>null</code> if there is none
+     */
+    public static Policy getEffectivePolicy(AxisDescription axisDescription) {
+        List sources = getPolicySources(axisDescription);
+
+        EffectivePolicyEntry entry = (EffectivePolicyEntry) effectivePolicies
+                .get(axisDescription);
+        if(entry != null && isSameSources(entry.sources, sources)) {
+            return entry.policy;
+        }
+
+        Policy policy = axisDescription.getPolicyInclude().getEffectivePolicy();
+        effectivePolicies.put(axisDescription, new EffectivePolicyEntry(
+                sources, policy));
+        return policy;
+    }
+
+    /**
+     * Returns the compiled policy data of the given policy, building it if it
+     * is not already available for the given service/operation.
+     *
+     * @param service
+     * @param operation The operation, <code>null</code> for service level policy
+     * @param policy The effective policy
+     * @return The compiled policy data
+     * @throws WSSPolicyException
+     */
+    public static RampartPolicyData getPolicyData(AxisService service,
+            AxisOperation operation, Policy policy) throws WSSPolicyException {
+        return getPolicyData(service, operation, null, policy);
+    }
+
+    /**
+     * Returns the compiled policy data of the given policy, building it if it
+     * is not already available for the given service/operation/message.
+     *
+     * @param service
+     * @param operation The operation, <code>null</code> for service level policy
+     * @param message The message, <code>null</code> for operation level policy
+     * @param policy The effective policy
+     * @return The compiled policy data
+     * @throws WSSPolicyException
+     */
+    public static RampartPolicyData getPolicyData(AxisService service,
+            AxisOperation operation, AxisMessage message, Policy policy)
+            throws WSSPolicyException {
+        return getPolicyData(service, getOperationKey(operation, message),
+                policy);
+    }
+
+    /**
+     * Returns the compiled policy data of the issuer policy used for the
+     * RST/RSTR messages of a secure conversation.
+     *
+     * @param service
+     * @param operation The operation, <code>null</code> for service level policy
+     * @param message The message, <code>null</code> for operation level policy
+     * @param issuerPolicy The issuer policy with the RampartConfig assertion
+     * already added
+     * @return The compiled policy data
+     * @throws WSSPolicyException
+     */
+    public static RampartPolicyData getIssuerPolicyData(AxisService service,
+            AxisOperation operation, AxisMessage message, Policy issuerPolicy)
+            throws WSSPolicyException {
+        return getPolicyData(service, getOperationKey(operation, message)
+                + ISSUER_POLICY_SUFFIX, issuerPolicy);
+    }
+
+    /**
+     * Drop all cached policy data of the service that the given description
+     * belongs to.
+     *
+     * @param axisDescription
+     */
+    public static void invalidate(AxisDescription axisDescription) {
+        AxisDescription desc = axisDescription;
+        while(desc != null && !(desc instanceof AxisService)) {
+            desc = desc.getParent();
+        }
+
+        if(desc != null) {
+            log.debug("Invalidating cached policy data of service : "
+                    + ((AxisService)desc).getName());
+            cache.remove(desc);
+            effectivePolicies.clear();
+        } else {
+            //Engaged globally or at service group level
+            log.debug("Invalidating all cached policy data");
+            cache.clear();
+            effectivePolicies.clear();
+        }
+    }
+
+    /**
+     * Collects the policies attached at each level of the description
+     * hierarchy, resolving policy references through the registry. The end
+     * of each level is marked by a weak reference to its description.
+     */
+    private static List getPolicySources(AxisDescription axisDescription) {
+        List sources = new ArrayList();
+        for (AxisDescription desc = axisDescription; desc != null; desc = desc
+                .getParent()) {
+            PolicyInclude policyInclude = desc.getPolicyInclude();
+            PolicyRegistry registry = policyInclude.getPolicyRegistry();
+            for (Iterator iter = policyInclude.getPolicyElements().iterator(); iter
+                    .hasNext();) {
+                Object element = iter.next();
+                if(element instanceof PolicyReference && registry != null) {
+                    Policy referenced = registry.lookup(((PolicyReference) element)
+                            .getURI());
+                    if(referenced != null) {
+                        element = referenced;
+                    }
+                }
+                sources.add(element);
+            }
+            //Marks the end of a level
+            sources.add(new WeakReference(desc));
+        }
+        return sources;
+    }
+
+    private static boolean isSameSources(List cached, List current) {
+        if(cached.size() != current.size()) {
+            return false;
+        }
+        for (int i = 0; i < cached.size(); i++) {
+            Object cachedSource = cached.get(i);
+            Object currentSource = current.get(i);
+            if(cachedSource instanceof WeakReference) {
+                if(!(currentSource instanceof WeakReference)
+                        || ((WeakReference) cachedSource).get() 
+                        != ((WeakReference) currentSource).get()) {
+                    return false;
+                }
+            } else if(cachedSource != currentSource) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static RampartPolicyData getPolicyData(AxisService service,
+            String key, Policy policy) throws WSSPolicyException {
+
+        if(service == null) {
+            return build(policy);
+        }
+
+        Map opMap;
+        synchronized (cache) {
+            opMap = (Map) cache.get(service);
+            if(opMap == null) {
+                opMap = new HashMap();
+                cache.put(service, opMap);
+            }
+        }
+
+        Entry entry;
+        synchronized (opMap) {
+            entry = (Entry) opMap.get(key);
+        }
+
+        if(entry != null && entry.policy == policy) {
+            return entry.policyData;
+        }
+
+        /*
+         * Build outside the lock, two threads may end up building the same
+         * policy data at startup, but only one of them will be kept.
+         */
+        RampartPolicyData rpd = build(policy);
+
+        synchronized (opMap) {
+            entry = (Entry) opMap.get(key);
+            if(entry != null && entry.policy == policy) {
+                return entry.policyData;
+            }
+            log.debug("Caching policy data of service : " + service.getName()
+                    + ", key : " + key);
+            opMap.put(key, new Entry(policy, rpd));
+        }
+
+        return rpd;
+    }
+
+    private static RampartPolicyData build(Policy policy)
+            throws WSSPolicyException {
+        List it = (List)policy.getAlternatives().next();
+        return RampartPolicyBuilder.build(it);
+    }
+
+    private static String getOperationKey(AxisOperation operation,
+            AxisMessage message) {
+        String key = SERVICE_LEVEL_KEY;
+        if(operation != null && operation.getName() != null) {
+            key = operation.getName().toString();
+        }
+        if(message != null) {
+            String label = (message.getDirection() != null) ? message
+                    .getDirection() : message.getName();
+            key += "/" + label;
+        }
+        return key;
+    }
+
+    private static class EffectivePolicyEntry {
+
+        private List sources;
+
+        private Policy policy;
+
+        EffectivePolicyEntry(List sources, Policy policy) {
+            this.sources = sources;
+            this.policy = policy;
+        }
+    }
+
+    private static class Entry {
+
+        private Policy policy;
+
+        private RampartPolicyData policyData;
+
+        Entry(Policy policy, RampartPolicyData policyData) {
+            this.policy = policy;
+            this.policyData = policyData;
+        }
+    }
+}
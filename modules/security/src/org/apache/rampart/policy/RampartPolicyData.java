@@ -91,6 +91,13 @@ public class RampartPolicyData {
 
     private Vector encryptedElements = new Vector();
 
+    /*
+     * The compiled signed/encrypted element XPaths (ElementSelector)
+     */
+    private Vector signedElementSelectors = new Vector();
+
+    private Vector encryptedElementSelectors = new Vector();
+
     /*
      * Holds the supporting tokens elements
      */
@@ -255,6 +262,21 @@ public class RampartPolicyData {
         encryptedElements.add(encElement);
     }
 
+    /**
+     * @return Returns the compiled encrypted element XPaths.
+     */
+    public Vector getEncryptedElementSelectors() {
+        return encryptedElementSelectors;
+    }
+
+    /**
+     * @param selector
+     *            The compiled encrypted element XPath to add.
+     */
+    public void addEncryptedElementSelector(ElementSelector selector) {
+        encryptedElementSelectors.add(selector);
+    }
+
     /**
      * @return Returns the encryptedParts.
      */
@@ -320,6 +342,21 @@ public class RampartPolicyData {
         signedElements.add(sigElement);
     }
 
+    /**
+     * @return Returns the compiled signed element XPaths.
+     */
+    public Vector getSignedElementSelectors() {
+        return signedElementSelectors;
+    }
+
+    /**
+     * @param selector
+     *            The compiled signed element XPath to add.
+     */
+    public void addSignedElementSelector(ElementSelector selector) {
+        signedElementSelectors.add(selector);
+    }
+
     /**
      * @return Returns the signedParts.
      */
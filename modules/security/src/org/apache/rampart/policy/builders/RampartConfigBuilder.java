@@ -51,6 +51,47 @@ public class RampartConfigBuilder implements AssertionBuilder {
             rampartConfig.setPwCbClass(childElement.getText().trim());
         }
 
+        childElement = element.getFirstChildWithName(new QName(
+                RampartConfig.NS, RampartConfig.REPLAY_DETECTION_LN));
+        if (childElement != null) {
+            rampartConfig.setReplayDetection(Boolean.valueOf(
+                    childElement.getText().trim()).booleanValue());
+        }
+
+        childElement = element.getFirstChildWithName(new QName(
+                RampartConfig.NS, RampartConfig.REPLAY_CACHE_CLASS_LN));
+        if (childElement != null) {
+            rampartConfig.setReplayCacheClass(childElement.getText().trim());
+        }
+
+        childElement = element.getFirstChildWithName(new QName(
+                RampartConfig.NS, RampartConfig.REPLAY_CACHE_RATE_LN));
+        if (childElement != null) {
+            rampartConfig.setReplayCacheRate(Integer.parseInt(
+                    childElement.getText().trim()));
+        }
+
+        childElement = element.getFirstChildWithName(new QName(
+                RampartConfig.NS, RampartConfig.ENCRYPTED_KEY_REUSE_COUNT_LN));
+        if (childElement != null) {
+            rampartConfig.setEncryptedKeyReuseCount(Integer.parseInt(
+                    childElement.getText().trim()));
+        }
+
+        childElement = element.getFirstChildWithName(new QName(
+                RampartConfig.NS, RampartConfig.ENCRYPTED_KEY_REUSE_TIME_LN));
+        if (childElement != null) {
+            rampartConfig.setEncryptedKeyReuseTime(Integer.parseInt(
+                    childElement.getText().trim()));
+        }
+
+        childElement = element.getFirstChildWithName(new QName(
+                RampartConfig.NS, RampartConfig.PARALLEL_ENCRYPTION_THRESHOLD_LN));
+        if (childElement != null) {
+            rampartConfig.setParallelEncryptionThreshold(Integer.parseInt(
+                    childElement.getText().trim()));
+        }
+
         childElement = element.getFirstChildWithName(new QName(
                 RampartConfig.NS, RampartConfig.SIG_CRYPTO_LN));
         if (childElement != null) {
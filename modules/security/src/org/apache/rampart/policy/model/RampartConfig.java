@@ -36,6 +36,12 @@ import javax.xml.stream.XMLStreamWriter;
  *  &lt;ramp:passwordCallbackClass&gt;org.apache.axis2.security.PWCallback&lt;/ramp:passwordCallbackClass&gt;
  *  &lt;ramp:timestampTTL&gt;300&lt;/ramp:timestampTTL&gt;
  *  &lt;ramp:tokenStoreClass&gt;org.apache.rahas.StorageImpl&lt;/ramp:tokenStoreClass&gt;
+ *  &lt;ramp:replayDetection&gt;true&lt;/ramp:replayDetection&gt;
+ *  &lt;ramp:replayCacheClass&gt;org.apache.rampart.SimpleReplayCache&lt;/ramp:replayCacheClass&gt;
+ *  &lt;ramp:replayCacheRate&gt;100&lt;/ramp:replayCacheRate&gt;
+ *  &lt;ramp:encryptedKeyReuseCount&gt;100&lt;/ramp:encryptedKeyReuseCount&gt;
+ *  &lt;ramp:encryptedKeyReuseTime&gt;300&lt;/ramp:encryptedKeyReuseTime&gt;
+ *  &lt;ramp:parallelEncryptionThreshold&gt;65536&lt;/ramp:parallelEncryptionThreshold&gt;
  *  
  *  &lt;ramp:signatureCrypto&gt;
  *  &lt;ramp:crypto provider=&quot;org.apache.ws.security.components.crypto.Merlin&quot;&gt;
@@ -82,6 +88,18 @@ public class RampartConfig implements Assertion {
 
     public final static String TOKEN_STORE_CLASS_LN = "tokenStoreClass";
 
+    public final static String REPLAY_DETECTION_LN = "replayDetection";
+
+    public final static String REPLAY_CACHE_CLASS_LN = "replayCacheClass";
+
+    public final static String REPLAY_CACHE_RATE_LN = "replayCacheRate";
+
+    public final static String ENCRYPTED_KEY_REUSE_COUNT_LN = "encryptedKeyReuseCount";
+
+    public final static String ENCRYPTED_KEY_REUSE_TIME_LN = "encryptedKeyReuseTime";
+
+    public final static String PARALLEL_ENCRYPTION_THRESHOLD_LN = "parallelEncryptionThreshold";
+
     private String user;
 
     private String encryptionUser;
@@ -98,6 +116,18 @@ public class RampartConfig implements Assertion {
 
     private String tokenStoreClass;
 
+    private boolean replayDetection;
+
+    private String replayCacheClass;
+
+    private int replayCacheRate;
+
+    private int encryptedKeyReuseCount;
+
+    private int encryptedKeyReuseTime;
+
+    private int parallelEncryptionThreshold;
+
     /**
      * @return Returns the tokenStoreClass.
      */
@@ -113,6 +143,109 @@ public class RampartConfig implements Assertion {
         this.tokenStoreClass = tokenStoreClass;
     }
 
+    /**
+     * Whether incoming messages should be checked for replayed
+     * UsernameToken nonces, Timestamps and SignatureValues.
+     * @return Returns the replayDetection.
+     */
+    public boolean isReplayDetection() {
+        return replayDetection;
+    }
+
+    /**
+     * @param replayDetection
+     *            The replayDetection to set.
+     */
+    public void setReplayDetection(boolean replayDetection) {
+        this.replayDetection = replayDetection;
+    }
+
+    /**
+     * @return Returns the replayCacheClass.
+     */
+    public String getReplayCacheClass() {
+        return replayCacheClass;
+    }
+
+    /**
+     * @param replayCacheClass
+     *            The replayCacheClass to set.
+     */
+    public void setReplayCacheClass(String replayCacheClass) {
+        this.replayCacheClass = replayCacheClass;
+    }
+
+    /**
+     * The number of messages per second the default replay cache is sized
+     * for. Zero means <code>SimpleReplayCache.DEFAULT_RATE</code>.
+     * @return Returns the replayCacheRate.
+     */
+    public int getReplayCacheRate() {
+        return replayCacheRate;
+    }
+
+    /**
+     * @param replayCacheRate
+     *            The replayCacheRate to set.
+     */
+    public void setReplayCacheRate(int replayCacheRate) {
+        this.replayCacheRate = replayCacheRate;
+    }
+
+    /**
+     * The number of messages an EncryptedKey of the asymmetric binding is
+     * used for before a new one is created. Values below 2 disable the reuse
+     * of EncryptedKeys.
+     * @return Returns the encryptedKeyReuseCount.
+     */
+    public int getEncryptedKeyReuseCount() {
+        return encryptedKeyReuseCount;
+    }
+
+    /**
+     * @param encryptedKeyReuseCount
+     *            The encryptedKeyReuseCount to set.
+     */
+    public void setEncryptedKeyReuseCount(int encryptedKeyReuseCount) {
+        this.encryptedKeyReuseCount = encryptedKeyReuseCount;
+    }
+
+    /**
+     * The time in seconds an EncryptedKey of the asymmetric binding is
+     * reused for. Zero means no time limit, the reuse is bounded by
+     * <code>encryptedKeyReuseCount</code> only.
+     * @return Returns the encryptedKeyReuseTime.
+     */
+    public int getEncryptedKeyReuseTime() {
+        return encryptedKeyReuseTime;
+    }
+
+    /**
+     * @param encryptedKeyReuseTime
+     *            The encryptedKeyReuseTime to set.
+     */
+    public void setEncryptedKeyReuseTime(int encryptedKeyReuseTime) {
+        this.encryptedKeyReuseTime = encryptedKeyReuseTime;
+    }
+
+    /**
+     * The size in characters from which the parts of a message are
+     * encrypted in parallel, provided there are at least two such parts.
+     * Zero disables parallel encryption.
+     * @return Returns the parallelEncryptionThreshold.
+     */
+    public int getParallelEncryptionThreshold() {
+        return parallelEncryptionThreshold;
+    }
+
+    /**
+     * @param parallelEncryptionThreshold
+     *            The parallelEncryptionThreshold to set.
+     */
+    public void setParallelEncryptionThreshold(int parallelEncryptionThreshold) {
+        this.parallelEncryptionThreshold = parallelEncryptionThreshold;
+    }
+
     public CryptoConfig getDecCryptoConfig() {
         return decCryptoConfig;
     }
@@ -216,6 +349,42 @@ public class RampartConfig implements Assertion {
             writer.writeEndElement();
         }
         
+        if (isReplayDetection()) {
+            writer.writeStartElement(NS, REPLAY_DETECTION_LN);
+            writer.writeCharacters(Boolean.toString(isReplayDetection()));
+            writer.writeEndElement();
+        }
+        
+        if (getReplayCacheClass() != null) {
+            writer.writeStartElement(NS, REPLAY_CACHE_CLASS_LN);
+            writer.writeCharacters(getReplayCacheClass());
+            writer.writeEndElement();
+        }
+        
+        if (getReplayCacheRate() > 0) {
+            writer.writeStartElement(NS, REPLAY_CACHE_RATE_LN);
+            writer.writeCharacters(Integer.toString(getReplayCacheRate()));
+            writer.writeEndElement();
+        }
+        
+        if (getEncryptedKeyReuseCount() > 0) {
+            writer.writeStartElement(NS, ENCRYPTED_KEY_REUSE_COUNT_LN);
+            writer.writeCharacters(Integer.toString(getEncryptedKeyReuseCount()));
+            writer.writeEndElement();
+        }
+        
+        if (getEncryptedKeyReuseTime() > 0) {
+            writer.writeStartElement(NS, ENCRYPTED_KEY_REUSE_TIME_LN);
+            writer.writeCharacters(Integer.toString(getEncryptedKeyReuseTime()));
+            writer.writeEndElement();
+        }
+        
+        if (getParallelEncryptionThreshold() > 0) {
+            writer.writeStartElement(NS, PARALLEL_ENCRYPTION_THRESHOLD_LN);
+            writer.writeCharacters(Integer.toString(getParallelEncryptionThreshold()));
+            writer.writeEndElement();
+        }
+        
         if (encrCryptoConfig != null) {
             writer.writeStartElement(NS, ENCR_CRYPTO_LN);
             encrCryptoConfig.serialize(writer);
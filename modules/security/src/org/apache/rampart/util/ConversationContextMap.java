@@ -0,0 +1,156 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import edu.emory.mathcs.backport.java.util.concurrent.ConcurrentHashMap;
+
+import java.util.Date;
+import java.util.Iterator;
+
+/**
+ * Registry of the security context tokens used by the conversations of a
+ * client, keyed by the context identifier key of the conversation.
+ *
+ * Lookups do not lock, updates only lock a segment of the underlying
+ * concurrent map. An entry is dropped once the expiry time of its token
+ * passes. The number of entries is bounded, when the capacity is exceeded
+ * the expired entries are purged and, if that is not enough, arbitrary
+ * entries are evicted. Each purge makes room for a quarter of the capacity,
+ * so that the cost of the scan is spread over the puts that follow. A
+ * conversation whose entry was evicted simply obtains a new token.
+ */
+public class ConversationContextMap {
+
+    /**
+     * Key of the map in the configuration context
+     */
+    public static final String KEY = "rampartConversationContextMap";
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private ConcurrentHashMap contexts = new ConcurrentHashMap();
+
+    private int capacity;
+
+    /**
+     * The number of entries a purge leaves at most
+     */
+    private int lowWaterMark;
+
+    private Object purgeLock = new Object();
+
+    public ConversationContextMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum number of conversations
+     */
+    public ConversationContextMap(int capacity) {
+        this.capacity = capacity;
+        this.lowWaterMark = Math.max(capacity - capacity / 4, 1);
+    }
+
+    /**
+     * Returns the identifier of the security context token of the given
+     * conversation.
+     * @param key The context identifier key
+     * @return The token identifier, null if there is none or the token
+     * expired
+     */
+    public String get(String key) {
+        Entry entry = (Entry) this.contexts.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            this.contexts.remove(key, entry);
+            return null;
+        }
+        return entry.tokenId;
+    }
+
+    /**
+     * Set the security context token of the given conversation.
+     * @param key The context identifier key
+     * @param tokenId The token identifier
+     * @param expires The expiry time of the token, null if it does not expire
+     */
+    public void put(String key, String tokenId, Date expires) {
+        this.contexts.put(key, new Entry(tokenId,
+                (expires != null) ? expires.getTime() : Long.MAX_VALUE));
+        if (this.contexts.size() > this.capacity) {
+            this.purge();
+        }
+    }
+
+    /**
+     * Remove the security context token of the given conversation.
+     * @param key The context identifier key
+     * @return The identifier of the removed token, null if there was none
+     */
+    public String remove(String key) {
+        Entry entry = (Entry) this.contexts.remove(key);
+        return (entry != null) ? entry.tokenId : null;
+    }
+
+    /**
+     * @return The number of conversations, including the ones whose token
+     * expired but were not purged yet
+     */
+    public int size() {
+        return this.contexts.size();
+    }
+
+    private void purge() {
+        synchronized (this.purgeLock) {
+            //Another thread may have purged already
+            if (this.contexts.size() <= this.capacity) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Iterator iter = this.contexts.values().iterator(); iter
+                    .hasNext();) {
+                if (((Entry) iter.next()).isExpired(now)) {
+                    iter.remove();
+                }
+            }
+            for (Iterator iter = this.contexts.keySet().iterator(); iter
+                    .hasNext()
+                    && this.contexts.size() > this.lowWaterMark;) {
+                iter.next();
+                iter.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private String tokenId;
+
+        private long expires;
+
+        private Entry(String tokenId, long expires) {
+            this.tokenId = tokenId;
+            this.expires = expires;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= this.expires;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.ws.security.components.crypto.CryptoFactory;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Registry of shared <code>Crypto</code> instances.
+ *
+ * Loading a <code>Crypto</code> instance reads and parses the keystore,
+ * therefore instances are created once per set of crypto properties and
+ * class loader and shared by all messages. An instance is reloaded only when
+ * the modification time of its keystore file changes. The modification time
+ * is checked at most once every <code>CHECK_INTERVAL</code> milliseconds.
+ *
+ * The crypto instances are softly referenced, since they hold on to the
+ * class loader the entries are weakly keyed with. Entries are keyed by a
+ * digest of the crypto properties, so that the keystore password is not
+ * kept as part of the key.
+ */
+public class CryptoCache {
+
+    private static Log log = LogFactory.getLog(CryptoCache.class);
+
+    /**
+     * Property holding the keystore location of the Merlin crypto provider
+     */
+    public static final String KEYSTORE_FILE =
+        "org.apache.ws.security.crypto.merlin.file";
+
+    /**
+     * Minimum interval in milliseconds between two keystore modification
+     * time checks of the same entry.
+     */
+    public static final long CHECK_INTERVAL = 10000;
+
+    /**
+     * The interval actually used, changed by the tests only
+     */
+    static long checkInterval = CHECK_INTERVAL;
+
+    /**
+     * ClassLoader -> (properties key -> Entry)
+     *
+     * Weak keys, so that the entries of undeployed services go away with
+     * their class loaders.
+     */
+    private static Map cache = new WeakHashMap();
+
+    /**
+     * Returns the shared <code>Crypto</code> instance of the given crypto
+     * properties, loading it if required.
+     *
+     * @param prop Crypto properties, including the crypto provider
+     * @param loader The class loader to load the provider and keystore with
+     * @return The shared <code>Crypto</code> instance
+     */
+    public static Crypto getCrypto(Properties prop, ClassLoader loader) {
+
+        String key = createKey(prop);
+
+        Map entries;
+        synchronized (cache) {
+            entries = (Map) cache.get(loader);
+            if(entries == null) {
+                entries = new HashMap();
+                cache.put(loader, entries);
+            }
+        }
+
+        Entry entry;
+        synchronized (entries) {
+            entry = (Entry) entries.get(key);
+            if(entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+        }
+
+        synchronized (entry) {
+            long now = System.currentTimeMillis();
+            Crypto crypto = (entry.crypto != null) ? (Crypto) entry.crypto.get()
+                    : null;
+            if(crypto != null && now < entry.nextCheck) {
+                return crypto;
+            }
+
+            File keystore = getKeystoreFile(prop, loader);
+            long lastModified = (keystore != null) ? keystore.lastModified() : 0;
+
+            if(crypto == null || lastModified != entry.lastModified) {
+                if(crypto != null) {
+                    log.debug("Keystore modified, reloading crypto : " + keystore);
+                } else {
+                    log.debug("Loading crypto");
+                }
+                crypto = CryptoFactory.getInstance(prop, loader);
+                entry.crypto = new SoftReference(crypto);
+                entry.lastModified = lastModified;
+            }
+
+            /*
+             * If we cannot locate a keystore file on the file system there's
+             * nothing to check later
+             */
+            entry.nextCheck = (keystore != null) ? now + checkInterval
+                    : Long.MAX_VALUE;
+
+            return crypto;
+        }
+    }
+
+    /**
+     * Drop all cached <code>Crypto</code> instances.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Creates the key of the given properties, independent of the order of
+     * the properties. The key is a digest of the properties, which include
+     * the keystore password.
+     * @param prop
+     * @return The key of the given crypto properties
+     */
+    static String createKey(Properties prop) {
+        StringBuffer key = new StringBuffer();
+        TreeMap sorted = new TreeMap(prop);
+        for (Iterator iter = sorted.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry propEntry = (Map.Entry) iter.next();
+            key.append(propEntry.getKey()).append('=')
+                    .append(propEntry.getValue()).append('\n');
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+                    key.toString().getBytes("UTF-8"));
+            StringBuffer hex = new StringBuffer();
+            for (int i = 0; i < digest.length; i++) {
+                hex.append(Integer.toHexString((digest[i] & 0xff) | 0x100)
+                        .substring(1));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Locate the keystore file the same way the Merlin provider does : first
+     * as a resource of the class loader, then as a file path.
+     * @param prop
+     * @param loader
+     * @return The keystore file or <code>null</code> if it is not available
+     * on the file system.
+     */
+    private static File getKeystoreFile(Properties prop, ClassLoader loader) {
+        String location = prop.getProperty(KEYSTORE_FILE);
+        if(location == null) {
+            return null;
+        }
+
+        URL url = (loader != null) ? loader.getResource(location) :
+            ClassLoader.getSystemResource(location);
+        if(url != null) {
+            if("file".equals(url.getProtocol())) {
+                try {
+                    //Decodes escaped characters such as spaces
+                    return new File(new URI(url.toString()));
+                } catch (URISyntaxException e) {
+                    //Not escaped, e.g. created with File.toURL()
+                    return new File(url.getFile());
+                } catch (IllegalArgumentException e) {
+                    log.debug("Cannot locate keystore file : " + url, e);
+                    return null;
+                }
+            }
+            //Packed in an archive
+            return null;
+        }
+
+        File file = new File(location);
+        return file.exists() ? file : null;
+    }
+
+    private static class Entry {
+
+        /**
+         * Soft reference to the Crypto instance
+         */
+        private SoftReference crypto;
+
+        private long lastModified;
+
+        private long nextCheck;
+    }
+}
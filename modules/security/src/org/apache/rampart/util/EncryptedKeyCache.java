@@ -0,0 +1,465 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.context.OperationContext;
+import org.apache.axis2.wsdl.WSDLConstants;
+import org.apache.rampart.RampartException;
+import org.apache.ws.security.WSConstants;
+import org.apache.xml.security.utils.Base64;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * Registry of EncryptedKeys that are reused across messages of the
+ * asymmetric binding.
+ *
+ * Creating an EncryptedKey requires an RSA key wrap, therefore an
+ * EncryptedKey can be used for a bounded number of messages or a bounded
+ * time per recipient. Only the first message carries the EncryptedKey
+ * element, the following messages refer to it with an EncryptedKeySHA1 key
+ * identifier. Entries are kept per policy (weakly, so that they disappear
+ * with the policy) and recipient.
+ *
+ * The client only reuses a key once the recipient has proven that it holds
+ * the key: a service that keeps the received keys refers to the key by its
+ * EncryptedKeySHA1 identifier in the response, the same way responses of the
+ * symmetric binding do. A fault in response to a message that used a key
+ * evicts that key, the next message then carries a new EncryptedKey.
+ *
+ * On the service side the received keys are kept per configuration context,
+ * each for the reuse time of the service that received it and up to
+ * <code>MAX_RECEIVED_KEYS</code> keys.
+ */
+public class EncryptedKeyCache {
+
+    /**
+     * ValueType of an EncryptedKeySHA1 key identifier
+     */
+    public static final String ENC_KEY_SHA1_URI =
+        "http://docs.oasis-open.org/wss/oasis-wss-soap-message-security-1.1#EncryptedKeySHA1";
+
+    /**
+     * Property of an outgoing message holding the <code>Entry</code> of the
+     * key the message uses
+     */
+    public static final String SENT_KEY = "rampartSentEncryptedKey";
+
+    /**
+     * Property of an incoming message holding the EncryptedKeySHA1
+     * identifiers of the kept keys, by the wsu:Id of their EncryptedKey
+     */
+    public static final String RECEIVED_KEY_IDS = "rampartReceivedEncryptedKeys";
+
+    /**
+     * Maximum number of received keys kept per configuration context
+     */
+    public static final int MAX_RECEIVED_KEYS = 10000;
+
+    private static final String RECEIVED_KEYS = EncryptedKeyCache.class
+            .getName() + ".receivedKeys";
+
+    /**
+     * Policy data -> (recipient -> Entry)
+     */
+    private static Map cache = Collections.synchronizedMap(new WeakHashMap());
+
+    /**
+     * Returns a cached EncryptedKey for the given recipient that may still
+     * be used, counting the use. Keys the recipient has not confirmed yet are
+     * not returned.
+     * @param policyKey The policy data the key belongs to
+     * @param recipient
+     * @return The entry or null if a new EncryptedKey has to be created
+     */
+    public static Entry getEncryptedKey(Object policyKey, String recipient) {
+        Map entries = (Map) cache.get(policyKey);
+        if (entries == null) {
+            return null;
+        }
+        Entry entry = (Entry) entries.get(recipient);
+        if (entry == null || !entry.use()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Register a newly created EncryptedKey, the message carrying it counts
+     * as its first use.
+     * @param policyKey The policy data the key belongs to
+     * @param recipient
+     * @param id The wsu:Id of the EncryptedKey element
+     * @param key The ephemeral key
+     * @param sha1 The EncryptedKeySHA1 identifier of the EncryptedKey
+     * @param maxUses The number of messages the key may be used for
+     * @param lifetime The time in milliseconds the key may be used for, zero
+     * for no limit
+     * @return The entry of the key, it may only be reused once it is
+     * confirmed
+     */
+    public static Entry putEncryptedKey(Object policyKey, String recipient,
+            String id, byte[] key, String sha1, int maxUses, long lifetime) {
+        Map entries;
+        synchronized (cache) {
+            entries = (Map) cache.get(policyKey);
+            if (entries == null) {
+                entries = new Hashtable();
+                cache.put(policyKey, entries);
+            }
+        }
+        long expires = (lifetime > 0) ? System.currentTimeMillis() + lifetime
+                : Long.MAX_VALUE;
+        Entry entry = new Entry(entries, recipient, id, key, sha1,
+                maxUses - 1, expires);
+        entries.put(recipient, entry);
+        return entry;
+    }
+
+    /**
+     * Returns the entry of the key used by the request the given response
+     * belongs to.
+     * @param msgCtx The response
+     * @return The entry or null if the request did not use a cached key
+     */
+    public static Entry getSentKey(MessageContext msgCtx) {
+        OperationContext opCtx = msgCtx.getOperationContext();
+        if (opCtx == null) {
+            return null;
+        }
+        try {
+            MessageContext outMsgCtx = opCtx
+                    .getMessageContext(WSDLConstants.MESSAGE_LABEL_OUT_VALUE);
+            return (outMsgCtx != null) ? (Entry) outMsgCtx
+                    .getProperty(SENT_KEY) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Keep a key received by the service.
+     * @param configCtx
+     * @param sha1 The EncryptedKeySHA1 identifier of the EncryptedKey
+     * @param key The ephemeral key
+     * @param lifetime The time in milliseconds the key is kept for
+     */
+    public static void putReceivedKey(ConfigurationContext configCtx,
+            String sha1, byte[] key, long lifetime) {
+        getReceivedKeys(configCtx).put(sha1, key, System.currentTimeMillis()
+                + lifetime);
+    }
+
+    /**
+     * Returns a key received by the service.
+     * @param configCtx
+     * @param sha1 The EncryptedKeySHA1 identifier of the EncryptedKey
+     * @return The ephemeral key or null if it is unknown or has expired
+     */
+    public static byte[] getReceivedKey(ConfigurationContext configCtx,
+            String sha1) {
+        return getReceivedKeys(configCtx).get(sha1);
+    }
+
+    /**
+     * @param configCtx
+     * @return The number of received keys kept
+     */
+    public static int getReceivedKeyCount(ConfigurationContext configCtx) {
+        return getReceivedKeys(configCtx).size();
+    }
+
+    private static ReceivedKeys getReceivedKeys(ConfigurationContext configCtx) {
+        synchronized (configCtx) {
+            ReceivedKeys keys = (ReceivedKeys) configCtx
+                    .getProperty(RECEIVED_KEYS);
+            if (keys == null) {
+                keys = new ReceivedKeys();
+                configCtx.setProperty(RECEIVED_KEYS, keys);
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Computes the EncryptedKeySHA1 identifier of the given EncryptedKey
+     * element, the base64 encoded SHA1 digest of its cipher value.
+     * @param encryptedKey
+     * @return The EncryptedKeySHA1 identifier
+     * @throws RampartException
+     */
+    public static String getEncryptedKeySHA1(Element encryptedKey)
+            throws RampartException {
+        Element cipherValue = getChild(getChild(encryptedKey, "CipherData"),
+                "CipherValue");
+        if (cipherValue == null) {
+            throw new RampartException("invalidEncryptedKey");
+        }
+
+        StringBuffer text = new StringBuffer();
+        for (Node node = cipherValue.getFirstChild(); node != null; node = node
+                .getNextSibling()) {
+            if (node.getNodeType() == Node.TEXT_NODE) {
+                text.append(node.getNodeValue());
+            }
+        }
+
+        try {
+            byte[] cipher = Base64.decode(text.toString());
+            return Base64.encode(MessageDigest.getInstance("SHA-1").digest(
+                    cipher));
+        } catch (Exception e) {
+            throw new RampartException("invalidEncryptedKey", e);
+        }
+    }
+
+    /**
+     * Creates a SecurityTokenReference referring to an EncryptedKey by its
+     * EncryptedKeySHA1 identifier.
+     * @param doc
+     * @param sha1
+     * @return The wsse:SecurityTokenReference element
+     */
+    public static Element createReference(Document doc, String sha1) {
+        Element str = doc.createElementNS(WSConstants.WSSE_NS,
+                WSConstants.WSSE_PREFIX + ":SecurityTokenReference");
+        Element keyIdentifier = doc.createElementNS(WSConstants.WSSE_NS,
+                WSConstants.WSSE_PREFIX + ":KeyIdentifier");
+        keyIdentifier.setAttributeNS(null, "ValueType", ENC_KEY_SHA1_URI);
+        keyIdentifier.appendChild(doc.createTextNode(sha1));
+        str.appendChild(keyIdentifier);
+        return str;
+    }
+
+    private static Element getChild(Element parent, String localName) {
+        if (parent == null) {
+            return null;
+        }
+        for (Node node = parent.getFirstChild(); node != null; node = node
+                .getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE
+                    && WSConstants.ENC_NS.equals(node.getNamespaceURI())
+                    && localName.equals(node.getLocalName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An EncryptedKey that can be reused.
+     */
+    public static class Entry {
+
+        /**
+         * The entries of the recipients of the policy, to evict this entry
+         */
+        private Map entries;
+
+        private String recipient;
+
+        private String id;
+
+        private byte[] key;
+
+        private String sha1;
+
+        private int usesLeft;
+
+        private long expires;
+
+        private boolean confirmed;
+
+        private Entry(Map entries, String recipient, String id, byte[] key,
+                String sha1, int usesLeft, long expires) {
+            this.entries = entries;
+            this.recipient = recipient;
+            this.id = id;
+            this.key = key;
+            this.sha1 = sha1;
+            this.usesLeft = usesLeft;
+            this.expires = expires;
+        }
+
+        private synchronized boolean use() {
+            if (!this.confirmed || this.usesLeft <= 0
+                    || System.currentTimeMillis() >= this.expires) {
+                return false;
+            }
+            this.usesLeft--;
+            return true;
+        }
+
+        /**
+         * The recipient proved that it holds the key, it may be reused from
+         * now on.
+         */
+        public synchronized void confirm() {
+            this.confirmed = true;
+        }
+
+        /**
+         * @return Whether the recipient proved that it holds the key
+         */
+        public synchronized boolean isConfirmed() {
+            return confirmed;
+        }
+
+        /**
+         * Stop reusing the key, such as when the recipient lost it.
+         */
+        public void evict() {
+            synchronized (this.entries) {
+                if (this.entries.get(this.recipient) == this) {
+                    this.entries.remove(this.recipient);
+                }
+            }
+        }
+
+        /**
+         * @return Returns the wsu:Id of the EncryptedKey.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return Returns the ephemeral key.
+         */
+        public byte[] getKey() {
+            return key;
+        }
+
+        /**
+         * @return Returns the EncryptedKeySHA1 identifier.
+         */
+        public String getSHA1() {
+            return sha1;
+        }
+    }
+
+    private static class ReceivedKey implements Comparable {
+
+        private String sha1;
+
+        private byte[] key;
+
+        private long expires;
+
+        /**
+         * Orders keys with the same expiry time
+         */
+        private long sequence;
+
+        private ReceivedKey(String sha1, byte[] key, long expires,
+                long sequence) {
+            this.sha1 = sha1;
+            this.key = key;
+            this.expires = expires;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Object o) {
+            ReceivedKey other = (ReceivedKey) o;
+            if (this.expires != other.expires) {
+                return (this.expires < other.expires) ? -1 : 1;
+            }
+            return (this.sequence < other.sequence) ? -1
+                    : ((this.sequence == other.sequence) ? 0 : 1);
+        }
+    }
+
+    /**
+     * The keys received by a service. The lifetime of a key depends on the
+     * service that received it, therefore the keys are also ordered by
+     * their own expiry time. Expired keys are dropped whenever a key is
+     * added, and the key that expires first is dropped once
+     * <code>MAX_RECEIVED_KEYS</code> keys are kept.
+     */
+    private static class ReceivedKeys {
+
+        /**
+         * EncryptedKeySHA1 -> ReceivedKey
+         */
+        private Map keys = new HashMap();
+
+        /**
+         * ReceivedKeys ordered by expiry time
+         */
+        private TreeSet expiry = new TreeSet();
+
+        private long sequence;
+
+        private synchronized void put(String sha1, byte[] key, long expires) {
+            purge(System.currentTimeMillis());
+
+            remove((ReceivedKey) this.keys.get(sha1));
+            if (this.keys.size() >= MAX_RECEIVED_KEYS) {
+                remove((ReceivedKey) this.expiry.first());
+            }
+
+            ReceivedKey receivedKey = new ReceivedKey(sha1, key, expires,
+                    this.sequence++);
+            this.keys.put(sha1, receivedKey);
+            this.expiry.add(receivedKey);
+        }
+
+        private synchronized byte[] get(String sha1) {
+            ReceivedKey key = (ReceivedKey) this.keys.get(sha1);
+            if (key == null) {
+                return null;
+            }
+            if (key.expires < System.currentTimeMillis()) {
+                remove(key);
+                return null;
+            }
+            return key.key;
+        }
+
+        private synchronized int size() {
+            return this.keys.size();
+        }
+
+        private void purge(long now) {
+            while (!this.expiry.isEmpty()) {
+                ReceivedKey first = (ReceivedKey) this.expiry.first();
+                if (first.expires >= now) {
+                    break;
+                }
+                remove(first);
+            }
+        }
+
+        private void remove(ReceivedKey key) {
+            if (key != null) {
+                this.expiry.remove(key);
+                this.keys.remove(key.sha1);
+            }
+        }
+    }
+}
@@ -26,7 +26,9 @@ import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.handler.WSHandlerConstants;
 
 import javax.xml.namespace.QName;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * This is used to process the security parameters from the configuration files
@@ -40,6 +42,9 @@ import java.util.Iterator;
 public class HandlerParameterDecoder {
 
 	/**
+	 * Set the message context properties given by the inflow or outflow
+	 * security parameter. A parameter is decoded once and kept in the
+	 * <code>ServiceSecurityContext</code> of the service.
 	 * 
 	 * @param msgCtx
 	 * @param inflow
@@ -75,81 +80,133 @@ public class HandlerParameterDecoder {
 			outFlowSecParam = msgCtx.getParameter(WSSHandlerConstants.OUTFLOW_SECURITY);
 		}
 
-		int repetitionCount = -1;
+		ServiceSecurityContext context = ServiceSecurityContext
+				.getContext(msgCtx.getAxisService());
 
 		/*
 		 * Populate the inflow parameters
 		 */
 		if (inFlowSecParam != null && inflow) {
-			OMElement inFlowParamElem = inFlowSecParam.getParameterElement();
-
-			OMElement actionElem = inFlowParamElem
-					.getFirstChildWithName(new QName(WSSHandlerConstants.ACTION));
-			if (actionElem == null) {
-				throw new Exception(
-						"Inflow configurtion must contain an 'action' "
-								+ "elementas the child of 'InflowSecurity' element");
+			String[][] properties = (String[][]) context.getDecodedParameter(
+					inFlowSecParam, true);
+			if (properties == null) {
+				properties = decodeInflow(inFlowSecParam);
+				context.setDecodedParameter(inFlowSecParam, true, properties);
 			}
 
-			Iterator childElements = actionElem.getChildElements();
-			while (childElements.hasNext()) {
-				OMElement element = (OMElement) childElements.next();
-				msgCtx.setProperty(element.getLocalName(), element.getText().trim());
+			for (int i = 0; i < properties.length; i++) {
+				msgCtx.setProperty(properties[i][0], properties[i][1]);
 			}
-
 		}
 
 		/*
 		 * Populate the outflow parameters
 		 */
 		if (outFlowSecParam != null && !inflow) {
-			OMElement outFlowParamElem = outFlowSecParam.getParameterElement();
-			
-			Iterator childElements = outFlowParamElem.getChildElements();
-			while (childElements.hasNext()) {
-				OMElement element = (OMElement) childElements.next();
-				
-				if(!element.getLocalName().equals(WSSHandlerConstants.ACTION)) {
-					throw new Exception(
-							"Alian element '"
-									+ element.getLocalName()
-									+ "' in the 'OutFlowSecurity' element, " 
-									+ "only 'action' elements can be present");
+			OutflowAction[] actions = (OutflowAction[]) context
+					.getDecodedParameter(outFlowSecParam, false);
+			if (actions == null) {
+				actions = decodeOutflow(outFlowSecParam);
+				context.setDecodedParameter(outFlowSecParam, false, actions);
+			}
+
+			for (int repetition = 0; repetition < actions.length; repetition++) {
+				OutflowAction action = actions[repetition];
+				for (int i = 0; i < action.properties.length; i++) {
+					msgCtx.setProperty(action.properties[i][0],
+							action.properties[i][1]);
 				}
-				
-                boolean signAllHeaders = false;
-                boolean signBody = false;
-                boolean encryptBody = false;
-                
-                repetitionCount++;
-				Iterator paramElements = element.getChildElements();
-				while (paramElements.hasNext()) {
-					OMElement elem = (OMElement) paramElements.next();
-                    String localName = elem.getLocalName();
-                    String text = elem.getText().trim();
-                    if(localName.equals(WSSHandlerConstants.SIGN_ALL_HEADERS)) {
-                        signAllHeaders = true;
-                    } else if(localName.equals(WSSHandlerConstants.SIGN_BODY)) {
-                        signBody = true;
-                    } else if(localName.equals(WSSHandlerConstants.ENCRYPT_BODY)) {
-                        encryptBody = true;
-                    } else {
-                        msgCtx.setProperty(Axis2Util.getKey(localName,
-							inflow,repetitionCount), text);
-                    }
+
+				if (action.signAllHeaders || action.signBody
+						|| action.encryptBody) {
+					handleSignEncrParts(action.signAllHeaders,
+							action.signBody, action.encryptBody, msgCtx,
+							repetition);
 				}
-                
-                if(signAllHeaders || signBody || encryptBody) {
-                    handleSignEncrParts(signAllHeaders, signBody, encryptBody,
-                            msgCtx, repetitionCount);
-                }
-                
-				
 			}
 
 			msgCtx.setProperty(WSSHandlerConstants.SENDER_REPEAT_COUNT,
-					new Integer(repetitionCount));
+					new Integer(actions.length - 1));
+		}
+	}
+
+	/**
+	 * Decode the inflow security parameter into the message context
+	 * properties it sets.
+	 * @param inFlowSecParam
+	 * @return name/value pairs
+	 * @throws Exception
+	 */
+	private static String[][] decodeInflow(Parameter inFlowSecParam)
+			throws Exception {
+		OMElement inFlowParamElem = inFlowSecParam.getParameterElement();
+
+		OMElement actionElem = inFlowParamElem
+				.getFirstChildWithName(new QName(WSSHandlerConstants.ACTION));
+		if (actionElem == null) {
+			throw new Exception(
+					"Inflow configurtion must contain an 'action' "
+							+ "elementas the child of 'InflowSecurity' element");
+		}
+
+		List properties = new ArrayList();
+		Iterator childElements = actionElem.getChildElements();
+		while (childElements.hasNext()) {
+			OMElement element = (OMElement) childElements.next();
+			properties.add(new String[] { element.getLocalName(),
+					element.getText().trim() });
+		}
+		return (String[][]) properties.toArray(new String[properties.size()][]);
+	}
+
+	/**
+	 * Decode the outflow security parameter, one entry per action.
+	 * @param outFlowSecParam
+	 * @return The actions of the outflow
+	 * @throws Exception
+	 */
+	private static OutflowAction[] decodeOutflow(Parameter outFlowSecParam)
+			throws Exception {
+		OMElement outFlowParamElem = outFlowSecParam.getParameterElement();
+
+		List actions = new ArrayList();
+		Iterator childElements = outFlowParamElem.getChildElements();
+		while (childElements.hasNext()) {
+			OMElement element = (OMElement) childElements.next();
+			
+			if(!element.getLocalName().equals(WSSHandlerConstants.ACTION)) {
+				throw new Exception(
+						"Alian element '"
+								+ element.getLocalName()
+								+ "' in the 'OutFlowSecurity' element, " 
+								+ "only 'action' elements can be present");
+			}
+			
+			OutflowAction action = new OutflowAction();
+			int repetition = actions.size();
+			List properties = new ArrayList();
+			Iterator paramElements = element.getChildElements();
+			while (paramElements.hasNext()) {
+				OMElement elem = (OMElement) paramElements.next();
+                String localName = elem.getLocalName();
+                String text = elem.getText().trim();
+                if(localName.equals(WSSHandlerConstants.SIGN_ALL_HEADERS)) {
+                    action.signAllHeaders = true;
+                } else if(localName.equals(WSSHandlerConstants.SIGN_BODY)) {
+                    action.signBody = true;
+                } else if(localName.equals(WSSHandlerConstants.ENCRYPT_BODY)) {
+                    action.encryptBody = true;
+                } else {
+                    properties.add(new String[] {
+                            Axis2Util.getKey(localName, false, repetition),
+                            text });
+                }
+			}
+			action.properties = (String[][]) properties
+					.toArray(new String[properties.size()][]);
+			actions.add(action);
 		}
+		return (OutflowAction[]) actions.toArray(new OutflowAction[actions.size()]);
 	}
     
     public static OutflowConfiguration getOutflowConfiguration(Parameter outflowConfigParam) throws AxisFault {
@@ -288,4 +345,21 @@ public class HandlerParameterDecoder {
         }
     }
     
+    /**
+     * One action of the outflow configuration
+     */
+    private static class OutflowAction {
+
+        /**
+         * Message context property name/value pairs
+         */
+        private String[][] properties;
+
+        private boolean signAllHeaders;
+
+        private boolean signBody;
+
+        private boolean encryptBody;
+    }
+    
 }
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import edu.emory.mathcs.backport.java.util.concurrent.Callable;
+import edu.emory.mathcs.backport.java.util.concurrent.ExecutionException;
+import edu.emory.mathcs.backport.java.util.concurrent.FutureTask;
+import edu.emory.mathcs.backport.java.util.concurrent.Semaphore;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axis2.util.threadpool.ThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.rahas.TrustUtil;
+import org.apache.rampart.RampartException;
+import org.apache.rampart.RampartMessageData;
+import org.apache.rampart.policy.model.RampartConfig;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSEncryptionPart;
+import org.apache.ws.security.util.WSSecurityUtil;
+import org.apache.xml.security.encryption.EncryptedData;
+import org.apache.xml.security.encryption.XMLCipher;
+import org.apache.xml.security.keys.KeyInfo;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * Encrypts the parts of a message in parallel.
+ *
+ * A DOM cannot be modified by more than one thread, therefore each part
+ * that is larger than the <code>parallelEncryptionThreshold</code> of the
+ * RampartConfig is copied into a private document and encrypted there by a
+ * worker thread, while the smaller parts are encrypted by the calling
+ * thread. The resulting EncryptedData elements are then put in place of the
+ * parts, and listed in the ReferenceList, in the order of the parts, so the
+ * outcome does not depend on the order in which the workers finish.
+ *
+ * The parts are encrypted with a key known to the caller, therefore this
+ * can only replace <code>WSSecEncrypt</code> after it prepared its
+ * EncryptedKey.
+ *
+ * The workers run in the thread pool of the configuration context. The
+ * calling thread encrypts any large part no worker has picked up yet
+ * itself, so a busy pool only takes away the parallelism. As the default
+ * pool of Axis2 is unbounded, at most <code>MAX_WORKERS</code> parts are
+ * handed to the pool at any time across all messages, the calling thread
+ * encrypts the parts beyond that, as well as those the pool rejects.
+ */
+public class ParallelEncryptor {
+
+    private static Log log = LogFactory.getLog(ParallelEncryptor.class);
+
+    /**
+     * Maximum number of parts handed to the thread pool at any time
+     */
+    public static final int MAX_WORKERS = Math.max(2, Runtime.getRuntime()
+            .availableProcessors());
+
+    private static Semaphore workers = new Semaphore(MAX_WORKERS);
+
+    private static DocumentBuilderFactory factory;
+
+    static {
+        factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+    }
+
+    /**
+     * Encrypt the given parts if parallel encryption is enabled and at least
+     * two of the parts are larger than the threshold.
+     * @param rmd
+     * @param parts The <code>WSEncryptionPart</code>s to encrypt
+     * @param key The symmetric key
+     * @param keyRefId The id of the EncryptedKey each EncryptedData refers
+     * to, null if the ReferenceList is placed inside the EncryptedKey
+     * @return The ReferenceList, null if the parts were not encrypted
+     * @throws RampartException
+     */
+    public static Element encrypt(RampartMessageData rmd, Vector parts,
+            byte[] key, String keyRefId) throws RampartException {
+
+        RampartConfig config = rmd.getPolicyData().getRampartConfig();
+        int threshold = (config != null) ? config
+                .getParallelEncryptionThreshold() : 0;
+        if (threshold <= 0 || parts.size() < 2 || key == null) {
+            return null;
+        }
+
+        Document doc = rmd.getDocument();
+        Element[] elements = new Element[parts.size()];
+        boolean[] parallel = new boolean[parts.size()];
+        int large = 0;
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = findPart(doc, (WSEncryptionPart) parts.get(i));
+            if (elements[i] == null) {
+                //Leave the error reporting to WSS4J
+                return null;
+            }
+            //Make sure the workers only read a fully built tree
+            ((OMElement) elements[i]).build();
+            if (getSize(elements[i], threshold) >= threshold) {
+                parallel[i] = true;
+                large++;
+            }
+        }
+        if (large < 2 || isNested(elements)) {
+            return null;
+        }
+
+        log.debug("Encrypting " + large + " of " + elements.length
+                + " parts in parallel");
+
+        String algorithm = rmd.getPolicyData().getAlgorithmSuite()
+                .getEncryption();
+        SecretKey secretKey = getSecretKey(algorithm, key);
+
+        ThreadFactory threadPool = rmd.getMsgContext().getConfigurationContext()
+                .getThreadPool();
+        PartEncryption[] tasks = new PartEncryption[elements.length];
+        FutureTask[] futures = new FutureTask[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            WSEncryptionPart part = (WSEncryptionPart) parts.get(i);
+            tasks[i] = new PartEncryption(elements[i], "Content".equals(part
+                    .getEncModifier()), "EncDataId-" + elements[i].hashCode(),
+                    algorithm, secretKey, keyRefId);
+            if (parallel[i]) {
+                futures[i] = new FutureTask(tasks[i]);
+                submit(threadPool, futures[i]);
+            }
+        }
+
+        Element[] encrypted = new Element[elements.length];
+        try {
+            for (int i = 0; i < elements.length; i++) {
+                if (!parallel[i]) {
+                    encrypted[i] = (Element) tasks[i].call();
+                }
+            }
+            for (int i = 0; i < elements.length; i++) {
+                if (parallel[i]) {
+                    //Does nothing if a worker already took the task
+                    futures[i].run();
+                    encrypted[i] = (Element) futures[i].get();
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new RampartException("errorInEncryption", e.getCause());
+        } catch (Exception e) {
+            throw new RampartException("errorInEncryption", e);
+        }
+
+        //Assemble in the order of the parts
+        Element refList = doc.createElementNS(WSConstants.ENC_NS,
+                WSConstants.ENC_PREFIX + ":ReferenceList");
+        refList.setAttributeNS(WSConstants.XMLNS_NS, "xmlns:"
+                + WSConstants.ENC_PREFIX, WSConstants.ENC_NS);
+        for (int i = 0; i < elements.length; i++) {
+            Element encData = (Element) doc.importNode(encrypted[i], true);
+            if (tasks[i].content) {
+                while (elements[i].getFirstChild() != null) {
+                    elements[i].removeChild(elements[i].getFirstChild());
+                }
+                elements[i].appendChild(encData);
+            } else {
+                elements[i].getParentNode().replaceChild(encData, elements[i]);
+            }
+
+            Element dataRef = doc.createElementNS(WSConstants.ENC_NS,
+                    WSConstants.ENC_PREFIX + ":DataReference");
+            dataRef.setAttributeNS(null, "URI", "#" + tasks[i].id);
+            refList.appendChild(dataRef);
+        }
+        return refList;
+    }
+
+    /**
+     * Hand the task to the thread pool if a worker is available. Otherwise,
+     * or if the pool rejects it, the task is left to the calling thread.
+     */
+    private static void submit(ThreadFactory threadPool, final FutureTask future) {
+        if (!workers.tryAcquire()) {
+            return;
+        }
+        try {
+            threadPool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        future.run();
+                    } finally {
+                        workers.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            //e.g. the pool is shut down
+            workers.release();
+            log.debug("Part not encrypted in parallel", e);
+        }
+    }
+
+    /**
+     * Whether any of the parts is contained in another one, such parts have
+     * to be encrypted one after the other.
+     */
+    private static boolean isNested(Element[] elements) {
+        for (int i = 0; i < elements.length; i++) {
+            for (Node node = elements[i].getParentNode(); node != null; node = node
+                    .getParentNode()) {
+                for (int j = 0; j < elements.length; j++) {
+                    if (node == elements[j]) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Element findPart(Document doc, WSEncryptionPart part) {
+        if (part.getId() != null) {
+            return findElementById(doc.getDocumentElement(), part.getId());
+        }
+        return (Element) WSSecurityUtil.findElement(doc.getDocumentElement(),
+                part.getName(), part.getNamespace());
+    }
+
+    private static Element findElementById(Element elem, String id) {
+        if (id.equals(elem.getAttributeNS(WSConstants.WSU_NS, "Id"))
+                || id.equals(elem.getAttribute("Id"))) {
+            return elem;
+        }
+        for (Node node = elem.getFirstChild(); node != null; node = node
+                .getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                Element found = findElementById((Element) node, id);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Approximate size of the character content of the given element, the
+     * count stops at the given limit.
+     */
+    private static int getSize(Node node, int limit) {
+        int size = 0;
+        for (Node child = node.getFirstChild(); child != null && size < limit; child = child
+                .getNextSibling()) {
+            if (child.getNodeType() == Node.TEXT_NODE
+                    || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                size += child.getNodeValue().length();
+            } else if (child.getNodeType() == Node.ELEMENT_NODE) {
+                size += child.getLocalName().length()
+                        + getSize(child, limit - size);
+            }
+        }
+        return size;
+    }
+
+    private static SecretKey getSecretKey(String algorithm, byte[] key) {
+        int length;
+        String keyAlgorithm = "AES";
+        if (WSConstants.TRIPLE_DES.equals(algorithm)) {
+            keyAlgorithm = "DESede";
+            length = 24;
+        } else if (WSConstants.AES_128.equals(algorithm)) {
+            length = 16;
+        } else if (WSConstants.AES_192.equals(algorithm)) {
+            length = 24;
+        } else {
+            length = 32;
+        }
+        return new SecretKeySpec(key, 0, Math.min(length, key.length),
+                keyAlgorithm);
+    }
+
+    /**
+     * Copy the namespace declarations within the copied subtree, as well as
+     * the namespaces declared by the ancestors of the original, onto the
+     * copy so that it serializes the same way outside of the message. The
+     * closest declaration of a prefix wins.
+     */
+    private static void declareNamespaces(Element original, Element copy) {
+        declareSubtreeNamespaces((OMElement) original, copy);
+        for (Node node = original.getParentNode(); node instanceof OMElement; node = node
+                .getParentNode()) {
+            declare(((OMElement) node).getAllDeclaredNamespaces(), copy);
+        }
+    }
+
+    private static void declareSubtreeNamespaces(OMElement original,
+            Element copy) {
+        declare(original.getAllDeclaredNamespaces(), copy);
+        Iterator children = original.getChildElements();
+        for (Node node = copy.getFirstChild(); node != null
+                && children.hasNext(); node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                declareSubtreeNamespaces((OMElement) children.next(),
+                        (Element) node);
+            }
+        }
+    }
+
+    private static void declare(Iterator namespaces, Element elem) {
+        while (namespaces.hasNext()) {
+            OMNamespace ns = (OMNamespace) namespaces.next();
+            String prefix = ns.getPrefix();
+            String name = (prefix == null || prefix.length() == 0) ? "xmlns"
+                    : "xmlns:" + prefix;
+            String localName = (prefix == null || prefix.length() == 0) ? "xmlns"
+                    : prefix;
+            if (!elem.hasAttributeNS(WSConstants.XMLNS_NS, localName)) {
+                elem.setAttributeNS(WSConstants.XMLNS_NS, name, ns.getName());
+            }
+        }
+    }
+
+    /**
+     * Encrypts one part in a private document.
+     */
+    private static class PartEncryption implements Callable {
+
+        private Element element;
+
+        private boolean content;
+
+        private String id;
+
+        private String algorithm;
+
+        private SecretKey key;
+
+        private String keyRefId;
+
+        private PartEncryption(Element element, boolean content, String id,
+                String algorithm, SecretKey key, String keyRefId) {
+            this.element = element;
+            this.content = content;
+            this.id = id;
+            this.algorithm = algorithm;
+            this.key = key;
+            this.keyRefId = keyRefId;
+        }
+
+        /**
+         * @return The EncryptedData element, in the private document
+         */
+        public Object call() throws Exception {
+            Document doc = newDocument();
+            Element copy = (Element) doc.importNode(this.element, true);
+            declareNamespaces(this.element, copy);
+            doc.appendChild(copy);
+
+            XMLCipher cipher = XMLCipher.getInstance(this.algorithm);
+            cipher.init(XMLCipher.ENCRYPT_MODE, this.key);
+            EncryptedData encData = cipher.getEncryptedData();
+            encData.setId(this.id);
+            if (this.keyRefId != null) {
+                KeyInfo keyInfo = new KeyInfo(doc);
+                keyInfo.addUnknownElement(TrustUtil
+                        .createSecurityTokenReference(doc, "#" + this.keyRefId,
+                                null));
+                encData.setKeyInfo(keyInfo);
+            }
+            cipher.doFinal(doc, copy, this.content);
+
+            if (this.content) {
+                for (Node node = copy.getFirstChild(); node != null; node = node
+                        .getNextSibling()) {
+                    if (node.getNodeType() == Node.ELEMENT_NODE) {
+                        return node;
+                    }
+                }
+                return null;
+            }
+            return doc.getDocumentElement();
+        }
+
+        private static Document newDocument()
+                throws ParserConfigurationException {
+            synchronized (factory) {
+                return factory.newDocumentBuilder().newDocument();
+            }
+        }
+    }
+}
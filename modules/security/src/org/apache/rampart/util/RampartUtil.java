@@ -22,24 +22,31 @@ import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.OMFactory;
 import org.apache.axiom.om.OMNamespace;
 import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.AxisService;
 import org.apache.axis2.description.Parameter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.neethi.Policy;
 import org.apache.rahas.RahasConstants;
 import org.apache.rahas.Token;
+import org.apache.rahas.TokenStorage;
 import org.apache.rahas.TrustException;
 import org.apache.rahas.TrustUtil;
 import org.apache.rahas.client.STSClient;
 import org.apache.rampart.RampartException;
 import org.apache.rampart.RampartMessageData;
+import org.apache.rampart.StatelessCallbackHandler;
+import org.apache.rampart.policy.ElementSelector;
 import org.apache.rampart.policy.RampartPolicyData;
 import org.apache.rampart.policy.model.CryptoConfig;
 import org.apache.rampart.policy.model.RampartConfig;
 import org.apache.ws.secpolicy.Constants;
 import org.apache.ws.secpolicy.model.IssuedToken;
 import org.apache.ws.secpolicy.model.SecureConversationToken;
+import org.apache.ws.secpolicy.model.SupportingToken;
+import org.apache.ws.secpolicy.model.UsernameToken;
 import org.apache.ws.secpolicy.model.X509Token;
 import org.apache.ws.security.WSConstants;
 import org.apache.ws.security.WSEncryptionPart;
@@ -47,7 +54,6 @@ import org.apache.ws.security.WSPasswordCallback;
 import org.apache.ws.security.WSSecurityEngineResult;
 import org.apache.ws.security.WSSecurityException;
 import org.apache.ws.security.components.crypto.Crypto;
-import org.apache.ws.security.components.crypto.CryptoFactory;
 import org.apache.ws.security.conversation.ConversationConstants;
 import org.apache.ws.security.conversation.ConversationException;
 import org.apache.ws.security.handler.WSHandlerConstants;
@@ -64,16 +70,29 @@ import javax.xml.namespace.QName;
 
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.WeakHashMap;
 
 public class RampartUtil {
 
     private static final String CRYPTO_PROVIDER = "org.apache.ws.security.crypto.provider";
     private static Log log = LogFactory.getLog(RampartUtil.class);
     
+    /**
+     * AxisService -> (password callback class name -> Class or shared 
+     * <code>StatelessCallbackHandler</code> instance)
+     * 
+     * Keyed by the service rather than its class loader, since the values
+     * hold on to the class loader.
+     */
+    private static Map pwCbCache = new WeakHashMap();
+    
 
     public static CallbackHandler getPasswordCB(RampartMessageData rmd) throws RampartException {
 
@@ -96,23 +115,7 @@ public class RampartUtil {
         if (rpd.getRampartConfig() != null && rpd.getRampartConfig().getPwCbClass() != null) {
             
             String cbHandlerClass = rpd.getRampartConfig().getPwCbClass();
-            ClassLoader classLoader = msgContext.getAxisService().getClassLoader();
-                
-            log.debug("loading class : " + cbHandlerClass);
-            
-            Class cbClass;
-            try {
-                cbClass = Loader.loadClass(classLoader, cbHandlerClass);
-            } catch (ClassNotFoundException e) {
-                throw new RampartException("cannotLoadPWCBClass", 
-                        new String[]{cbHandlerClass}, e);
-            }
-            try {
-                cbHandler = (CallbackHandler) cbClass.newInstance();
-            } catch (java.lang.Exception e) {
-                throw new RampartException("cannotCreatePWCBInstance",
-                        new String[]{cbHandlerClass}, e);
-            }
+            cbHandler = getPasswordCB(msgContext.getAxisService(), cbHandlerClass);
         } else {
             cbHandler = (CallbackHandler) msgContext.getProperty(
                     WSHandlerConstants.PW_CALLBACK_REF);
@@ -126,6 +129,72 @@ public class RampartUtil {
         return cbHandler;
     }
     
+    /**
+     * Returns an instance of the given password callback class.
+     * 
+     * The class is loaded with the service class loader and cached per 
+     * service. Classes implementing <code>StatelessCallbackHandler</code> are
+     * instantiated only once and the instance is shared, all others are 
+     * instantiated per call.
+     * 
+     * @param service
+     * @param cbHandlerClass
+     * @return The <code>CallbackHandler</code> instance
+     * @throws RampartException
+     */
+    private static CallbackHandler getPasswordCB(AxisService service,
+            String cbHandlerClass) throws RampartException {
+
+        Map handlers;
+        synchronized (pwCbCache) {
+            handlers = (Map) pwCbCache.get(service);
+            if(handlers == null) {
+                handlers = new HashMap();
+                pwCbCache.put(service, handlers);
+            }
+        }
+        
+        Object cached;
+        synchronized (handlers) {
+            cached = handlers.get(cbHandlerClass);
+        }
+        
+        if(cached instanceof CallbackHandler) {
+            return (CallbackHandler) cached;
+        }
+        
+        Class cbClass = (Class) cached;
+        if(cbClass == null) {
+            log.debug("loading class : " + cbHandlerClass);
+            try {
+                cbClass = Loader.loadClass(service.getClassLoader(), cbHandlerClass);
+            } catch (ClassNotFoundException e) {
+                throw new RampartException("cannotLoadPWCBClass", 
+                        new String[]{cbHandlerClass}, e);
+            }
+        }
+        
+        CallbackHandler cbHandler;
+        try {
+            cbHandler = (CallbackHandler) cbClass.newInstance();
+        } catch (java.lang.Exception e) {
+            throw new RampartException("cannotCreatePWCBInstance",
+                    new String[]{cbHandlerClass}, e);
+        }
+        
+        if(cached == null) {
+            synchronized (handlers) {
+                if(cbHandler instanceof StatelessCallbackHandler) {
+                    handlers.put(cbHandlerClass, cbHandler);
+                } else {
+                    handlers.put(cbHandlerClass, cbClass);
+                }
+            }
+        }
+        
+        return cbHandler;
+    }
+    
     /**
      * Perform a callback to get a password.
      * <p/>
@@ -169,7 +238,8 @@ public class RampartUtil {
     
     /**
      * Create the <code>Crypto</code> instance for encryption using information 
-     * from the rampart configuration assertion
+     * from the rampart configuration assertion. The instance is shared through
+     * the <code>CryptoCache</code>.
      * 
      * @param config
      * @return The <code>Crypto</code> instance to be used for encryption
@@ -185,7 +255,7 @@ public class RampartUtil {
             log.debug("Usig provider: " + provider);
             Properties prop = cryptoConfig.getProp();
             prop.put(CRYPTO_PROVIDER, provider);
-            return CryptoFactory.getInstance(prop, loader);
+            return CryptoCache.getCrypto(prop, loader);
         } else {
             log.debug("Trying the signature crypto info");
 
@@ -196,7 +266,7 @@ public class RampartUtil {
                 log.debug("Usig provider: " + provider);
                 Properties prop = cryptoConfig.getProp();
                 prop.put(CRYPTO_PROVIDER, provider);
-                return CryptoFactory.getInstance(prop, loader);
+                return CryptoCache.getCrypto(prop, loader);
             } else {
                 return null;
             }
@@ -205,7 +275,8 @@ public class RampartUtil {
     
     /**
      * Create the <code>Crypto</code> instance for signature using information 
-     * from the rampart configuration assertion
+     * from the rampart configuration assertion. The instance is shared through
+     * the <code>CryptoCache</code>.
      * 
      * @param config
      * @return The <code>Crypto</code> instance to be used for signature
@@ -221,7 +292,7 @@ public class RampartUtil {
             log.debug("Usig provider: " + provider);
             Properties prop = cryptoConfig.getProp();
             prop.put(CRYPTO_PROVIDER, provider);
-            return CryptoFactory.getInstance(prop, loader);
+            return CryptoCache.getCrypto(prop, loader);
         } else {
             return null;
         }
@@ -352,7 +423,13 @@ public class RampartUtil {
         
         if(bsPol != null) {
             log.debug("BootstrapPolicy found");
-            bsPol.addAssertion(rmd.getPolicyData().getRampartConfig());
+            synchronized (bsPol) {
+                //The bootstrap policy is shared, add the RampartConfig once
+                if(!bsPol.getAssertions().contains(
+                        rmd.getPolicyData().getRampartConfig())) {
+                    bsPol.addAssertion(rmd.getPolicyData().getRampartConfig());
+                }
+            }
             stsPolicy = bsPol;
         } else {
             //No bootstrap policy use issuer policy
@@ -360,8 +437,9 @@ public class RampartUtil {
             stsPolicy = rmd.getPolicyData().getIssuerPolicy();
         }
         
-        String id = getToken(rmd, rstTemplate,
-                issuerEprAddress, action, stsPolicy);
+        String id = TokenAcquirer.getInstance(
+                rmd.getMsgContext().getConfigurationContext()).acquire(rmd,
+                secConvTok, rstTemplate, issuerEprAddress, action, stsPolicy);
         
         log.debug("SecureConversationToken obtained: id=" + id);
         return id;
@@ -391,7 +469,9 @@ public class RampartUtil {
             // Get STS policy
             Policy stsPolicy = rmd.getPolicyData().getIssuerPolicy();
 
-            String id = getToken(rmd, rstTemplate, issuerEprAddress, action,
+            String id = TokenAcquirer.getInstance(
+                    rmd.getMsgContext().getConfigurationContext()).acquire(
+                    rmd, issuedToken, rstTemplate, issuerEprAddress, action,
                     stsPolicy);
 
             log.debug("Issued token obtained: id=" + id);
@@ -413,30 +493,74 @@ public class RampartUtil {
      */
     public static String getToken(RampartMessageData rmd, OMElement rstTemplate,
             String issuerEpr, String action, Policy issuerPolicy) throws RampartException {
+        
+        // Get service epr
+        String servceEprAddress = rmd.getMsgContext()
+                .getOptions().getTo().getAddress();
+        
+        return requestToken(rmd, rstTemplate, issuerEpr, action, issuerPolicy,
+                servceEprAddress);
+    }
+    
+    /**
+     * Send an RST to the issuer and store the obtained token.
+     * @param rmd
+     * @param rstTemplate
+     * @param issuerEpr
+     * @param action
+     * @param issuerPolicy
+     * @param servceEprAddress
+     * @return Return the identifier of the obtained token
+     * @throws RampartException
+     */
+    static String requestToken(RampartMessageData rmd, OMElement rstTemplate,
+            String issuerEpr, String action, Policy issuerPolicy,
+            String servceEprAddress) throws RampartException {
+
+        Crypto crypto = RampartUtil.getSignatureCrypto(rmd.getPolicyData().getRampartConfig(), 
+                rmd.getMsgContext().getAxisService().getClassLoader());
+        
+        return requestToken(rmd.getMsgContext().getConfigurationContext(),
+                crypto, RampartUtil.getPasswordCB(rmd), rmd.getTokenStorage(),
+                rmd.getServicePolicy(), rstTemplate, issuerEpr, action,
+                issuerPolicy, servceEprAddress);
+    }
+    
+    /**
+     * Send an RST to the issuer and store the obtained token. The RST is 
+     * sent with a message context of its own, so this does not depend on 
+     * the message that requires the token.
+     * @param configCtx
+     * @param crypto
+     * @param cbh
+     * @param tokenStorage
+     * @param servicePolicy
+     * @param rstTemplate
+     * @param issuerEpr
+     * @param action
+     * @param issuerPolicy
+     * @param servceEprAddress
+     * @return Return the identifier of the obtained token
+     * @throws RampartException
+     */
+    static String requestToken(ConfigurationContext configCtx, Crypto crypto,
+            CallbackHandler cbh, TokenStorage tokenStorage,
+            Policy servicePolicy, OMElement rstTemplate, String issuerEpr,
+            String action, Policy issuerPolicy, String servceEprAddress)
+            throws RampartException {
 
         try {
             Axis2Util.useDOOM(false);
             
-            STSClient client = new STSClient(rmd.getMsgContext()
-                    .getConfigurationContext());
+            STSClient client = new STSClient(configCtx);
             // Set request action
             client.setAction(action);
             
             client.setRstTemplate(rstTemplate);
     
             // Set crypto information
-            Crypto crypto = RampartUtil.getSignatureCrypto(rmd.getPolicyData().getRampartConfig(), 
-                    rmd.getMsgContext().getAxisService().getClassLoader());
-            CallbackHandler cbh = RampartUtil.getPasswordCB(rmd);
             client.setCryptoInfo(crypto, cbh);
     
-            // Get service policy
-            Policy servicePolicy = rmd.getServicePolicy();
-    
-            // Get service epr
-            String servceEprAddress = rmd.getMsgContext()
-                    .getOptions().getTo().getAddress();
-    
             //Make the request
             org.apache.rahas.Token rst = 
                 client.requestSecurityToken(servicePolicy, 
@@ -446,7 +570,7 @@ public class RampartUtil {
             
             //Add the token to token storage
             rst.setState(Token.ISSUED);
-            rmd.getTokenStorage().add(rst);
+            tokenStorage.add(rst);
             Axis2Util.useDOOM(true);
             return rst.getId();
         } catch (Exception e) {
@@ -519,20 +643,25 @@ public class RampartUtil {
         
     }
     
-    public static Vector getEncryptedParts(RampartMessageData rmd) {
+    public static Vector getEncryptedParts(RampartMessageData rmd) 
+            throws RampartException {
         RampartPolicyData rpd =  rmd.getPolicyData();
-        Vector parts = rpd.getEncryptedParts();
+        Vector parts = copyParts(rpd.getEncryptedParts());
         SOAPEnvelope envelope = rmd.getMsgContext().getEnvelope();
         if(rpd.isEncryptBody()) {
             parts.add(new WSEncryptionPart(addWsuIdToElement(envelope.getBody()), "Content"));
         }
         
+        addSelectedElements(envelope, rpd.getEncryptedElementSelectors(), 
+                "Element", parts);
+        
         return parts;
     }
     
-    public static Vector getSignedParts(RampartMessageData rmd) {
+    public static Vector getSignedParts(RampartMessageData rmd) 
+            throws RampartException {
         RampartPolicyData rpd =  rmd.getPolicyData();
-        Vector parts = rpd.getSignedParts();
+        Vector parts = copyParts(rpd.getSignedParts());
         SOAPEnvelope envelope = rmd
                             .getMsgContext().getEnvelope();
         if(rpd.isEntireHeadersAndBodySignatures()) {
@@ -550,9 +679,54 @@ public class RampartUtil {
             parts.add(new WSEncryptionPart(addWsuIdToElement(envelope.getBody())));
         }
         
+        addSelectedElements(envelope, rpd.getSignedElementSelectors(), null, 
+                parts);
+        
         return parts;
     }
     
+    /**
+     * Add the elements selected by the compiled signed/encrypted element 
+     * XPaths of the policy to the given list of parts, referring to them by 
+     * their wsu:Id.
+     * @param envelope
+     * @param selectors The <code>ElementSelector</code>s
+     * @param modifier The encryption modifier, null for signature parts
+     * @param parts
+     * @throws RampartException
+     */
+    private static void addSelectedElements(SOAPEnvelope envelope, 
+            Vector selectors, String modifier, Vector parts) 
+            throws RampartException {
+        for (int i = 0; i < selectors.size(); i++) {
+            List elements = ((ElementSelector) selectors.get(i))
+                    .select(envelope);
+            for (Iterator iter = elements.iterator(); iter.hasNext();) {
+                String id = addWsuIdToElement((OMElement) iter.next());
+                parts.add((modifier != null) ? new WSEncryptionPart(id,
+                        modifier) : new WSEncryptionPart(id));
+            }
+        }
+    }
+    
+    /**
+     * Creates a copy of the given list of parts. The policy data is shared 
+     * across messages, therefore the per message parts must not be added 
+     * to the policy data's lists, nor should the parts held by it be 
+     * modified during processing.
+     * @param parts
+     * @return A new <code>Vector</code> with copies of the given parts
+     */
+    private static Vector copyParts(Vector parts) {
+        Vector copy = new Vector(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            WSEncryptionPart part = (WSEncryptionPart) parts.get(i);
+            copy.add(new WSEncryptionPart(part.getName(), part.getNamespace(),
+                    part.getEncModifier()));
+        }
+        return copy;
+    }
+    
     public static KeyGenerator getEncryptionKeyGenerator(String symEncrAlgo) throws WSSecurityException {
         KeyGenerator keyGen;
         try {
@@ -591,6 +765,9 @@ public class RampartUtil {
     /**
      * Returns the map of security context token identifiers
      * @return the map of security context token identifiers
+     * @deprecated Rampart keeps the security context token identifiers in 
+     * the map returned by {@link #getConversationContextMap(MessageContext)}
+     * and no longer reads this map
      */
     public static Hashtable getContextMap(MessageContext msgContext) {
         //Fist check whether its there
@@ -608,6 +785,61 @@ public class RampartUtil {
         return (Hashtable)map;
     }
     
+    /**
+     * Returns the map of security context token identifiers, which drops the
+     * identifiers of expired tokens and holds a bounded number of them.
+     * @return the map of security context token identifiers
+     */
+    public static ConversationContextMap getConversationContextMap(
+            MessageContext msgContext) {
+        ConfigurationContext configCtx = msgContext.getConfigurationContext();
+        
+        //Fist check whether its there
+        Object map = configCtx.getProperty(ConversationContextMap.KEY);
+        
+        if(map == null) {
+            synchronized (configCtx) {
+                map = configCtx.getProperty(ConversationContextMap.KEY);
+                if(map == null) {
+                    //If not create a new one
+                    map = new ConversationContextMap();
+                    //Set the map globally
+                    configCtx.setProperty(ConversationContextMap.KEY, map);
+                }
+            }
+        }
+        
+        return (ConversationContextMap)map;
+    }
+    
+    /**
+     * Whether the given policy is a transport binding whose security header
+     * only consists of a Timestamp and UsernameTokens. Such headers need no
+     * signatures or canonicalization and are handled off the AXIOM tree.
+     * @param rpd
+     * @return true if the security header can be written and validated
+     * without a DOM
+     */
+    public static boolean isHeaderOnlyTransportBinding(RampartPolicyData rpd) {
+        return rpd.isTransportBinding() && !rpd.isSignatureConfirmation()
+                && rpd.getEndorsingSupportingTokens() == null
+                && rpd.getSignedEndorsingSupportingTokens() == null
+                && hasUsernameTokensOnly(rpd.getSupportingTokens())
+                && hasUsernameTokensOnly(rpd.getSignedSupportingTokens());
+    }
+    
+    private static boolean hasUsernameTokensOnly(SupportingToken suppTokens) {
+        if(suppTokens == null || suppTokens.getTokens() == null) {
+            return true;
+        }
+        for (Iterator iter = suppTokens.getTokens().iterator(); iter.hasNext();) {
+            if(!(iter.next() instanceof UsernameToken)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     public static boolean isTokenValid(RampartMessageData rmd, String id) throws RampartException {
         try {
             org.apache.rahas.Token token = rmd.getTokenStorage().getToken(id);
@@ -617,6 +849,21 @@ public class RampartUtil {
         } 
     }
     
+    /**
+     * Whether the given token should be replaced by a renewed one.
+     * @param rmd
+     * @param id
+     * @return true if the token is close to its expiry
+     * @throws RampartException
+     */
+    public static boolean isTokenRenewalDue(RampartMessageData rmd, String id) throws RampartException {
+        try {
+            return TokenAcquirer.isRenewalDue(rmd.getTokenStorage().getToken(id));
+        } catch (TrustException e) {
+            throw new RampartException("errorExtractingToken");
+        } 
+    }
+    
     public static void setEncryptionUser(RampartMessageData rmd, WSSecEncryptedKey encrKeyBuilder) throws RampartException {
         RampartPolicyData rpd = rmd.getPolicyData();
         String encrUser = rpd.getRampartConfig().getEncryptionUser();
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import org.apache.axis2.description.AxisDescription;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.Parameter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ws.security.WSSConfig;
+import org.apache.ws.security.WSSecurityEngine;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The security processing state that a service shares between all its
+ * messages: the <code>WSSecurityEngine</code>, the <code>WSSConfig</code>
+ * and the decoded configuration of the <code>WSDoAll*</code> handlers.
+ *
+ * A context is created when Rampart is engaged to a service, or on first
+ * use. Contexts are keyed by the <code>AxisService</code> (weakly, so that
+ * a redeployed service drops its context). Engaging the module again
+ * replaces the context of the service.
+ *
+ * The engine keeps no state across <code>processSecurityHeader</code>
+ * calls, therefore it can be used by concurrent messages. The config is the
+ * default WSS4J config, as it was before the contexts were introduced, so
+ * that settings applied to the default config still take effect.
+ */
+public class ServiceSecurityContext {
+
+    private static Log log = LogFactory.getLog(ServiceSecurityContext.class);
+
+    /**
+     * AxisService -> ServiceSecurityContext
+     */
+    private static Map contexts = Collections.synchronizedMap(new WeakHashMap());
+
+    /**
+     * Context of the messages that do not belong to a service
+     */
+    private static volatile ServiceSecurityContext defaultContext = new ServiceSecurityContext();
+
+    private WSSecurityEngine engine = new WSSecurityEngine();
+
+    private WSSConfig config = WSSConfig.getDefaultWSConfig();
+
+    /**
+     * Parameter -> decoded inflow configuration
+     */
+    private Map inflowParameters = Collections.synchronizedMap(new WeakHashMap());
+
+    /**
+     * Parameter -> decoded outflow configuration
+     */
+    private Map outflowParameters = Collections.synchronizedMap(new WeakHashMap());
+
+    /**
+     * Returns the context of the given service, creating it if required.
+     * @param service The service, null for messages without a service
+     * @return The context of the service
+     */
+    public static ServiceSecurityContext getContext(AxisService service) {
+        if (service == null) {
+            return defaultContext;
+        }
+
+        synchronized (contexts) {
+            ServiceSecurityContext context = (ServiceSecurityContext) contexts
+                    .get(service);
+            if (context == null) {
+                context = new ServiceSecurityContext();
+                contexts.put(service, context);
+            }
+            return context;
+        }
+    }
+
+    /**
+     * Create a new context for the service that the given description
+     * belongs to, dropping the state built for the service earlier. If the
+     * module is engaged globally or to a service group, all contexts are
+     * dropped and recreated on first use.
+     * @param axisDescription
+     */
+    public static void engage(AxisDescription axisDescription) {
+        AxisDescription desc = axisDescription;
+        while (desc != null && !(desc instanceof AxisService)) {
+            desc = desc.getParent();
+        }
+
+        if (desc != null) {
+            log.debug("Creating the security context of service : "
+                    + ((AxisService) desc).getName());
+            contexts.put(desc, new ServiceSecurityContext());
+        } else {
+            log.debug("Dropping all service security contexts");
+            contexts.clear();
+            defaultContext = new ServiceSecurityContext();
+        }
+    }
+
+    /**
+     * @return Returns the security engine of the service.
+     */
+    public WSSecurityEngine getSecurityEngine() {
+        return engine;
+    }
+
+    /**
+     * @return Returns the WS-Security configuration of the service, the
+     * default WSS4J config, which MUST be treated as read only.
+     */
+    public WSSConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @param param An inflow or outflow security parameter
+     * @param inflow Whether the decoded inflow or outflow configuration is
+     * requested
+     * @return The configuration decoded from the given parameter earlier, or
+     * null if the parameter was not decoded yet
+     */
+    public Object getDecodedParameter(Parameter param, boolean inflow) {
+        return (inflow ? this.inflowParameters : this.outflowParameters)
+                .get(param);
+    }
+
+    /**
+     * Keep the configuration decoded from the given parameter. The decoded
+     * configuration MUST NOT refer to the parameter.
+     * @param param An inflow or outflow security parameter
+     * @param inflow Whether the configuration was decoded for the inflow or
+     * the outflow
+     * @param decoded The decoded configuration, which is shared by all
+     * messages of the service
+     */
+    public void setDecodedParameter(Parameter param, boolean inflow,
+            Object decoded) {
+        (inflow ? this.inflowParameters : this.outflowParameters).put(param,
+                decoded);
+    }
+}
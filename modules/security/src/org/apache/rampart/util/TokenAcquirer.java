@@ -0,0 +1,378 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.MessageContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.neethi.Policy;
+import org.apache.rahas.Token;
+import org.apache.rahas.TokenStorage;
+import org.apache.rahas.TrustException;
+import org.apache.rampart.RampartException;
+import org.apache.rampart.RampartMessageData;
+import org.apache.rampart.metrics.RampartMetrics;
+import org.apache.rampart.policy.model.CryptoConfig;
+import org.apache.rampart.policy.model.RampartConfig;
+import org.apache.ws.security.components.crypto.Crypto;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Coordinates the acquisition of issued tokens and secure conversation
+ * tokens on the client side.
+ *
+ * Requests of the same user and signature keystore for the same token
+ * assertion, issuer, service and action share a single in-flight RST: the
+ * first thread sends the request to the STS and the other threads wait for
+ * its result instead of obtaining tokens of their own.
+ * The obtained token is reused as long as it is valid. Once
+ * <code>RENEWAL_THRESHOLD</code> of its lifetime is left a new token is
+ * requested in the background, using the thread pool of the configuration
+ * context, while the current token continues to be handed out.
+ *
+ * One instance is shared through the configuration context.
+ */
+public class TokenAcquirer {
+
+    private static Log log = LogFactory.getLog(TokenAcquirer.class);
+
+    private static final String TOKEN_ACQUIRER_KEY = TokenAcquirer.class.getName();
+
+    /**
+     * Fraction of the lifetime of a token that is left when its background
+     * renewal starts.
+     */
+    public static final double RENEWAL_THRESHOLD = 0.2;
+
+    /**
+     * Delay in milliseconds before a failed background renewal is retried.
+     */
+    public static final long RETRY_INTERVAL = 10000;
+
+    /**
+     * Token assertion -> (request key -> Acquisition)
+     *
+     * The token assertions belong to the compiled policy, hence the
+     * acquisitions are dropped together with the policy.
+     */
+    private Map acquisitions = Collections.synchronizedMap(new WeakHashMap());
+
+    private ConfigurationContext configCtx;
+
+    private TokenAcquirer(ConfigurationContext configCtx) {
+        this.configCtx = configCtx;
+    }
+
+    /**
+     * Returns the token acquirer of the given configuration context,
+     * creating it if required.
+     * @param configCtx
+     * @return The token acquirer
+     */
+    public static TokenAcquirer getInstance(ConfigurationContext configCtx) {
+        synchronized (configCtx) {
+            TokenAcquirer acquirer = (TokenAcquirer) configCtx
+                    .getProperty(TOKEN_ACQUIRER_KEY);
+            if (acquirer == null) {
+                acquirer = new TokenAcquirer(configCtx);
+                configCtx.setProperty(TOKEN_ACQUIRER_KEY, acquirer);
+            }
+            return acquirer;
+        }
+    }
+
+    /**
+     * Returns the identifier of a valid token for the given token assertion,
+     * requesting one from the STS only if no other thread is doing so.
+     * @param rmd
+     * @param tokenAssertion The IssuedToken or SecureConversationToken
+     * assertion the token is obtained for
+     * @param rstTemplate
+     * @param issuerEpr
+     * @param action
+     * @param issuerPolicy
+     * @return The identifier of the token
+     * @throws RampartException
+     */
+    public String acquire(RampartMessageData rmd, Object tokenAssertion,
+            OMElement rstTemplate, String issuerEpr, String action,
+            Policy issuerPolicy) throws RampartException {
+        return this.acquire(tokenAssertion, new TokenRequest(rmd, rstTemplate,
+                issuerEpr, action, issuerPolicy));
+    }
+
+    String acquire(Object tokenAssertion, TokenRequest request)
+            throws RampartException {
+
+        Acquisition acquisition = getAcquisition(tokenAssertion, request
+                .getKey());
+
+        synchronized (acquisition) {
+            while (true) {
+                if (acquisition.tokenId != null
+                        && request.isTokenValid(acquisition.tokenId)) {
+                    if (!acquisition.inFlight
+                            && System.currentTimeMillis() >= acquisition.renewAt) {
+                        acquisition.inFlight = true;
+                        this.renew(acquisition, request);
+                    }
+                    return acquisition.tokenId;
+                }
+
+                if (!acquisition.inFlight) {
+                    //This thread requests the token
+                    acquisition.inFlight = true;
+                    break;
+                }
+
+                try {
+                    acquisition.wait();
+                } catch (InterruptedException e) {
+                    throw new RampartException("errorInObtainingToken", e);
+                }
+            }
+        }
+
+        log.debug("Requesting a token from " + request.issuerEpr);
+        return this.request(acquisition, request);
+    }
+
+    /**
+     * Whether the given token is close enough to its expiry to be renewed.
+     * @param token
+     * @return true if less than <code>RENEWAL_THRESHOLD</code> of the
+     * lifetime of the token is left
+     */
+    public static boolean isRenewalDue(Token token) {
+        return System.currentTimeMillis() >= getRenewalTime(token);
+    }
+
+    private static long getRenewalTime(Token token) {
+        if (token == null || token.getExpires() == null) {
+            return Long.MAX_VALUE;
+        }
+        long expires = token.getExpires().getTime();
+        long created = (token.getCreated() != null) ? token.getCreated()
+                .getTime() : System.currentTimeMillis();
+        return expires - (long) ((expires - created) * RENEWAL_THRESHOLD);
+    }
+
+    private Acquisition getAcquisition(Object tokenAssertion, String key) {
+        synchronized (this.acquisitions) {
+            Map requests = (Map) this.acquisitions.get(tokenAssertion);
+            if (requests == null) {
+                requests = new Hashtable();
+                this.acquisitions.put(tokenAssertion, requests);
+            }
+            Acquisition acquisition = (Acquisition) requests.get(key);
+            if (acquisition == null) {
+                acquisition = new Acquisition();
+                requests.put(key, acquisition);
+            }
+            return acquisition;
+        }
+    }
+
+    private void renew(final Acquisition acquisition, final TokenRequest request) {
+        log.debug("Renewing token " + acquisition.tokenId + " in the background");
+        Runnable renewal = new Runnable() {
+            public void run() {
+                try {
+                    TokenAcquirer.this.request(acquisition, request);
+                } catch (RampartException e) {
+                    log.warn("Background token renewal failed", e);
+                }
+            }
+        };
+
+        try {
+            this.configCtx.getThreadPool().execute(renewal);
+        } catch (RuntimeException e) {
+            log.warn("Cannot schedule background token renewal", e);
+            acquisition.complete(null, 0);
+        }
+    }
+
+    /**
+     * Send the RST and publish the result to the threads waiting on the
+     * acquisition.
+     */
+    private String request(Acquisition acquisition, TokenRequest request)
+            throws RampartException {
+        String id = null;
+        long renewAt = 0;
+        try {
+            long start = RampartMetrics.start();
+            id = request.send();
+            RampartMetrics.getInstance().record(request.metricsKey, start);
+            try {
+                renewAt = getRenewalTime(request.tokenStorage.getToken(id));
+            } catch (TrustException e) {
+                throw new RampartException("errorExtractingToken",
+                        new String[] { id }, e);
+            }
+            return id;
+        } finally {
+            acquisition.complete(id, renewAt);
+        }
+    }
+
+    /**
+     * The state of the acquisition of one token, guarded by itself.
+     */
+    private static class Acquisition {
+
+        private String tokenId;
+
+        private long renewAt = Long.MAX_VALUE;
+
+        private boolean inFlight;
+
+        private synchronized void complete(String id, long renewAt) {
+            if (id != null) {
+                this.tokenId = id;
+                this.renewAt = renewAt;
+            } else {
+                //Do not retry a failed renewal on every message
+                this.renewAt = System.currentTimeMillis() + RETRY_INTERVAL;
+            }
+            this.inFlight = false;
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * The parameters of an RST. Only the configuration is captured, not the
+     * message that required the token, so a renewal can be sent from a pool
+     * thread after that message has been processed.
+     */
+    static class TokenRequest {
+
+        private ConfigurationContext configCtx;
+
+        private RampartConfig rampartConfig;
+
+        private ClassLoader classLoader;
+
+        private CallbackHandler cbHandler;
+
+        private TokenStorage tokenStorage;
+
+        private Policy servicePolicy;
+
+        private OMElement rstTemplate;
+
+        private String issuerEpr;
+
+        private String action;
+
+        private Policy issuerPolicy;
+
+        private String serviceEpr;
+
+        private String requester;
+
+        private String metricsKey;
+
+        private TokenRequest(RampartMessageData rmd, OMElement rstTemplate,
+                String issuerEpr, String action, Policy issuerPolicy)
+                throws RampartException {
+            this(rmd.getTokenStorage(), getRequester(rmd.getPolicyData()
+                    .getRampartConfig()), rstTemplate, issuerEpr, action,
+                    issuerPolicy, rmd.getMsgContext().getOptions().getTo()
+                            .getAddress());
+
+            MessageContext msgCtx = rmd.getMsgContext();
+            this.configCtx = msgCtx.getConfigurationContext();
+            this.rampartConfig = rmd.getPolicyData().getRampartConfig();
+            this.classLoader = msgCtx.getAxisService().getClassLoader();
+            this.cbHandler = RampartUtil.getPasswordCB(rmd);
+            this.servicePolicy = rmd.getServicePolicy();
+            this.metricsKey = RampartMetrics.getKey(msgCtx,
+                    RampartMetrics.TOKEN_ACQUISITION);
+        }
+
+        TokenRequest(TokenStorage tokenStorage, String requester,
+                OMElement rstTemplate, String issuerEpr, String action,
+                Policy issuerPolicy, String serviceEpr) {
+            this.tokenStorage = tokenStorage;
+            this.requester = requester;
+            this.rstTemplate = rstTemplate;
+            this.issuerEpr = issuerEpr;
+            this.action = action;
+            this.issuerPolicy = issuerPolicy;
+            this.serviceEpr = serviceEpr;
+            this.metricsKey = "*/*/" + RampartMetrics.TOKEN_ACQUISITION;
+        }
+
+        /**
+         * @return The key of the request, requests with the same key share
+         * their tokens
+         */
+        String getKey() {
+            return action + " " + issuerEpr + " " + serviceEpr + " "
+                    + requester;
+        }
+
+        boolean isTokenValid(String id) throws RampartException {
+            try {
+                Token token = this.tokenStorage.getToken(id);
+                return token != null && token.getState() == Token.ISSUED;
+            } catch (TrustException e) {
+                throw new RampartException("errorExtractingToken");
+            }
+        }
+
+        /**
+         * Send the RST to the issuer and store the obtained token.
+         * @return The identifier of the obtained token
+         * @throws RampartException
+         */
+        String send() throws RampartException {
+            Crypto crypto = RampartUtil.getSignatureCrypto(this.rampartConfig,
+                    this.classLoader);
+            return RampartUtil.requestToken(this.configCtx, crypto,
+                    this.cbHandler, this.tokenStorage, this.servicePolicy,
+                    this.rstTemplate, this.issuerEpr, this.action,
+                    this.issuerPolicy, this.serviceEpr);
+        }
+
+        /**
+         * The user and the signature keystore the token is requested with.
+         */
+        private static String getRequester(RampartConfig config) {
+            if (config == null) {
+                return null;
+            }
+            CryptoConfig cryptoConfig = config.getSigCryptoConfig();
+            String crypto = null;
+            if (cryptoConfig != null && cryptoConfig.getProp() != null) {
+                crypto = cryptoConfig.getProvider() + " "
+                        + CryptoCache.createKey(cryptoConfig.getProp());
+            }
+            return config.getUser() + " " + crypto;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import org.apache.ws.security.components.crypto.Crypto;
+import org.apache.xml.security.utils.Base64;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Bounded LRU cache of the certificates that were found to be trusted by
+ * the keystore of a <code>Crypto</code> instance.
+ *
+ * Establishing trust requires alias lookups in the keystore and, for
+ * certificates that are not in the keystore themselves, the validation of
+ * the certificate path. Once a certificate passed these checks, following
+ * messages signed with it skip them until the certificate expires.
+ *
+ * There is one cache per <code>Crypto</code> instance, held weakly. Since
+ * the <code>CryptoCache</code> creates a new instance when a keystore is
+ * reloaded, trust established with an old keystore is never reused with a
+ * new one. Certificates are keyed by the SHA-1 digest of their encoded
+ * form, a hit is confirmed by comparing the encoded certificates.
+ */
+public class TrustedCertificateCache {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /**
+     * Crypto -> TrustedCertificateCache
+     */
+    private static Map caches = Collections.synchronizedMap(new WeakHashMap());
+
+    /**
+     * Certificate digest -> Entry, in access order, guarded by itself
+     */
+    private LinkedHashMap entries;
+
+    /**
+     * Returns the cache of the certificates trusted by the given crypto,
+     * creating it if required.
+     * @param crypto
+     * @return The cache of the given crypto
+     */
+    public static TrustedCertificateCache getCache(Crypto crypto) {
+        synchronized (caches) {
+            TrustedCertificateCache cache = (TrustedCertificateCache) caches
+                    .get(crypto);
+            if (cache == null) {
+                cache = new TrustedCertificateCache(DEFAULT_CAPACITY);
+                caches.put(crypto, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @param capacity The maximum number of certificates, the least
+     * recently used certificate is evicted when it is exceeded
+     */
+    public TrustedCertificateCache(final int capacity) {
+        this.entries = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Whether the given certificate was found to be trusted before and did
+     * not expire since.
+     * @param cert
+     * @return true if the trust of the certificate need not be verified
+     */
+    public boolean isTrusted(X509Certificate cert) {
+        String key = getKey(cert);
+        if (key == null) {
+            return false;
+        }
+
+        synchronized (this.entries) {
+            Entry entry = (Entry) this.entries.get(key);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.notAfter <= System.currentTimeMillis()) {
+                this.entries.remove(key);
+                return false;
+            }
+            return entry.cert.equals(cert);
+        }
+    }
+
+    /**
+     * Record that the given certificate is trusted. It stays trusted until
+     * it expires or is evicted.
+     * @param cert
+     */
+    public void add(X509Certificate cert) {
+        String key = getKey(cert);
+        if (key == null) {
+            return;
+        }
+
+        Entry entry = new Entry(cert);
+        synchronized (this.entries) {
+            this.entries.put(key, entry);
+        }
+    }
+
+    /**
+     * @return The number of cached certificates
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Drop all cached certificates.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * @param cert
+     * @return The digest of the encoded certificate, null if it cannot be
+     * computed, in which case the certificate is never cached
+     */
+    private static String getKey(X509Certificate cert) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return Base64.encode(digest.digest(cert.getEncoded()));
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (CertificateEncodingException e) {
+            return null;
+        }
+    }
+
+    private static class Entry {
+
+        private X509Certificate cert;
+
+        private long notAfter;
+
+        private Entry(X509Certificate cert) {
+            this.cert = cert;
+            this.notAfter = cert.getNotAfter().getTime();
+        }
+    }
+}
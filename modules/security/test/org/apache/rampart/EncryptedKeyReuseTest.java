@@ -0,0 +1,245 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPHeaderBlock;
+import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.context.OperationContext;
+import org.apache.axis2.context.ServiceContext;
+import org.apache.axis2.context.ServiceGroupContext;
+import org.apache.axis2.description.AxisOperation;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.OutInAxisOperation;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.axis2.wsdl.WSDLConstants;
+import org.apache.neethi.Policy;
+import org.apache.rampart.util.EncryptedKeyCache;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.handler.WSHandlerConstants;
+import org.apache.ws.security.handler.WSHandlerResult;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * Runs the messages of a client that reuses its EncryptedKey through the
+ * client and service side of Rampart.
+ */
+public class EncryptedKeyReuseTest extends MessageBuilderTestBase {
+
+    private static final String POLICY =
+        "test-resources/policy/rampart-asymm-binding-8-3des-r15-DK-key-reuse.xml";
+
+    public void testKeyReuse() {
+        try {
+            Party client = new Party(false);
+            Party service = new Party(true);
+
+            //The first request carries the key
+            MessageContext request = client.createRequest();
+            new MessageBuilder().build(request);
+            assertTrue("No EncryptedKey in the first request",
+                    hasEncryptedKey(request));
+            EncryptedKeyCache.Entry entry = (EncryptedKeyCache.Entry) request
+                    .getProperty(EncryptedKeyCache.SENT_KEY);
+            assertNotNull("Key not cached", entry);
+            assertFalse("Key confirmed before the response", entry.isConfirmed());
+
+            MessageContext serviceRequest = service.receive(request, null);
+            assertEquals("Key not kept by the service", 1, EncryptedKeyCache
+                    .getReceivedKeyCount(service.configCtx));
+
+            //The response refers to the key, which confirms it
+            MessageContext response = service.createResponse(serviceRequest);
+            new MessageBuilder().build(response);
+            client.receive(response, request);
+            assertTrue("Key not confirmed by the response", entry.isConfirmed());
+
+            //The following requests refer to the key
+            request = client.createRequest();
+            new MessageBuilder().build(request);
+            assertFalse("Confirmed key not reused", hasEncryptedKey(request));
+            assertSame("Other key used", entry, request
+                    .getProperty(EncryptedKeyCache.SENT_KEY));
+            service.receive(request, null);
+
+            //A fault evicts the key
+            MessageContext fault = client.createMessage(OMAbstractFactory
+                    .getSOAP11Factory().getDefaultFaultEnvelope());
+            OperationContext opCtx = new OperationContext(client.operation);
+            opCtx.getMessageContexts().put(
+                    WSDLConstants.MESSAGE_LABEL_OUT_VALUE, request);
+            fault.setOperationContext(opCtx);
+            new RampartEngine().process(fault);
+
+            request = client.createRequest();
+            new MessageBuilder().build(request);
+            assertTrue("Key reused after a fault", hasEncryptedKey(request));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testUnconfirmedKey() {
+        try {
+            Party client = new Party(false);
+
+            MessageContext request = client.createRequest();
+            new MessageBuilder().build(request);
+            assertTrue("No EncryptedKey in the first request",
+                    hasEncryptedKey(request));
+
+            //No response yet
+            request = client.createRequest();
+            new MessageBuilder().build(request);
+            assertTrue("Unconfirmed key reused", hasEncryptedKey(request));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testReceivedKeyLifetimes() {
+        try {
+            ConfigurationContext configCtx = new ConfigurationContext(
+                    new AxisConfiguration());
+
+            //Kept by services with different reuse times
+            EncryptedKeyCache.putReceivedKey(configCtx, "long", new byte[16],
+                    60000);
+            EncryptedKeyCache.putReceivedKey(configCtx, "short", new byte[16],
+                    -1);
+            EncryptedKeyCache.putReceivedKey(configCtx, "other", new byte[16],
+                    60000);
+
+            assertEquals("Expired key kept behind a longer lived one", 2,
+                    EncryptedKeyCache.getReceivedKeyCount(configCtx));
+            assertNull("Expired key returned", EncryptedKeyCache
+                    .getReceivedKey(configCtx, "short"));
+            assertNotNull("Key dropped before its expiry", EncryptedKeyCache
+                    .getReceivedKey(configCtx, "long"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    private boolean hasEncryptedKey(MessageContext msgCtx) {
+        Iterator headers = msgCtx.getEnvelope().getHeader().getChildElements();
+        while (headers.hasNext()) {
+            SOAPHeaderBlock header = (SOAPHeaderBlock) headers.next();
+            if (WSConstants.WSSE_LN.equals(header.getLocalName())) {
+                return header.getFirstChildWithName(new QName(
+                        WSConstants.ENC_NS, WSConstants.ENC_KEY_LN)) != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The contexts of one side of the exchange, kept across its messages.
+     */
+    private class Party {
+
+        private ConfigurationContext configCtx;
+
+        private AxisService service;
+
+        private AxisOperation operation;
+
+        private Policy policy;
+
+        private boolean serverSide;
+
+        private Party(boolean serverSide) throws Exception {
+            this.serverSide = serverSide;
+            this.configCtx = new ConfigurationContext(new AxisConfiguration());
+            this.service = new AxisService("TestService");
+            this.operation = new OutInAxisOperation(new QName(
+                    "http://rampart.org", "test"));
+            this.policy = loadPolicy(POLICY);
+        }
+
+        private MessageContext createMessage(SOAPEnvelope envelope)
+                throws Exception {
+            MessageContext ctx = new MessageContext();
+            ctx.setConfigurationContext(this.configCtx);
+            ctx.setServiceContext(new ServiceContext(this.service,
+                    new ServiceGroupContext(null, null)));
+            ctx.setAxisService(this.service);
+            ctx.setAxisOperation(this.operation);
+            Options options = new Options();
+            options.setAction("urn:testOperation");
+            ctx.setOptions(options);
+            ctx.setServerSide(this.serverSide);
+            ctx.setProperty(RampartMessageData.KEY_RAMPART_POLICY, this.policy);
+            ctx.setEnvelope(envelope);
+            return ctx;
+        }
+
+        private MessageContext createRequest() throws Exception {
+            MessageContext ctx = getMsgCtx();
+            return createMessage(ctx.getEnvelope());
+        }
+
+        private MessageContext createResponse(MessageContext request)
+                throws Exception {
+            MessageContext response = createRequest();
+            OperationContext opCtx = new OperationContext(this.operation);
+            opCtx.getMessageContexts().put(
+                    WSDLConstants.MESSAGE_LABEL_IN_VALUE, request);
+            response.setOperationContext(opCtx);
+            return response;
+        }
+
+        /**
+         * Process a message sent by the other side.
+         * @param sent The message as sent
+         * @param request The request of this side the message responds to
+         */
+        private MessageContext receive(MessageContext sent,
+                MessageContext request) throws Exception {
+            StAXSOAPModelBuilder builder = new StAXSOAPModelBuilder(
+                    XMLInputFactory.newInstance().createXMLStreamReader(
+                            new StringReader(sent.getEnvelope().toString())),
+                    null);
+            MessageContext ctx = createMessage(builder.getSOAPEnvelope());
+            if (request != null) {
+                OperationContext opCtx = new OperationContext(this.operation);
+                opCtx.getMessageContexts().put(
+                        WSDLConstants.MESSAGE_LABEL_OUT_VALUE, request);
+                ctx.setOperationContext(opCtx);
+            }
+
+            Vector results = new Vector();
+            results.add(new WSHandlerResult("", new RampartEngine()
+                    .process(ctx)));
+            ctx.setProperty(WSHandlerConstants.RECV_RESULTS, results);
+            return ctx;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
+import org.apache.axis2.context.MessageContext;
+import org.apache.ws.security.WSConstants;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+
+import java.io.StringReader;
+import java.util.Iterator;
+
+/**
+ * SignedElements and EncryptedElements of the policy are applied to the
+ * messages sent and required in the messages received.
+ */
+public class SignedEncryptedElementsTest extends MessageBuilderTestBase {
+
+    private static final String POLICY =
+        "test-resources/policy/rampart-asymm-binding-6-3des-r15.xml";
+
+    private static final String ELEMENTS_POLICY =
+        "test-resources/policy/rampart-signed-encrypted-elements.xml";
+
+    private static final String WSA_NS =
+        "http://schemas.xmlsoap.org/ws/2004/08/addressing";
+
+    public void testElementsProtected() {
+        try {
+            SOAPEnvelope sent = send(ELEMENTS_POLICY);
+
+            assertNull("Element not encrypted", sent.getHeader()
+                    .getFirstChildWithName(new QName(WSA_NS, "ReplyTo")));
+
+            OMElement from = sent.getHeader().getFirstChildWithName(
+                    new QName(WSA_NS, "From"));
+            assertNotNull("Signed element encrypted", from);
+            String id = from.getAttributeValue(new QName(WSConstants.WSU_NS,
+                    "Id"));
+            assertNotNull("Signed element not referenced", id);
+            assertTrue("Element not signed", isSigned(sent, id));
+
+            SOAPEnvelope env = receive(sent, ELEMENTS_POLICY);
+            assertNotNull("Element not decrypted", env.getHeader()
+                    .getFirstChildWithName(new QName(WSA_NS, "ReplyTo")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testEncryptedElementMissing() {
+        try {
+            //Accepted before EncryptedElements were enforced
+            SOAPEnvelope sent = send(POLICY);
+            try {
+                receive(sent, ELEMENTS_POLICY);
+                fail("Message without the encrypted element accepted");
+            } catch (RampartException e) {
+                //expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testUnexpectedEncryptedElement() {
+        try {
+            //A receiver that does not expect the element to be encrypted
+            SOAPEnvelope sent = send(ELEMENTS_POLICY);
+            try {
+                receive(sent, POLICY);
+                fail("Unexpected encrypted element accepted");
+            } catch (RampartException e) {
+                //expected
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    private SOAPEnvelope send(String policy) throws Exception {
+        MessageContext ctx = getMsgCtx();
+        ctx.setProperty(RampartMessageData.KEY_RAMPART_POLICY,
+                loadPolicy(policy));
+        new MessageBuilder().build(ctx);
+        return ctx.getEnvelope();
+    }
+
+    private SOAPEnvelope receive(SOAPEnvelope sent, String policy)
+            throws Exception {
+        MessageContext ctx = getMsgCtx();
+        ctx.setServerSide(true);
+        ctx.setProperty(RampartMessageData.KEY_RAMPART_POLICY,
+                loadPolicy(policy));
+        ctx.setEnvelope(new StAXSOAPModelBuilder(XMLInputFactory.newInstance()
+                .createXMLStreamReader(new StringReader(sent.toString())),
+                null).getSOAPEnvelope());
+        new RampartEngine().process(ctx);
+        return ctx.getEnvelope();
+    }
+
+    private boolean isSigned(SOAPEnvelope env, String id) {
+        OMElement signedInfo = env.getHeader().getFirstChildWithName(
+                new QName(WSConstants.WSSE_NS, WSConstants.WSSE_LN))
+                .getFirstChildWithName(new QName(WSConstants.SIG_NS,
+                        WSConstants.SIG_LN)).getFirstChildWithName(
+                        new QName(WSConstants.SIG_NS, "SignedInfo"));
+        for (Iterator iter = signedInfo.getChildrenWithName(new QName(
+                WSConstants.SIG_NS, "Reference")); iter.hasNext();) {
+            OMElement reference = (OMElement) iter.next();
+            if (("#" + id).equals(reference.getAttributeValue(new QName(
+                    "URI")))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart;
+
+import junit.framework.TestCase;
+
+public class SimpleReplayCacheTest extends TestCase {
+
+    public void testReplay() {
+        try {
+            SimpleReplayCache cache = new SimpleReplayCache();
+            long expires = System.currentTimeMillis() + 60000;
+
+            assertFalse("New identifier reported as replay",
+                    cache.isReplayed("nonce:abc", expires));
+            assertTrue("Replay not detected",
+                    cache.isReplayed("nonce:abc", expires));
+            assertFalse("Different identifier reported as replay",
+                    cache.isReplayed("nonce:def", expires));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testExpiry() {
+        try {
+            SimpleReplayCache cache = new SimpleReplayCache();
+            long expired = System.currentTimeMillis() - 1;
+
+            assertFalse(cache.isReplayed("ts:1", expired));
+            assertFalse("Expired identifier reported as replay",
+                    cache.isReplayed("ts:1", expired));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testFull() {
+        SimpleReplayCache cache = new SimpleReplayCache(160);
+        long expires = System.currentTimeMillis() + 60000;
+
+        int recorded = 0;
+        try {
+            for (; recorded < 10000; recorded++) {
+                cache.isReplayed("sig:" + recorded, expires);
+            }
+            fail("Identifier recorded in a full cache");
+        } catch (RampartException e) {
+            //expected
+        }
+
+        try {
+            for (int i = 0; i < recorded; i++) {
+                assertTrue("Identifier dropped before its expiry",
+                        cache.isReplayed("sig:" + i, expires));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testFullOfExpired() {
+        try {
+            SimpleReplayCache cache = new SimpleReplayCache(160);
+            long now = System.currentTimeMillis();
+
+            //Later identifiers expire first, the oldest ones are still valid
+            for (int i = 0; i < 10000; i++) {
+                cache.isReplayed("sig:" + i, (i < 16) ? now + 60000 : now - 1);
+            }
+            assertTrue("Capacity exceeded : " + cache.size(), 
+                    cache.size() <= 16 * 13);
+            assertTrue("Identifier dropped before its expiry",
+                    cache.isReplayed("sig:0", now + 60000));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testEnsureCapacity() {
+        try {
+            SimpleReplayCache cache = new SimpleReplayCache(160);
+            cache.ensureCapacity(SimpleReplayCache.getCapacity(10, 100));
+            long expires = System.currentTimeMillis() + 60000;
+
+            for (int i = 0; i < 2000; i++) {
+                assertFalse(cache.isReplayed("sig:" + i, expires));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.apache.rampart;
 
+import org.apache.axiom.om.impl.dom.ElementImpl;
 import org.apache.axis2.context.MessageContext;
 import org.apache.neethi.Policy;
 import org.apache.ws.security.WSConstants;
@@ -76,6 +77,31 @@ public class TransportBindingBuilderTest extends MessageBuilderTestBase {
         }
     }
 
+    public void testTransportBindingUsernameTokenOnly() {
+        try {
+            MessageContext ctx = getMsgCtx();
+
+            String policyXml = "test-resources/policy/rampart-transport-binding-ut.xml";
+            Policy policy = this.loadPolicy(policyXml);
+
+            ctx.setProperty(RampartMessageData.KEY_RAMPART_POLICY, policy);
+
+            MessageBuilder builder = new MessageBuilder();
+            builder.build(ctx);
+
+            List list = new ArrayList();
+            list.add(new QName(WSConstants.WSU_NS, WSConstants.TIMESTAMP_TOKEN_LN));
+            list.add(new QName(WSConstants.WSSE_NS, WSConstants.USERNAME_TOKEN_LN));
+            this.verifySecHeader(list.iterator(), ctx.getEnvelope());
+
+            assertFalse("Envelope converted into DOOM",
+                    ctx.getEnvelope() instanceof ElementImpl);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
     public void testTransportBindingWithDK() {
         try {
             MessageContext ctx = getMsgCtx();
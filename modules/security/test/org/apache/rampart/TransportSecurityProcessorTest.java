@@ -0,0 +1,239 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart;
+
+import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
+import org.apache.axis2.context.MessageContext;
+import org.apache.neethi.Assertion;
+import org.apache.neethi.Policy;
+import org.apache.rampart.policy.model.RampartConfig;
+import org.apache.ws.security.WSConstants;
+import org.apache.ws.security.WSPasswordCallback;
+import org.apache.ws.security.WSSecurityEngineResult;
+import org.apache.ws.security.WSUsernameTokenPrincipal;
+import org.apache.ws.security.message.token.UsernameToken;
+import org.apache.ws.security.util.XmlSchemaDateFormat;
+import org.apache.xml.security.utils.Base64;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.xml.stream.XMLInputFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Receives UsernameTokens like the ones of the UsernameToken samples
+ * through the transport binding.
+ */
+public class TransportSecurityProcessorTest extends MessageBuilderTestBase {
+
+    private static final String POLICY =
+        "test-resources/policy/rampart-transport-binding-ut.xml";
+
+    public void testPasswordText() {
+        try {
+            Vector results = receive(createUsernameToken("alice",
+                    passwordElement(WSConstants.PASSWORD_TEXT, "password"),
+                    null, null));
+            WSUsernameTokenPrincipal principal = getPrincipal(results);
+            assertEquals("Incorrect user", "alice", principal.getName());
+            assertFalse("Incorrect password type", principal.isPasswordDigest());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testPasswordDigest() {
+        try {
+            String nonce = Base64.encode("0123456789abcdef".getBytes());
+            String created = now();
+            Vector results = receive(createUsernameToken("alice",
+                    passwordElement(WSConstants.PASSWORD_DIGEST, UsernameToken
+                            .doPasswordDigest(nonce, created, "password")),
+                    nonce, created));
+            WSUsernameTokenPrincipal principal = getPrincipal(results);
+            assertEquals("Incorrect user", "alice", principal.getName());
+            assertTrue("Incorrect password type", principal.isPasswordDigest());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testWrongPassword() {
+        try {
+            String nonce = Base64.encode("0123456789abcdef".getBytes());
+            String created = now();
+            assertRejected("Wrong password text accepted", createUsernameToken(
+                    "alice", passwordElement(WSConstants.PASSWORD_TEXT,
+                            "wrong"), null, null));
+            assertRejected("Wrong password digest accepted",
+                    createUsernameToken("alice", passwordElement(
+                            WSConstants.PASSWORD_DIGEST, UsernameToken
+                                    .doPasswordDigest(nonce, created, "wrong")),
+                            nonce, created));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testMissingPassword() {
+        try {
+            assertRejected("UsernameToken without a password accepted",
+                    createUsernameToken("alice", "", null, null));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testUnknownUser() {
+        try {
+            String nonce = Base64.encode("0123456789abcdef".getBytes());
+            String created = now();
+            assertRejected("Unknown user accepted", createUsernameToken(
+                    "mallory", passwordElement(WSConstants.PASSWORD_TEXT,
+                            "password"), null, null));
+            assertRejected("Unknown user accepted", createUsernameToken(
+                    "mallory", passwordElement(WSConstants.PASSWORD_DIGEST,
+                            UsernameToken.doPasswordDigest(nonce, created,
+                                    "password")), nonce, created));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    private void assertRejected(String message, String usernameToken)
+            throws Exception {
+        try {
+            receive(usernameToken);
+            fail(message);
+        } catch (RampartException e) {
+            //expected
+        }
+    }
+
+    private Vector receive(String usernameToken) throws Exception {
+        MessageContext ctx = getMsgCtx();
+        ctx.setServerSide(true);
+
+        Policy policy = loadPolicy(POLICY);
+        getRampartConfig(policy).setPwCbClass(PWCallback.class.getName());
+        ctx.setProperty(RampartMessageData.KEY_RAMPART_POLICY, policy);
+
+        DateFormat zulu = new XmlSchemaDateFormat();
+        long now = System.currentTimeMillis();
+        String envelope = "<soapenv:Envelope xmlns:soapenv=\""
+                + "http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<soapenv:Header><wsse:Security xmlns:wsse=\""
+                + WSConstants.WSSE_NS + "\" xmlns:wsu=\"" + WSConstants.WSU_NS
+                + "\" soapenv:mustUnderstand=\"1\">"
+                + "<wsu:Timestamp wsu:Id=\"Timestamp-1\"><wsu:Created>"
+                + zulu.format(new Date(now)) + "</wsu:Created><wsu:Expires>"
+                + zulu.format(new Date(now + 300000))
+                + "</wsu:Expires></wsu:Timestamp>" + usernameToken
+                + "</wsse:Security></soapenv:Header><soapenv:Body>"
+                + "<ns1:echo xmlns:ns1=\"http://rampart.org\">Hello</ns1:echo>"
+                + "</soapenv:Body></soapenv:Envelope>";
+        ctx.setEnvelope(new StAXSOAPModelBuilder(XMLInputFactory.newInstance()
+                .createXMLStreamReader(new StringReader(envelope)), null)
+                .getSOAPEnvelope());
+
+        return new RampartEngine().process(ctx);
+    }
+
+    private static String createUsernameToken(String user, String password,
+            String nonce, String created) {
+        StringBuffer buffer = new StringBuffer(
+                "<wsse:UsernameToken wsu:Id=\"UsernameToken-1\">");
+        buffer.append("<wsse:Username>").append(user).append(
+                "</wsse:Username>");
+        buffer.append(password);
+        if (nonce != null) {
+            buffer.append("<wsse:Nonce>").append(nonce).append("</wsse:Nonce>");
+        }
+        if (created != null) {
+            buffer.append("<wsu:Created>").append(created).append(
+                    "</wsu:Created>");
+        }
+        return buffer.append("</wsse:UsernameToken>").toString();
+    }
+
+    private static String passwordElement(String type, String password) {
+        return "<wsse:Password Type=\"" + type + "\">" + password
+                + "</wsse:Password>";
+    }
+
+    private static String now() {
+        return new XmlSchemaDateFormat().format(new Date());
+    }
+
+    private static WSUsernameTokenPrincipal getPrincipal(Vector results) {
+        for (Iterator iter = results.iterator(); iter.hasNext();) {
+            WSSecurityEngineResult result = (WSSecurityEngineResult) iter.next();
+            if (result.getAction() == WSConstants.UT) {
+                return (WSUsernameTokenPrincipal) result.getPrincipal();
+            }
+        }
+        fail("No UsernameToken result");
+        return null;
+    }
+
+    private static RampartConfig getRampartConfig(Policy policy) {
+        List assertions = (List) policy.getAlternatives().next();
+        for (Iterator iter = assertions.iterator(); iter.hasNext();) {
+            Assertion assertion = (Assertion) iter.next();
+            if (assertion instanceof RampartConfig) {
+                return (RampartConfig) assertion;
+            }
+        }
+        fail("No RampartConfig");
+        return null;
+    }
+
+    /**
+     * Knows the password of alice only.
+     */
+    public static class PWCallback implements CallbackHandler {
+
+        public void handle(Callback[] callbacks) throws IOException,
+                UnsupportedCallbackException {
+            for (int i = 0; i < callbacks.length; i++) {
+                WSPasswordCallback pc = (WSPasswordCallback) callbacks[i];
+                if (pc.getUsage() == WSPasswordCallback.USERNAME_TOKEN_UNKNOWN) {
+                    if (!"alice".equals(pc.getIdentifer())
+                            || !"password".equals(pc.getPassword())) {
+                        throw new UnsupportedCallbackException(pc,
+                                "check failed");
+                    }
+                } else if ("alice".equals(pc.getIdentifer())) {
+                    pc.setPassword("password");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.metrics;
+
+import junit.framework.TestCase;
+
+public class PhaseStatisticsTest extends TestCase {
+
+    public void testRecord() {
+        PhaseStatistics stats = new PhaseStatistics();
+        stats.record(50);
+        stats.record(100);
+        stats.record(3000);
+        stats.record(2000000);
+
+        assertEquals("Incorrect count", 4, stats.getCount());
+        assertEquals("Incorrect max", 2000000, stats.getMaxMicros());
+        assertEquals("Incorrect total", 2003150, stats.getTotalMicros());
+
+        long[] histogram = stats.getHistogram();
+        assertEquals("Incorrect number of buckets",
+                PhaseStatistics.BUCKET_BOUNDS.length + 1, histogram.length);
+        assertEquals("Incorrect first bucket", 2, histogram[0]);
+        assertEquals("Incorrect 5ms bucket", 1, histogram[5]);
+        assertEquals("Incorrect overflow bucket", 1,
+                histogram[histogram.length - 1]);
+    }
+}
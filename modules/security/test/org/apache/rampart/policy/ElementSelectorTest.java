@@ -0,0 +1,97 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.policy;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.ws.secpolicy.WSSPolicyException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ElementSelectorTest extends TestCase {
+
+    private static final String NS = "http://rampart.org/test";
+
+    public void testSimplePath() {
+        try {
+            ElementSelector selector = ElementSelector.compile(
+                    "/soapenv:Envelope/soapenv:Body/t:order/t:card",
+                    getNamespaces());
+            assertTrue("Simple path not detected", selector.isSimplePath());
+
+            List elements = selector.select(getEnvelope());
+            assertEquals("Incorrect number of elements", 2, elements.size());
+            assertEquals("Incorrect element", "card",
+                    ((OMElement) elements.get(0)).getLocalName());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testXPath() {
+        try {
+            ElementSelector selector = ElementSelector.compile(
+                    ".//t:card[@type='visa']", getNamespaces());
+            assertFalse("Predicate handled as a simple path",
+                    selector.isSimplePath());
+
+            List elements = selector.select(getEnvelope());
+            assertEquals("Incorrect number of elements", 1, elements.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testUnboundPrefix() {
+        try {
+            ElementSelector.compile("/soapenv:Envelope/x:foo", getNamespaces());
+            fail("Unbound prefix accepted");
+        } catch (WSSPolicyException e) {
+            //expected
+        }
+    }
+
+    private Map getNamespaces() {
+        Map namespaces = new HashMap();
+        namespaces.put("soapenv", "http://schemas.xmlsoap.org/soap/envelope/");
+        namespaces.put("t", NS);
+        return namespaces;
+    }
+
+    private SOAPEnvelope getEnvelope() {
+        SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+        SOAPEnvelope envelope = factory.getDefaultEnvelope();
+        OMNamespace ns = factory.createOMNamespace(NS, "x");
+        OMElement order = factory.createOMElement("order", ns, envelope
+                .getBody());
+        OMElement card1 = factory.createOMElement("card", ns, order);
+        card1.addAttribute("type", "visa", null);
+        OMElement card2 = factory.createOMElement("card", ns, order);
+        card2.addAttribute("type", "amex", null);
+        factory.createOMElement("amount", ns, order);
+        return envelope;
+    }
+}
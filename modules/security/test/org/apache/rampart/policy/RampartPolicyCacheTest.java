@@ -0,0 +1,172 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.policy;
+
+import org.apache.axiom.om.impl.builder.StAXOMBuilder;
+import org.apache.axis2.description.AxisMessage;
+import org.apache.axis2.description.AxisOperation;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.OutInAxisOperation;
+import org.apache.axis2.description.PolicyInclude;
+import org.apache.axis2.wsdl.WSDLConstants;
+import org.apache.neethi.Policy;
+import org.apache.neethi.PolicyEngine;
+
+import javax.xml.namespace.QName;
+
+import java.lang.ref.WeakReference;
+
+import junit.framework.TestCase;
+
+public class RampartPolicyCacheTest extends TestCase {
+
+    public void testCachedPolicyData() {
+        try {
+            AxisService service = new AxisService("TestService");
+            AxisOperation operation = new OutInAxisOperation(new QName(
+                    "http://rampart.org", "test"));
+            Policy policy = loadPolicy("test-resources/policy/rampart-asymm-binding-1.xml");
+
+            RampartPolicyData rpd1 = RampartPolicyCache.getPolicyData(service,
+                    operation, policy);
+            RampartPolicyData rpd2 = RampartPolicyCache.getPolicyData(service,
+                    operation, policy);
+
+            assertNotNull("Policy data missing", rpd1);
+            assertSame("Policy data not reused", rpd1, rpd2);
+
+            //A different policy instance must be recompiled
+            Policy newPolicy = loadPolicy("test-resources/policy/rampart-asymm-binding-1.xml");
+            RampartPolicyData rpd3 = RampartPolicyCache.getPolicyData(service,
+                    operation, newPolicy);
+            assertNotSame("Stale policy data returned", rpd1, rpd3);
+
+            //Invalidation must drop the entry
+            RampartPolicyCache.invalidate(service);
+            RampartPolicyData rpd4 = RampartPolicyCache.getPolicyData(service,
+                    operation, newPolicy);
+            assertNotSame("Invalidated policy data returned", rpd3, rpd4);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testServiceAndOperationLevelPolicy() {
+        try {
+            AxisService service = new AxisService("TestService2");
+            AxisOperation operation = new OutInAxisOperation(new QName(
+                    "http://rampart.org", "test"));
+            operation.setParent(service);
+
+            service.getPolicyInclude().addPolicyElement(
+                    PolicyInclude.AXIS_SERVICE_POLICY,
+                    loadPolicy("test-resources/policy/rampart-asymm-binding-1.xml"));
+            operation.getPolicyInclude().addPolicyElement(
+                    PolicyInclude.AXIS_OPERATION_POLICY,
+                    loadPolicy("test-resources/policy/rampart-operation-signed-parts.xml"));
+
+            //The merged policy must be reused while the attached policies stay the same
+            Policy policy1 = RampartPolicyCache.getEffectivePolicy(operation);
+            Policy policy2 = RampartPolicyCache.getEffectivePolicy(operation);
+            assertSame("Effective policy not reused", policy1, policy2);
+
+            RampartPolicyData rpd1 = RampartPolicyCache.getPolicyData(service,
+                    operation, policy1);
+            RampartPolicyData rpd2 = RampartPolicyCache.getPolicyData(service,
+                    operation, policy2);
+            assertSame("Policy data not reused", rpd1, rpd2);
+            assertTrue("Operation level policy missing", rpd1.isSignBody());
+            assertTrue("Service level policy missing", rpd1.isIncludeTimestamp());
+
+            //Replacing the operation policy must produce a new effective policy
+            operation.getPolicyInclude().addPolicyElement(
+                    PolicyInclude.AXIS_OPERATION_POLICY,
+                    loadPolicy("test-resources/policy/rampart-operation-signed-parts.xml"));
+            Policy policy3 = RampartPolicyCache.getEffectivePolicy(operation);
+            assertNotSame("Stale effective policy returned", policy1, policy3);
+            RampartPolicyData rpd3 = RampartPolicyCache.getPolicyData(service,
+                    operation, policy3);
+            assertNotSame("Stale policy data returned", rpd1, rpd3);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testMessageLevelPolicy() {
+        try {
+            AxisService service = new AxisService("TestService3");
+            AxisOperation operation = new OutInAxisOperation(new QName(
+                    "http://rampart.org", "test"));
+            AxisMessage out = operation.getMessage(
+                    WSDLConstants.MESSAGE_LABEL_OUT_VALUE);
+            AxisMessage in = operation.getMessage(
+                    WSDLConstants.MESSAGE_LABEL_IN_VALUE);
+            Policy outPolicy = loadPolicy("test-resources/policy/rampart-asymm-binding-1.xml");
+            Policy inPolicy = loadPolicy("test-resources/policy/rampart-operation-signed-parts.xml");
+
+            RampartPolicyData outData = RampartPolicyCache.getPolicyData(
+                    service, operation, out, outPolicy);
+            RampartPolicyData inData = RampartPolicyCache.getPolicyData(
+                    service, operation, in, inPolicy);
+
+            //The request and the response must not evict each other
+            assertSame("Policy data not reused", outData, RampartPolicyCache
+                    .getPolicyData(service, operation, out, outPolicy));
+            assertSame("Policy data not reused", inData, RampartPolicyCache
+                    .getPolicyData(service, operation, in, inPolicy));
+            assertNotSame("Policy data shared between messages", outData,
+                    inData);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testEffectivePolicyCollected() {
+        try {
+            AxisService service = new AxisService("TestService4");
+            AxisOperation operation = new OutInAxisOperation(new QName(
+                    "http://rampart.org", "test"));
+            operation.setParent(service);
+            service.getPolicyInclude().addPolicyElement(
+                    PolicyInclude.AXIS_SERVICE_POLICY,
+                    loadPolicy("test-resources/policy/rampart-asymm-binding-1.xml"));
+
+            assertNotNull(RampartPolicyCache.getEffectivePolicy(operation));
+
+            WeakReference ref = new WeakReference(operation);
+            service = null;
+            operation = null;
+            for (int i = 0; i < 10 && ref.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull("Cached effective policy keeps the description alive",
+                    ref.get());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    private Policy loadPolicy(String xmlPath) throws Exception {
+        StAXOMBuilder builder = new StAXOMBuilder(xmlPath);
+        return PolicyEngine.getPolicy(builder.getDocumentElement());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import junit.framework.TestCase;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.ws.security.conversation.ConversationConstants;
+
+import java.util.Date;
+import java.util.Hashtable;
+
+public class ConversationContextMapTest extends TestCase {
+
+    public void testExpiry() {
+        ConversationContextMap map = new ConversationContextMap();
+        map.put("service1", "sct-1", new Date(System.currentTimeMillis() + 60000));
+        map.put("service2", "sct-2", new Date(System.currentTimeMillis() - 1));
+        map.put("service3", "sct-3", null);
+
+        assertEquals("Incorrect token", "sct-1", map.get("service1"));
+        assertNull("Expired token returned", map.get("service2"));
+        assertEquals("Incorrect token", "sct-3", map.get("service3"));
+        assertEquals("Incorrect removed token", "sct-3", map.remove("service3"));
+        assertNull("Removed token returned", map.get("service3"));
+    }
+
+    public void testCapacity() {
+        ConversationContextMap map = new ConversationContextMap(100);
+        Date expires = new Date(System.currentTimeMillis() + 60000);
+        for (int i = 0; i < 1000; i++) {
+            map.put("service" + i, "sct-" + i, expires);
+        }
+        assertTrue("Capacity exceeded : " + map.size(), map.size() <= 100);
+    }
+
+    public void testBatchEviction() {
+        ConversationContextMap map = new ConversationContextMap(100);
+        Date expires = new Date(System.currentTimeMillis() + 60000);
+        for (int i = 0; i <= 100; i++) {
+            map.put("service" + i, "sct-" + i, expires);
+        }
+        assertEquals("Incorrect size after a purge", 75, map.size());
+
+        //Room is left for the following puts
+        for (int i = 0; i < 25; i++) {
+            map.put("other" + i, "sct-" + i, expires);
+        }
+        assertEquals("Purged before the capacity was exceeded", 100, map.size());
+    }
+
+    public void testLegacyContextMap() {
+        try {
+            MessageContext msgCtx = new MessageContext();
+            msgCtx.setConfigurationContext(new ConfigurationContext(
+                    new AxisConfiguration()));
+            Hashtable legacy = new Hashtable();
+            legacy.put("service", "sct-1");
+            msgCtx.getConfigurationContext().setProperty(
+                    ConversationConstants.KEY_CONTEXT_MAP, legacy);
+
+            RampartUtil.getConversationContextMap(msgCtx).put("service",
+                    "sct-2", null);
+
+            assertSame("Existing context map replaced", legacy, msgCtx
+                    .getConfigurationContext().getProperty(
+                            ConversationConstants.KEY_CONTEXT_MAP));
+            assertSame("Existing context map not returned", legacy,
+                    RampartUtil.getContextMap(msgCtx));
+            assertEquals("Incorrect token", "sct-2", RampartUtil
+                    .getConversationContextMap(msgCtx).get("service"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rampart.util;
+
+import junit.framework.TestCase;
+
+import org.apache.ws.security.components.crypto.Crypto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Properties;
+
+public class CryptoCacheTest extends TestCase {
+
+    private static final String KEYSTORE = "trust-cache.jks";
+
+    private File keystoreDir;
+
+    private File keystore;
+
+    protected void setUp() throws Exception {
+        CryptoCache.clear();
+
+        //Keystore in a directory with a space in its name
+        this.keystoreDir = new File("target/crypto cache");
+        this.keystoreDir.mkdirs();
+        this.keystore = new File(this.keystoreDir, KEYSTORE);
+        copy(new File("test-resources/" + KEYSTORE), this.keystore);
+    }
+
+    protected void tearDown() throws Exception {
+        CryptoCache.checkInterval = CryptoCache.CHECK_INTERVAL;
+        CryptoCache.clear();
+        this.keystore.delete();
+        this.keystoreDir.delete();
+    }
+
+    public void testCachedCrypto() {
+        Properties prop = createProperties("test-resources/" + KEYSTORE);
+        ClassLoader loader = getClass().getClassLoader();
+
+        Crypto crypto1 = CryptoCache.getCrypto(prop, loader);
+        Crypto crypto2 = CryptoCache.getCrypto((Properties) prop.clone(), loader);
+
+        assertNotNull("Crypto not loaded", crypto1);
+        assertSame("Crypto not reused", crypto1, crypto2);
+    }
+
+    public void testReloadOnChange() {
+        CryptoCache.checkInterval = 0;
+        Properties prop = createProperties(this.keystore.getPath());
+        ClassLoader loader = getClass().getClassLoader();
+
+        Crypto crypto1 = CryptoCache.getCrypto(prop, loader);
+        assertSame("Unmodified keystore reloaded", crypto1, CryptoCache
+                .getCrypto(prop, loader));
+
+        this.keystore.setLastModified(this.keystore.lastModified() + 10000);
+        Crypto crypto2 = CryptoCache.getCrypto(prop, loader);
+        assertNotSame("Modified keystore not reloaded", crypto1, crypto2);
+    }
+
+    public void testKeystorePathWithSpaces() throws Exception {
+        CryptoCache.checkInterval = 0;
+
+        //The resource URL of the keystore has the space escaped as %20
+        ClassLoader loader = new URLClassLoader(new URL[] { this.keystoreDir
+                .toURI().toURL() }, getClass().getClassLoader());
+        Properties prop = createProperties(KEYSTORE);
+
+        Crypto crypto1 = CryptoCache.getCrypto(prop, loader);
+        assertNotNull("Crypto not loaded", crypto1);
+
+        this.keystore.setLastModified(this.keystore.lastModified() + 10000);
+        Crypto crypto2 = CryptoCache.getCrypto(prop, loader);
+        assertNotSame("Keystore with spaces in its path not checked", crypto1,
+                crypto2);
+    }
+
+    private Properties createProperties(String location) {
+        Properties prop = new Properties();
+        prop.setProperty("org.apache.ws.security.crypto.provider",
+                "org.apache.ws.security.components.crypto.Merlin");
+        prop.setProperty("org.apache.ws.security.crypto.merlin.keystore.type",
+                "JKS");
+        prop.setProperty(
+                "org.apache.ws.security.crypto.merlin.keystore.password",
+                "password");
+        prop.setProperty(CryptoCache.KEYSTORE_FILE, location);
+        return prop;
+    }
+
+    private void copy(File from, File to) throws Exception {
+        InputStream in = new FileInputStream(from);
+        OutputStream out = new FileOutputStream(to);
+        try {
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
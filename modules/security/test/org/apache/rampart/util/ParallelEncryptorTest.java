@@ -0,0 +1,172 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import org.apache.axiom.om.OMAttribute;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.util.threadpool.ThreadFactory;
+import org.apache.rampart.MessageBuilder;
+import org.apache.rampart.MessageBuilderTestBase;
+import org.apache.rampart.RampartEngine;
+import org.apache.rampart.RampartMessageData;
+import org.apache.ws.security.WSConstants;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+public class ParallelEncryptorTest extends MessageBuilderTestBase {
+
+    private static final String POLICY =
+        "test-resources/policy/rampart-asymm-binding-9-3des-r15-parallel.xml";
+
+    private static final String WSA_NS =
+        "http://schemas.xmlsoap.org/ws/2004/08/addressing";
+
+    private static final String FABRIKAM_NS = "http://example.com/fabrikam";
+
+    private int tasks;
+
+    public void testDecryption() {
+        try {
+            MessageContext ctx = getMsgCtx();
+            ctx.getConfigurationContext().setThreadPool(new ThreadFactory() {
+                public void execute(Runnable runnable) {
+                    synchronized (ParallelEncryptorTest.this) {
+                        tasks++;
+                    }
+                    new Thread(runnable).start();
+                }
+            });
+            ctx.setProperty(RampartMessageData.KEY_RAMPART_POLICY,
+                    loadPolicy(POLICY));
+
+            new MessageBuilder().build(ctx);
+
+            assertEquals("Parts not encrypted in parallel", 2, tasks);
+            SOAPEnvelope sent = ctx.getEnvelope();
+            assertNull("Header not encrypted", sent.getHeader()
+                    .getFirstChildWithName(new QName(WSA_NS, "ReplyTo")));
+            assertNotNull("Body not encrypted", sent.getBody()
+                    .getFirstChildWithName(new QName(WSConstants.ENC_NS,
+                            "EncryptedData")));
+
+            //Decrypt with WSS4J on the receiving side
+            MessageContext received = getMsgCtx();
+            received.setServerSide(true);
+            received.setProperty(RampartMessageData.KEY_RAMPART_POLICY,
+                    loadPolicy(POLICY));
+            received.setEnvelope(new StAXSOAPModelBuilder(XMLInputFactory
+                    .newInstance().createXMLStreamReader(
+                            new StringReader(sent.toString())), null)
+                    .getSOAPEnvelope());
+            new RampartEngine().process(received);
+
+            SOAPEnvelope env = received.getEnvelope();
+
+            //Uses prefixes declared on the Envelope and the Header
+            OMElement replyTo = env.getHeader().getFirstChildWithName(
+                    new QName(WSA_NS, "ReplyTo"));
+            assertNotNull("Header not decrypted", replyTo);
+            OMElement key = replyTo.getFirstChildWithName(
+                    new QName(WSA_NS, "ReferenceParameters"))
+                    .getFirstChildWithName(
+                            new QName(FABRIKAM_NS, "CustomerKey"));
+            assertNotNull("Header content lost", key);
+            assertEquals("Header content lost", "123456789", key.getText());
+            OMAttribute attrExt = replyTo.getAttribute(new QName(
+                    "http://ws.apache.org/namespaces/axis2", "AttrExt"));
+            assertNotNull("Namespaced attribute lost", attrExt);
+
+            //xsi:type="xsd:int" relies on declarations of the Envelope
+            OMElement multiRef = env.getBody().getFirstChildWithName(
+                    new QName("multiRef"));
+            assertNotNull("Body not decrypted", multiRef);
+            assertEquals("Body content lost", "1001", multiRef.getText()
+                    .trim());
+            OMAttribute type = multiRef.getAttribute(new QName(
+                    "http://www.w3.org/2001/XMLSchema-instance", "type"));
+            assertNotNull("Namespaced attribute lost", type);
+            assertEquals("http://www.w3.org/2001/XMLSchema", multiRef
+                    .findNamespaceURI("xsd").getName());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testPoolShutdown() {
+        try {
+            MessageContext ctx = getMsgCtx();
+            ctx.getConfigurationContext().setThreadPool(new ThreadFactory() {
+                public void execute(Runnable runnable) {
+                    throw new RuntimeException("threadpoolshutdown");
+                }
+            });
+            ctx.setProperty(RampartMessageData.KEY_RAMPART_POLICY,
+                    loadPolicy(POLICY));
+
+            new MessageBuilder().build(ctx);
+
+            assertNotNull("Body not encrypted", ctx.getEnvelope().getBody()
+                    .getFirstChildWithName(new QName(WSConstants.ENC_NS,
+                            "EncryptedData")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testWorkersBounded() {
+        final ArrayList pending = new ArrayList();
+        try {
+            ThreadFactory pool = new ThreadFactory() {
+                public void execute(Runnable runnable) {
+                    //Never picked up while the messages are built
+                    pending.add(runnable);
+                }
+            };
+            for (int i = 0; i < ParallelEncryptor.MAX_WORKERS; i++) {
+                MessageContext ctx = getMsgCtx();
+                ctx.getConfigurationContext().setThreadPool(pool);
+                ctx.setProperty(RampartMessageData.KEY_RAMPART_POLICY,
+                        loadPolicy(POLICY));
+
+                new MessageBuilder().build(ctx);
+
+                assertNotNull("Body not encrypted", ctx.getEnvelope()
+                        .getBody().getFirstChildWithName(new QName(
+                                WSConstants.ENC_NS, "EncryptedData")));
+            }
+            assertEquals("Workers not bounded", ParallelEncryptor.MAX_WORKERS,
+                    pending.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        } finally {
+            for (Iterator iter = pending.iterator(); iter.hasNext();) {
+                ((Runnable) iter.next()).run();
+            }
+        }
+    }
+}
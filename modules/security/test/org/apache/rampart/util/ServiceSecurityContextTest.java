@@ -0,0 +1,49 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import org.apache.axis2.description.AxisService;
+import org.apache.ws.security.WSSConfig;
+
+import junit.framework.TestCase;
+
+public class ServiceSecurityContextTest extends TestCase {
+
+    public void testDefaultConfig() {
+        AxisService service = new AxisService("TestService");
+
+        assertSame("Default WSSConfig not used", WSSConfig
+                .getDefaultWSConfig(), ServiceSecurityContext.getContext(
+                service).getConfig());
+        assertSame("Default WSSConfig not used", WSSConfig
+                .getDefaultWSConfig(), ServiceSecurityContext.getContext(null)
+                .getConfig());
+    }
+
+    public void testContextReused() {
+        AxisService service = new AxisService("TestService");
+        ServiceSecurityContext context = ServiceSecurityContext
+                .getContext(service);
+
+        assertSame("Context not reused", context, ServiceSecurityContext
+                .getContext(service));
+
+        ServiceSecurityContext.engage(service);
+        assertNotSame("Context not replaced on engagement", context,
+                ServiceSecurityContext.getContext(service));
+    }
+}
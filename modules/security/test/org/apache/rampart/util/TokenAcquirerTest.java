@@ -0,0 +1,199 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rampart.util;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.axis2.util.threadpool.ThreadFactory;
+import org.apache.rahas.SimpleTokenStore;
+import org.apache.rahas.Token;
+import org.apache.rahas.TokenStorage;
+import org.apache.rampart.RampartException;
+
+import java.util.Date;
+
+public class TokenAcquirerTest extends TestCase {
+
+    private ConfigurationContext configCtx;
+
+    private TokenStorage storage;
+
+    protected void setUp() throws Exception {
+        configCtx = new ConfigurationContext(new AxisConfiguration());
+        //Run the background renewals right away
+        configCtx.setThreadPool(new ThreadFactory() {
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+        storage = new SimpleTokenStore();
+    }
+
+    public void testSingleFlight() {
+        try {
+            final TokenAcquirer acquirer = TokenAcquirer.getInstance(configCtx);
+            final Object assertion = new Object();
+            final TestRequest request = new TestRequest(storage, "alice", 60000, 500);
+
+            final String[] ids = new String[5];
+            Thread[] threads = new Thread[ids.length];
+            for (int i = 0; i < threads.length; i++) {
+                final int index = i;
+                threads[i] = new Thread() {
+                    public void run() {
+                        try {
+                            ids[index] = acquirer.acquire(assertion, request);
+                        } catch (RampartException e) {
+                            ids[index] = e.getMessage();
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].join();
+            }
+
+            assertEquals("More than one RST sent", 1, request.count);
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals("Incorrect token", "alice-1", ids[i]);
+            }
+
+            //Another requester gets a token of its own
+            TestRequest bobsRequest = new TestRequest(storage, "bob", 60000, 0);
+            assertEquals("Token of another requester shared", "bob-1",
+                    acquirer.acquire(assertion, bobsRequest));
+            assertEquals("No RST sent for another requester", 1, bobsRequest.count);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testRenewal() {
+        try {
+            TokenAcquirer acquirer = TokenAcquirer.getInstance(configCtx);
+            Object assertion = new Object();
+            //Renewal is due as soon as the token is issued
+            TestRequest request = new TestRequest(storage, "alice", 1000, 0);
+            request.created = -9000;
+
+            assertEquals("Incorrect token", "alice-1",
+                    acquirer.acquire(assertion, request));
+            assertEquals("Token renewed too early", 1, request.count);
+
+            request.created = 0;
+            acquirer.acquire(assertion, request);
+            assertEquals("Token not renewed", 2, request.count);
+            assertEquals("Renewed token not used", "alice-2",
+                    acquirer.acquire(assertion, request));
+            assertEquals("Renewed token renewed again", 2, request.count);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void testFailureRetry() {
+        try {
+            TokenAcquirer acquirer = TokenAcquirer.getInstance(configCtx);
+            Object assertion = new Object();
+            TestRequest request = new TestRequest(storage, "alice", 1000, 0);
+            request.created = -9000;
+            request.failures = 1;
+
+            try {
+                acquirer.acquire(assertion, request);
+                fail("Failed RST not reported");
+            } catch (RampartException e) {
+                //expected
+            }
+            assertEquals("Token not requested again after a failure",
+                    "alice-2", acquirer.acquire(assertion, request));
+
+            //A failed renewal is not retried on every message
+            request.failures = 1;
+            assertEquals("Current token not handed out", "alice-2",
+                    acquirer.acquire(assertion, request));
+            assertEquals("Renewal not attempted", 3, request.count);
+            assertEquals("Current token not handed out", "alice-2",
+                    acquirer.acquire(assertion, request));
+            assertEquals("Failed renewal retried right away", 3, request.count);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Issues tokens without an STS.
+     */
+    private static class TestRequest extends TokenAcquirer.TokenRequest {
+
+        private TokenStorage storage;
+
+        private String requester;
+
+        private long lifetime;
+
+        private long delay;
+
+        private long created;
+
+        private int failures;
+
+        private int count;
+
+        private TestRequest(TokenStorage storage, String requester,
+                long lifetime, long delay) {
+            super(storage, requester, null, "http://localhost/sts",
+                    "urn:issue", null, "http://localhost/service");
+            this.storage = storage;
+            this.requester = requester;
+            this.lifetime = lifetime;
+            this.delay = delay;
+        }
+
+        String send() throws RampartException {
+            try {
+                synchronized (this) {
+                    count++;
+                }
+                Thread.sleep(delay);
+                if (failures > 0) {
+                    failures--;
+                    throw new RampartException("errorInObtainingToken");
+                }
+
+                long now = System.currentTimeMillis();
+                Token token = new Token(requester + "-" + count,
+                        OMAbstractFactory.getOMFactory().createOMElement(
+                                "testToken", "", ""),
+                        new Date(now + created), new Date(now + lifetime));
+                token.setState(Token.ISSUED);
+                storage.add(token);
+                return token.getId();
+            } catch (RampartException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RampartException("errorInObtainingToken", e);
+            }
+        }
+    }
+}
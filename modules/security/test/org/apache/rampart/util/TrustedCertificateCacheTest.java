@@ -0,0 +1,82 @@
+/*
+ * Copyright 2004,2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rampart.util;
+
+import junit.framework.TestCase;
+
+import java.io.FileInputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+public class TrustedCertificateCacheTest extends TestCase {
+
+    private X509Certificate alice;
+
+    private X509Certificate bob;
+
+    protected void setUp() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        FileInputStream in = new FileInputStream("test-resources/trust-cache.jks");
+        try {
+            keyStore.load(in, "password".toCharArray());
+        } finally {
+            in.close();
+        }
+        this.alice = (X509Certificate) keyStore.getCertificate("alice");
+        this.bob = (X509Certificate) keyStore.getCertificate("bob");
+    }
+
+    public void testTrusted() {
+        TrustedCertificateCache cache = new TrustedCertificateCache(10);
+        assertFalse("Unknown certificate trusted", cache.isTrusted(alice));
+
+        cache.add(alice);
+        assertTrue("Certificate not trusted", cache.isTrusted(alice));
+        assertFalse("Other certificate trusted", cache.isTrusted(bob));
+    }
+
+    public void testLeastRecentlyUsedEviction() {
+        TrustedCertificateCache cache = new TrustedCertificateCache(1);
+        cache.add(alice);
+        cache.add(bob);
+
+        assertEquals("Capacity exceeded", 1, cache.size());
+        assertFalse("Eldest certificate not evicted", cache.isTrusted(alice));
+        assertTrue("Latest certificate evicted", cache.isTrusted(bob));
+    }
+
+    public void testExpiredCertificate() {
+        try {
+            //The interop certificates expired in 2018
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            FileInputStream in = new FileInputStream("interop/interop2.jks");
+            try {
+                keyStore.load(in, "password".toCharArray());
+            } finally {
+                in.close();
+            }
+            X509Certificate expired = (X509Certificate) keyStore
+                    .getCertificate("alice");
+
+            TrustedCertificateCache cache = new TrustedCertificateCache(10);
+            cache.add(expired);
+            assertFalse("Expired certificate trusted", cache.isTrusted(expired));
+            assertEquals("Expired certificate not removed", 0, cache.size());
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+}